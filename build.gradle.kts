@@ -1,8 +1,11 @@
 import org.gradle.jvm.tasks.Jar
+import java.text.SimpleDateFormat
+import java.util.Date
 import java.util.Properties
 
 plugins {
     kotlin("jvm") version "2.1.20"
+    id("me.champeau.jmh") version "0.7.2"
 }
 
 group = "org.example"
@@ -43,6 +46,28 @@ java {
 tasks.test {
     useJUnitPlatform()
 }
+
+// Benchmarks of the per-packet and per-tick paths in src/jmh. Run with `./gradlew jmh`; pass
+// `-Pjmh.includes=<regex>` to run a subset. Each run is archived to benchmarks/ as JSON.
+jmh {
+    jmhVersion.set("1.37")
+    fork.set(1)
+    warmupIterations.set(3)
+    iterations.set(5)
+    resultFormat.set("JSON")
+    resultsFile.set(layout.buildDirectory.file("reports/jmh/results.json"))
+    project.findProperty("jmh.includes")?.let { includes.set(listOf(it.toString())) }
+}
+
+val jmhArchive by tasks.registering(Copy::class) {
+    from(layout.buildDirectory.file("reports/jmh/results.json"))
+    into(layout.projectDirectory.dir("benchmarks"))
+    rename { "jmh-${SimpleDateFormat("yyyyMMdd-HHmmss").format(Date())}.json" }
+}
+
+tasks.named("jmh") {
+    finalizedBy(jmhArchive)
+}
 kotlin {
     jvmToolchain(17)
 }
\ No newline at end of file
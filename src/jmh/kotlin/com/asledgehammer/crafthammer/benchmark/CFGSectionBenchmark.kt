@@ -0,0 +1,54 @@
+package com.asledgehammer.crafthammer.benchmark
+
+import com.asledgehammer.crafthammer.util.cfg.CFGSection
+import com.asledgehammer.crafthammer.util.cfg.YamlFile
+import org.openjdk.jmh.annotations.*
+import java.io.ByteArrayInputStream
+import java.util.concurrent.TimeUnit
+
+/**
+ * **CFGSectionBenchmark** measures [CFGSection.get] with dotted paths of increasing depth.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+open class CFGSectionBenchmark {
+
+  private lateinit var cfg: YamlFile
+
+  @Setup
+  fun setup() {
+    cfg = YamlFile()
+    cfg.read(
+      ByteArrayInputStream(
+        """
+        hooks: []
+        network:
+          scheduler:
+            budget_ms: 70
+            priorities:
+              Login: critical
+        security_checks:
+          stitch_distance:
+            mode: kick
+            distance: 16
+            log_message: "{player_username} stitched {target_username} from {distance_measured} tiles."
+        """.trimIndent().toByteArray()
+      )
+    )
+  }
+
+  @Benchmark
+  fun getTopLevel(): Any = cfg.get("hooks")
+
+  @Benchmark
+  fun getDepth3(): Any = cfg.get("network.scheduler.budget_ms")
+
+  @Benchmark
+  fun getDepth4(): Any = cfg.get("network.scheduler.priorities.login")
+
+  @Benchmark
+  fun containsAndGet(): Any? =
+    if (cfg.contains("security_checks.stitch_distance.distance")) cfg.get("security_checks.stitch_distance.distance")
+    else null
+}
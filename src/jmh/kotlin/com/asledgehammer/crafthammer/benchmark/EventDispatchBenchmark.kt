@@ -0,0 +1,49 @@
+package com.asledgehammer.crafthammer.benchmark
+
+import com.asledgehammer.crafthammer.CraftEvents
+import com.asledgehammer.crafthammer.api.event.Event
+import com.asledgehammer.crafthammer.api.event.EventHandler
+import com.asledgehammer.crafthammer.api.event.EventListener
+import org.openjdk.jmh.annotations.*
+import java.util.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * **EventDispatchBenchmark** measures [CraftEvents.dispatch] for an event with a given number of listeners.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+open class EventDispatchBenchmark {
+
+  @Param("1", "10", "100")
+  var listeners = 0
+
+  private lateinit var events: CraftEvents
+  private val event = BenchmarkEvent()
+
+  @Setup
+  fun setup() {
+    CraftEvents.DEBUG = false
+    events = CraftEvents()
+    val id = UUID.randomUUID()
+    for (index in 0 until listeners) events.add(id, BenchmarkListener())
+  }
+
+  @Benchmark
+  fun dispatch(): Boolean {
+    events.dispatch(event)
+    return event.handled
+  }
+
+  class BenchmarkEvent : Event()
+
+  class BenchmarkListener : EventListener {
+    var count = 0
+
+    @EventHandler
+    fun on(event: BenchmarkEvent) {
+      count++
+    }
+  }
+}
@@ -0,0 +1,35 @@
+package com.asledgehammer.crafthammer.benchmark
+
+import com.asledgehammer.langpack.core.LangCache
+import com.asledgehammer.langpack.core.LangPack
+import com.asledgehammer.langpack.core.Languages
+import org.openjdk.jmh.annotations.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * **LangCacheBenchmark** measures [LangCache.getString] for cached fields, and the uncached lookup it avoids.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+open class LangCacheBenchmark {
+
+  private lateinit var pack: LangPack
+  private lateinit var cache: LangCache<LangPack>
+
+  @Setup
+  fun setup() {
+    pack = LangPack(LangCacheBenchmark::class.java.classLoader)
+    for (index in 0 until 1000) {
+      pack.set(Languages.ENGLISH_GENERIC, "messages.field_$index", "Message number $index for the player.")
+    }
+    cache = LangCache(pack)
+    cache.getString("messages.field_500")
+  }
+
+  @Benchmark
+  fun getStringCached(): String = cache.getString("messages.field_500")
+
+  @Benchmark
+  fun getStringUncached(): String? = pack.getString("messages.field_500", Languages.ENGLISH_GENERIC)
+}
@@ -0,0 +1,51 @@
+package com.asledgehammer.crafthammer.benchmark
+
+import com.asledgehammer.crafthammer.api.permission.PermissionGroup
+import com.asledgehammer.crafthammer.api.permission.PermissionUser
+import org.openjdk.jmh.annotations.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * **PermissionBenchmark** measures [PermissionUser.has] on a user and group holding deep permission trees.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+open class PermissionBenchmark {
+
+  @Param("4", "8")
+  var depth = 0
+
+  @Param("200")
+  var nodes = 0
+
+  private lateinit var user: PermissionUser
+  private lateinit var granted: String
+  private lateinit var missing: String
+
+  @Setup
+  fun setup() {
+    val group = PermissionGroup("default")
+    user = PermissionUser("player", group)
+
+    // Every prefix of each node is defined, alternating between the group and the user.
+    for (index in 0 until nodes) {
+      val context = StringBuilder("module$index")
+      for (level in 1..depth) {
+        context.append(".node").append(level)
+        val collection = if (level % 2 == 0) user else group
+        collection.set(context.toString(), level % 3 != 0)
+      }
+    }
+
+    granted = StringBuilder("module${nodes / 2}").apply { for (level in 1..depth) append(".node").append(level) }
+      .toString()
+    missing = "unknown.module.command"
+  }
+
+  @Benchmark
+  fun hasGranted(): Boolean = user.has(granted)
+
+  @Benchmark
+  fun hasMissing(): Boolean = user.has(missing)
+}
@@ -0,0 +1,139 @@
+package com.asledgehammer.craftnail.benchmark
+
+import com.asledgehammer.crafthammer.util.cfg.YamlFile
+import com.asledgehammer.craftnail.packet.PacketContext
+import com.asledgehammer.craftnail.packet.security.Mode
+import com.asledgehammer.craftnail.packet.security.PacketCheck
+import com.asledgehammer.craftnail.packet.security.RuleCheck
+import com.asledgehammer.craftnail.packet.security.TeleportStaffCheck
+import java.io.ByteArrayInputStream
+import java.nio.ByteBuffer
+import java.util.concurrent.TimeUnit
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.infra.Blackhole
+import sun.misc.Unsafe
+import zombie.GameWindow
+import zombie.characters.IsoPlayer
+import zombie.core.raknet.UdpConnection
+
+/**
+ * Cost of the security checks run for each checked packet.
+ *
+ * The distance check is a distance rule, which measures from the sender's player to a position in the payload, so it
+ * runs in full without a loaded world. Rejections are measured through [PacketCheck.evaluate] so no log or kick action
+ * runs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(org.openjdk.jmh.annotations.Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+open class PacketCheckBenchmark {
+    
+    private lateinit var teleportCheck: TeleportStaffCheck
+    private lateinit var distanceCheck: RuleCheck
+    private lateinit var staff: UdpConnection
+    private lateinit var player: UdpConnection
+    private lateinit var teleportBuffer: ByteBuffer
+    private lateinit var nearBuffer: ByteBuffer
+    private lateinit var farBuffer: ByteBuffer
+    private val context = PacketContext()
+    
+    @Setup
+    fun setup() {
+        PacketCheck.defaultMode = Mode.IGNORE
+        PacketCheck.defaultKickMessage = "Kicked."
+        
+        val cfg = YamlFile()
+        cfg.read(
+            ByteArrayInputStream(
+                """
+                security_checks:
+                  teleport_staff:
+                    mode: ignore
+                    log_message: "{player_username} tried to teleport {target_username}."
+                  rules:
+                    start_fire_distance:
+                      packet: StartFire
+                      rule: distance
+                      distance: 16
+                      offset: 0
+                      format: float
+                      mode: ignore
+                      log_message: "{player_username} started a fire {distance_measured} tiles away."
+                """.trimIndent().toByteArray()
+            )
+        )
+        
+        teleportCheck = TeleportStaffCheck(cfg, "teleport_staff")
+        distanceCheck = RuleCheck.read(cfg, "start_fire_distance")
+        
+        staff = UdpConnection(null, 1L, 0)
+        staff.accessLevel = 32
+        staff.username = "admin"
+        
+        player = UdpConnection(null, 2L, 1)
+        player.username = "player"
+        player.players[0] = allocatePlayer(10_000f, 10_000f)
+        
+        teleportBuffer = ByteBuffer.allocate(64)
+        GameWindow.WriteString(teleportBuffer, "target")
+        teleportBuffer.putFloat(10_000f)
+        teleportBuffer.putFloat(10_000f)
+        teleportBuffer.putFloat(0f)
+        teleportBuffer.flip()
+        
+        nearBuffer = position(10_004f, 10_003f)
+        farBuffer = position(10_100f, 10_000f)
+    }
+    
+    @Benchmark
+    fun staffCheckPass(): Boolean {
+        teleportBuffer.position(0)
+        return teleportCheck.check(context.reset(staff, teleportBuffer))
+    }
+    
+    @Benchmark
+    fun staffCheckReject(blackhole: Blackhole) {
+        teleportBuffer.position(0)
+        blackhole.consume(teleportCheck.evaluate(context.reset(player, teleportBuffer)))
+    }
+    
+    @Benchmark
+    fun distanceCheckPass(): Boolean {
+        nearBuffer.position(0)
+        return distanceCheck.check(context.reset(player, nearBuffer))
+    }
+    
+    @Benchmark
+    fun distanceCheckReject(blackhole: Blackhole) {
+        farBuffer.position(0)
+        blackhole.consume(distanceCheck.evaluate(context.reset(player, farBuffer)))
+    }
+    
+    private fun position(x: Float, y: Float): ByteBuffer {
+        val buffer = ByteBuffer.allocate(12)
+        buffer.putFloat(x)
+        buffer.putFloat(y)
+        buffer.putFloat(0f)
+        buffer.flip()
+        return buffer
+    }
+    
+    /**
+     * Creates a player at a position without running its constructor, which needs a loaded world. The distance rule
+     * only reads the position.
+     */
+    private fun allocatePlayer(x: Float, y: Float): IsoPlayer {
+        val field = Unsafe::class.java.getDeclaredField("theUnsafe")
+        field.isAccessible = true
+        val player = (field.get(null) as Unsafe).allocateInstance(IsoPlayer::class.java) as IsoPlayer
+        player.x = x
+        player.y = y
+        player.z = 0f
+        return player
+    }
+}
@@ -0,0 +1,94 @@
+package com.asledgehammer.craftnail.benchmark
+
+import java.util.Random
+import java.util.concurrent.TimeUnit
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import zombie.core.raknet.InterestIndex
+import zombie.core.raknet.UdpConnection
+import zombie.iso.Vector3
+
+/**
+ * Cost of finding the connections a world event is relevant to, as done for every broadcast: a scan of every
+ * connection against finding the candidates in [InterestIndex] first.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+open class RelevantToBenchmark {
+    
+    @Param("100")
+    var connections = 0
+    
+    private val list = ArrayList<UdpConnection>()
+    private var points = FloatArray(0)
+    private var next = 0
+    
+    @Setup
+    fun setup() {
+        val random = Random(42)
+        for (index in 0 until connections) {
+            val connection = UdpConnection(null, index.toLong(), index)
+            val x = 3_000f + random.nextInt(12_000)
+            val y = 3_000f + random.nextInt(12_000)
+            connection.ReleventPos[0] = Vector3(x, y, 0f)
+            connection.ReleventRange = 10
+            connection.connectArea[0] = Vector3(x / 10f, y / 10f, 13f)
+            InterestIndex.update(connection)
+            list.add(connection)
+        }
+        
+        // Half of the queried points are next to a player, half are anywhere on the map
+        points = FloatArray(1024 * 2)
+        for (index in 0 until 1024) {
+            if (index % 2 == 0) {
+                val connection = list[random.nextInt(list.size)]
+                points[index * 2] = connection.ReleventPos[0].x + random.nextInt(100) - 50
+                points[index * 2 + 1] = connection.ReleventPos[0].y + random.nextInt(100) - 50
+            } else {
+                points[index * 2] = 3_000f + random.nextInt(12_000)
+                points[index * 2 + 1] = 3_000f + random.nextInt(12_000)
+            }
+        }
+    }
+    
+    @Benchmark
+    fun scanAll(): Int {
+        val index = nextPoint()
+        val x = points[index]
+        val y = points[index + 1]
+        var count = 0
+        for (connection in list) {
+            if (connection.RelevantTo(x, y)) {
+                count++
+            }
+        }
+        return count
+    }
+    
+    @Benchmark
+    fun interestIndex(): Int {
+        val index = nextPoint()
+        val x = points[index]
+        val y = points[index + 1]
+        val candidates = InterestIndex.getCandidates(x, y)
+        var count = 0
+        for (candidate in candidates.indices) {
+            if (candidates[candidate].RelevantTo(x, y)) {
+                count++
+            }
+        }
+        return count
+    }
+    
+    private fun nextPoint(): Int {
+        next = (next + 1) and 1023
+        return next * 2
+    }
+}
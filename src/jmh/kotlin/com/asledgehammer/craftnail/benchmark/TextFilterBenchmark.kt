@@ -0,0 +1,61 @@
+package com.asledgehammer.craftnail.benchmark
+
+import com.asledgehammer.craftnail.util.TextFilter
+import java.util.Random
+import java.util.concurrent.TimeUnit
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+
+/**
+ * Cost of filtering one chat message against the phrases of filters.txt.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class TextFilterBenchmark {
+    
+    @Param("1000")
+    var patterns = 0
+    
+    private lateinit var clean: String
+    private lateinit var dirty: String
+    
+    @Setup
+    fun setup() {
+        val random = Random(42)
+        val phrases = ArrayList<String>(patterns)
+        for (index in 0 until patterns) {
+            phrases.add(word(random, 4 + random.nextInt(6)))
+        }
+        TextFilter.load(phrases)
+        
+        clean = "Anyone seen the horde near the Muldraugh warehouse? Bring sheets and a crowbar."
+        dirty = "$clean ${phrases[patterns / 2]} and ${phrases[patterns - 1]}"
+    }
+    
+    @Benchmark
+    fun testClean(): Boolean = TextFilter.test(clean)
+    
+    @Benchmark
+    fun testDirty(): Boolean = TextFilter.test(dirty)
+    
+    @Benchmark
+    fun censorClean(): String = TextFilter.censor(clean)
+    
+    @Benchmark
+    fun censorDirty(): String = TextFilter.censor(dirty)
+    
+    private fun word(random: Random, length: Int): String {
+        val builder = StringBuilder(length)
+        for (index in 0 until length) {
+            builder.append('a' + random.nextInt(26))
+        }
+        return builder.toString()
+    }
+}
@@ -1,5 +1,6 @@
 package zombie.Lua;
 
+import com.asledgehammer.craftnail.player.PlayerRegistry;
 import fmod.fmod.EmitterType;
 import fmod.fmod.FMODAudio;
 import fmod.fmod.FMODManager;
@@ -2169,7 +2170,7 @@ public final class LuaManager {
         @LuaMethod(name = "getPlayerByOnlineID", global = true)
         public static IsoPlayer getPlayerByOnlineID(int var0) {
             if (GameServer.bServer) {
-                return (IsoPlayer) GameServer.IDToPlayerMap.get(Short.valueOf((short) var0));
+                return (IsoPlayer) PlayerRegistry.INSTANCE.getPlayer((short) var0);
             }
             if (GameClient.bClient) {
                 return (IsoPlayer) GameClient.IDToPlayerMap.get(Short.valueOf((short) var0));
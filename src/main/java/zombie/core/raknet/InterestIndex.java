@@ -0,0 +1,170 @@
+package zombie.core.raknet;
+
+import gnu.trove.map.hash.TLongObjectHashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import zombie.characters.IsoPlayer;
+import zombie.iso.Vector3;
+
+/**
+ * Grid of connections bucketed by the world area they are interested in.
+ *
+ * A connection is registered in every cell overlapped by one of its {@code connectArea} rectangles or by one of its
+ * {@code ReleventPos} squares, widened to at least {@link #MAX_QUERY_RANGE}. Any connection for which
+ * {@link UdpConnection#RelevantTo(float, float)} or {@link UdpConnection#RelevantTo(float, float, float)} (with a
+ * range up to {@link #MAX_QUERY_RANGE}) holds is therefore present in the cell containing the queried point, so a
+ * broadcast only needs to test the handful of connections returned by {@link #getCandidates(float, float)}.
+ *
+ * The index is owned by the main thread. Registrations are refreshed from {@link #update(UdpConnection)}, which is
+ * cheap when the connection did not move to another set of cells.
+ */
+public final class InterestIndex {
+   public static final float MAX_QUERY_RANGE = 120.0F;
+   private static final int CELL_SHIFT = 7;
+   private static final ArrayList<UdpConnection> EMPTY = new ArrayList(0);
+   private static final TLongObjectHashMap<ArrayList<UdpConnection>> cells = new TLongObjectHashMap();
+   private static long[] scratch = new long[64];
+
+   private InterestIndex() {
+   }
+
+   private static long key(int var0, int var1) {
+      return (long)var0 << 32 | (long)var1 & 4294967295L;
+   }
+
+   private static int cell(float var0) {
+      return (int)Math.floor((double)var0) >> CELL_SHIFT;
+   }
+
+   /**
+    * Returns the connections that may be interested in the given world position. The list is shared and must not be
+    * modified; callers still test {@code RelevantTo} on each entry.
+    */
+   public static List<UdpConnection> getCandidates(float var0, float var1) {
+      ArrayList var2 = (ArrayList)cells.get(key(cell(var0), cell(var1)));
+      return var2 == null ? EMPTY : var2;
+   }
+
+   /**
+    * Re-buckets a connection after its relevant positions or connect areas changed.
+    */
+   public static void update(UdpConnection var0) {
+      int var1 = 0;
+      float var2 = Math.max((float)(var0.ReleventRange * 10), MAX_QUERY_RANGE);
+
+      for(int var3 = 0; var3 < 4; ++var3) {
+         Vector3 var4 = var0.connectArea[var3];
+         if (var4 != null) {
+            int var5 = (int)var4.z;
+            int var6 = (int)(var4.x - (float)(var5 / 2)) * 10;
+            int var7 = (int)(var4.y - (float)(var5 / 2)) * 10;
+            var1 = addRect(var1, var6, var7, var6 + var5 * 10 - 1, var7 + var5 * 10 - 1);
+         }
+
+         Vector3 var8 = var0.ReleventPos[var3];
+         if (var8 != null) {
+            var1 = addRect(var1, (int)Math.floor((double)(var8.x - var2)), (int)Math.floor((double)(var8.y - var2)), (int)Math.floor((double)(var8.x + var2)), (int)Math.floor((double)(var8.y + var2)));
+         }
+      }
+
+      Arrays.sort(scratch, 0, var1);
+      int var9 = 0;
+
+      for(int var10 = 0; var10 < var1; ++var10) {
+         if (var10 == 0 || scratch[var10] != scratch[var10 - 1]) {
+            scratch[var9++] = scratch[var10];
+         }
+      }
+
+      if (var9 != var0.interestKeyCount || var9 > 0 && !Arrays.equals(scratch, 0, var9, var0.interestKeys, 0, var9)) {
+         remove(var0);
+         if (var0.interestKeys == null || var0.interestKeys.length < var9) {
+            var0.interestKeys = new long[Math.max(16, var9)];
+         }
+
+         for(int var11 = 0; var11 < var9; ++var11) {
+            long var12 = scratch[var11];
+            ArrayList var14 = (ArrayList)cells.get(var12);
+            if (var14 == null) {
+               var14 = new ArrayList(4);
+               cells.put(var12, var14);
+            }
+
+            var14.add(var0);
+            var0.interestKeys[var11] = var12;
+         }
+
+         var0.interestKeyCount = var9;
+      }
+   }
+
+   private static int addRect(int var0, int var1, int var2, int var3, int var4) {
+      int var5 = var1 >> CELL_SHIFT;
+      int var6 = var2 >> CELL_SHIFT;
+      int var7 = var3 >> CELL_SHIFT;
+      int var8 = var4 >> CELL_SHIFT;
+
+      for(int var9 = var5; var9 <= var7; ++var9) {
+         for(int var10 = var6; var10 <= var8; ++var10) {
+            if (var0 == scratch.length) {
+               scratch = Arrays.copyOf(scratch, var0 * 2);
+            }
+
+            scratch[var0++] = key(var9, var10);
+         }
+      }
+
+      return var0;
+   }
+
+   /**
+    * Removes a connection from every cell it is registered in.
+    */
+   public static void remove(UdpConnection var0) {
+      for(int var1 = 0; var1 < var0.interestKeyCount; ++var1) {
+         ArrayList var2 = (ArrayList)cells.get(var0.interestKeys[var1]);
+         if (var2 != null) {
+            var2.remove(var0);
+            if (var2.isEmpty()) {
+               cells.remove(var0.interestKeys[var1]);
+            }
+         }
+      }
+
+      var0.interestKeyCount = 0;
+   }
+
+   /**
+    * Recomputes {@link UdpConnection#isNeighborPlayer} for every connection. Each player is looked up in its own cell
+    * only, which replaces the pairwise scan of {@link UdpConnection#calcCountPlayersInRelevantPosition()}.
+    */
+   public static void updateNeighborPlayers(List<UdpConnection> var0) {
+      for(int var1 = 0; var1 < var0.size(); ++var1) {
+         UdpConnection var2 = (UdpConnection)var0.get(var1);
+         update(var2);
+         if (var2.isFullyConnected()) {
+            var2.isNeighborPlayer = false;
+         }
+      }
+
+      for(int var8 = 0; var8 < var0.size(); ++var8) {
+         UdpConnection var3 = (UdpConnection)var0.get(var8);
+         if (var3.isFullyConnected()) {
+            for(int var4 = 0; var4 < var3.players.length; ++var4) {
+               IsoPlayer var5 = var3.players[var4];
+               if (var5 != null) {
+                  List var6 = getCandidates(var5.x, var5.y);
+
+                  for(int var7 = 0; var7 < var6.size(); ++var7) {
+                     UdpConnection var9 = (UdpConnection)var6.get(var7);
+                     if (var9 != var3 && !var9.isNeighborPlayer && var9.isFullyConnected() && var9.RelevantTo(var5.x, var5.y, MAX_QUERY_RANGE)) {
+                        var9.isNeighborPlayer = true;
+                     }
+                  }
+               }
+            }
+         }
+      }
+   }
+}
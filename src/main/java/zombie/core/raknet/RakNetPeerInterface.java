@@ -135,6 +135,57 @@ public class RakNetPeerInterface {
       }
    }
 
+   /**
+    * Sends one encoded packet to several connections. Heap buffers are copied into the send buffer once for the
+    * whole fan-out; direct buffers are passed to the native layer as they are.
+    */
+   public int SendToMany(ByteBuffer var1, int var2, int var3, byte var4, long[] var5, int var6) {
+      int var7 = 0;
+      if (var6 == 0) {
+         return 0;
+      } else if (var1.isDirect()) {
+         int var14 = var1.position();
+         int var15 = var1.remaining();
+
+         for(int var16 = 0; var16 < var6; ++var16) {
+            try {
+               var1.position(var14);
+               var7 += this.sendNative(var1, var15, var2, var3, var4, var5[var16], false);
+            } catch (Exception var13) {
+               System.out.println("Other weird packet data error.");
+               var13.printStackTrace();
+            }
+         }
+
+         return var7;
+      } else {
+         this.sendLock.lock();
+
+         try {
+            this.sendBuf.clear();
+            if (var1.remaining() > this.sendBuf.remaining()) {
+               System.out.println("Packet data too big.");
+               return 0;
+            }
+
+            this.sendBuf.put(var1);
+            this.sendBuf.flip();
+            int var8 = this.sendBuf.remaining();
+
+            for(int var9 = 0; var9 < var6; ++var9) {
+               this.sendBuf.position(0);
+               var7 += this.sendNative(this.sendBuf, var8, var2, var3, var4, var5[var9], false);
+            }
+         } catch (Exception var12) {
+            var12.printStackTrace();
+         } finally {
+            this.sendLock.unlock();
+         }
+
+         return var7;
+      }
+   }
+
    public int SendRaw(ByteBuffer var1, int var2, int var3, byte var4, long var5, boolean var7) {
       try {
          return this.sendNative(var1, var1.remaining(), var2, var3, var4, var5, var7);
@@ -0,0 +1,105 @@
+package zombie.core.raknet;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of off-heap send buffers, bucketed into fixed size classes.
+ *
+ * Buffers are leased for the lifetime of a single outgoing packet and handed back once the packet has been passed to
+ * the native layer, so the number of live buffers follows the number of packets in flight rather than the number of
+ * connections. Buffers are direct, which lets {@link RakNetPeerInterface#SendRaw} hand them to the native send without
+ * the intermediate copy {@link RakNetPeerInterface#Send} performs for heap buffers.
+ */
+public final class SendBufferPool {
+   public static final int MAX_PACKET_SIZE = 1000000;
+   private static final int[] SIZES = new int[]{64, 4096, 65536, MAX_PACKET_SIZE};
+   private static final int[] RETAINED = new int[]{256, 64, 16, 4};
+   private static final ConcurrentLinkedQueue<ByteBuffer>[] free = new ConcurrentLinkedQueue[SIZES.length];
+   private static final AtomicInteger[] freeCount = new AtomicInteger[SIZES.length];
+   private static final AtomicLong allocated = new AtomicLong();
+   private static final AtomicLong leased = new AtomicLong();
+
+   static {
+      for(int var0 = 0; var0 < SIZES.length; ++var0) {
+         free[var0] = new ConcurrentLinkedQueue();
+         freeCount[var0] = new AtomicInteger();
+      }
+   }
+
+   private SendBufferPool() {
+   }
+
+   private static int sizeClass(int var0) {
+      for(int var1 = 0; var1 < SIZES.length; ++var1) {
+         if (var0 <= SIZES[var1]) {
+            return var1;
+         }
+      }
+
+      return -1;
+   }
+
+   /**
+    * Leases a cleared direct buffer with at least the given capacity.
+    */
+   public static ByteBuffer lease(int var0) {
+      int var1 = sizeClass(var0);
+      if (var1 == -1) {
+         throw new IllegalArgumentException("Packet size " + var0 + " exceeds the maximum of " + MAX_PACKET_SIZE + " bytes.");
+      } else {
+         leased.incrementAndGet();
+         ByteBuffer var2 = (ByteBuffer)free[var1].poll();
+         if (var2 == null) {
+            allocated.incrementAndGet();
+            return ByteBuffer.allocateDirect(SIZES[var1]);
+         } else {
+            freeCount[var1].decrementAndGet();
+            var2.clear();
+            return var2;
+         }
+      }
+   }
+
+   /**
+    * Returns a buffer obtained from {@link #lease(int)}. Buffers over the retention limit of their class are left to
+    * the garbage collector.
+    */
+   public static void release(ByteBuffer var0) {
+      if (var0 != null && var0.isDirect()) {
+         int var1 = sizeClass(var0.capacity());
+         if (var1 != -1 && SIZES[var1] == var0.capacity()) {
+            if (freeCount[var1].incrementAndGet() > RETAINED[var1]) {
+               freeCount[var1].decrementAndGet();
+            } else {
+               free[var1].offer(var0);
+            }
+         }
+      }
+   }
+
+   /**
+    * Copies the written contents of a leased buffer into a buffer of a larger size class and releases the old one.
+    */
+   public static ByteBuffer grow(ByteBuffer var0, int var1) {
+      if (var0.capacity() >= var1) {
+         return var0;
+      } else {
+         ByteBuffer var2 = lease(var1);
+         var0.flip();
+         var2.put(var0);
+         release(var0);
+         return var2;
+      }
+   }
+
+   public static long getAllocatedCount() {
+      return allocated.get();
+   }
+
+   public static long getLeasedCount() {
+      return leased.get();
+   }
+}
@@ -1,9 +1,11 @@
 package zombie.core.raknet;
 
+import com.asledgehammer.craftnail.packet.PacketRateLimiter;
 import gnu.trove.list.array.TShortArrayList;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.Deque;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -26,8 +28,12 @@ import zombie.network.PlayerDownloadServer;
 
 public class UdpConnection {
    Lock bufferLock = new ReentrantLock();
-   private ByteBuffer bb = ByteBuffer.allocate(1000000);
+   private ByteBuffer bb;
    private ByteBufferWriter bbw;
+   private int bufferDepth;
+   private static UdpConnection broadcast;
+   private long[] broadcastGUIDs;
+   private int broadcastCount;
    Lock bufferLockPing;
    private ByteBuffer bbPing;
    private ByteBufferWriter bbwPing;
@@ -71,11 +77,14 @@ public class UdpConnection {
    public UpdateTimer timerSendZombie;
    private boolean bFullyConnected;
    public boolean isNeighborPlayer;
+   long[] interestKeys;
+   int interestKeyCount;
+   public PacketRateLimiter.State rateLimits;
 
    public UdpConnection(UdpEngine var1, long var2, int var4) {
-      this.bbw = new ByteBufferWriter(this.bb);
+      this.bbw = new ByteBufferWriter((ByteBuffer)null);
       this.bufferLockPing = new ReentrantLock();
-      this.bbPing = ByteBuffer.allocate(50);
+      this.bbPing = ByteBuffer.allocateDirect(50);
       this.bbwPing = new ByteBufferWriter(this.bbPing);
       this.connectedGUID = 0L;
       this.allChatMuted = false;
@@ -123,11 +132,102 @@ public class UdpConnection {
    }
 
    public ByteBufferWriter startPacket() {
+      return this.startPacket(SendBufferPool.MAX_PACKET_SIZE);
+   }
+
+   /**
+    * Starts a packet backed by a pooled buffer of at least the given capacity. Callers that know their packet is small
+    * should pass a size hint; {@link #ensureCapacity(int)} moves the packet to a larger buffer if the hint was short.
+    */
+   public ByteBufferWriter startPacket(int var1) {
       this.bufferLock.lock();
+      if (this.bb == null) {
+         this.bb = SendBufferPool.lease(var1);
+      } else if (this.bb.capacity() < var1) {
+         SendBufferPool.release(this.bb);
+         this.bb = SendBufferPool.lease(var1);
+      }
+
       this.bb.clear();
+      this.bbw.bb = this.bb;
+      ++this.bufferDepth;
       return this.bbw;
    }
 
+   public void ensureCapacity(int var1) {
+      if (this.bb.remaining() < var1) {
+         this.bb = SendBufferPool.grow(this.bb, this.bb.position() + var1);
+         this.bbw.bb = this.bb;
+      }
+   }
+
+   private void releasePacket() {
+      if (--this.bufferDepth == 0) {
+         SendBufferPool.release(this.bb);
+         this.bb = null;
+         this.bbw.bb = null;
+         this.broadcastCount = 0;
+      }
+
+      this.bufferLock.unlock();
+   }
+
+   private void recordOutcomePacket(ByteBuffer var1) {
+      if (GameServer.bServer) {
+         int var2 = var1.position();
+         var1.position(1);
+         short var3 = var1.getShort();
+         var1.position(var2);
+         int var4 = this.broadcastGUIDs != null ? this.broadcastCount : 1;
+
+         for(int var5 = 0; var5 < var4; ++var5) {
+            MPStatistic.getInstance().addOutcomePacket(var3, var2);
+         }
+      }
+   }
+
+   private int sendPacket(int var1, int var2, byte var3) {
+      this.bb.flip();
+      return this.broadcastGUIDs != null ? this.engine.peer.SendToMany(this.bb, var1, var2, var3, this.broadcastGUIDs, this.broadcastCount) : this.engine.peer.SendRaw(this.bb, var1, var2, var3, this.connectedGUID, false);
+   }
+
+   /**
+    * Returns the broadcast carrier of the engine. A packet started on the carrier is serialized once; ending it sends
+    * the same bytes to every connection added through {@link #addBroadcastTarget(UdpConnection)} while the packet was
+    * open. Pass the carrier to {@code PacketType.send} like any other connection.
+    */
+   public static UdpConnection getBroadcast(UdpEngine var0) {
+      UdpConnection var1 = broadcast;
+      if (var1 == null || var1.engine != var0) {
+         synchronized(UdpConnection.class) {
+            var1 = broadcast;
+            if (var1 == null || var1.engine != var0) {
+               var1 = new UdpConnection(var0, 0L, -1);
+               var1.broadcastGUIDs = new long[64];
+               broadcast = var1;
+            }
+         }
+      }
+
+      return var1;
+   }
+
+   public void addBroadcastTarget(UdpConnection var1) {
+      if (this.broadcastCount == this.broadcastGUIDs.length) {
+         this.broadcastGUIDs = Arrays.copyOf(this.broadcastGUIDs, this.broadcastCount * 2);
+      }
+
+      this.broadcastGUIDs[this.broadcastCount++] = var1.connectedGUID;
+   }
+
+   public int getBroadcastTargetCount() {
+      return this.broadcastCount;
+   }
+
+   public boolean isBroadcast() {
+      return this.broadcastGUIDs != null;
+   }
+
    public ByteBufferWriter startPingPacket() {
       this.bufferLockPing.lock();
       this.bbPing.clear();
@@ -202,94 +302,50 @@ public class UdpConnection {
    }
 
    public void cancelPacket() {
-      this.bufferLock.unlock();
+      this.releasePacket();
    }
 
    public int getBufferPosition() {
-      return this.bb.position();
+      return this.bb == null ? 0 : this.bb.position();
    }
 
    public void endPacket(int var1, int var2, byte var3) {
-      if (GameServer.bServer) {
-         int var4 = this.bb.position();
-         this.bb.position(1);
-         MPStatistic.getInstance().addOutcomePacket(this.bb.getShort(), var4);
-         this.bb.position(var4);
+      try {
+         this.recordOutcomePacket(this.bb);
+         this.sendPacket(var1, var2, var3);
+      } finally {
+         this.releasePacket();
       }
-
-      this.bb.flip();
-      this.engine.peer.Send(this.bb, var1, var2, var3, this.connectedGUID, false);
-      this.bufferLock.unlock();
    }
 
    public void endPacket() {
-      if (GameServer.bServer) {
-         int var1 = this.bb.position();
-         this.bb.position(1);
-         MPStatistic.getInstance().addOutcomePacket(this.bb.getShort(), var1);
-         this.bb.position(var1);
-      }
-
-      this.bb.flip();
-      this.engine.peer.Send(this.bb, 1, 3, (byte)0, this.connectedGUID, false);
-      this.bufferLock.unlock();
+      this.endPacket(1, 3, (byte)0);
    }
 
    public void endPacketImmediate() {
-      if (GameServer.bServer) {
-         int var1 = this.bb.position();
-         this.bb.position(1);
-         MPStatistic.getInstance().addOutcomePacket(this.bb.getShort(), var1);
-         this.bb.position(var1);
-      }
-
-      this.bb.flip();
-      this.engine.peer.Send(this.bb, 0, 3, (byte)0, this.connectedGUID, false);
-      this.bufferLock.unlock();
+      this.endPacket(0, 3, (byte)0);
    }
 
    public void endPacketUnordered() {
-      if (GameServer.bServer) {
-         int var1 = this.bb.position();
-         this.bb.position(1);
-         MPStatistic.getInstance().addOutcomePacket(this.bb.getShort(), var1);
-         this.bb.position(var1);
-      }
-
-      this.bb.flip();
-      this.engine.peer.Send(this.bb, 2, 2, (byte)0, this.connectedGUID, false);
-      this.bufferLock.unlock();
+      this.endPacket(2, 2, (byte)0);
    }
 
    public void endPacketUnreliable() {
-      this.bb.flip();
-      int var1 = this.engine.peer.Send(this.bb, 2, 1, (byte)0, this.connectedGUID, false);
-      this.bufferLock.unlock();
+      try {
+         this.sendPacket(2, 1, (byte)0);
+      } finally {
+         this.releasePacket();
+      }
    }
 
    public void endPacketSuperHighUnreliable() {
-      if (GameServer.bServer) {
-         int var1 = this.bb.position();
-         this.bb.position(1);
-         MPStatistic.getInstance().addOutcomePacket(this.bb.getShort(), var1);
-         this.bb.position(var1);
-      }
-
-      this.bb.flip();
-      this.engine.peer.Send(this.bb, 0, 1, (byte)0, this.connectedGUID, false);
-      this.bufferLock.unlock();
+      this.endPacket(0, 1, (byte)0);
    }
 
    public void endPingPacket() {
-      if (GameServer.bServer) {
-         int var1 = this.bb.position();
-         this.bb.position(1);
-         MPStatistic.getInstance().addOutcomePacket(this.bb.getShort(), var1);
-         this.bb.position(var1);
-      }
-
+      this.recordOutcomePacket(this.bbPing);
       this.bbPing.flip();
-      this.engine.peer.Send(this.bbPing, 0, 1, (byte)0, this.connectedGUID, false);
+      this.engine.peer.SendRaw(this.bbPing, 0, 1, (byte)0, this.connectedGUID, false);
       this.bufferLockPing.unlock();
    }
 
@@ -1,13 +1,15 @@
 package zombie.network;
 
-import com.asledgehammer.crafthammer.api.Console;
-import com.asledgehammer.crafthammer.api.Hammer;
-import com.asledgehammer.crafthammer.api.command.Command;
-import com.asledgehammer.crafthammer.api.command.CommandExecution;
-import com.asledgehammer.crafthammer.api.command.Commands;
 import com.asledgehammer.craftnail.CraftNail;
+import com.asledgehammer.craftnail.command.ServerCommandRegistry;
+import com.asledgehammer.craftnail.packet.PacketPrecheck;
+import com.asledgehammer.craftnail.packet.PacketProfiler;
+import com.asledgehammer.craftnail.packet.PacketRateLimiter;
+import com.asledgehammer.craftnail.packet.PacketScheduler;
+import com.asledgehammer.craftnail.packet.TableResultStreamer;
 import com.asledgehammer.craftnail.packet.security.PacketChecker;
 import com.asledgehammer.craftnail.player.PlayerManager;
+import com.asledgehammer.craftnail.player.PlayerRegistry;
 import com.asledgehammer.craftnail.util.TextFilter;
 import java.io.BufferedReader;
 import java.io.DataInputStream;
@@ -20,7 +22,6 @@ import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.PrintStream;
 import java.lang.reflect.Constructor;
-import java.lang.reflect.InvocationTargetException;
 import java.net.ConnectException;
 import java.nio.ByteBuffer;
 import java.sql.SQLException;
@@ -29,8 +30,10 @@ import java.util.Calendar;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import se.krka.kahlua.vm.KahluaTable;
@@ -68,9 +71,7 @@ import zombie.characters.SurvivorDesc;
 import zombie.characters.SurvivorFactory;
 import zombie.characters.skills.CustomPerks;
 import zombie.characters.skills.PerkFactory;
-import zombie.commands.CommandBase;
 import zombie.commands.PlayerType;
-import zombie.commands.serverCommands.QuitCommand;
 import zombie.core.Color;
 import zombie.core.Core;
 import zombie.core.Languages;
@@ -88,6 +89,7 @@ import zombie.core.network.ByteBufferReader;
 import zombie.core.network.ByteBufferWriter;
 import zombie.core.profiling.PerformanceProfileFrameProbe;
 import zombie.core.profiling.PerformanceProfileProbe;
+import zombie.core.raknet.InterestIndex;
 import zombie.core.raknet.RakNetPeerInterface;
 import zombie.core.raknet.RakVoice;
 import zombie.core.raknet.UdpConnection;
@@ -282,8 +284,6 @@ public class GameServer {
    public static String ip = "127.0.0.1";
    static int count = 0;
    public static final int MAX_PLAYERS = 512;
-   private static final UdpConnection[] SlotToConnection = new UdpConnection[MAX_PLAYERS];
-   private static final HashMap<IsoPlayer, Long> PlayerToAddressMap = new HashMap<>();
    private static final ArrayList<Integer> alreadyRemoved = new ArrayList<>();
    private static boolean launched = false;
    private static final ArrayList<String> consoleCommands = new ArrayList<>();
@@ -291,8 +291,8 @@ public class GameServer {
    private static final ConcurrentLinkedQueue<IZomboidPacket> MainLoopPlayerUpdateQ = new ConcurrentLinkedQueue<>();
    private static final ConcurrentLinkedQueue<IZomboidPacket> MainLoopNetDataHighPriorityQ = new ConcurrentLinkedQueue<>();
    private static final ConcurrentLinkedQueue<IZomboidPacket> MainLoopNetDataQ = new ConcurrentLinkedQueue<>();
+   private static final ConcurrentLinkedQueue<IZomboidPacket> MainLoopNetDataDeferredQ = new ConcurrentLinkedQueue<>();
    private static final ArrayList<IZomboidPacket> MainLoopNetData2 = new ArrayList<>();
-   private static final HashMap<Short, Vector2> playerToCoordsMap = new HashMap<>();
    private static final HashMap<Short, Integer> playerMovedToFastMap = new HashMap<>();
    private static final ByteBuffer large_file_bb = ByteBuffer.allocate(2097152);
    private static final long previousSave = Calendar.getInstance().getTimeInMillis();
@@ -804,43 +804,31 @@ public class GameServer {
                try {
                   long var101 = System.nanoTime();
                   MPStatistics.countServerNetworkingFPS();
-                  MainLoopNetData2.clear();
                   for (IZomboidPacket var19 = MainLoopNetDataHighPriorityQ.poll(); var19 != null; var19 = MainLoopNetDataHighPriorityQ.poll()) {
-                     MainLoopNetData2.add(var19);
-                  }
-                  MPStatistic.getInstance().setPacketsLength(MainLoopNetData2.size());
-                  for (int var102 = 0; var102 < MainLoopNetData2.size(); var102++) {
-                     IZomboidPacket zomboidNetData = MainLoopNetData2.get(var102);
-                     if (zomboidNetData.isConnect()) {
-                        UdpConnection var21 = ((DelayedConnection) zomboidNetData).connection;
-                        LoggerManager.getLogger("user").write("added connection index=" + var21.index + " " + ((DelayedConnection) zomboidNetData).hostString);
+                     if (var19.isConnect()) {
+                        UdpConnection var21 = ((DelayedConnection) var19).connection;
+                        LoggerManager.getLogger("user").write("added connection index=" + var21.index + " " + ((DelayedConnection) var19).hostString);
                         udpEngine.connections.add(var21);
-                     } else if (zomboidNetData.isDisconnect()) {
-                        UdpConnection var212 = ((DelayedConnection) zomboidNetData).connection;
+                     } else if (var19.isDisconnect()) {
+                        UdpConnection var212 = ((DelayedConnection) var19).connection;
                         LoginQueue.disconnect(var212);
                         LoggerManager.getLogger("user").write(var212.idStr + " \"" + var212.username + "\" removed connection index=" + var212.index);
                         udpEngine.connections.remove(var212);
+                        PacketScheduler.INSTANCE.purge(var212.getConnectedGUID());
                         disconnect(var212, "receive-disconnect");
                      } else {
-                        mainLoopDealWithNetData((ZomboidNetData) zomboidNetData);
+                        PacketScheduler.INSTANCE.add((ZomboidNetData) var19);
                      }
-                     /*for (int var102 = 0; var102 < MainLoopNetData2.size(); var102++) {
-                     ZomboidNetData zomboidNetData = (IZomboidPacket) MainLoopNetData2.get(var102);
-                     if (zomboidNetData.isConnect()) {
-                        UdpConnection var21 = ((DelayedConnection) zomboidNetData).connection;
-                        LoggerManager.getLogger("user").write("added connection index=" + var21.index + " " + ((DelayedConnection) zomboidNetData).hostString);
-                        udpEngine.connections.add(var21);
-                     } else if (zomboidNetData.isDisconnect()) {
-                        UdpConnection var212 = ((DelayedConnection) zomboidNetData).connection;
-                        LoginQueue.disconnect(var212);
-                        LoggerManager.getLogger("user").write(var212.idStr + " \"" + var212.username + "\" removed connection index=" + var212.index);
-                        udpEngine.connections.remove(var212);
-                        disconnect(var212, "receive-disconnect");
-                     } else {
-                        mainLoopDealWithNetData(zomboidNetData);
-                     }
-                  }*/
                   }
+                  for (IZomboidPacket var193 = MainLoopNetDataQ.poll(); var193 != null; var193 = MainLoopNetDataQ.poll()) {
+                     PacketScheduler.INSTANCE.addBulk((ZomboidNetData) var193);
+                  }
+                  for (IZomboidPacket var194 = MainLoopNetDataDeferredQ.poll(); var194 != null; var194 = MainLoopNetDataDeferredQ.poll()) {
+                     PacketScheduler.INSTANCE.addDeferred((ZomboidNetData) var194);
+                  }
+                  Consumer<ZomboidNetData> var103 = var1028 -> s_performance.mainLoopDealWithNetData.invokeAndMeasure(var1028, GameServer::mainLoopDealWithNetData);
+                  MPStatistic.getInstance().setPacketsLength(PacketScheduler.INSTANCE.getPending(PacketScheduler.Priority.CRITICAL) + PacketScheduler.INSTANCE.getPending(PacketScheduler.Priority.NORMAL));
+                  PacketScheduler.INSTANCE.drain(PacketScheduler.Priority.CRITICAL, Long.MAX_VALUE, var103);
                   MainLoopPlayerUpdate.clear();
                   for (IZomboidPacket var192 = MainLoopPlayerUpdateQ.poll(); var192 != null; var192 = MainLoopPlayerUpdateQ.poll()) {
                      IZomboidPacket iZomboidPacket = (ZomboidNetData) var192;
@@ -861,27 +849,18 @@ public class GameServer {
                      );
                   }
                   MainLoopNetData2.clear();
-                  for (IZomboidPacket var193 = MainLoopNetDataQ.poll(); var193 != null; var193 = MainLoopNetDataQ.poll()) {
-                     MainLoopNetData2.add(var193);
-                  }
-                  int var1023 = 0;
-                  while (var1023 < MainLoopNetData2.size()) {
-                     if (var1023 % 10 == 0 && (System.nanoTime() - var101) / 1000000 > 70) {
-                        if (droppedPackets == 0) {
-                           DebugLog.log("Server is too busy. Server will drop updates of vehicle's physics. Server is closed for new connections.");
-                        }
-                        droppedPackets += 2;
-                        countOfDroppedPackets += MainLoopNetData2.size() - var1023;
-                        break; // Exit the loop when server is too busy
-                     } else {
-                        s_performance.mainLoopDealWithNetData.invokeAndMeasure(
-                                (ZomboidNetData) MainLoopNetData2.get(var1023),
-                                GameServer::mainLoopDealWithNetData
-                        );
-                        var1023++;
+                  long var1023 = var101 + PacketScheduler.INSTANCE.getBudgetNanos();
+                  long var1026 = PacketScheduler.INSTANCE.getDropped();
+                  boolean var1027 = PacketScheduler.INSTANCE.drain(PacketScheduler.Priority.NORMAL, var1023, var103);
+                  var1027 |= PacketScheduler.INSTANCE.drain(PacketScheduler.Priority.BULK, var1023, var103);
+                  var1027 |= PacketScheduler.INSTANCE.drain(PacketScheduler.Priority.DEFERRED, var1023, var103);
+                  if (var1027) {
+                     if (droppedPackets == 0) {
+                        DebugLog.log("Server is too busy. Server will defer packets and drop stale updates of vehicle's physics. Server is closed for new connections.");
                      }
+                     droppedPackets += 2;
                   }
-                  MainLoopNetData2.clear();
+                  countOfDroppedPackets += (int) (PacketScheduler.INSTANCE.getDropped() - var1026);
                   if (droppedPackets == 1) {
                      DebugLog.log("Server is working normal. Server will not drop updates of vehicle's physics. The server is open for new connections. Server dropped " + countOfDroppedPackets + " packets and " + countOfDroppedConnections + " connections.");
                      countOfDroppedPackets = 0;
@@ -957,9 +936,7 @@ public class GameServer {
                            boolean var109 = calcCountPlayersInRelevantPositionLimiter.Check();
                            for (int var108 = 0; var108 < udpEngine.connections.size(); var108++) {
                               UdpConnection var110 = (UdpConnection) udpEngine.connections.get(var108);
-                              if (var109) {
-                                 var110.calcCountPlayersInRelevantPosition();
-                              }
+                              InterestIndex.update(var110);
                               for (int var24 = 0; var24 < 4; var24++) {
                                  Vector3 var25 = var110.connectArea[var24];
                                  if (var25 != null) {
@@ -971,6 +948,9 @@ public class GameServer {
                                  var110.playerDownloadServer.update();
                               }
                            }
+                           if (var109) {
+                              InterestIndex.updateNeighborPlayers(udpEngine.connections);
+                           }
                            int var1082 = 0;
                            while (var1082 < IsoWorld.instance.CurrentCell.getObjectList().size()) {
                               IsoPlayer isoPlayer = (IsoPlayer) IsoWorld.instance.CurrentCell.getObjectList().get(var1082); //IsoPlayer isoPlayer = (IsoMovingObject) IsoWorld.instance.CurrentCell.getObjectList().get(var1082);
@@ -1138,7 +1118,6 @@ public class GameServer {
    }
 
    private static String handleServerCommand(String raw, UdpConnection connection) {
-      Console player;
       if (raw == null) {
          return null;
       }
@@ -1151,45 +1130,8 @@ public class GameServer {
       if (connection != null && connection.isCoopHost) {
          var3 = "admin";
       }
-      Commands commands = Hammer.Companion.getInstance().getCommands();
-      Command command = Command.fromRaw(raw);
-      if (connection == null) {
-         player = Hammer.Companion.getInstance().getConsole();
-      } else {
-         player = (Console) PlayerManager.INSTANCE.getPlayer(connection); //player = (Console) PlayerManager.INSTANCE.getPlayer(connection);
-      }
-      CommandExecution execution = commands.dispatch(command, player);
-      Command.Response response = execution.getResponse();
-      String responseMessage = response.getMessage();
-      if (responseMessage != null && !responseMessage.isEmpty()) {
-         player.sendMessage("Command", responseMessage);
-      }
-      if (response.getHandled()) {
-         return "";
-      }
-      Class<? extends CommandBase> classCommand = CommandBase.findCommandCls(raw);
-      if (raw.equalsIgnoreCase("stop")) {
-         classCommand = QuitCommand.class;
-      }
-      if (classCommand != null) {
-         try {
-            CommandBase var6 = (CommandBase) classCommand.getConstructors()[0].newInstance(var2, var3, raw, connection);
-            return var6.Execute();
-         } catch (IllegalAccessException var8) {
-            var8.printStackTrace();
-            return "A IllegalAccessException error occured";
-         } catch (InstantiationException var9) {
-            var9.printStackTrace();
-            return "A InstantiationException error occured";
-         } catch (InvocationTargetException var7) {
-            var7.printStackTrace();
-            return "A InvocationTargetException error occured";
-         } catch (SQLException var10) {
-            var10.printStackTrace();
-            return "A SQL error occured";
-         }
-      }
-      return "Unknown command " + raw;
+      String var4 = ServerCommandRegistry.INSTANCE.dispatch(raw, connection, var2, var3);
+      return var4 != null ? var4 : "Unknown command " + raw;
    }
 
    public static void sendTeleport(IsoPlayer var0, float var1, float var2, float var3) {
@@ -1290,7 +1232,7 @@ public class GameServer {
          }
          for (int var4 = 0; var4 < udpEngine.connections.size(); var4++) {
             UdpConnection var5 = (UdpConnection) udpEngine.connections.get(var4);
-            if (var5.getConnectedGUID() != var1.getConnectedGUID() && var5.getConnectedGUID() == PlayerToAddressMap.get(var3.target.getCharacter()).longValue()) {
+            if (var5.getConnectedGUID() != var1.getConnectedGUID() && var5.getConnectedGUID() == PlayerRegistry.INSTANCE.getAddress((IsoPlayer) var3.target.getCharacter()).longValue()) {
                ByteBufferWriter var6 = var5.startPacket();
                PacketTypes.PacketType.AddXP.doPacket(var6);
                var3.write(var6);
@@ -1309,7 +1251,7 @@ public class GameServer {
    }
 
    static void receiveSyncXP(ByteBuffer var0, UdpConnection var1, short var2) {
-      IsoPlayer var3 = IDToPlayerMap.get(Short.valueOf(var0.getShort()));
+      IsoPlayer var3 = PlayerRegistry.INSTANCE.getPlayer(var0.getShort());
       if (var3 != null) {
          if (!canModifyPlayerStats(var1, var3)) {
             PacketTypes.PacketType.SyncXP.onUnauthorized(var1);
@@ -1342,14 +1284,15 @@ public class GameServer {
    static void receiveChangePlayerStats(ByteBuffer buffer, UdpConnection connection, short var2) {
       if (PacketChecker.INSTANCE.checkChangePlayerStatsPacket(connection, buffer)) {
          short var3 = buffer.getShort();
-         IsoPlayer var4 = IDToPlayerMap.get(Short.valueOf(var3));
+         IsoPlayer var4 = PlayerRegistry.INSTANCE.getPlayer(var3);
          if (var4 != null) {
             String var5 = GameWindow.ReadString(buffer);
             var4.setPlayerStats(buffer, var5);
+            PlayerRegistry.INSTANCE.updateDisplayName(var4);
             for (int var6 = 0; var6 < udpEngine.connections.size(); var6++) {
                UdpConnection var7 = (UdpConnection) udpEngine.connections.get(var6);
                if (var7.getConnectedGUID() != connection.getConnectedGUID()) {
-                  if (var7.getConnectedGUID() == PlayerToAddressMap.get(var4).longValue()) {
+                  if (var7.getConnectedGUID() == PlayerRegistry.INSTANCE.getAddress(var4).longValue()) {
                      var7.allChatMuted = var4.isAllChatMuted();
                      var7.accessLevel = PlayerType.fromString(var4.accessLevel);
                   }
@@ -1504,9 +1447,19 @@ public class GameServer {
             }
          }
           try {
+              PacketChecker.INSTANCE.setPrechecked(PacketPrecheck.INSTANCE.take(var0));
+              if (!PacketChecker.INSTANCE.checkOtherPacket(var0.type, var2, var1)) {
+                  ZomboidNetDataPool.instance.discard(var0);
+                  return;
+              }
+              PacketProfiler.INSTANCE.begin();
               var0.type.onServerPacket(var1, var2);
+              PacketProfiler.INSTANCE.end(var0.type);
           } catch (Exception e) {
               throw new RuntimeException(e);
+          } finally {
+              PacketChecker.INSTANCE.setPrechecked(false);
+              PacketChecker.INSTANCE.getContext().clear();
           }
           ZomboidNetDataPool.instance.discard(var0);
       }
@@ -1537,11 +1490,11 @@ public class GameServer {
       if (PacketChecker.INSTANCE.checkInvMngRemoveItemPacket(connection, buffer)) {
          int var3 = buffer.getInt();
          short var4 = buffer.getShort();
-         IsoPlayer var5 = IDToPlayerMap.get(Short.valueOf(var4));
+         IsoPlayer var5 = PlayerRegistry.INSTANCE.getPlayer(var4);
          if (var5 != null) {
             for (int var6 = 0; var6 < udpEngine.connections.size(); var6++) {
                UdpConnection var7 = (UdpConnection) udpEngine.connections.get(var6);
-               if (var7.getConnectedGUID() != connection.getConnectedGUID() && var7.getConnectedGUID() == PlayerToAddressMap.get(var5).longValue()) {
+               if (var7.getConnectedGUID() != connection.getConnectedGUID() && var7.getConnectedGUID() == PlayerRegistry.INSTANCE.getAddress(var5).longValue()) {
                   ByteBufferWriter var8 = var7.startPacket();
                   PacketTypes.PacketType.InvMngRemoveItem.doPacket(var8);
                   var8.putInt(var3);
@@ -1556,11 +1509,11 @@ public class GameServer {
    static void receiveInvMngGetItem(ByteBuffer buffer, UdpConnection connection, short var2) throws IOException {
       if (PacketChecker.INSTANCE.checkInvMngGetItemPacket(connection, buffer)) {
          short var3 = buffer.getShort();
-         IsoPlayer var4 = IDToPlayerMap.get(Short.valueOf(var3));
+         IsoPlayer var4 = PlayerRegistry.INSTANCE.getPlayer(var3);
          if (var4 != null) {
             for (int var5 = 0; var5 < udpEngine.connections.size(); var5++) {
                UdpConnection var6 = (UdpConnection) udpEngine.connections.get(var5);
-               if (var6.getConnectedGUID() != connection.getConnectedGUID() && var6.getConnectedGUID() == PlayerToAddressMap.get(var4).longValue()) {
+               if (var6.getConnectedGUID() != connection.getConnectedGUID() && var6.getConnectedGUID() == PlayerRegistry.INSTANCE.getAddress(var4).longValue()) {
                   ByteBufferWriter var7 = var6.startPacket();
                   PacketTypes.PacketType.InvMngGetItem.doPacket(var7);
                   buffer.rewind();
@@ -1584,11 +1537,11 @@ public class GameServer {
          }
          short var5 = buffer.getShort();
          short var6 = buffer.getShort();
-         IsoPlayer var7 = IDToPlayerMap.get(Short.valueOf(var6));
+         IsoPlayer var7 = PlayerRegistry.INSTANCE.getPlayer(var6);
          if (var7 != null) {
             for (int var8 = 0; var8 < udpEngine.connections.size(); var8++) {
                UdpConnection var9 = (UdpConnection) udpEngine.connections.get(var8);
-               if (var9.getConnectedGUID() != connection.getConnectedGUID() && var9.getConnectedGUID() == PlayerToAddressMap.get(var7).longValue()) {
+               if (var9.getConnectedGUID() != connection.getConnectedGUID() && var9.getConnectedGUID() == PlayerRegistry.INSTANCE.getAddress(var7).longValue()) {
                   ByteBufferWriter var10 = var9.startPacket();
                   PacketTypes.PacketType.InvMngReqItem.doPacket(var10);
                   if (var4 != null) {
@@ -1626,6 +1579,7 @@ public class GameServer {
          int var5 = var0.getInt();
          var1.connectArea[0] = new Vector3(var3, var4, var5);
          var1.ChunkGridWidth = var5;
+         InterestIndex.update(var1);
          ZombiePopulationManager.instance.updateLoadedAreas();
       }
    }
@@ -1838,7 +1792,7 @@ public class GameServer {
 
    static void receiveSendInventory(ByteBuffer var0, UdpConnection var1, short var2) {
       short var3 = var0.getShort();
-      Long var4 = IDToAddressMap.get(Short.valueOf(var3));
+      Long var4 = PlayerRegistry.INSTANCE.getAddress(var3);
       if (var4 != null) {
          for (int var5 = 0; var5 < udpEngine.connections.size(); var5++) {
             UdpConnection var6 = (UdpConnection) udpEngine.connections.get(var5);
@@ -1861,7 +1815,7 @@ public class GameServer {
       if (PacketChecker.INSTANCE.checkRequestInventoryPacket(connection, buffer)) {
          short var3 = buffer.getShort();
          short var4 = buffer.getShort();
-         Long var5 = IDToAddressMap.get(Short.valueOf(var4));
+         Long var5 = PlayerRegistry.INSTANCE.getAddress(var4);
          if (var5 != null) {
             for (int var6 = 0; var6 < udpEngine.connections.size(); var6++) {
                UdpConnection var7 = (UdpConnection) udpEngine.connections.get(var6);
@@ -2011,18 +1965,19 @@ public class GameServer {
             var1.ReleventPos[var4.PlayerIndex].x = var3.realx;
             var1.ReleventPos[var4.PlayerIndex].y = var3.realy;
             var1.ReleventPos[var4.PlayerIndex].z = var3.realz;
+            InterestIndex.update(var1);
             var3.id = var4.getOnlineID();
          }
       } catch (Exception var8) {
          var8.printStackTrace();
       }
       if (ServerOptions.instance.KickFastPlayers.getValue()) {
-         Vector2 var5 = playerToCoordsMap.get(Short.valueOf(var3.id));
+         Vector2 var5 = PlayerRegistry.INSTANCE.getCoords(var3.id);
          if (var5 == null) {
             Vector2 var52 = new Vector2();
             var52.x = var3.x;
             var52.y = var3.y;
-            playerToCoordsMap.put(Short.valueOf(var3.id), var52);
+            PlayerRegistry.INSTANCE.setCoords(var3.id, var52);
          } else {
             if (!var4.accessLevel.equals("") && !var4.isGhostMode() && (Math.abs(var3.x - var5.x) > 4.0f || Math.abs(var3.y - var5.y) > 4.0f)) {
                if (playerMovedToFastMap.get(Short.valueOf(var3.id)) == null) {
@@ -2045,18 +2000,33 @@ public class GameServer {
          }
       }
       if (var4 != null) {
-         for (int var9 = 0; var9 < udpEngine.connections.size(); var9++) {
-            UdpConnection var6 = (UdpConnection) udpEngine.connections.get(var9);
+         PacketTypes.PacketType var10 = (PacketTypes.PacketType) PacketTypes.packetTypes.get(Short.valueOf(var2));
+         UdpConnection var11 = UdpConnection.getBroadcast(udpEngine);
+         ByteBufferWriter var7 = var11.startPacket(var0.limit() + 8);
+         var10.doPacket(var7);
+         var0.position(2);
+         var7.bb.putShort(var4.getOnlineID());
+         var7.bb.put(var0);
+         List<UdpConnection> var12 = var2 == PacketTypes.PacketType.PlayerUpdateReliable.getId() ? udpEngine.connections : InterestIndex.getCandidates(var3.x, var3.y);
+         for (int var9 = 0; var9 < var12.size(); var9++) {
+            UdpConnection var6 = var12.get(var9);
             if (var1.getConnectedGUID() != var6.getConnectedGUID() && var6.isFullyConnected() && ((var4.checkCanSeeClient(var6) && var6.RelevantTo(var3.x, var3.y)) || (var2 == PacketTypes.PacketType.PlayerUpdateReliable.getId() && (var6.accessLevel > var1.accessLevel || var1.accessLevel == 32)))) {
-               ByteBufferWriter var7 = var6.startPacket();
-               ((PacketTypes.PacketType) PacketTypes.packetTypes.get(Short.valueOf(var2))).doPacket(var7);
-               var0.position(0);
-               var0.position(2);
-               var7.bb.putShort(var4.getOnlineID());
-               var7.bb.put(var0);
-               ((PacketTypes.PacketType) PacketTypes.packetTypes.get(Short.valueOf(var2))).send(var6);
+               var11.addBroadcastTarget(var6);
             }
          }
+         sendBroadcast(var10, var11);
+      }
+   }
+
+   /**
+    * Ends a packet started on the broadcast carrier, sending it once to every target added, or dropping it when no
+    * connection was interested.
+    */
+   private static void sendBroadcast(PacketTypes.PacketType type, UdpConnection broadcast) {
+      if (broadcast.getBroadcastTargetCount() == 0) {
+         broadcast.cancelPacket();
+      } else {
+         type.send(broadcast);
       }
    }
 
@@ -2126,7 +2096,7 @@ public class GameServer {
       short var3 = var0.getShort();
       short var4 = var0.getShort();
       int var5 = var0.getInt();
-      Long var6 = IDToAddressMap.get(Short.valueOf(var4));
+      Long var6 = PlayerRegistry.INSTANCE.getAddress(var4);
       if (var6 != null) {
          for (int var7 = 0; var7 < udpEngine.connections.size(); var7++) {
             UdpConnection var8 = (UdpConnection) udpEngine.connections.get(var7);
@@ -2146,7 +2116,7 @@ public class GameServer {
       short var3 = var0.getShort();
       short var4 = var0.getShort();
       int var5 = var0.getInt();
-      Long var6 = IDToAddressMap.get(Short.valueOf(var4));
+      Long var6 = PlayerRegistry.INSTANCE.getAddress(var4);
       if (var6 != null) {
          for (int var7 = 0; var7 < udpEngine.connections.size(); var7++) {
             UdpConnection var8 = (UdpConnection) udpEngine.connections.get(var7);
@@ -2172,7 +2142,7 @@ public class GameServer {
       } catch (Exception var12) {
          var12.printStackTrace();
       }
-      if (var5 != null && (var6 = IDToAddressMap.get(Short.valueOf(var4))) != null) {
+      if (var5 != null && (var6 = PlayerRegistry.INSTANCE.getAddress(var4)) != null) {
          for (int var7 = 0; var7 < udpEngine.connections.size(); var7++) {
             UdpConnection var8 = (UdpConnection) udpEngine.connections.get(var7);
             if (var8.getConnectedGUID() == var6.longValue()) {
@@ -2195,9 +2165,9 @@ public class GameServer {
       short var3 = var0.getShort();
       short var4 = var0.getShort();
       byte var5 = var0.get();
-      Long var6 = IDToAddressMap.get(Short.valueOf(var3));
+      Long var6 = PlayerRegistry.INSTANCE.getAddress(var3);
       if (var5 == 0) {
-         var6 = IDToAddressMap.get(Short.valueOf(var4));
+         var6 = PlayerRegistry.INSTANCE.getAddress(var4);
       }
       if (var6 != null) {
          for (int var7 = 0; var7 < udpEngine.connections.size(); var7++) {
@@ -2323,7 +2293,7 @@ public class GameServer {
    static void receiveTransactionID(ByteBuffer var0, UdpConnection var1) {
       short var2 = var0.getShort();
       int var3 = var0.getInt();
-      IsoPlayer var4 = IDToPlayerMap.get(Short.valueOf(var2));
+      IsoPlayer var4 = PlayerRegistry.INSTANCE.getPlayer(var2);
       if (var4 != null) {
          transactionIDMap.put(var4.username, Integer.valueOf(var3));
          var4.setTransactionID(Integer.valueOf(var3));
@@ -2365,7 +2335,7 @@ public class GameServer {
 
    static void receiveCataplasm(ByteBuffer var0, UdpConnection var1, short var2) {
       short var3 = var0.getShort();
-      IsoPlayer var4 = IDToPlayerMap.get(Short.valueOf(var3));
+      IsoPlayer var4 = PlayerRegistry.INSTANCE.getPlayer(var3);
       if (var4 != null) {
          int var5 = var0.getInt();
          float var6 = var0.getFloat();
@@ -2565,8 +2535,8 @@ public class GameServer {
    }
 
    public static void addXp(IsoPlayer var0, PerkFactory.Perk var1, int var2) {
-      if (PlayerToAddressMap.containsKey(var0)) {
-         long var3 = PlayerToAddressMap.get(var0).longValue();
+      if (PlayerRegistry.INSTANCE.isOnline(var0)) {
+         long var3 = PlayerRegistry.INSTANCE.getAddress(var0).longValue();
          UdpConnection var5 = udpEngine.getActiveConnection(var3);
          if (var5 == null) {
             return;
@@ -2662,7 +2632,7 @@ public class GameServer {
       byte var3 = var0.get();
       if (var3 == 1) {
          short var11 = var0.getShort();
-         IsoPlayer var13 = IDToPlayerMap.get(Short.valueOf(var11));
+         IsoPlayer var13 = PlayerRegistry.INSTANCE.getPlayer(var11);
          if (var13 != null) {
             var13.sendObjectChange("StopBurning");
             return;
@@ -2701,8 +2671,7 @@ public class GameServer {
    @Deprecated
    static void receiveStartFire(ByteBuffer buffer, UdpConnection connection, short var2) {
       if (PacketChecker.INSTANCE.checkStartFirePacket(connection, buffer)) {
-         StartFire var3 = new StartFire();
-         var3.parse(buffer, connection);
+         StartFire var3 = PacketChecker.INSTANCE.getContext().packet(StartFire.class, StartFire::new);
          if (var3.isConsistent() && var3.validate(connection)) {
             var3.process();
             for (int var4 = 0; var4 < udpEngine.connections.size(); var4++) {
@@ -2846,7 +2815,7 @@ public class GameServer {
    public static void sendPlayerConnect(IsoPlayer var0, UdpConnection var1) {
       ByteBufferWriter var2 = var1.startPacket();
       PacketTypes.PacketType.PlayerConnect.doPacket(var2);
-      if (var1.getConnectedGUID() != PlayerToAddressMap.get(var0).longValue()) {
+      if (var1.getConnectedGUID() != PlayerRegistry.INSTANCE.getAddress(var0).longValue()) {
          var2.putShort(var0.OnlineID);
       } else {
          var2.putShort((short) -1);
@@ -2862,7 +2831,7 @@ public class GameServer {
       var2.putFloat(var0.y);
       var2.putFloat(var0.z);
       var2.putUTF(var0.username);
-      if (var1.getConnectedGUID() != PlayerToAddressMap.get(var0).longValue()) {
+      if (var1.getConnectedGUID() != PlayerRegistry.INSTANCE.getAddress(var0).longValue()) {
          try {
             var0.getDescriptor().save(var2.bb);
             var0.getHumanVisual().save(var2.bb);
@@ -2881,7 +2850,7 @@ public class GameServer {
       var0.getSafety().save(var2.bb);
       var2.putByte(PlayerType.fromString(var0.accessLevel));
       var2.putByte((byte) (var0.isInvisible() ? 1 : 0));
-      if (var1.getConnectedGUID() != PlayerToAddressMap.get(var0).longValue()) {
+      if (var1.getConnectedGUID() != PlayerRegistry.INSTANCE.getAddress(var0).longValue()) {
          try {
             var0.getXp().save(var2.bb);
          } catch (IOException var4) {
@@ -2909,14 +2878,14 @@ public class GameServer {
       var2.putInt(var0.remoteStrLvl);
       var2.putInt(var0.remoteFitLvl);
       PacketTypes.PacketType.PlayerConnect.send(var1);
-      if (var1.getConnectedGUID() != PlayerToAddressMap.get(var0).longValue()) {
+      if (var1.getConnectedGUID() != PlayerRegistry.INSTANCE.getAddress(var0).longValue()) {
          updateHandEquips(var1, var0);
       }
    }
 
    @Deprecated
    static void receiveRequestPlayerData(ByteBuffer var0, UdpConnection var1, short var2) {
-      IsoPlayer var3 = IDToPlayerMap.get(Short.valueOf(var0.getShort()));
+      IsoPlayer var3 = PlayerRegistry.INSTANCE.getPlayer(var0.getShort());
       if (var3 != null) {
          sendPlayerConnect(var3, var1);
       }
@@ -3139,7 +3108,7 @@ public class GameServer {
    static void receiveBandage(ByteBuffer buffer, UdpConnection connection, short var2) {
       if (PacketChecker.INSTANCE.checkBandagePacket(connection, buffer)) {
          short var3 = buffer.getShort();
-         IsoPlayer var4 = IDToPlayerMap.get(Short.valueOf(var3));
+         IsoPlayer var4 = PlayerRegistry.INSTANCE.getPlayer(var3);
          if (var4 != null) {
             int var5 = buffer.getInt();
             boolean var6 = buffer.get() == 1;
@@ -3167,8 +3136,7 @@ public class GameServer {
 
    static void receiveStitch(ByteBuffer buffer, UdpConnection connection, short var2) {
       if (PacketChecker.INSTANCE.checkStitchPacket(connection, buffer)) {
-         Stitch var3 = new Stitch();
-         var3.parse(buffer, connection);
+         Stitch var3 = PacketChecker.INSTANCE.getContext().packet(Stitch.class, Stitch::new);
          if (var3.isConsistent() && var3.validate(connection)) {
             for (int var4 = 0; var4 < udpEngine.connections.size(); var4++) {
                UdpConnection var5 = (UdpConnection) udpEngine.connections.get(var4);
@@ -3187,7 +3155,7 @@ public class GameServer {
    static void receiveWoundInfection(ByteBuffer buffer, UdpConnection connection, short var2) {
       if (PacketChecker.INSTANCE.checkWoundInfectionPacket(connection, buffer)) {
          short var3 = buffer.getShort();
-         IsoPlayer var4 = IDToPlayerMap.get(Short.valueOf(var3));
+         IsoPlayer var4 = PlayerRegistry.INSTANCE.getPlayer(var3);
          if (var4 != null) {
             int var5 = buffer.getInt();
             boolean var6 = buffer.get() == 1;
@@ -3209,8 +3177,7 @@ public class GameServer {
 
    static void receiveDisinfect(ByteBuffer buffer, UdpConnection connection, short var2) {
       if (PacketChecker.INSTANCE.checkDisinfectPacket(connection, buffer)) {
-         Disinfect var3 = new Disinfect();
-         var3.parse(buffer, connection);
+         Disinfect var3 = PacketChecker.INSTANCE.getContext().packet(Disinfect.class, Disinfect::new);
          if (var3.isConsistent() && var3.validate(connection)) {
             for (int var4 = 0; var4 < udpEngine.connections.size(); var4++) {
                UdpConnection var5 = (UdpConnection) udpEngine.connections.get(var4);
@@ -3228,7 +3195,7 @@ public class GameServer {
    static void receiveSplint(ByteBuffer buffer, UdpConnection connection, short var2) {
       if (PacketChecker.INSTANCE.checkSplintPacket(connection, buffer)) {
          short var3 = buffer.getShort();
-         IsoPlayer var4 = IDToPlayerMap.get(Short.valueOf(var3));
+         IsoPlayer var4 = PlayerRegistry.INSTANCE.getPlayer(var3);
          if (var4 != null) {
             int var5 = buffer.getInt();
             boolean var6 = buffer.get() == 1;
@@ -3259,7 +3226,7 @@ public class GameServer {
    static void receiveAdditionalPain(ByteBuffer buffer, UdpConnection connection, short var2) {
       if (PacketChecker.INSTANCE.checkAdditionalPainPacket(connection, buffer)) {
          short var3 = buffer.getShort();
-         IsoPlayer var4 = IDToPlayerMap.get(Short.valueOf(var3));
+         IsoPlayer var4 = PlayerRegistry.INSTANCE.getPlayer(var3);
          if (var4 != null) {
             int var5 = buffer.getInt();
             float var6 = buffer.getFloat();
@@ -3282,8 +3249,7 @@ public class GameServer {
 
    static void receiveRemoveGlass(ByteBuffer buffer, UdpConnection connection, short var2) {
       if (PacketChecker.INSTANCE.checkRemoveGlassPacket(connection, buffer)) {
-         RemoveGlass var3 = new RemoveGlass();
-         var3.parse(buffer, connection);
+         RemoveGlass var3 = PacketChecker.INSTANCE.getContext().packet(RemoveGlass.class, RemoveGlass::new);
          if (var3.isConsistent() && var3.validate(connection)) {
             var3.process();
             for (int var4 = 0; var4 < udpEngine.connections.size(); var4++) {
@@ -3301,8 +3267,7 @@ public class GameServer {
 
    static void receiveRemoveBullet(ByteBuffer buffer, UdpConnection connection, short var2) {
       if (PacketChecker.INSTANCE.checkRemoveBulletPacket(connection, buffer)) {
-         RemoveBullet var3 = new RemoveBullet();
-         var3.parse(buffer, connection);
+         RemoveBullet var3 = PacketChecker.INSTANCE.getContext().packet(RemoveBullet.class, RemoveBullet::new);
          if (var3.isConsistent() && var3.validate(connection)) {
             var3.process();
             for (int var4 = 0; var4 < udpEngine.connections.size(); var4++) {
@@ -3320,8 +3285,7 @@ public class GameServer {
 
    static void receiveCleanBurn(ByteBuffer buffer, UdpConnection connection, short var2) {
       if (PacketChecker.INSTANCE.checkCleanBurnPacket(connection, buffer)) {
-         CleanBurn var3 = new CleanBurn();
-         var3.parse(buffer, connection);
+         CleanBurn var3 = PacketChecker.INSTANCE.getContext().packet(CleanBurn.class, CleanBurn::new);
          if (var3.isConsistent() && var3.validate(connection)) {
             var3.process();
             for (int var4 = 0; var4 < udpEngine.connections.size(); var4++) {
@@ -3359,6 +3323,8 @@ public class GameServer {
       }
    }
 
+   private static final Pattern clientCommandArgs = Pattern.compile("([^\"]\\S*|\".*?\")\\s*");
+
    private static String handleClientCommand(String var0, UdpConnection var1) {
       int var4;
       String[] var5;
@@ -3366,7 +3332,7 @@ public class GameServer {
          return null;
       }
       ArrayList<String> var2 = new ArrayList<>();
-      Matcher var3 = Pattern.compile("([^\"]\\S*|\".*?\")\\s*").matcher(var0);
+      Matcher var3 = clientCommandArgs.matcher(var0);
       while (var3.find()) {
          var2.add(var3.group(1).replace("\"", ""));
       }
@@ -3673,15 +3639,31 @@ public class GameServer {
          } else {
             DebugLog.log(DebugType.Sound, "sound: sending " + var0 + " at every player location x=" + var1 + " y=" + var2);
          }
+         if (!var4) {
+            UdpConnection var9 = UdpConnection.getBroadcast(udpEngine);
+            ByteBufferWriter var10 = var9.startPacket();
+            PacketTypes.PacketType.PlaySoundEveryPlayer.doPacket(var10);
+            var10.putUTF(var0);
+            var10.putInt(var1);
+            var10.putInt(var2);
+            var10.putInt(var3);
+            for (int var11 = 0; var11 < udpEngine.connections.size(); var11++) {
+               UdpConnection var12 = (UdpConnection) udpEngine.connections.get(var11);
+               IsoPlayer var13 = getAnyPlayerFromConnection(var12);
+               if (var13 != null && !var13.isDeaf()) {
+                  var9.addBroadcastTarget(var12);
+               }
+            }
+            sendBroadcast(PacketTypes.PacketType.PlaySoundEveryPlayer, var9);
+            return;
+         }
          for (int var5 = 0; var5 < udpEngine.connections.size(); var5++) {
             UdpConnection var6 = (UdpConnection) udpEngine.connections.get(var5);
             IsoPlayer var7 = getAnyPlayerFromConnection(var6);
             if (var7 != null && !var7.isDeaf()) {
-               if (var4) {
-                  var1 = (int) var7.getX();
-                  var2 = (int) var7.getY();
-                  var3 = (int) var7.getZ();
-               }
+               var1 = (int) var7.getX();
+               var2 = (int) var7.getY();
+               var3 = (int) var7.getZ();
                ByteBufferWriter var8 = var6.startPacket();
                PacketTypes.PacketType.PlaySoundEveryPlayer.doPacket(var8);
                var8.putUTF(var0);
@@ -3799,7 +3781,7 @@ public class GameServer {
 
    static void receiveHumanVisual(ByteBuffer var0, UdpConnection var1, short var2) {
       short var3 = var0.getShort();
-      IsoPlayer var4 = IDToPlayerMap.get(Short.valueOf(var3));
+      IsoPlayer var4 = PlayerRegistry.INSTANCE.getPlayer(var3);
       if (var4 != null) {
          if (!var1.havePlayer(var4)) {
             DebugLog.Network.warn("User " + var1.username + " sent HumanVisual packet for non owned player #" + var4.OnlineID);
@@ -3916,50 +3898,25 @@ public class GameServer {
    }
 
    public static IsoPlayer getPlayerByRealUserName(String var0) {
-      for (int var1 = 0; var1 < udpEngine.connections.size(); var1++) {
-         UdpConnection var2 = (UdpConnection) udpEngine.connections.get(var1);
-         for (int var3 = 0; var3 < 4; var3++) {
-            IsoPlayer var4 = var2.players[var3];
-            if (var4 != null && var4.username.equals(var0)) {
-               return var4;
-            }
-         }
-      }
-      return null;
+      return PlayerRegistry.INSTANCE.getPlayerByUsername(var0);
    }
 
    public static IsoPlayer getPlayerByUserName(String var0) {
-      for (int var1 = 0; var1 < udpEngine.connections.size(); var1++) {
-         UdpConnection var2 = (UdpConnection) udpEngine.connections.get(var1);
-         for (int var3 = 0; var3 < 4; var3++) {
-            IsoPlayer var4 = var2.players[var3];
-            if (var4 != null && (var4.getDisplayName().equals(var0) || var4.getUsername().equals(var0))) {
-               return var4;
-            }
-         }
-      }
-      return null;
+      IsoPlayer var1 = PlayerRegistry.INSTANCE.getPlayerByUsername(var0);
+      return var1 != null ? var1 : PlayerRegistry.INSTANCE.getPlayerByDisplayName(var0, false);
    }
 
    public static IsoPlayer getPlayerByUserNameForCommand(String var0) {
-      for (int var1 = 0; var1 < udpEngine.connections.size(); var1++) {
-         UdpConnection var2 = (UdpConnection) udpEngine.connections.get(var1);
-         for (int var3 = 0; var3 < 4; var3++) {
-            IsoPlayer var4 = var2.players[var3];
-            if (var4 != null && (var4.getDisplayName().equalsIgnoreCase(var0) || var4.getDisplayName().toLowerCase().startsWith(var0.toLowerCase()))) {
-               return var4;
-            }
-         }
-      }
-      return null;
+      IsoPlayer var1 = PlayerRegistry.INSTANCE.getPlayerByDisplayName(var0, true);
+      return var1 != null ? var1 : PlayerRegistry.INSTANCE.getPlayerByDisplayNamePrefix(var0);
    }
 
    public static UdpConnection getConnectionByPlayerOnlineID(short var0) {
-      return udpEngine.getActiveConnection(IDToAddressMap.get(Short.valueOf(var0)).longValue());
+      return udpEngine.getActiveConnection(PlayerRegistry.INSTANCE.getAddress(var0).longValue());
    }
 
    public static UdpConnection getConnectionFromPlayer(IsoPlayer var0) {
-      Long var1 = PlayerToAddressMap.get(var0);
+      Long var1 = PlayerRegistry.INSTANCE.getAddress(var0);
       if (var1 == null) {
          return null;
       }
@@ -4412,36 +4369,39 @@ public class GameServer {
       if (var17 != null && !var17.isExplored()) {
          var17.setExplored(true);
          int var252 = var17.Items.size();
-         ItemPickerJava.fillContainer(var17, IDToPlayerMap.get(Short.valueOf(var4)));
+         ItemPickerJava.fillContainer(var17, PlayerRegistry.INSTANCE.getPlayer(var4));
          if (var252 != var17.Items.size()) {
-            for (int var26 = 0; var26 < udpEngine.connections.size(); var26++) {
-               UdpConnection var20 = (UdpConnection) udpEngine.connections.get(var26);
-               if (var20.RelevantTo(var15.x, var15.y)) {
-                  ByteBufferWriter var21 = var20.startPacket();
-                  PacketTypes.PacketType.AddInventoryItemToContainer.doPacket(var21);
-                  var21.putShort(var10);
-                  var21.putInt(var7);
-                  var21.putInt(var8);
-                  var21.putInt(var9);
-                  if (var10 == 0) {
-                     var21.putByte(var11);
-                  } else if (var10 == 1) {
-                     var21.putInt(var13);
-                  } else if (var10 == 3) {
-                     var21.putShort(var14);
-                     var21.putByte(var12);
-                  } else {
-                     var21.putByte(var11);
-                     var21.putByte(var12);
-                  }
-                  try {
-                     CompressIdenticalItems.save(var21.bb, var17.getItems(), (IsoGameCharacter) null);
-                  } catch (Exception var23) {
-                     var23.printStackTrace();
-                  }
-                  PacketTypes.PacketType.AddInventoryItemToContainer.send(var20);
+            UdpConnection var20 = UdpConnection.getBroadcast(udpEngine);
+            ByteBufferWriter var21 = var20.startPacket();
+            PacketTypes.PacketType.AddInventoryItemToContainer.doPacket(var21);
+            var21.putShort(var10);
+            var21.putInt(var7);
+            var21.putInt(var8);
+            var21.putInt(var9);
+            if (var10 == 0) {
+               var21.putByte(var11);
+            } else if (var10 == 1) {
+               var21.putInt(var13);
+            } else if (var10 == 3) {
+               var21.putShort(var14);
+               var21.putByte(var12);
+            } else {
+               var21.putByte(var11);
+               var21.putByte(var12);
+            }
+            try {
+               CompressIdenticalItems.save(var21.bb, var17.getItems(), (IsoGameCharacter) null);
+            } catch (Exception var23) {
+               var23.printStackTrace();
+            }
+            List<UdpConnection> var27 = InterestIndex.getCandidates(var15.x, var15.y);
+            for (int var26 = 0; var26 < var27.size(); var26++) {
+               UdpConnection var28 = var27.get(var26);
+               if (var28.RelevantTo(var15.x, var15.y)) {
+                  var20.addBroadcastTarget(var28);
                }
             }
+            sendBroadcast(PacketTypes.PacketType.AddInventoryItemToContainer, var20);
          }
       }
    }
@@ -4479,42 +4439,45 @@ public class GameServer {
             return;
          }
          if (!var1.getItems().isEmpty()) {
-            for (int var7 = 0; var7 < udpEngine.connections.size(); var7++) {
-               UdpConnection var8 = (UdpConnection) udpEngine.connections.get(var7);
-               if (var8.RelevantTo(var0.square.x, var0.square.y)) {
-                  ByteBufferWriter var4 = var8.startPacket();
-                  PacketTypes.PacketType.AddInventoryItemToContainer.doPacket(var4);
-                  if (var0 instanceof IsoDeadBody) {
-                     var4.putShort((short) 0);
-                  } else if (var0 instanceof IsoWorldInventoryObject) {
-                     var4.putShort((short) 1);
-                  } else if (var0 instanceof BaseVehicle) {
-                     var4.putShort((short) 3);
-                  } else {
-                     var4.putShort((short) 2);
-                  }
-                  var4.putInt(var0.getSquare().getX());
-                  var4.putInt(var0.getSquare().getY());
-                  var4.putInt(var0.getSquare().getZ());
-                  if (var0 instanceof IsoDeadBody) {
-                     var4.putByte((byte) var0.getStaticMovingObjectIndex());
-                  } else if (var0 instanceof IsoWorldInventoryObject) {
-                     var4.putInt(((IsoWorldInventoryObject) var0).getItem().id);
-                  } else if (var0 instanceof BaseVehicle) {
-                     var4.putShort(((BaseVehicle) var0).VehicleID);
-                     var4.putByte((byte) var1.vehiclePart.getIndex());
-                  } else {
-                     var4.putByte((byte) var0.getObjectIndex());
-                     var4.putByte((byte) var0.getContainerIndex(var1));
-                  }
-                  try {
-                     CompressIdenticalItems.save(var4.bb, var1.getItems(), (IsoGameCharacter) null);
-                  } catch (Exception var6) {
-                     var6.printStackTrace();
-                  }
-                  PacketTypes.PacketType.AddInventoryItemToContainer.send(var8);
+            UdpConnection var8 = UdpConnection.getBroadcast(udpEngine);
+            ByteBufferWriter var4 = var8.startPacket();
+            PacketTypes.PacketType.AddInventoryItemToContainer.doPacket(var4);
+            if (var0 instanceof IsoDeadBody) {
+               var4.putShort((short) 0);
+            } else if (var0 instanceof IsoWorldInventoryObject) {
+               var4.putShort((short) 1);
+            } else if (var0 instanceof BaseVehicle) {
+               var4.putShort((short) 3);
+            } else {
+               var4.putShort((short) 2);
+            }
+            var4.putInt(var0.getSquare().getX());
+            var4.putInt(var0.getSquare().getY());
+            var4.putInt(var0.getSquare().getZ());
+            if (var0 instanceof IsoDeadBody) {
+               var4.putByte((byte) var0.getStaticMovingObjectIndex());
+            } else if (var0 instanceof IsoWorldInventoryObject) {
+               var4.putInt(((IsoWorldInventoryObject) var0).getItem().id);
+            } else if (var0 instanceof BaseVehicle) {
+               var4.putShort(((BaseVehicle) var0).VehicleID);
+               var4.putByte((byte) var1.vehiclePart.getIndex());
+            } else {
+               var4.putByte((byte) var0.getObjectIndex());
+               var4.putByte((byte) var0.getContainerIndex(var1));
+            }
+            try {
+               CompressIdenticalItems.save(var4.bb, var1.getItems(), (IsoGameCharacter) null);
+            } catch (Exception var6) {
+               var6.printStackTrace();
+            }
+            List<UdpConnection> var10 = InterestIndex.getCandidates(var0.square.x, var0.square.y);
+            for (int var7 = 0; var7 < var10.size(); var7++) {
+               UdpConnection var9 = var10.get(var7);
+               if (var9.RelevantTo(var0.square.x, var0.square.y)) {
+                  var8.addBroadcastTarget(var9);
                }
             }
+            sendBroadcast(PacketTypes.PacketType.AddInventoryItemToContainer, var8);
          }
       }
    }
@@ -4665,7 +4628,6 @@ public class GameServer {
    public static void addConnection(UdpConnection connection) {
       synchronized (MainLoopNetDataHighPriorityQ) {
          MainLoopNetDataHighPriorityQ.add(new DelayedConnection(connection, true));
-         PlayerManager.INSTANCE.onQuit(connection);
       }
    }
 
@@ -4697,14 +4659,12 @@ public class GameServer {
          NetworkZombieManager.getInstance().clearTargetAuth(var1, var0);
          var0.removeFromWorld();
          var0.removeFromSquare();
-         PlayerToAddressMap.remove(var0);
-         IDToAddressMap.remove(Short.valueOf(var0.OnlineID));
-         IDToPlayerMap.remove(Short.valueOf(var0.OnlineID));
+         PlayerRegistry.INSTANCE.leave(var0);
          Players.remove(var0);
          SafeHouse.updateSafehousePlayersConnected();
          SafeHouse var6 = SafeHouse.hasSafehouse(var0);
          if (var6 != null && var6.isOwner(var0)) {
-            for (IsoPlayer var4 : IDToPlayerMap.values()) {
+            for (IsoPlayer var4 : Players) {
                var6.checkTrespass(var4);
             }
          }
@@ -4713,6 +4673,7 @@ public class GameServer {
          var1.playerIDs[var0.PlayerIndex] = -1;
          var1.ReleventPos[var0.PlayerIndex] = null;
          var1.connectArea[var0.PlayerIndex] = null;
+         InterestIndex.update(var1);
          for (int var7 = 0; var7 < udpEngine.connections.size(); var7++) {
             UdpConnection var8 = (UdpConnection) udpEngine.connections.get(var7);
             ByteBufferWriter var5 = var8.startPacket();
@@ -4736,19 +4697,7 @@ public class GameServer {
    }
 
    public static short getFreeSlot() {
-      short s = 0;
-      while (true) {
-         short var0 = s;
-         if (var0 < udpEngine.getMaxConnections()) {
-            if (SlotToConnection[var0] != null) {
-               s = (short) (var0 + 1);
-            } else {
-               return var0;
-            }
-         } else {
-            return (short) -1;
-         }
-      }
+      return (short) PlayerRegistry.INSTANCE.getFreeSlot(udpEngine.getMaxConnections());
    }
 
    public static void receiveClientConnect(UdpConnection connection, ServerWorldDatabase.LogonResult var1) {
@@ -4762,17 +4711,16 @@ public class GameServer {
       short var3 = (short) (var2 * 4);
       if (connection.playerDownloadServer != null) {
          try {
-            IDToAddressMap.put(Short.valueOf(var3), Long.valueOf(connection.getConnectedGUID()));
+            PlayerRegistry.INSTANCE.setAddress(var3, connection.getConnectedGUID());
             connection.playerDownloadServer.destroy();
          } catch (Exception var9) {
             var9.printStackTrace();
          }
       }
-      playerToCoordsMap.put(Short.valueOf(var3), new Vector2());
       playerMovedToFastMap.put(Short.valueOf(var3), 0);
-      SlotToConnection[var2] = connection;
+      PlayerRegistry.INSTANCE.connect(var2, connection);
       connection.playerIDs[0] = var3;
-      IDToAddressMap.put(Short.valueOf(var3), Long.valueOf(connection.getConnectedGUID()));
+      PlayerRegistry.INSTANCE.setAddress(var3, connection.getConnectedGUID());
       connection.playerDownloadServer = new PlayerDownloadServer(connection);
       DebugLog.log(DebugType.Network, "Connected new client " + connection.username + " ID # " + var3);
       connection.playerDownloadServer.startConnectionTest();
@@ -4898,6 +4846,7 @@ public class GameServer {
          connection.ReleventPos[var3].z = var7;
          connection.connectArea[var3] = null;
          connection.ChunkGridWidth = var4;
+         InterestIndex.update(connection);
          connection.loadedCells[var3] = new ClientServerMap(var3, (int) var5, (int) var6, var4);
          SurvivorDesc var8 = SurvivorFactory.CreateSurvivor();
          try {
@@ -4920,10 +4869,9 @@ public class GameServer {
             var22.printStackTrace();
          }
          short var10 = connection.playerIDs[var3];
-         IDToPlayerMap.put(Short.valueOf(var10), player);
          connection.players[var3] = player;
-         PlayerToAddressMap.put(player, Long.valueOf(connection.getConnectedGUID()));
          player.setOnlineID(var10);
+         PlayerRegistry.INSTANCE.join(var10, player, connection.getConnectedGUID());
          try {
             player.getXp().load(buffer, 195);
          } catch (IOException var21) {
@@ -4937,6 +4885,7 @@ public class GameServer {
          player.setHoursSurvived(buffer.getDouble());
          player.setZombieKills(buffer.getInt());
          player.setDisplayName(GameWindow.ReadString(buffer));
+         PlayerRegistry.INSTANCE.updateDisplayName(player);
          player.setSpeakColour(new Color(buffer.getFloat(), buffer.getFloat(), buffer.getFloat(), 1.0f));
          player.showTag = buffer.get() == 1;
          player.factionPvp = buffer.get() == 1;
@@ -5002,7 +4951,7 @@ public class GameServer {
             sendPlayerConnect(player, var28);
          }
          SyncInjuriesPacket var27 = new SyncInjuriesPacket();
-         for (IsoPlayer var18 : IDToPlayerMap.values()) {
+         for (IsoPlayer var18 : Players) {
             if (var18.getOnlineID() != player.getOnlineID() && var18.isAlive()) {
                sendPlayerConnect(var18, connection);
                var27.set(var18);
@@ -5116,7 +5065,8 @@ public class GameServer {
             var1.ReleventPos[var4] = new Vector3(var12, var13, 0.0f);
             var1.connectArea[var4] = new Vector3(var12 / 10.0f, var13 / 10.0f, var1.ChunkGridWidth);
             var1.playerIDs[var4] = var10;
-            IDToAddressMap.put(Short.valueOf(var10), Long.valueOf(var1.getConnectedGUID()));
+            InterestIndex.update(var1);
+            PlayerRegistry.INSTANCE.setAddress(var10, var1.getConnectedGUID());
             coopAccessGranted(var4, var1);
             ZombiePopulationManager.instance.updateLoadedAreas();
             if (ChatServer.isInited()) {
@@ -5129,20 +5079,7 @@ public class GameServer {
             coopAccessDenied("Server is full", var4, var1);
             return;
          }
-         short var102 = -1;
-         short s = 0;
-         while (true) {
-            short var11 = s;
-            if (var11 >= udpEngine.getMaxConnections()) {
-               break;
-            }
-            if (SlotToConnection[var11] != var1) {
-               s = (short) (var11 + 1);
-            } else {
-               var102 = var11;
-               break;
-            }
-         }
+         short var102 = (short) PlayerRegistry.INSTANCE.getSlot(var1);
          short var112 = (short) ((var102 * 4) + var4);
          DebugLog.log("coop player=" + (var4 + 1) + "/4 username=\"" + var52 + "\" assigned id=" + var112);
          float var132 = var0.getFloat();
@@ -5151,7 +5088,8 @@ public class GameServer {
          var1.ReleventPos[var4] = new Vector3(var132, var9, 0.0f);
          var1.playerIDs[var4] = var112;
          var1.connectArea[var4] = new Vector3(var132 / 10.0f, var9 / 10.0f, var1.ChunkGridWidth);
-         IDToAddressMap.put(Short.valueOf(var112), Long.valueOf(var1.getConnectedGUID()));
+         InterestIndex.update(var1);
+         PlayerRegistry.INSTANCE.setAddress(var112, var1.getConnectedGUID());
          coopAccessGranted(var4, var1);
          ZombiePopulationManager.instance.updateLoadedAreas();
          return;
@@ -5249,8 +5187,8 @@ public class GameServer {
    }
 
    public static void sendSlowFactor(IsoGameCharacter var0) {
-      if ((var0 instanceof IsoPlayer) && PlayerToAddressMap.containsKey(var0)) {
-         long var1 = PlayerToAddressMap.get((IsoPlayer) var0).longValue();
+      if ((var0 instanceof IsoPlayer) && PlayerRegistry.INSTANCE.isOnline((IsoPlayer) var0)) {
+         long var1 = PlayerRegistry.INSTANCE.getAddress((IsoPlayer) var0).longValue();
          UdpConnection var3 = udpEngine.getActiveConnection(var1);
          if (var3 != null) {
             ByteBufferWriter var4 = var3.startPacket();
@@ -6011,6 +5949,7 @@ public class GameServer {
          var0.playerDownloadServer = null;
       }
       RequestDataManager.getInstance().disconnect(var0);
+      PlayerManager.INSTANCE.onQuit(var0);
       for (int var2 = 0; var2 < 4; var2++) {
          IsoPlayer var3 = var0.players[var2];
          if (var3 != null) {
@@ -6023,14 +5962,8 @@ public class GameServer {
          var0.ReleventPos[var2] = null;
          var0.connectArea[var2] = null;
       }
-      for (int var22 = 0; var22 < udpEngine.getMaxConnections(); var22++) {
-         if (SlotToConnection[var22] == var0) {
-            SlotToConnection[var22] = null;
-         }
-      }
-      IDToAddressMap.entrySet().removeIf(var6 -> {
-         return ((Long) var6.getValue()).longValue() == var0.getConnectedGUID();
-      });
+      InterestIndex.remove(var0);
+      PlayerRegistry.INSTANCE.disconnect(var0);
       if (!SteamUtils.isSteamModeEnabled()) {
          PublicServerUtil.updatePlayers();
       }
@@ -6044,6 +5977,10 @@ public class GameServer {
    }
 
    public static void addIncoming(short var0, ByteBuffer var1, UdpConnection var2) {
+      int var4 = PacketRateLimiter.INSTANCE.test(var2, var0);
+      if (var4 == PacketRateLimiter.DROP) {
+         return;
+      }
       ZomboidNetData var3;
       if (var1.limit() > 2048) {
          var3 = ZomboidNetDataPool.instance.getLong(var1.limit());
@@ -6051,6 +5988,7 @@ public class GameServer {
          var3 = ZomboidNetDataPool.instance.get();
       }
       var3.read(var0, var1, var2);
+      PacketPrecheck.INSTANCE.forget(var3);
       if (var3.type == null) {
          try {
             if (ServerOptions.instance.AntiCheatProtectionType13.getValue() && PacketValidator.checkUser(var2)) {
@@ -6063,21 +6001,36 @@ public class GameServer {
          }
       }
       var3.time = System.currentTimeMillis();
-      if (var3.type != PacketTypes.PacketType.PlayerUpdate && var3.type != PacketTypes.PacketType.PlayerUpdateReliable) {
-         if (var3.type != PacketTypes.PacketType.VehiclesUnreliable && var3.type != PacketTypes.PacketType.Vehicles) {
-            MainLoopNetDataHighPriorityQ.add(var3);
-            return;
-         }
-         byte var4 = var3.buffer.get(0);
-         if (var4 == 9) {
-            MainLoopNetDataQ.add(var3);
-            return;
-         } else {
-            MainLoopNetDataHighPriorityQ.add(var3);
-            return;
-         }
+      if (var4 == PacketRateLimiter.DEFER && var3.type != PacketTypes.PacketType.PlayerUpdate && var3.type != PacketTypes.PacketType.PlayerUpdateReliable) {
+         MainLoopNetDataDeferredQ.add(var3);
+         return;
+      }
+      if (PacketPrecheck.INSTANCE.getEnabled() && isHighPriorityIncoming(var3)) {
+         PacketPrecheck.INSTANCE.submit(var3, var2);
+         return;
+      }
+      queueIncoming(var3);
+   }
+
+   private static boolean isHighPriorityIncoming(ZomboidNetData data) {
+      if (data.type == PacketTypes.PacketType.PlayerUpdate || data.type == PacketTypes.PacketType.PlayerUpdateReliable) {
+         return false;
+      }
+      return (data.type != PacketTypes.PacketType.VehiclesUnreliable && data.type != PacketTypes.PacketType.Vehicles) || data.buffer.get(0) != 9;
+   }
+
+   /**
+    * Queues a received packet for the main loop. Called from the network thread, or from the pre-check workers once
+    * a packet has passed.
+    */
+   public static void queueIncoming(ZomboidNetData data) {
+      if (data.type == PacketTypes.PacketType.PlayerUpdate || data.type == PacketTypes.PacketType.PlayerUpdateReliable) {
+         MainLoopPlayerUpdateQ.add(data);
+      } else if (isHighPriorityIncoming(data)) {
+         MainLoopNetDataHighPriorityQ.add(data);
+      } else {
+         MainLoopNetDataQ.add(data);
       }
-      MainLoopPlayerUpdateQ.add(var3);
    }
 
    public static void smashWindow(IsoWindow var0, int var1) {
@@ -6116,15 +6069,17 @@ public class GameServer {
 
    private static void sendHitCharacter(HitCharacterPacket var0, UdpConnection var1) {
       DebugLog.Damage.trace(var0.getDescription());
+      UdpConnection var5 = UdpConnection.getBroadcast(udpEngine);
+      ByteBufferWriter var4 = var5.startPacket();
+      PacketTypes.PacketType.HitCharacter.doPacket(var4);
+      var0.write(var4);
       for (int var2 = 0; var2 < udpEngine.connections.size(); var2++) {
          UdpConnection var3 = (UdpConnection) udpEngine.connections.get(var2);
          if (var3.getConnectedGUID() != var1.getConnectedGUID() && var0.isRelevant(var3)) {
-            ByteBufferWriter var4 = var3.startPacket();
-            PacketTypes.PacketType.HitCharacter.doPacket(var4);
-            var0.write(var4);
-            PacketTypes.PacketType.HitCharacter.send(var3);
+            var5.addBroadcastTarget(var3);
          }
       }
+      sendBroadcast(PacketTypes.PacketType.HitCharacter, var5);
    }
 
    static void receiveZombieDeath(ByteBuffer var0, UdpConnection var1, short var2) {
@@ -6162,20 +6117,24 @@ public class GameServer {
          if (Core.bDebug) {
             DebugLog.Multiplayer.debugln("SendZombieDeath: %s", var0.getDescription());
          }
-         for (int var1 = 0; var1 < udpEngine.connections.size(); var1++) {
-            UdpConnection var2 = (UdpConnection) udpEngine.connections.get(var1);
+         UdpConnection var4 = UdpConnection.getBroadcast(udpEngine);
+         ByteBufferWriter var3 = var4.startPacket();
+         PacketTypes.PacketType.ZombieDeath.doPacket(var3);
+         try {
+            var0.write(var3);
+         } catch (Exception var5) {
+            var4.cancelPacket();
+            DebugLog.Multiplayer.printException(var5, "SendZombieDeath: failed", LogSeverity.Error);
+            return;
+         }
+         List<UdpConnection> var6 = InterestIndex.getCandidates(var0.getZombie().getX(), var0.getZombie().getY());
+         for (int var1 = 0; var1 < var6.size(); var1++) {
+            UdpConnection var2 = var6.get(var1);
             if (var2.RelevantTo(var0.getZombie().getX(), var0.getZombie().getY())) {
-               ByteBufferWriter var3 = var2.startPacket();
-               PacketTypes.PacketType.ZombieDeath.doPacket(var3);
-               try {
-                  var0.write(var3);
-                  PacketTypes.PacketType.ZombieDeath.send(var2);
-               } catch (Exception var5) {
-                  var2.cancelPacket();
-                  DebugLog.Multiplayer.printException(var5, "SendZombieDeath: failed", LogSeverity.Error);
-               }
+               var4.addBroadcastTarget(var2);
             }
          }
+         sendBroadcast(PacketTypes.PacketType.ZombieDeath, var4);
       } catch (Exception var6) {
          DebugLog.Multiplayer.printException(var6, "SendZombieDeath: failed", LogSeverity.Error);
       }
@@ -6184,8 +6143,7 @@ public class GameServer {
    static void receivePlayerDeath(ByteBuffer buffer, UdpConnection connection, short var2) {
       if (PacketChecker.INSTANCE.checkPlayerDeathPacket(connection, buffer)) {
          try {
-            DeadPlayerPacket var3 = new DeadPlayerPacket();
-            var3.parse(buffer, connection);
+            DeadPlayerPacket var3 = PacketChecker.INSTANCE.getContext().packet(DeadPlayerPacket.class, DeadPlayerPacket::new);
             if (Core.bDebug) {
                DebugLog.Multiplayer.debugln("ReceivePlayerDeath: %s", var3.getDescription());
             }
@@ -6666,7 +6624,7 @@ public class GameServer {
       tempPlayers.clear();
       for (int var4 = 0; var4 < var3; var4++) {
          int var5 = var0.getShort();
-         IsoPlayer var6 = IDToPlayerMap.get(Short.valueOf((short) var5));
+         IsoPlayer var6 = PlayerRegistry.INSTANCE.getPlayer((short) var5);
          if (shouldSendWorldMapPlayerPosition(var1, var6)) {
             tempPlayers.add(var6);
          }
@@ -6694,21 +6652,19 @@ public class GameServer {
       }
    }
 
-   private static void syncClock(UdpConnection var0) {
-      GameTime var1 = GameTime.getInstance();
-      ByteBufferWriter var2 = var0.startPacket();
-      PacketTypes.PacketType.SyncClock.doPacket(var2);
-      var2.putBoolean(bFastForward);
-      var2.putFloat(var1.getTimeOfDay());
-      var2.putInt(var1.getNightsSurvived());
-      PacketTypes.PacketType.SyncClock.send(var0);
-   }
-
    public static void syncClock() {
+      GameTime var2 = GameTime.getInstance();
+      UdpConnection var3 = UdpConnection.getBroadcast(udpEngine);
+      ByteBufferWriter var4 = var3.startPacket(64);
+      PacketTypes.PacketType.SyncClock.doPacket(var4);
+      var4.putBoolean(bFastForward);
+      var4.putFloat(var2.getTimeOfDay());
+      var4.putInt(var2.getNightsSurvived());
       for (int var0 = 0; var0 < udpEngine.connections.size(); var0++) {
          UdpConnection var1 = (UdpConnection) udpEngine.connections.get(var0);
-         syncClock(var1);
+         var3.addBroadcastTarget(var1);
       }
+      sendBroadcast(PacketTypes.PacketType.SyncClock, var3);
    }
 
    public static void sendServerCommand(String var0, String var1, KahluaTable var2, UdpConnection var3) {
@@ -6769,8 +6725,8 @@ public class GameServer {
    }
 
    public static void sendServerCommand(IsoPlayer var0, String var1, String var2, KahluaTable var3) {
-      if (PlayerToAddressMap.containsKey(var0)) {
-         long var4 = PlayerToAddressMap.get(var0).longValue();
+      if (PlayerRegistry.INSTANCE.isOnline(var0)) {
+         long var4 = PlayerRegistry.INSTANCE.getAddress(var0).longValue();
          UdpConnection var6 = udpEngine.getActiveConnection(var4);
          if (var6 != null) {
             sendServerCommand(var1, var2, var3, var6);
@@ -6903,7 +6859,7 @@ public class GameServer {
    }
 
    public static void sendReanimatedZombieID(IsoPlayer var0, IsoZombie var1) {
-      if (PlayerToAddressMap.containsKey(var0)) {
+      if (PlayerRegistry.INSTANCE.isOnline(var0)) {
          sendObjectChange((IsoObject) var0, "reanimatedID", "ID", Double.valueOf(var1.OnlineID));
       }
    }
@@ -6932,7 +6888,7 @@ public class GameServer {
       SafeHouse var5;
       UdpConnection var6;
       try {
-         IsoPlayer var3 = IDToPlayerMap.get(Short.valueOf(var0.getShort()));
+         IsoPlayer var3 = PlayerRegistry.INSTANCE.getPlayer(var0.getShort());
          if (var3 == null || (var4 = var1.players[0]) == null || (var5 = SafeHouse.hasSafehouse(var4)) == null || !var5.isOwner(var4) || !var5.playerAllowed(var3) || (var6 = getConnectionFromPlayer(var3)) == null) {
             return;
          }
@@ -7311,59 +7267,25 @@ public class GameServer {
       if (PacketChecker.INSTANCE.checkGetTableResultPacket(connection, buffer)) {
          int var3 = buffer.getInt();
          String var4 = GameWindow.ReadString(buffer);
-         ArrayList<DBResult> var5 = ServerWorldDatabase.instance.getTableResult(var4);
-         for (int var6 = 0; var6 < udpEngine.connections.size(); var6++) {
-            UdpConnection var7 = (UdpConnection) udpEngine.connections.get(var6);
-            if (var7.getConnectedGUID() == connection.getConnectedGUID()) {
-               doTableResult(var7, var4, var5, 0, var3);
-            }
-         }
+         TableResultStreamer.INSTANCE.request(connection, var4, var3);
       }
    }
 
-   private static void doTableResult(UdpConnection var0, String var1, ArrayList<DBResult> var2, int var3, int var4) {
-      int var5 = 0;
-      boolean var6 = true;
-      ByteBufferWriter var7 = var0.startPacket();
-      PacketTypes.PacketType.GetTableResult.doPacket(var7);
-      var7.putInt(var3);
-      var7.putUTF(var1);
-      if (var2.size() < var4) {
-         var7.putInt(var2.size());
-      } else {
-         var7.putInt(Math.min(var2.size() - var3, var4));
-      }
-      int var8 = var3;
-      while (true) {
-         if (var8 >= var2.size()) {
-            break;
-         }
-         DBResult var9 = null;
-         try {
-            var9 = var2.get(var8);
-            var7.putInt(var9.getColumns().size());
-         } catch (Exception var12) {
-            var12.printStackTrace();
-         }
-         Iterator it = var9.getColumns().iterator();
-         while (it.hasNext()) {
-            String var11 = (String) it.next();
-            var7.putUTF(var11);
-            var7.putUTF((String) var9.getValues().get(var11));
-         }
-         var5++;
-         if (var5 < var4) {
-            var8++;
-         } else {
-            var6 = false;
-            PacketTypes.PacketType.GetTableResult.send(var0);
-            doTableResult(var0, var1, var2, var3 + var5, var4);
-            break;
+   public static void sendTableResult(UdpConnection var0, String var1, ArrayList<DBResult> var2, int var3) {
+      ByteBufferWriter var4 = var0.startPacket();
+      PacketTypes.PacketType.GetTableResult.doPacket(var4);
+      var4.putInt(var3);
+      var4.putUTF(var1);
+      var4.putInt(var2.size());
+      for (DBResult var6 : var2) {
+         var4.putInt(var6.getColumns().size());
+         for (Object var7 : var6.getColumns()) {
+            String var8 = (String) var7;
+            var4.putUTF(var8);
+            var4.putUTF((String) var6.getValues().get(var8));
          }
       }
-      if (var6) {
-         PacketTypes.PacketType.GetTableResult.send(var0);
-      }
+      PacketTypes.PacketType.GetTableResult.send(var0);
    }
 
    static void receiveExecuteQuery(ByteBuffer buffer, UdpConnection connection, short var2) throws SQLException {
@@ -7385,7 +7307,7 @@ public class GameServer {
       String var5 = GameWindow.ReadString(var0);
       IsoPlayer var6 = getPlayerByUserName(var5);
       if (var6 != null) {
-         Long var7 = IDToAddressMap.get(Short.valueOf(var6.getOnlineID()));
+         Long var7 = PlayerRegistry.INSTANCE.getAddress(var6.getOnlineID());
          for (int var8 = 0; var8 < udpEngine.connections.size(); var8++) {
             UdpConnection var9 = (UdpConnection) udpEngine.connections.get(var8);
             if (var9.getConnectedGUID() == var7.longValue()) {
@@ -7405,7 +7327,7 @@ public class GameServer {
       String var3 = GameWindow.ReadString(var0);
       String var4 = GameWindow.ReadString(var0);
       IsoPlayer var5 = getPlayerByUserName(var4);
-      Long var6 = IDToAddressMap.get(Short.valueOf(var5.getOnlineID()));
+      Long var6 = PlayerRegistry.INSTANCE.getAddress(var5.getOnlineID());
       for (int var7 = 0; var7 < udpEngine.connections.size(); var7++) {
          UdpConnection var8 = (UdpConnection) udpEngine.connections.get(var7);
          if (var8.getConnectedGUID() == var6.longValue() && (var9 = Faction.getPlayerFaction(var8.username)) != null && var9.getName().equals(var3)) {
@@ -7488,11 +7410,11 @@ public class GameServer {
    static void receiveSendItemListNet(ByteBuffer var0, UdpConnection var1, short var2) {
       IsoPlayer var3 = null;
       if (var0.get() == 1) {
-         var3 = IDToPlayerMap.get(Short.valueOf(var0.getShort()));
+         var3 = PlayerRegistry.INSTANCE.getPlayer(var0.getShort());
       }
       IsoPlayer var4 = null;
       if (var0.get() == 1) {
-         var4 = IDToPlayerMap.get(Short.valueOf(var0.getShort()));
+         var4 = PlayerRegistry.INSTANCE.getPlayer(var0.getShort());
       }
       String var5 = GameWindow.ReadString(var0);
       String var6 = null;
@@ -7747,7 +7669,7 @@ public class GameServer {
       String var4 = GameWindow.ReadString(var0);
       String var5 = GameWindow.ReadString(var0);
       IsoPlayer var6 = getPlayerByUserName(var5);
-      Long var7 = IDToAddressMap.get(Short.valueOf(var6.getOnlineID()));
+      Long var7 = PlayerRegistry.INSTANCE.getAddress(var6.getOnlineID());
       int var8 = var0.getInt();
       int var9 = var0.getInt();
       int var10 = var0.getInt();
@@ -7822,7 +7744,7 @@ public class GameServer {
    static void receiveSneezeCough(ByteBuffer var0, UdpConnection var1, short var2) {
       short var3 = var0.getShort();
       byte var4 = var0.get();
-      IsoPlayer var5 = IDToPlayerMap.get(Short.valueOf(var3));
+      IsoPlayer var5 = PlayerRegistry.INSTANCE.getPlayer(var3);
       if (var5 != null) {
          float var6 = var5.x;
          float var7 = var5.y;
@@ -7843,7 +7765,7 @@ public class GameServer {
    static void receiveBurnCorpse(ByteBuffer var0, UdpConnection var1, short var2) {
       short var3 = var0.getShort();
       short var4 = var0.getShort();
-      IsoPlayer var5 = IDToPlayerMap.get(Short.valueOf(var3));
+      IsoPlayer var5 = PlayerRegistry.INSTANCE.getPlayer(var3);
       if (var5 == null) {
          DebugLog.Network.warn("Player not found by id " + var3);
          return;
@@ -18,7 +18,10 @@ import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Locale;
+import java.util.Objects;
 import java.util.Scanner;
+import java.util.concurrent.LinkedBlockingQueue;
 import se.krka.kahlua.vm.KahluaTable;
 import se.krka.kahlua.vm.KahluaTableIterator;
 import zombie.ZomboidFileSystem;
@@ -39,9 +42,19 @@ public class ServerWorldDatabase {
    public DBSchema dbSchema = null;
    static CharsetEncoder asciiEncoder;
    Connection conn;
+   private final HashMap<String, PreparedStatement> statements = new HashMap<>();
+   private final LinkedBlockingQueue<ServerWorldDatabase.Write> writes = new LinkedBlockingQueue<>();
+   private volatile Thread writer;
+   private boolean userlogUpsert = false;
+   private boolean shutdownHook = false;
+   private final HashMap<String, String> bannedIps = new HashMap<>();
+   private final HashMap<String, String> bannedSteamIds = new HashMap<>();
+   private final HashMap<String, Integer> whitelistUsers = new HashMap<>();
+   private boolean authCacheLoaded = false;
+   private static final long WRITE_FLUSH_INTERVAL_MS = 100L;
    private static final String nullChar;
 
-   public DBSchema getDBSchema() {
+   public synchronized DBSchema getDBSchema() {
       if (this.dbSchema == null) {
          this.dbSchema = new DBSchema(this.conn);
       }
@@ -49,7 +62,7 @@ public class ServerWorldDatabase {
       return this.dbSchema;
    }
 
-   public void executeQuery(String var1, KahluaTable var2) throws SQLException {
+   public synchronized void executeQuery(String var1, KahluaTable var2) throws SQLException {
       PreparedStatement var3 = this.conn.prepareStatement(var1);
       KahluaTableIterator var4 = var2.iterator();
       int var5 = 1;
@@ -59,110 +72,176 @@ public class ServerWorldDatabase {
       }
 
       var3.executeUpdate();
+      var3.close();
+      this.loadAuthCache();
    }
 
    public ArrayList getTableResult(String var1) throws SQLException {
+      System.out.println("Received getTableResult(..) for table " + var1);
       ArrayList var2 = new ArrayList();
-      String var3 = "SELECT * FROM " + var1;
-      if ("userlog".equals(var1)) {
-         var3 = var3 + " ORDER BY lastUpdate DESC";
+      ArrayList var3 = this.getTableColumns(var1);
+      if (var3.isEmpty()) {
+         return var2;
+      } else {
+         ServerWorldDatabase.TableCursor var4 = new ServerWorldDatabase.TableCursor();
+
+         ArrayList var5;
+         do {
+            var5 = this.getTablePage(var1, var3, var4, 500);
+            var2.addAll(var5);
+         } while(var5.size() == 500);
+
+         return var2;
       }
+   }
 
-      System.out.println("Received getTableResult(..).\nThe SQL:\n\n" + var3 + "\n\n");
-      PreparedStatement var4 = this.conn.prepareStatement(var3);
-      ResultSet var5 = var4.executeQuery();
-      DatabaseMetaData var6 = this.conn.getMetaData();
-      ResultSet var7 = var6.getColumns((String)null, (String)null, var1, (String)null);
-      ArrayList var8 = new ArrayList();
-      DBResult var9 = new DBResult();
-
-      while(var7.next()) {
-         String var10 = var7.getString(4);
-         if (!var10.equals("world") && !var10.equals("moderator") && !var10.equals("admin") && !var10.equals("password") && !var10.equals("encryptedPwd") && !var10.equals("pwdEncryptType") && !var10.equals("transactionID")) {
-            var8.add(var10);
+   public synchronized ArrayList<String> getTableColumns(String var1) throws SQLException {
+      ArrayList var2 = new ArrayList();
+      ResultSet var3 = this.conn.getMetaData().getColumns((String)null, (String)null, var1, (String)null);
+
+      try {
+         while(var3.next()) {
+            String var4 = var3.getString(4);
+            if (!var4.equals("world") && !var4.equals("moderator") && !var4.equals("admin") && !var4.equals("password") && !var4.equals("encryptedPwd") && !var4.equals("pwdEncryptType") && !var4.equals("transactionID")) {
+               var2.add(var4);
+            }
          }
+      } finally {
+         var3.close();
       }
 
-      var9.setColumns(var8);
-      var9.setTableName(var1);
+      return var2;
+   }
 
-      while(var5.next()) {
-         String var11;
-         String var12;
-         for(Iterator var13 = var8.iterator(); var13.hasNext(); var9.getValues().put(var11, var12)) {
-            var11 = (String)var13.next();
-            var12 = var5.getString(var11);
-            if ("'false'".equals(var12)) {
-               var12 = "false";
+   public synchronized ArrayList<DBResult> getTablePage(String var1, ArrayList<String> var2, ServerWorldDatabase.TableCursor var3, int var4) throws SQLException {
+      ArrayList var5 = new ArrayList();
+      if (var2.isEmpty()) {
+         return var5;
+      } else if (!"userlog".equals(var1)) {
+         PreparedStatement var6 = this.prepare("SELECT rowid, * FROM [" + var1 + "] WHERE rowid > ? ORDER BY rowid LIMIT ?");
+         var6.setLong(1, var3.rowid);
+         var6.setInt(2, var4);
+         this.readTablePage(var6, var1, var2, var3, var5, false);
+         return var5;
+      } else {
+         PreparedStatement var7;
+         if (!var3.nullPhase) {
+            if (var3.lastUpdate == null) {
+               var7 = this.prepare("SELECT rowid, * FROM userlog WHERE lastUpdate IS NOT NULL ORDER BY lastUpdate DESC, rowid DESC LIMIT ?");
+               var7.setInt(1, var4);
+            } else {
+               var7 = this.prepare("SELECT rowid, * FROM userlog WHERE lastUpdate IS NOT NULL AND (lastUpdate, rowid) < (?, ?) ORDER BY lastUpdate DESC, rowid DESC LIMIT ?");
+               var7.setString(1, var3.lastUpdate);
+               var7.setLong(2, var3.rowid);
+               var7.setInt(3, var4);
             }
 
-            if ("'true'".equals(var12)) {
-               var12 = "true";
+            this.readTablePage(var7, var1, var2, var3, var5, true);
+            if (var5.size() == var4) {
+               return var5;
             }
 
-            if (var12 == null) {
-               var12 = "";
-            }
+            var3.nullPhase = true;
+            var3.rowid = Long.MAX_VALUE;
          }
 
-         var2.add(var9);
-         var9 = new DBResult();
-         var9.setColumns(var8);
-         var9.setTableName(var1);
+         var7 = this.prepare("SELECT rowid, * FROM userlog WHERE lastUpdate IS NULL AND rowid < ? ORDER BY rowid DESC LIMIT ?");
+         var7.setLong(1, var3.rowid);
+         var7.setInt(2, var4 - var5.size());
+         this.readTablePage(var7, var1, var2, var3, var5, false);
+         return var5;
       }
-
-      var4.close();
-      return var2;
    }
 
-   public void saveAllTransactionsID(HashMap var1) {
+   private void readTablePage(PreparedStatement var1, String var2, ArrayList<String> var3, ServerWorldDatabase.TableCursor var4, ArrayList<DBResult> var5, boolean var6) throws SQLException {
+      ResultSet var7 = var1.executeQuery();
+
       try {
-         Iterator var2 = var1.keySet().iterator();
-
-         while(var2.hasNext()) {
-            String var4 = (String)var2.next();
-            Integer var5 = (Integer)var1.get(var4);
-            PreparedStatement var3 = this.conn.prepareStatement("UPDATE whitelist SET transactionID = ? WHERE username = ?");
-            var3.setString(1, var5.toString());
-            var3.setString(2, var4);
-            var3.executeUpdate();
-            var3.close();
+         while(var7.next()) {
+            DBResult var8 = new DBResult();
+            var8.setColumns(var3);
+            var8.setTableName(var2);
+            Iterator var9 = var3.iterator();
+
+            while(var9.hasNext()) {
+               String var10 = (String)var9.next();
+               String var11 = var7.getString(var10);
+               if ("'false'".equals(var11)) {
+                  var11 = "false";
+               }
+
+               if ("'true'".equals(var11)) {
+                  var11 = "true";
+               }
+
+               if (var11 == null) {
+                  var11 = "";
+               }
+
+               var8.getValues().put(var10, var11);
+            }
+
+            var4.rowid = var7.getLong(1);
+            if (var6) {
+               var4.lastUpdate = var7.getString("lastUpdate");
+            }
+
+            var5.add(var8);
          }
-      } catch (Exception var6) {
-         var6.printStackTrace();
+      } finally {
+         var7.close();
       }
 
    }
 
-   public void saveTransactionID(String var1, Integer var2) {
+   public void saveAllTransactionsID(HashMap var1) {
+      HashMap var2 = new HashMap(var1);
+      this.queueWrite(() -> {
+         PreparedStatement var3 = this.prepare("UPDATE whitelist SET transactionID = ? WHERE username = ?");
+         Iterator var4 = var2.keySet().iterator();
+
+         while(var4.hasNext()) {
+            String var5 = (String)var4.next();
+            var3.setString(1, var2.get(var5).toString());
+            var3.setString(2, var5);
+            var3.addBatch();
+         }
+
+         var3.executeBatch();
+      });
+   }
+
+   public synchronized void saveTransactionID(String var1, Integer var2) {
       try {
          if (!this.containsUser(var1)) {
             this.addUser(var1, "");
          }
 
-         PreparedStatement var3 = this.conn.prepareStatement("UPDATE whitelist SET transactionID = ? WHERE username = ?");
-         var3.setString(1, var2.toString());
-         var3.setString(2, var1);
-         var3.executeUpdate();
-         var3.close();
+         String var3 = var2.toString();
+         this.queueWrite(() -> {
+            PreparedStatement var4 = this.prepare("UPDATE whitelist SET transactionID = ? WHERE username = ?");
+            var4.setString(1, var3);
+            var4.setString(2, var1);
+            var4.executeUpdate();
+         });
       } catch (Exception var4) {
          var4.printStackTrace();
       }
 
    }
 
-   public boolean containsUser(String var1) {
+   public synchronized boolean containsUser(String var1) {
       try {
-         PreparedStatement var2 = this.conn.prepareStatement("SELECT * FROM whitelist WHERE username = ? AND world = ?");
+         PreparedStatement var2 = this.prepare("SELECT * FROM whitelist WHERE username = ? AND world = ?");
          var2.setString(1, var1);
          var2.setString(2, Core.GameSaveWorld);
          ResultSet var3 = var2.executeQuery();
          if (var3.next()) {
-            var2.close();
+            var3.close();
             return true;
          }
 
-         var2.close();
+         var3.close();
       } catch (SQLException var4) {
          var4.printStackTrace();
       }
@@ -170,18 +249,18 @@ public class ServerWorldDatabase {
       return false;
    }
 
-   public boolean containsCaseinsensitiveUser(String var1) {
+   public synchronized boolean containsCaseinsensitiveUser(String var1) {
       try {
-         PreparedStatement var2 = this.conn.prepareStatement("SELECT * FROM whitelist WHERE LOWER(username) = LOWER(?) AND world = ?");
+         PreparedStatement var2 = this.prepare("SELECT * FROM whitelist WHERE username = ? COLLATE NOCASE AND world = ?");
          var2.setString(1, var1);
          var2.setString(2, Core.GameSaveWorld);
          ResultSet var3 = var2.executeQuery();
          if (var3.next()) {
-            var2.close();
+            var3.close();
             return true;
          }
 
-         var2.close();
+         var3.close();
       } catch (SQLException var4) {
          var4.printStackTrace();
       }
@@ -189,7 +268,7 @@ public class ServerWorldDatabase {
       return false;
    }
 
-   public String changeUsername(String var1, String var2) throws SQLException {
+   public synchronized String changeUsername(String var1, String var2) throws SQLException {
       PreparedStatement var3 = this.conn.prepareStatement("SELECT * FROM whitelist WHERE username = ? AND world = ?");
       var3.setString(1, var1);
       var3.setString(2, Core.GameSaveWorld);
@@ -200,7 +279,11 @@ public class ServerWorldDatabase {
          var3 = this.conn.prepareStatement("UPDATE whitelist SET username = ? WHERE id = ?");
          var3.setString(1, var2);
          var3.setString(2, var5);
-         var3.executeUpdate();
+         if (var3.executeUpdate() > 0) {
+            this.cacheUser(var1, -1);
+            this.cacheUser(var2, 1);
+         }
+
          var3.close();
          return "Changed " + var1 + " user's name into " + var2;
       } else {
@@ -208,7 +291,7 @@ public class ServerWorldDatabase {
       }
    }
 
-   public String addUser(String var1, String var2) throws SQLException {
+   public synchronized String addUser(String var1, String var2) throws SQLException {
       if (this.containsCaseinsensitiveUser(var1)) {
          return "A user with this name already exists";
       } else {
@@ -227,7 +310,7 @@ public class ServerWorldDatabase {
             var3.setString(1, Core.GameSaveWorld);
             var3.setString(2, var1);
             var3.setString(3, var2);
-            var3.executeUpdate();
+            this.cacheUser(var1, var3.executeUpdate());
             var3.close();
          } catch (SQLException var5) {
             var5.printStackTrace();
@@ -237,7 +320,7 @@ public class ServerWorldDatabase {
       }
    }
 
-   public void updateDisplayName(String var1, String var2) {
+   public synchronized void updateDisplayName(String var1, String var2) {
       try {
          PreparedStatement var3 = this.conn.prepareStatement("SELECT * FROM whitelist WHERE username = ? AND world = ?");
          var3.setString(1, var1);
@@ -259,19 +342,19 @@ public class ServerWorldDatabase {
 
    }
 
-   public String getDisplayName(String var1) {
+   public synchronized String getDisplayName(String var1) {
       try {
-         PreparedStatement var2 = this.conn.prepareStatement("SELECT * FROM whitelist WHERE username = ? AND world = ?");
+         PreparedStatement var2 = this.prepare("SELECT * FROM whitelist WHERE username = ? AND world = ?");
          var2.setString(1, var1);
          var2.setString(2, Core.GameSaveWorld);
          ResultSet var3 = var2.executeQuery();
          if (var3.next()) {
             String var4 = var3.getString("displayName");
-            var2.close();
+            var3.close();
             return var4;
          }
 
-         var2.close();
+         var3.close();
       } catch (SQLException var5) {
          var5.printStackTrace();
       }
@@ -279,12 +362,12 @@ public class ServerWorldDatabase {
       return null;
    }
 
-   public String removeUser(String var1) throws SQLException {
+   public synchronized String removeUser(String var1) throws SQLException {
       try {
          PreparedStatement var2 = this.conn.prepareStatement("DELETE FROM whitelist WHERE world = ? and username = ?");
          var2.setString(1, Core.GameSaveWorld);
          var2.setString(2, var1);
-         var2.executeUpdate();
+         this.cacheUser(var1, -var2.executeUpdate());
          var2.close();
       } catch (SQLException var3) {
          var3.printStackTrace();
@@ -294,17 +377,13 @@ public class ServerWorldDatabase {
    }
 
    public void removeUserLog(String var1, String var2, String var3) throws SQLException {
-      try {
-         PreparedStatement var4 = this.conn.prepareStatement("DELETE FROM userlog WHERE username = ? AND type = ? AND text = ?");
+      this.queueWrite(() -> {
+         PreparedStatement var4 = this.prepare("DELETE FROM userlog WHERE username = ? AND type = ? AND text = ?");
          var4.setString(1, var1);
          var4.setString(2, var2);
          var4.setString(3, var3);
          var4.executeUpdate();
-         var4.close();
-      } catch (SQLException var5) {
-         var5.printStackTrace();
-      }
-
+      });
    }
 
    public void create() throws SQLException, ClassNotFoundException {
@@ -347,6 +426,8 @@ public class ServerWorldDatabase {
          }
       }
 
+      this.statements.clear();
+      this.configureConnection();
       DatabaseMetaData var13 = this.conn.getMetaData();
       ResultSet var4 = var13.getColumns((String)null, (String)null, "whitelist", "admin");
       Statement var5 = this.conn.createStatement();
@@ -486,6 +567,8 @@ public class ServerWorldDatabase {
       }
 
       var4.close();
+      this.migrate();
+      this.startWriter();
       var6 = this.conn.prepareStatement("SELECT * FROM whitelist WHERE username = ?");
       var6.setString(1, this.CommandLineAdminUsername);
       var4 = var6.executeQuery();
@@ -556,17 +639,199 @@ public class ServerWorldDatabase {
          var8.close();
       }
 
+      this.loadAuthCache();
    }
 
-   public void close() {
+   private void configureConnection() {
       try {
-         if (this.conn != null) {
-            this.conn.close();
-         }
+         Statement var1 = this.conn.createStatement();
+         var1.execute("PRAGMA journal_mode = WAL");
+         var1.execute("PRAGMA synchronous = NORMAL");
+         var1.execute("PRAGMA cache_size = -8192");
+         var1.execute("PRAGMA mmap_size = 67108864");
+         var1.close();
       } catch (SQLException var2) {
-         var2.printStackTrace();
+         DebugLog.log("failed to tune user database: " + var2.getMessage());
+      }
+
+   }
+
+   private void migrate() throws SQLException {
+      Statement var1 = this.conn.createStatement();
+
+      try {
+         ResultSet var2 = var1.executeQuery("PRAGMA user_version");
+         int var3 = var2.next() ? var2.getInt(1) : 0;
+         var2.close();
+         if (var3 < 1) {
+            DebugLog.log("creating user database indexes");
+            var1.executeUpdate("CREATE INDEX IF NOT EXISTS [whitelist_username_nocase] ON [whitelist]([username] COLLATE NOCASE, [world])");
+            var1.executeUpdate("CREATE INDEX IF NOT EXISTS [bannedip_ip] ON [bannedip]([ip])");
+            var1.executeUpdate("CREATE INDEX IF NOT EXISTS [bannedip_username] ON [bannedip]([username])");
+            var1.executeUpdate("CREATE INDEX IF NOT EXISTS [bannedid_steamid] ON [bannedid]([steamid])");
+            var1.executeUpdate("CREATE INDEX IF NOT EXISTS [userlog_username_type] ON [userlog]([username], [type])");
+            var1.executeUpdate("PRAGMA user_version = 1");
+            var3 = 1;
+         }
+
+         if (var3 < 2) {
+            try {
+               var1.executeUpdate("CREATE UNIQUE INDEX IF NOT EXISTS [userlog_checksum] ON [userlog]([username], [type]) WHERE [type] IN ('LuaChecksum', 'DupeItem')");
+               var1.executeUpdate("CREATE UNIQUE INDEX IF NOT EXISTS [userlog_action] ON [userlog]([username], [type], [text], [issuedBy]) WHERE [type] IN ('Kicked', 'Banned', 'SuspiciousActivity', 'UnauthorizedPacket')");
+               var1.executeUpdate("PRAGMA user_version = 2");
+               var3 = 2;
+            } catch (SQLException var5) {
+               DebugLog.log("userlog can't use upserts, updating entries separately: " + var5.getMessage());
+            }
+         }
+
+         this.userlogUpsert = var3 >= 2;
+         var1.executeUpdate("CREATE INDEX IF NOT EXISTS [userlog_lastupdate] ON [userlog]([lastUpdate])");
+
+         ResultSet var4 = this.conn.getMetaData().getColumns((String)null, (String)null, "whitelist", "steamid");
+         if (var4.next()) {
+            var1.executeUpdate("CREATE INDEX IF NOT EXISTS [whitelist_steamid] ON [whitelist]([steamid])");
+         }
+
+         var4.close();
+      } finally {
+         var1.close();
+      }
+
+   }
+
+   private PreparedStatement prepare(String var1) throws SQLException {
+      PreparedStatement var2 = (PreparedStatement)this.statements.get(var1);
+      if (var2 != null && !var2.isClosed()) {
+         var2.clearParameters();
+         return var2;
+      } else {
+         var2 = this.conn.prepareStatement(var1);
+         this.statements.put(var1, var2);
+         return var2;
+      }
+   }
+
+   private void startWriter() {
+      if (this.writer == null) {
+         Thread var1 = new Thread(this::runWriter, "ServerWorldDatabase_Writer");
+         var1.setDaemon(true);
+         this.writer = var1;
+         var1.start();
+         if (!this.shutdownHook) {
+            this.shutdownHook = true;
+            Runtime.getRuntime().addShutdownHook(new Thread(this::stopWriter, "ServerWorldDatabase_Shutdown"));
+         }
+
+      }
+   }
+
+   public void stopWriter() {
+      Thread var1 = this.writer;
+      this.writer = null;
+      if (var1 != null) {
+         var1.interrupt();
+
+         try {
+            var1.join(5000L);
+         } catch (InterruptedException var3) {
+            Thread.currentThread().interrupt();
+         }
+      }
+
+      this.flushWrites((ServerWorldDatabase.Write)null);
+   }
+
+   private void queueWrite(ServerWorldDatabase.Write var1) {
+      if (this.writer != null) {
+         this.writes.add(var1);
+      } else {
+         this.flushWrites(var1);
+      }
+   }
+
+   private void runWriter() {
+      while(this.writer == Thread.currentThread()) {
+         ServerWorldDatabase.Write var1 = null;
+
+         try {
+            var1 = (ServerWorldDatabase.Write)this.writes.take();
+            Thread.sleep(WRITE_FLUSH_INTERVAL_MS);
+         } catch (InterruptedException var3) {
+            this.flushWrites(var1);
+            return;
+         }
+
+         this.flushWrites(var1);
+      }
+
+   }
+
+   private synchronized void flushWrites(ServerWorldDatabase.Write var1) {
+      ArrayList var2 = new ArrayList();
+      if (var1 != null) {
+         var2.add(var1);
+      }
+
+      this.writes.drainTo(var2);
+      if (!var2.isEmpty() && this.conn != null) {
+         try {
+            this.conn.setAutoCommit(false);
+            Iterator var3 = var2.iterator();
+
+            while(var3.hasNext()) {
+               try {
+                  ((ServerWorldDatabase.Write)var3.next()).run();
+               } catch (Exception var12) {
+                  var12.printStackTrace();
+               }
+            }
+
+            this.conn.commit();
+         } catch (SQLException var13) {
+            var13.printStackTrace();
+
+            try {
+               this.conn.rollback();
+            } catch (SQLException var11) {
+            }
+         } finally {
+            try {
+               this.conn.setAutoCommit(true);
+            } catch (SQLException var10) {
+               var10.printStackTrace();
+            }
+
+         }
+
       }
+   }
+
+   public void close() {
+      this.stopWriter();
+      synchronized(this) {
+         Iterator var1 = this.statements.values().iterator();
+
+         while(var1.hasNext()) {
+            try {
+               ((PreparedStatement)var1.next()).close();
+            } catch (SQLException var4) {
+               var4.printStackTrace();
+            }
+         }
+
+         this.statements.clear();
+
+         try {
+            if (this.conn != null) {
+               this.conn.close();
+               this.conn = null;
+            }
+         } catch (SQLException var3) {
+            var3.printStackTrace();
+         }
 
+      }
    }
 
    public static boolean isValidUserName(String var0) {
@@ -583,7 +848,7 @@ public class ServerWorldDatabase {
       }
    }
 
-   public LogonResult authClient(String var1, String var2, String var3, long var4) {
+   public synchronized LogonResult authClient(String var1, String var2, String var3, long var4) {
       System.out.println("User " + var1 + " is trying to connect.");
       LogonResult var6 = new LogonResult();
       if (!ServerOptions.instance.AllowNonAsciiUsername.getValue() && !asciiEncoder.canEncode(var1)) {
@@ -596,21 +861,8 @@ public class ServerWorldDatabase {
          return var6;
       } else {
          try {
-            PreparedStatement var7;
-            ResultSet var8;
-            if (!SteamUtils.isSteamModeEnabled() && !var3.equals("127.0.0.1")) {
-               var7 = this.conn.prepareStatement("SELECT * FROM bannedip WHERE ip = ?");
-               var7.setString(1, var3);
-               var8 = var7.executeQuery();
-               if (var8.next()) {
-                  var6.bAuthorized = false;
-                  var6.bannedReason = var8.getString("reason");
-                  var6.banned = true;
-                  var7.close();
-                  return var6;
-               }
-
-               var7.close();
+            if (!SteamUtils.isSteamModeEnabled() && !var3.equals("127.0.0.1") && this.checkBan(this.bannedIps, "SELECT * FROM bannedip WHERE ip = ?", var3, var6)) {
+               return var6;
             }
 
             if (isNullOrEmpty(var2) && ServerOptions.instance.Open.getValue() && ServerOptions.instance.AutoCreateUserInWhiteList.getValue()) {
@@ -619,86 +871,12 @@ public class ServerWorldDatabase {
                return var6;
             }
 
-            var7 = this.conn.prepareStatement("SELECT * FROM whitelist WHERE LOWER(username) = LOWER(?) AND world = ?");
-            var7.setString(1, var1);
-            var7.setString(2, Core.GameSaveWorld);
-            var8 = var7.executeQuery();
-            if (var8.next()) {
-               String var9;
-               String var10;
-               PreparedStatement var11;
-               if (!isNullOrEmpty(var8.getString("password")) && (var8.getString("encryptedPwd").equals("false") || var8.getString("encryptedPwd").equals("N"))) {
-                  var9 = var8.getString("password");
-                  var10 = encrypt(var9);
-                  var11 = this.conn.prepareStatement("UPDATE whitelist SET encryptedPwd = 'true' WHERE username = ? and password = ?");
-                  var11.setString(1, var1);
-                  var11.setString(2, var9);
-                  var11.executeUpdate();
-                  var11.close();
-                  var11 = this.conn.prepareStatement("UPDATE whitelist SET password = ? WHERE username = ? AND password = ?");
-                  var11.setString(1, var10);
-                  var11.setString(2, var1);
-                  var11.setString(3, var9);
-                  var11.executeUpdate();
-                  var11.close();
-                  var8 = var7.executeQuery();
-               }
-
-               if (!isNullOrEmpty(var8.getString("password")) && var8.getInt("pwdEncryptType") == 1) {
-                  var9 = var8.getString("password");
-                  var10 = PZcrypt.hash(var9);
-                  var11 = this.conn.prepareStatement("UPDATE whitelist SET pwdEncryptType = '2', password = ? WHERE username = ? AND password = ?");
-                  var11.setString(1, var10);
-                  var11.setString(2, var1);
-                  var11.setString(3, var9);
-                  var11.executeUpdate();
-                  var11.close();
-                  var8 = var7.executeQuery();
-               }
-
-               if (!isNullOrEmpty(var8.getString("password")) && !var8.getString("password").equals(var2)) {
-                  var6.bAuthorized = false;
-                  var7.close();
-                  if (isNullOrEmpty(var2)) {
-                     var6.dcReason = "DuplicateAccount";
-                  } else {
-                     var6.dcReason = "InvalidUsernamePassword";
-                  }
-
-                  return var6;
-               }
-
-               var6.bAuthorized = true;
-               var6.admin = "true".equals(var8.getString("admin")) || "Y".equals(var8.getString("admin"));
-               var6.accessLevel = var8.getString("accesslevel");
-               if (var6.accessLevel == null) {
-                  var6.accessLevel = "";
-                  if (var6.admin) {
-                     var6.accessLevel = "admin";
-                  }
-
-                  this.setAccessLevel(var1, var6.accessLevel);
-               }
-
-               var6.banned = "true".equals(var8.getString("banned")) || "Y".equals(var8.getString("banned"));
-               if (var6.banned) {
-                  var6.bAuthorized = false;
-               }
-
-               if (var8.getString("transactionID") == null) {
-                  var6.transactionID = 0;
-               } else {
-                  var6.transactionID = Integer.parseInt(var8.getString("transactionID"));
-               }
-
-               var6.priority = var8.getString("priority").equals("true");
-               var7.close();
+            if ((!this.authCacheLoaded || this.whitelistUsers.containsKey(userKey(var1, Core.GameSaveWorld))) && this.authUser(var1, var2, var6)) {
                return var6;
             }
 
             if (ServerOptions.instance.Open.getValue()) {
                if (!this.isNewAccountAllowed(var3, var4)) {
-                  var7.close();
                   var6.bAuthorized = false;
                   var6.dcReason = "MaxAccountsReached";
                   return var6;
@@ -706,13 +884,11 @@ public class ServerWorldDatabase {
 
                var6.bAuthorized = true;
                var6.newUser = true;
-               var7.close();
                return var6;
             }
 
             var6.bAuthorized = false;
             var6.dcReason = "UnknownUsername";
-            var7.close();
          } catch (Exception var12) {
             var12.printStackTrace();
          }
@@ -721,24 +897,95 @@ public class ServerWorldDatabase {
       }
    }
 
-   public LogonResult authClient(long var1) {
+   private boolean authUser(String var1, String var2, LogonResult var3) throws SQLException {
+      PreparedStatement var4 = this.prepare("SELECT * FROM whitelist WHERE username = ? COLLATE NOCASE AND world = ?");
+      var4.setString(1, var1);
+      var4.setString(2, Core.GameSaveWorld);
+      ResultSet var5 = var4.executeQuery();
+      if (var5.next()) {
+         String var6;
+         String var7;
+         PreparedStatement var8;
+         if (!isNullOrEmpty(var5.getString("password")) && (var5.getString("encryptedPwd").equals("false") || var5.getString("encryptedPwd").equals("N"))) {
+            var6 = var5.getString("password");
+            var7 = encrypt(var6);
+            var8 = this.prepare("UPDATE whitelist SET encryptedPwd = 'true' WHERE username = ? and password = ?");
+            var8.setString(1, var1);
+            var8.setString(2, var6);
+            var8.executeUpdate();
+            var8 = this.prepare("UPDATE whitelist SET password = ? WHERE username = ? AND password = ?");
+            var8.setString(1, var7);
+            var8.setString(2, var1);
+            var8.setString(3, var6);
+            var8.executeUpdate();
+            var5 = var4.executeQuery();
+         }
+
+         if (!isNullOrEmpty(var5.getString("password")) && var5.getInt("pwdEncryptType") == 1) {
+            var6 = var5.getString("password");
+            var7 = PZcrypt.hash(var6);
+            var8 = this.prepare("UPDATE whitelist SET pwdEncryptType = '2', password = ? WHERE username = ? AND password = ?");
+            var8.setString(1, var7);
+            var8.setString(2, var1);
+            var8.setString(3, var6);
+            var8.executeUpdate();
+            var5 = var4.executeQuery();
+         }
+
+         if (!isNullOrEmpty(var5.getString("password")) && !var5.getString("password").equals(var2)) {
+            var3.bAuthorized = false;
+            var5.close();
+            if (isNullOrEmpty(var2)) {
+               var3.dcReason = "DuplicateAccount";
+            } else {
+               var3.dcReason = "InvalidUsernamePassword";
+            }
+
+            return true;
+         }
+
+         var3.bAuthorized = true;
+         var3.admin = "true".equals(var5.getString("admin")) || "Y".equals(var5.getString("admin"));
+         var3.accessLevel = var5.getString("accesslevel");
+         if (var3.accessLevel == null) {
+            var3.accessLevel = "";
+            if (var3.admin) {
+               var3.accessLevel = "admin";
+            }
+
+            this.setAccessLevel(var1, var3.accessLevel);
+         }
+
+         var3.banned = "true".equals(var5.getString("banned")) || "Y".equals(var5.getString("banned"));
+         if (var3.banned) {
+            var3.bAuthorized = false;
+         }
+
+         if (var5.getString("transactionID") == null) {
+            var3.transactionID = 0;
+         } else {
+            var3.transactionID = Integer.parseInt(var5.getString("transactionID"));
+         }
+
+         var3.priority = var5.getString("priority").equals("true");
+         var5.close();
+         return true;
+      }
+
+      var5.close();
+      return false;
+   }
+
+   public synchronized LogonResult authClient(long var1) {
       String var3 = SteamUtils.convertSteamIDToString(var1);
       System.out.println("Steam client " + var3 + " is initiating a connection.");
       LogonResult var4 = new LogonResult();
 
       try {
-         PreparedStatement var5 = this.conn.prepareStatement("SELECT * FROM bannedid WHERE steamid = ?");
-         var5.setString(1, var3);
-         ResultSet var6 = var5.executeQuery();
-         if (var6.next()) {
-            var4.bAuthorized = false;
-            var4.bannedReason = var6.getString("reason");
-            var4.banned = true;
-            var5.close();
+         if (this.checkBan(this.bannedSteamIds, "SELECT * FROM bannedid WHERE steamid = ?", var3, var4)) {
             return var4;
          }
 
-         var5.close();
          var4.bAuthorized = true;
       } catch (Exception var7) {
          var7.printStackTrace();
@@ -747,31 +994,22 @@ public class ServerWorldDatabase {
       return var4;
    }
 
-   public LogonResult authOwner(long var1, long var3) {
+   public synchronized LogonResult authOwner(long var1, long var3) {
       String var5 = SteamUtils.convertSteamIDToString(var1);
       String var6 = SteamUtils.convertSteamIDToString(var3);
       System.out.println("Steam client " + var5 + " borrowed the game from " + var6);
       LogonResult var7 = new LogonResult();
 
       try {
-         PreparedStatement var8 = this.conn.prepareStatement("SELECT * FROM bannedid WHERE steamid = ?");
-         var8.setString(1, var6);
-         ResultSet var9 = var8.executeQuery();
-         if (var9.next()) {
-            var7.bAuthorized = false;
-            var7.bannedReason = var9.getString("reason");
-            var7.banned = true;
-            var8.close();
+         if (this.checkBan(this.bannedSteamIds, "SELECT * FROM bannedid WHERE steamid = ?", var6, var7)) {
             return var7;
          }
 
-         var8.close();
          var7.bAuthorized = true;
-         var8 = this.conn.prepareStatement("UPDATE whitelist SET ownerid = ? where steamid = ?");
+         PreparedStatement var8 = this.prepare("UPDATE whitelist SET ownerid = ? where steamid = ?");
          var8.setString(1, var6);
          var8.setString(2, var5);
          var8.executeUpdate();
-         var8.close();
       } catch (Exception var10) {
          var10.printStackTrace();
       }
@@ -779,7 +1017,156 @@ public class ServerWorldDatabase {
       return var7;
    }
 
-   private boolean isNewAccountAllowed(String var1, long var2) {
+   private boolean checkBan(HashMap<String, String> var1, String var2, String var3, LogonResult var4) throws SQLException {
+      if (this.authCacheLoaded) {
+         if (!var1.containsKey(var3)) {
+            return false;
+         }
+
+         var4.bannedReason = (String)var1.get(var3);
+      } else {
+         PreparedStatement var5 = this.prepare(var2);
+         var5.setString(1, var3);
+         ResultSet var6 = var5.executeQuery();
+
+         try {
+            if (!var6.next()) {
+               return false;
+            }
+
+            var4.bannedReason = var6.getString("reason");
+         } finally {
+            var6.close();
+         }
+      }
+
+      var4.bAuthorized = false;
+      var4.banned = true;
+      return true;
+   }
+
+   private static String userKey(String var0, String var1) {
+      return var0.toLowerCase(Locale.ROOT) + "@" + var1;
+   }
+
+   private synchronized void cacheUser(String var1, int var2) {
+      if (this.authCacheLoaded && var1 != null && var2 != 0) {
+         String var3 = userKey(var1, Core.GameSaveWorld);
+         int var4 = (Integer)this.whitelistUsers.getOrDefault(var3, 0) + var2;
+         if (var4 > 0) {
+            this.whitelistUsers.put(var3, var4);
+         } else {
+            this.whitelistUsers.remove(var3);
+         }
+
+      }
+   }
+
+   private synchronized void cacheBan(HashMap<String, String> var1, String var2, String var3) {
+      if (this.authCacheLoaded && var2 != null && !var1.containsKey(var2)) {
+         var1.put(var2, var3);
+      }
+
+   }
+
+   private synchronized void loadAuthCache() {
+      try {
+         this.readAuthCache(this.bannedIps, this.bannedSteamIds, this.whitelistUsers);
+         this.authCacheLoaded = true;
+         DebugLog.log("auth cache: " + this.whitelistUsers.size() + " users, " + this.bannedIps.size() + " banned IPs, " + this.bannedSteamIds.size() + " banned Steam IDs");
+      } catch (SQLException var2) {
+         this.authCacheLoaded = false;
+         DebugLog.log("auth cache disabled, logins will query the database: " + var2.getMessage());
+      }
+
+   }
+
+   private void readAuthCache(HashMap<String, String> var1, HashMap<String, String> var2, HashMap<String, Integer> var3) throws SQLException {
+      var1.clear();
+      var2.clear();
+      var3.clear();
+      Statement var4 = this.conn.createStatement();
+
+      try {
+         ResultSet var5 = var4.executeQuery("SELECT ip, reason FROM bannedip ORDER BY rowid");
+
+         while(var5.next()) {
+            if (!var1.containsKey(var5.getString(1))) {
+               var1.put(var5.getString(1), var5.getString(2));
+            }
+         }
+
+         var5.close();
+         var5 = var4.executeQuery("SELECT steamid, reason FROM bannedid ORDER BY rowid");
+
+         while(var5.next()) {
+            if (!var2.containsKey(var5.getString(1))) {
+               var2.put(var5.getString(1), var5.getString(2));
+            }
+         }
+
+         var5.close();
+         var5 = var4.executeQuery("SELECT username, world FROM whitelist WHERE username IS NOT NULL AND world IS NOT NULL");
+
+         while(var5.next()) {
+            var3.merge(userKey(var5.getString(1), var5.getString(2)), 1, Integer::sum);
+         }
+
+         var5.close();
+      } finally {
+         var4.close();
+      }
+
+   }
+
+   public synchronized ArrayList<String> checkAuthCache() throws SQLException {
+      HashMap<String, String> var1 = new HashMap<>();
+      HashMap<String, String> var2 = new HashMap<>();
+      HashMap<String, Integer> var3 = new HashMap<>();
+      this.readAuthCache(var1, var2, var3);
+      ArrayList<String> var4 = new ArrayList<>();
+      if (!this.authCacheLoaded) {
+         var4.add("The auth cache was not loaded.");
+      } else {
+         compareAuthCache("banned IP", this.bannedIps, var1, var4);
+         compareAuthCache("banned Steam ID", this.bannedSteamIds, var2, var4);
+         compareAuthCache("whitelist user", this.whitelistUsers, var3, var4);
+      }
+
+      this.bannedIps.clear();
+      this.bannedIps.putAll(var1);
+      this.bannedSteamIds.clear();
+      this.bannedSteamIds.putAll(var2);
+      this.whitelistUsers.clear();
+      this.whitelistUsers.putAll(var3);
+      this.authCacheLoaded = true;
+      return var4;
+   }
+
+   private static void compareAuthCache(String var0, HashMap<String, ?> var1, HashMap<String, ?> var2, ArrayList<String> var3) {
+      Iterator var4 = var1.keySet().iterator();
+
+      while(var4.hasNext()) {
+         String var5 = (String)var4.next();
+         if (!var2.containsKey(var5)) {
+            var3.add("Stale " + var0 + " in cache: " + var5);
+         } else if (!Objects.equals(var1.get(var5), var2.get(var5))) {
+            var3.add("Outdated " + var0 + " in cache: " + var5 + " (" + var1.get(var5) + " != " + var2.get(var5) + ")");
+         }
+      }
+
+      var4 = var2.keySet().iterator();
+
+      while(var4.hasNext()) {
+         String var6 = (String)var4.next();
+         if (!var1.containsKey(var6)) {
+            var3.add("Missing " + var0 + " in cache: " + var6);
+         }
+      }
+
+   }
+
+   private synchronized boolean isNewAccountAllowed(String var1, long var2) {
       int var4 = ServerOptions.instance.MaxAccountsPerUser.getValue();
       if (var4 <= 0) {
          return true;
@@ -790,28 +1177,17 @@ public class ServerWorldDatabase {
          int var6 = 0;
 
          try {
-            PreparedStatement var7 = this.conn.prepareStatement("SELECT * FROM whitelist WHERE steamid = ? AND ((accessLevel = ?) OR (accessLevel is NULL))");
+            PreparedStatement var7 = this.prepare("SELECT * FROM whitelist WHERE steamid = ? AND ((accessLevel = ?) OR (accessLevel is NULL))");
+            var7.setString(1, var5);
+            var7.setString(2, "");
+            ResultSet var8 = var7.executeQuery();
 
             try {
-               var7.setString(1, var5);
-               var7.setString(2, "");
-
-               for(ResultSet var8 = var7.executeQuery(); var8.next(); ++var6) {
+               while(var8.next()) {
+                  ++var6;
                }
-            } catch (Throwable var11) {
-               if (var7 != null) {
-                  try {
-                     var7.close();
-                  } catch (Throwable var10) {
-                     var11.addSuppressed(var10);
-                  }
-               }
-
-               throw var11;
-            }
-
-            if (var7 != null) {
-               var7.close();
+            } finally {
+               var8.close();
             }
          } catch (Exception var12) {
             DebugLog.Multiplayer.printException(var12, "Query execution failed", LogSeverity.Error);
@@ -852,7 +1228,7 @@ public class ServerWorldDatabase {
       }
    }
 
-   public String changePwd(String var1, String var2, String var3) throws SQLException {
+   public synchronized String changePwd(String var1, String var2, String var3) throws SQLException {
       PreparedStatement var5 = this.conn.prepareStatement("SELECT * FROM whitelist WHERE username = ? AND password = ? AND world = ?");
       var5.setString(1, var1);
       var5.setString(2, var2);
@@ -873,7 +1249,7 @@ public class ServerWorldDatabase {
       }
    }
 
-   public String grantAdmin(String var1, boolean var2) throws SQLException {
+   public synchronized String grantAdmin(String var1, boolean var2) throws SQLException {
       PreparedStatement var3 = this.conn.prepareStatement("SELECT * FROM whitelist WHERE username = ? AND world = ?");
       var3.setString(1, var1);
       var3.setString(2, Core.GameSaveWorld);
@@ -892,7 +1268,7 @@ public class ServerWorldDatabase {
       }
    }
 
-   public String setAccessLevel(String var1, String var2) throws SQLException {
+   public synchronized String setAccessLevel(String var1, String var2) throws SQLException {
       var2 = var2.trim();
       if (!this.containsUser(var1)) {
          this.addUser(var1, "");
@@ -916,11 +1292,12 @@ public class ServerWorldDatabase {
       }
    }
 
-   public ArrayList getUserlog(String var1) {
+   public synchronized ArrayList getUserlog(String var1) {
+      this.flushWrites((ServerWorldDatabase.Write)null);
       ArrayList var2 = new ArrayList();
 
       try {
-         PreparedStatement var3 = this.conn.prepareStatement("SELECT * FROM userlog WHERE username = ?");
+         PreparedStatement var3 = this.prepare("SELECT * FROM userlog WHERE username = ?");
          var3.setString(1, var1);
          ResultSet var4 = var3.executeQuery();
 
@@ -928,7 +1305,7 @@ public class ServerWorldDatabase {
             var2.add(new Userlog(var1, var4.getString("type"), var4.getString("text"), var4.getString("issuedBy"), var4.getInt("amount"), var4.getString("lastUpdate")));
          }
 
-         var3.close();
+         var4.close();
       } catch (SQLException var5) {
          var5.printStackTrace();
       }
@@ -937,73 +1314,64 @@ public class ServerWorldDatabase {
    }
 
    public void addUserlog(String var1, Userlog.UserlogType var2, String var3, String var4, int var5) {
-      try {
-         boolean var6 = true;
-         String var7 = dateFormat.format(Calendar.getInstance().getTime());
-         PreparedStatement var8;
-         ResultSet var9;
-         PreparedStatement var10;
-         if (var2 != UserlogType.LuaChecksum && var2 != UserlogType.DupeItem) {
-            if (var2 == UserlogType.Kicked || var2 == UserlogType.Banned || var2 == UserlogType.SuspiciousActivity || var2 == UserlogType.UnauthorizedPacket) {
-               var8 = this.conn.prepareStatement("SELECT * FROM userlog WHERE username = ? AND type = ? AND text = ? AND issuedBy = ?");
-               var8.setString(1, var1);
-               var8.setString(2, var2.toString());
-               var8.setString(3, var3);
-               var8.setString(4, var4);
-               var9 = var8.executeQuery();
-               if (var9.next()) {
-                  var6 = false;
-                  var5 = Integer.parseInt(var9.getString("amount")) + 1;
-                  var8.close();
-                  var10 = this.conn.prepareStatement("UPDATE userlog set amount = ?, lastUpdate = ? WHERE username = ? AND type = ? AND text = ? AND issuedBy = ?");
-                  var10.setString(1, String.valueOf(var5));
-                  var10.setString(2, var7);
-                  var10.setString(3, var1);
-                  var10.setString(4, var2.toString());
-                  var10.setString(5, var3);
-                  var10.setString(6, var4);
-                  var10.executeUpdate();
-                  var10.close();
-               }
+      String var6 = dateFormat.format(Calendar.getInstance().getTime());
+      this.queueWrite(() -> this.writeUserlog(var1, var2, var3, var4, var5, var6));
+   }
+
+   private void writeUserlog(String var1, Userlog.UserlogType var2, String var3, String var4, int var5, String var6) throws SQLException {
+      PreparedStatement var7;
+      if (var2 != UserlogType.LuaChecksum && var2 != UserlogType.DupeItem) {
+         if (var2 == UserlogType.Kicked || var2 == UserlogType.Banned || var2 == UserlogType.SuspiciousActivity || var2 == UserlogType.UnauthorizedPacket) {
+            if (this.userlogUpsert) {
+               var7 = this.prepare("INSERT INTO userlog (username, type, text, issuedBy, amount, lastUpdate) VALUES (?, ?, ?, ?, ?, ?) ON CONFLICT(username, type, text, issuedBy) WHERE type IN ('Kicked', 'Banned', 'SuspiciousActivity', 'UnauthorizedPacket') DO UPDATE SET amount = amount + 1, lastUpdate = excluded.lastUpdate");
+               this.setUserlog(var7, var1, var2, var3, var4, var5, var6);
+               var7.executeUpdate();
+               return;
             }
-         } else {
-            var8 = this.conn.prepareStatement("SELECT * FROM userlog WHERE username = ? AND type = ?");
-            var8.setString(1, var1);
-            var8.setString(2, var2.toString());
-            var9 = var8.executeQuery();
-            if (var9.next()) {
-               var6 = false;
-               var5 = Integer.parseInt(var9.getString("amount")) + 1;
-               var8.close();
-               var10 = this.conn.prepareStatement("UPDATE userlog set amount = ?, lastUpdate = ?, text = ? WHERE username = ? AND type = ?");
-               var10.setString(1, String.valueOf(var5));
-               var10.setString(2, var7);
-               var10.setString(3, var3);
-               var10.setString(4, var1);
-               var10.setString(5, var2.toString());
-               var10.executeUpdate();
-               var10.close();
+
+            var7 = this.prepare("UPDATE userlog set amount = amount + 1, lastUpdate = ? WHERE username = ? AND type = ? AND text = ? AND issuedBy = ?");
+            var7.setString(1, var6);
+            var7.setString(2, var1);
+            var7.setString(3, var2.toString());
+            var7.setString(4, var3);
+            var7.setString(5, var4);
+            if (var7.executeUpdate() > 0) {
+               return;
             }
          }
+      } else {
+         if (this.userlogUpsert) {
+            var7 = this.prepare("INSERT INTO userlog (username, type, text, issuedBy, amount, lastUpdate) VALUES (?, ?, ?, ?, ?, ?) ON CONFLICT(username, type) WHERE type IN ('LuaChecksum', 'DupeItem') DO UPDATE SET amount = amount + 1, lastUpdate = excluded.lastUpdate, text = excluded.text");
+            this.setUserlog(var7, var1, var2, var3, var4, var5, var6);
+            var7.executeUpdate();
+            return;
+         }
 
-         if (var6) {
-            var8 = this.conn.prepareStatement("INSERT INTO userlog (username, type, text, issuedBy, amount, lastUpdate) VALUES (?, ?, ?, ?, ?, ?)");
-            var8.setString(1, var1);
-            var8.setString(2, var2.toString());
-            var8.setString(3, var3);
-            var8.setString(4, var4);
-            var8.setString(5, String.valueOf(var5));
-            var8.setString(6, var7);
-            var8.executeUpdate();
-            var8.close();
+         var7 = this.prepare("UPDATE userlog set amount = amount + 1, lastUpdate = ?, text = ? WHERE username = ? AND type = ?");
+         var7.setString(1, var6);
+         var7.setString(2, var3);
+         var7.setString(3, var1);
+         var7.setString(4, var2.toString());
+         if (var7.executeUpdate() > 0) {
+            return;
          }
-      } catch (Exception var11) {
-         var11.printStackTrace();
       }
 
+      var7 = this.prepare("INSERT INTO userlog (username, type, text, issuedBy, amount, lastUpdate) VALUES (?, ?, ?, ?, ?, ?)");
+      this.setUserlog(var7, var1, var2, var3, var4, var5, var6);
+      var7.executeUpdate();
+   }
+
+   private void setUserlog(PreparedStatement var1, String var2, Userlog.UserlogType var3, String var4, String var5, int var6, String var7) throws SQLException {
+      var1.setString(1, var2);
+      var1.setString(2, var3.toString());
+      var1.setString(3, var4);
+      var1.setString(4, var5);
+      var1.setString(5, String.valueOf(var6));
+      var1.setString(6, var7);
    }
 
-   public String banUser(String var1, boolean var2) throws SQLException {
+   public synchronized String banUser(String var1, boolean var2) throws SQLException {
       PreparedStatement var3 = this.conn.prepareStatement("SELECT * FROM whitelist WHERE username = ? AND world = ?");
       var3.setString(1, var1);
       var3.setString(2, Core.GameSaveWorld);
@@ -1013,7 +1381,7 @@ public class ServerWorldDatabase {
          PreparedStatement var6 = this.conn.prepareStatement("INSERT INTO whitelist (world, username, password, encryptedPwd) VALUES (?, ?, 'bogus', 'false')");
          var6.setString(1, Core.GameSaveWorld);
          var6.setString(2, var1);
-         var6.executeUpdate();
+         this.cacheUser(var1, var6.executeUpdate());
          var6.close();
          var4 = var3.executeQuery();
          var5 = true;
@@ -1054,7 +1422,7 @@ public class ServerWorldDatabase {
       }
    }
 
-   public String banIp(String var1, String var2, String var3, boolean var4) throws SQLException {
+   public synchronized String banIp(String var1, String var2, String var3, boolean var4) throws SQLException {
       PreparedStatement var5;
       if (var4) {
          var5 = this.conn.prepareStatement("INSERT INTO bannedip (ip, username, reason) VALUES (?, ?, ?)");
@@ -1063,6 +1431,7 @@ public class ServerWorldDatabase {
          var5.setString(3, var3);
          var5.executeUpdate();
          var5.close();
+         this.cacheBan(this.bannedIps, var1, var3);
       } else {
          if (var1 != null) {
             var5 = this.conn.prepareStatement("DELETE FROM bannedip WHERE ip = ?");
@@ -1075,12 +1444,13 @@ public class ServerWorldDatabase {
          var5.setString(1, var2);
          var5.executeUpdate();
          var5.close();
+         this.loadAuthCache();
       }
 
       return "";
    }
 
-   public String banSteamID(String var1, String var2, boolean var3) throws SQLException {
+   public synchronized String banSteamID(String var1, String var2, boolean var3) throws SQLException {
       PreparedStatement var4;
       if (var3) {
          var4 = this.conn.prepareStatement("INSERT INTO bannedid (steamid, reason) VALUES (?, ?)");
@@ -1088,17 +1458,19 @@ public class ServerWorldDatabase {
          var4.setString(2, var2);
          var4.executeUpdate();
          var4.close();
+         this.cacheBan(this.bannedSteamIds, var1, var2);
       } else {
          var4 = this.conn.prepareStatement("DELETE FROM bannedid WHERE steamid = ?");
          var4.setString(1, var1);
          var4.executeUpdate();
          var4.close();
+         this.loadAuthCache();
       }
 
       return "";
    }
 
-   public String setUserSteamID(String var1, String var2) {
+   public synchronized String setUserSteamID(String var1, String var2) {
       try {
          PreparedStatement var3 = this.conn.prepareStatement("SELECT * FROM whitelist WHERE username = ?");
          var3.setString(1, var1);
@@ -1121,7 +1493,7 @@ public class ServerWorldDatabase {
       return "User " + var1 + " SteamID set to " + var2;
    }
 
-   public void setPassword(String var1, String var2) throws SQLException {
+   public synchronized void setPassword(String var1, String var2) throws SQLException {
       try {
          PreparedStatement var3 = this.conn.prepareStatement("UPDATE whitelist SET pwdEncryptType = '2', password = ? WHERE username = ? and world = ?");
          var3.setString(1, var2);
@@ -1136,24 +1508,21 @@ public class ServerWorldDatabase {
    }
 
    public void updateLastConnectionDate(String var1, String var2) {
-      try {
-         PreparedStatement var3 = this.conn.prepareStatement("UPDATE whitelist SET lastConnection = ? WHERE username = ? AND password = ?");
-         var3.setString(1, dateFormat.format(Calendar.getInstance().getTime()));
-         var3.setString(2, var1);
-         var3.setString(3, var2);
-         var3.executeUpdate();
-         var3.close();
-      } catch (SQLException var4) {
-         var4.printStackTrace();
-      }
-
+      String var3 = dateFormat.format(Calendar.getInstance().getTime());
+      this.queueWrite(() -> {
+         PreparedStatement var4 = this.prepare("UPDATE whitelist SET lastConnection = ? WHERE username = ? AND password = ?");
+         var4.setString(1, var3);
+         var4.setString(2, var1);
+         var4.setString(3, var2);
+         var4.executeUpdate();
+      });
    }
 
    private static boolean isNullOrEmpty(String var0) {
       return var0 == null || var0.isEmpty();
    }
 
-   public String addWarningPoint(String var1, String var2, int var3, String var4) throws SQLException {
+   public synchronized String addWarningPoint(String var1, String var2, int var3, String var4) throws SQLException {
       PreparedStatement var5 = this.conn.prepareStatement("SELECT * FROM whitelist WHERE username = ? AND world = ?");
       var5.setString(1, var1);
       var5.setString(2, Core.GameSaveWorld);
@@ -1166,7 +1535,7 @@ public class ServerWorldDatabase {
       }
    }
 
-   public void addTicket(String var1, String var2, int var3) throws SQLException {
+   public synchronized void addTicket(String var1, String var2, int var3) throws SQLException {
       PreparedStatement var4;
       if (var3 > -1) {
          var4 = this.conn.prepareStatement("INSERT INTO tickets (author, message, answeredID) VALUES (?, ?, ?)");
@@ -1185,7 +1554,7 @@ public class ServerWorldDatabase {
 
    }
 
-   public ArrayList getTickets(String var1) throws SQLException {
+   public synchronized ArrayList getTickets(String var1) throws SQLException {
       ArrayList var2 = new ArrayList();
       PreparedStatement var3 = null;
       if (var1 != null) {
@@ -1217,7 +1586,7 @@ public class ServerWorldDatabase {
       return var3.next() ? new DBTicket(var3.getString("author"), var3.getString("message"), var3.getInt("id")) : null;
    }
 
-   public void removeTicket(int var1) throws SQLException {
+   public synchronized void removeTicket(int var1) throws SQLException {
       DBTicket var2 = this.getAnswer(var1);
       PreparedStatement var3;
       if (var2 != null) {
@@ -1238,6 +1607,16 @@ public class ServerWorldDatabase {
       nullChar = String.valueOf('\u0000');
    }
 
+   public static final class TableCursor {
+      private long rowid = Long.MIN_VALUE;
+      private String lastUpdate;
+      private boolean nullPhase;
+   }
+
+   private interface Write {
+      void run() throws SQLException;
+   }
+
    public class LogonResult {
       public boolean bAuthorized = false;
       public int x;
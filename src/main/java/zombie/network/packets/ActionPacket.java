@@ -1,5 +1,6 @@
 package zombie.network.packets;
 
+import com.asledgehammer.craftnail.player.PlayerRegistry;
 import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -72,7 +73,7 @@ public class ActionPacket implements INetworkPacket {
       }
 
       if (GameServer.bServer) {
-         this.character = (IsoGameCharacter)GameServer.IDToPlayerMap.get(this.id);
+         this.character = (IsoGameCharacter)PlayerRegistry.INSTANCE.getPlayer(this.id);
       } else if (GameClient.bClient) {
          this.character = (IsoGameCharacter)GameClient.IDToPlayerMap.get(this.id);
       } else {
@@ -1,5 +1,6 @@
 package zombie.network.packets;
 
+import com.asledgehammer.craftnail.player.PlayerRegistry;
 import java.nio.ByteBuffer;
 import java.util.Iterator;
 import zombie.characters.IsoGameCharacter;
@@ -97,7 +98,7 @@ public abstract class DeadCharacterPacket implements INetworkPacket {
                break;
             case 2:
                var6 = var1.getShort();
-               this.killer = (IsoGameCharacter)GameServer.IDToPlayerMap.get(var6);
+               this.killer = (IsoGameCharacter)PlayerRegistry.INSTANCE.getPlayer(var6);
                break;
             default:
                var5 = new Exception("killerIdType:" + var3);
@@ -1,5 +1,6 @@
 package zombie.network.packets;
 
+import com.asledgehammer.craftnail.player.PlayerRegistry;
 import java.nio.ByteBuffer;
 import zombie.GameWindow;
 import zombie.ai.states.FishingState;
@@ -126,7 +127,7 @@ public class EventPacket implements INetworkPacket {
          this.event = null;
       }
       if (GameServer.bServer) {
-         this.player = GameServer.IDToPlayerMap.get(Short.valueOf(this.id));
+         this.player = PlayerRegistry.INSTANCE.getPlayer(this.id);
       } else if (GameClient.bClient) {
          this.player = (IsoPlayer) GameClient.IDToPlayerMap.get(Short.valueOf(this.id));
       } else {
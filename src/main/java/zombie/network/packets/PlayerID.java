@@ -1,5 +1,6 @@
 package zombie.network.packets;
 
+import com.asledgehammer.craftnail.player.PlayerRegistry;
 import java.nio.ByteBuffer;
 import zombie.characters.IsoPlayer;
 import zombie.core.network.ByteBufferWriter;
@@ -23,7 +24,7 @@ public class PlayerID extends Instance implements INetworkPacket {
          if (var1 != null && this.playerIndex != -1) {
             this.player = GameServer.getPlayerFromConnection(var1, this.playerIndex);
          } else {
-            this.player = (IsoPlayer)GameServer.IDToPlayerMap.get(this.ID);
+            this.player = (IsoPlayer)PlayerRegistry.INSTANCE.getPlayer(this.ID);
          }
       } else if (GameClient.bClient) {
          this.player = (IsoPlayer)GameClient.IDToPlayerMap.get(this.ID);
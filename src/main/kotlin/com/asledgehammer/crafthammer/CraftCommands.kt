@@ -8,27 +8,42 @@ import java.util.*
 /**
  * **CraftCommands** TODO: Document.
  *
+ * Registrations are published as an immutable map of handler arrays per command key. Registering or removing a
+ * listener rebuilds the arrays of the keys it handles and swaps the map in one write; [dispatch] reads the current map
+ * without locking.
+ *
  * @author Jab
  */
 class CraftCommands : Commands {
 
+  // Guarded by lock.
   private val wrappers = HashMap<UUID, CraftWrapper>()
-  private val sortedCommandWrappers = HashMap<String, ArrayList<CommandHandleWrapper>>()
-  private val commandWrappersToRemove = ArrayList<CommandHandleWrapper>()
+  private val lock = Any()
+
+  @Volatile
+  private var sortedCommandWrappers: Map<String, Array<CommandHandleWrapper>> = emptyMap()
 
   override fun add(id: UUID, listener: CommandListener) {
-    wrappers.computeIfAbsent(id) { CraftWrapper(id) }.register(listener)
-    sort()
+    synchronized(lock) {
+      val added = wrappers.computeIfAbsent(id) { CraftWrapper(id) }.registerHandles(listener)
+      publish(added, emptyList())
+    }
   }
 
   override fun removeAll(id: UUID) {
-    val wrapper = wrappers.remove(id) ?: return
-    wrapper.reset()
+    synchronized(lock) {
+      val wrapper = wrappers.remove(id) ?: return
+      val removed = wrapper.commandWrappers.values.flatten().distinct()
+      wrapper.reset()
+      publish(emptyList(), removed)
+    }
   }
 
   override fun remove(id: UUID, listener: CommandListener, sort: Boolean) {
-    wrappers[id]?.unregister(listener)
-    if (sort) sort()
+    synchronized(lock) {
+      val removed = wrappers[id]?.unregisterHandles(listener) ?: return
+      publish(emptyList(), removed)
+    }
   }
 
   override fun dispatch(command: Command, commander: CommandSender): CommandExecution {
@@ -37,7 +52,8 @@ class CraftCommands : Commands {
     val execution = CommandExecution(command, commander, response)
     val wrappers = sortedCommandWrappers[key] ?: return execution
     response.found = true
-    for (wrapper in wrappers) {
+    for (index in wrappers.indices) {
+      val wrapper = wrappers[index]
       try {
         if (wrapper.canDispatch(execution)) wrapper.dispatch(execution)
         if (response.denied) break
@@ -45,40 +61,61 @@ class CraftCommands : Commands {
         CraftHammer.logError("Failed to execute listener: ${wrapper.javaClass.simpleName}. Disabling.")
         throwable.printStackTrace(System.err)
         wrapper.isEnabled = false
-        commandWrappersToRemove.add(wrapper)
+        remove(wrapper.id, wrapper.listener, false)
       }
     }
-    // Remove any disabled wrappers.
-    if (commandWrappersToRemove.isNotEmpty()) {
-      for (wrapper in commandWrappersToRemove) remove(wrapper.id, wrapper.listener, false)
-      sort()
-    }
     return execution
   }
 
   override fun reset() {
-    for ((_, wrapper) in wrappers) wrapper.reset()
-    wrappers.clear()
+    synchronized(lock) {
+      for ((_, wrapper) in wrappers) wrapper.reset()
+      wrappers.clear()
+      sortedCommandWrappers = emptyMap()
+    }
   }
 
-  private fun sort() {
-    sortedCommandWrappers.clear()
-    for ((_, wrapper) in wrappers) {
-      for ((key, collection) in wrapper.commandWrappers) {
-        val next = sortedCommandWrappers.computeIfAbsent(key) { ArrayList() }
-        for (handle in collection) next.add(handle)
-      }
-      for ((_, list) in sortedCommandWrappers) list.sortByDescending { it.annotation.priority }
+  /**
+   * Rebuilds the handler arrays of the command keys touched by a change and publishes the new map.
+   */
+  private fun publish(added: Collection<CommandHandleWrapper>, removed: Collection<CommandHandleWrapper>) {
+    if (added.isEmpty() && removed.isEmpty()) return
+
+    val affected = HashSet<String>()
+    for (handle in added) affected.addAll(keys(handle))
+    for (handle in removed) affected.addAll(keys(handle))
+
+    val removedSet = Collections.newSetFromMap(IdentityHashMap<CommandHandleWrapper, Boolean>())
+    removedSet.addAll(removed)
+
+    val next = HashMap(sortedCommandWrappers)
+    for (key in affected) {
+      val list = ArrayList<CommandHandleWrapper>()
+      next[key]?.let { for (handle in it) if (handle !in removedSet) list.add(handle) }
+      for (handle in added) if (key in keys(handle)) list.add(handle)
+      list.sortByDescending { it.annotation.priority }
+      if (list.isEmpty()) next.remove(key)
+      else next[key] = list.toTypedArray()
     }
+
+    sortedCommandWrappers = next
   }
 
+  private fun keys(handle: CommandHandleWrapper): List<String> =
+    handle.annotation.commands.map { it.lowercase(Locale.getDefault()).trim() }
+
   private class CraftWrapper(val id: UUID) : Commands.Wrapper {
 
     override val commandWrappers = HashMap<String, ArrayList<CommandHandleWrapper>>()
 
     override fun register(listener: CommandListener) {
+      registerHandles(listener)
+    }
+
+    fun registerHandles(listener: CommandListener): List<CommandHandleWrapper> {
+      val added = ArrayList<CommandHandleWrapper>()
       val methods: List<Method> = ReflectionUtils.getAllDeclaredMethods(listener.javaClass)
-      if (methods.isEmpty()) return
+      if (methods.isEmpty()) return added
       for (method in methods) {
         val commandHandler = method.getAnnotation(CommandHandler::class.java)
         if (commandHandler != null) {
@@ -87,23 +124,35 @@ class CraftCommands : Commands {
             val key = command.lowercase(Locale.getDefault()).trim()
             commandWrappers.computeIfAbsent(key) { ArrayList() }.add(wrapper)
           }
+          added.add(wrapper)
         }
       }
+      return added
     }
 
     override fun unregister(listener: CommandListener) {
+      unregisterHandles(listener)
+    }
+
+    fun unregisterHandles(listener: CommandListener): List<CommandHandleWrapper> {
+      val removed = Collections.newSetFromMap(IdentityHashMap<CommandHandleWrapper, Boolean>())
       val commandsToRemove = ArrayList<String>()
       for ((command, wrapper) in commandWrappers) {
         val iterator = wrapper.iterator()
         while (iterator.hasNext()) {
           val next = iterator.next()
-          if (next.listener == listener) iterator.remove()
+          if (next.listener == listener) {
+            next.isEnabled = false
+            removed.add(next)
+            iterator.remove()
+          }
         }
         if (wrapper.isEmpty()) commandsToRemove.add(command)
       }
       if (commandsToRemove.isNotEmpty()) {
         for (command in commandsToRemove) commandWrappers.remove(command)
       }
+      return removed.toList()
     }
 
     override fun reset() {
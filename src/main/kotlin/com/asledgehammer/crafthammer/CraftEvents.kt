@@ -7,31 +7,47 @@ import com.asledgehammer.crafthammer.api.event.*
 import com.asledgehammer.crafthammer.api.event.EventListener
 import java.lang.reflect.Method
 import java.util.*
+import java.util.concurrent.ConcurrentHashMap
 
 /**
  * **CraftEvents** TODO: Document.
  *
+ * Registrations are published as immutable [Snapshot]s. Registering or removing a listener rebuilds the handler arrays
+ * of the event classes it handles and swaps the snapshot in one write; [dispatch] reads the current snapshot without
+ * locking, so listeners may be added or removed from any thread, including from inside a handler.
+ *
  * @author Jab
  */
 class CraftEvents : Events {
 
+  // Guarded by lock.
   private val wrappers = HashMap<UUID, CraftWrapper>()
-  private val sortedEventWrappers = HashMap<Class<out Event>, ArrayList<EventHandleWrapper>>()
-  private val eventWrappersToRemove = ArrayList<EventHandleWrapper>()
+  private val lock = Any()
+
+  @Volatile
+  private var snapshot = Snapshot(emptyMap())
 
   override fun add(id: UUID, listener: EventListener) {
-    wrappers.computeIfAbsent(id) { CraftWrapper(id) }.register(listener)
-    sort()
+    synchronized(lock) {
+      val added = wrappers.computeIfAbsent(id) { CraftWrapper(id) }.registerHandles(listener)
+      publish(added, emptyList())
+    }
   }
 
   override fun removeAll(id: UUID) {
-    val wrapper = wrappers.remove(id) ?: return
-    wrapper.reset()
+    synchronized(lock) {
+      val wrapper = wrappers.remove(id) ?: return
+      val removed = wrapper.eventWrappers.values.flatten()
+      wrapper.reset()
+      publish(emptyList(), removed)
+    }
   }
 
   override fun remove(id: UUID, listener: EventListener, sort: Boolean) {
-    wrappers[id]?.unregister(listener)
-    if (sort) sort()
+    synchronized(lock) {
+      val removed = wrappers[id]?.unregisterHandles(listener) ?: return
+      publish(emptyList(), removed)
+    }
   }
 
   override fun dispatch(event: Event) {
@@ -43,39 +59,85 @@ class CraftEvents : Events {
     }
 
     val clazz = event.javaClass
-    val wrappers = sortedEventWrappers[clazz] ?: return
-    for (wrapper in wrappers) {
+    val wrappers = snapshot.get(clazz)
+    for (index in wrappers.indices) {
+      val wrapper = wrappers[index]
       try {
         wrapper.dispatch(event)
       } catch (throwable: Throwable) {
         CraftHammer.logError("Failed to execute listener: ${clazz.simpleName}. Disabling listener.", throwable)
         throwable.printStackTrace(System.err)
         wrapper.isEnabled = false
-        eventWrappersToRemove.add(wrapper)
+        remove(wrapper.id, wrapper.listener, false)
       }
     }
-    if (eventWrappersToRemove.isNotEmpty()) {
-      for (wrapper in eventWrappersToRemove) remove(wrapper.id, wrapper.listener, false)
-      sort()
-    }
 
     event.handled = true
   }
 
   override fun reset() {
-    for ((_, wrapper) in wrappers) wrapper.reset()
-    wrappers.clear()
+    synchronized(lock) {
+      for ((_, wrapper) in wrappers) wrapper.reset()
+      wrappers.clear()
+      snapshot = Snapshot(emptyMap())
+    }
   }
 
-  private fun sort() {
-    sortedEventWrappers.clear()
-    for ((_, wrapper) in wrappers) {
-      for ((key, collection) in wrapper.eventWrappers) {
-        val next = sortedEventWrappers.computeIfAbsent(key) { ArrayList() }
-        for (handle in collection) next.add(handle)
+  /**
+   * Rebuilds the handler arrays of the event classes touched by a change and publishes the new snapshot.
+   */
+  private fun publish(added: Collection<EventHandleWrapper>, removed: Collection<EventHandleWrapper>) {
+    if (added.isEmpty() && removed.isEmpty()) return
+
+    val affected = HashSet<Class<*>>()
+    for (handle in added) affected.add(handle.eventClass)
+    for (handle in removed) affected.add(handle.eventClass)
+
+    val removedSet = Collections.newSetFromMap(IdentityHashMap<EventHandleWrapper, Boolean>())
+    removedSet.addAll(removed)
+
+    val byClass = HashMap(snapshot.byClass)
+    for (clazz in affected) {
+      val list = ArrayList<EventHandleWrapper>()
+      byClass[clazz]?.let { for (handle in it) if (handle !in removedSet) list.add(handle) }
+      for (handle in added) if (handle.eventClass == clazz) list.add(handle)
+      list.sortByDescending { it.annotation.priority }
+      if (list.isEmpty()) byClass.remove(clazz)
+      else byClass[clazz] = list.toTypedArray()
+    }
+
+    snapshot = Snapshot(byClass)
+  }
+
+  /**
+   * **Snapshot** is an immutable view of the registered handlers per event class. The handlers for a dispatched class,
+   * including those registered for its supertypes, are flattened on first use and kept with the snapshot.
+   */
+  private class Snapshot(val byClass: Map<Class<*>, Array<EventHandleWrapper>>) {
+
+    private val flattened = ConcurrentHashMap<Class<*>, Array<EventHandleWrapper>>()
+
+    fun get(clazz: Class<*>): Array<EventHandleWrapper> =
+      flattened[clazz] ?: flattened.computeIfAbsent(clazz) { flatten(it) }
+
+    /**
+     * Collects the handlers of an event class and of every superclass and interface it extends, in priority order.
+     */
+    private fun flatten(clazz: Class<*>): Array<EventHandleWrapper> {
+      val handlers = ArrayList<EventHandleWrapper>()
+      val visited = HashSet<Class<*>>()
+      val queue = ArrayDeque<Class<*>>()
+      queue.add(clazz)
+      while (queue.isNotEmpty()) {
+        val next = queue.removeFirst()
+        if (!visited.add(next)) continue
+        byClass[next]?.let { handlers.addAll(it) }
+        next.superclass?.let { queue.add(it) }
+        queue.addAll(next.interfaces)
       }
+      handlers.sortByDescending { it.annotation.priority }
+      return handlers.toTypedArray()
     }
-    for ((_, list) in sortedEventWrappers) list.sortByDescending { it.annotation.priority }
   }
 
   private class CraftWrapper(val id: UUID) : Events.Wrapper {
@@ -83,33 +145,50 @@ class CraftEvents : Events {
     override val eventWrappers = HashMap<Class<out Event?>, ArrayList<EventHandleWrapper>>()
 
     override fun register(listener: EventListener) {
+      registerHandles(listener)
+    }
+
+    fun registerHandles(listener: EventListener): List<EventHandleWrapper> {
+      val added = ArrayList<EventHandleWrapper>()
       // Grab the methods for the Listener.
       val methods: List<Method> = ReflectionUtils.getAllDeclaredMethods(listener.javaClass)
-      if (methods.isEmpty()) return
+      if (methods.isEmpty()) return added
       for (method in methods) {
         val eventHandler = method.getAnnotation(EventHandler::class.java)
         if (eventHandler != null) {
           val clazz = method.parameters[0].type as Class<out Event?>
           val wrapper = EventHandleWrapper(id, listener, eventHandler, method)
           eventWrappers.computeIfAbsent(clazz) { ArrayList() }.add(wrapper)
+          added.add(wrapper)
           continue
         }
       }
+      return added
     }
 
     override fun unregister(listener: EventListener) {
+      unregisterHandles(listener)
+    }
+
+    fun unregisterHandles(listener: EventListener): List<EventHandleWrapper> {
+      val removed = ArrayList<EventHandleWrapper>()
       val eventsToRemove = ArrayList<Class<out Event>>()
       for ((clazz, wrapper) in eventWrappers) {
         val iterator = wrapper.iterator()
         while (iterator.hasNext()) {
           val next = iterator.next()
-          if (next.listener == listener) iterator.remove()
+          if (next.listener == listener) {
+            next.isEnabled = false
+            removed.add(next)
+            iterator.remove()
+          }
         }
         if (wrapper.isEmpty()) eventsToRemove.add(clazz)
       }
       if (eventsToRemove.isNotEmpty()) {
         for (clazz in eventsToRemove) eventWrappers.remove(clazz)
       }
+      return removed
     }
 
     override fun reset() {
@@ -126,6 +205,6 @@ class CraftEvents : Events {
   }
 
   companion object {
-    var DEBUG = true
+    var DEBUG = false
   }
 }
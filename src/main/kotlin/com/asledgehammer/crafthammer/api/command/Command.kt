@@ -66,7 +66,7 @@ class Command(val name: String, val args: List<String>) {
         }
       }
       if (arg.isNotEmpty()) args.add(arg.toString())
-      return if (args.size <= 1) ArrayList() else args.subList(1, args.lastIndex)
+      return if (args.size <= 1) ArrayList() else args.subList(1, args.size)
     }
 
     /** TODO: Document. */
@@ -14,6 +14,9 @@ import java.util.*
 class EventHandleWrapper(val id: UUID, listener: EventListener, annotation: EventHandler, method: Method) :
   HandleWrapper<EventHandler, EventListener, Event>(listener, annotation, method) {
 
+  /** The event class the handler is registered for. */
+  val eventClass: Class<*> = method.parameterTypes[0]
+
   override fun canDispatch(element: Event): Boolean {
     if (annotation.ignoreCancelled) return true
     return element !is Cancelable || !element.cancelled
@@ -1,12 +1,14 @@
-@file:Suppress("LeakingThis")
+@file:Suppress("LeakingThis", "UNCHECKED_CAST")
 
 package com.asledgehammer.crafthammer.api.event
 
-import java.lang.invoke.MethodHandle
+import com.asledgehammer.crafthammer.api.Hammer
+import java.lang.invoke.LambdaMetafactory
 import java.lang.invoke.MethodHandles
 import java.lang.invoke.MethodType
 import java.lang.reflect.Method
 import java.lang.reflect.Modifier
+import java.util.function.Consumer
 
 /**
  * **HandleWrapper** TODO: Document.
@@ -29,19 +31,12 @@ abstract class HandleWrapper<A : Annotation,L, E>(val listener: L, val annotatio
   /** TODO: Document. */
   var isEnabled = false
 
-  private var methodArgumentsCache: Array<Any?> = emptyArray()
-  private var methodHandle: MethodHandle? = null
-  private var methodParameters: Array<Class<*>> = emptyArray()
-  private var methodType: MethodType? = null
-  private var methodName: String? = null
-  private var isStatic = false
+  private val invoker: Invoker
 
   init {
     method.isAccessible = true
-    methodName = method.name
-    methodParameters = method.parameterTypes
 
-    require(methodParameters.size == 1) {
+    require(method.parameterTypes.size == 1) {
       "There is more than one parameter in the method."
     }
 
@@ -49,24 +44,7 @@ abstract class HandleWrapper<A : Annotation,L, E>(val listener: L, val annotatio
       "The parameter type is invalid for the handle."
     }
 
-    isStatic = Modifier.isStatic(method.modifiers)
-    methodType = MethodType.methodType(method.returnType, methodParameters)
-
-    try {
-      methodHandle = LOOKUP.unreflect(method)
-    } catch (e: IllegalAccessException) {
-      e.printStackTrace()
-    }
-
-    // If the event handler method is static, the parameter cache does not require an instance
-    // of the declaring class or anonymous class to invoke.
-    if (isStatic) {
-      methodArgumentsCache = arrayOfNulls(1)
-    } else {
-      methodArgumentsCache = arrayOfNulls(2)
-      methodArgumentsCache[0] = listener
-    }
-
+    invoker = createInvoker(method)
     isEnabled = true
   }
 
@@ -74,29 +52,96 @@ abstract class HandleWrapper<A : Annotation,L, E>(val listener: L, val annotatio
    * Dispatches an Event.
    *
    * @param element The Event passed to handle.
-   * @throws Throwable Thrown if the event handler fails to handle the Event, or the MethodHandle
-   * fails to invoke.
+   * @throws Throwable Thrown if the event handler fails to handle the Event.
    */
   @Throws(Throwable::class)
   open fun dispatch(element: E) {
     if (!isEnabled) return
     if (!canDispatch(element)) return
-    if (isStatic) {
-      methodArgumentsCache[0] = element
-      methodHandle!!.invokeWithArguments(*methodArgumentsCache)
-      methodArgumentsCache[0] = null
-    } else {
-      methodArgumentsCache[1] = element
-      methodHandle!!.invokeWithArguments(*methodArgumentsCache)
-      methodArgumentsCache[1] = null
-    }
+    invoker.invoke(listener, element)
   }
 
   abstract fun canDispatch(element: E): Boolean
 
   abstract fun isParameterValid(clazz: Class<*>): Boolean
 
+  /**
+   * **Invoker** calls a handler method directly. Instances are generated per handler with [LambdaMetafactory], so a
+   * dispatch is a plain interface call the JIT can inline, with no argument array or boxing.
+   */
+  fun interface Invoker {
+    fun invoke(listener: Any?, element: Any?)
+  }
+
+  /**
+   * **LookupProvider** is implemented by class loaders, such as the one of a plugin, that define their own copy of
+   * [InvokerHost], so the invokers of their handlers can be generated in them.
+   */
+  interface LookupProvider {
+
+    /**
+     * @return The lookup of the [InvokerHost] defined by the class loader.
+     */
+    fun getInvokerLookup(): MethodHandles.Lookup
+  }
+
   companion object {
     protected val LOOKUP: MethodHandles.Lookup = MethodHandles.lookup()
+
+    private val INVOKER_TYPE = MethodType.methodType(Invoker::class.java)
+    private val INVOKE_TYPE = MethodType.methodType(Void.TYPE, Any::class.java, Any::class.java)
+    private val CONSUMER_TYPE = MethodType.methodType(Consumer::class.java)
+    private val ACCEPT_TYPE = MethodType.methodType(Void.TYPE, Any::class.java)
+
+    /**
+     * Generates the invoker of a handler method. Falls back to a [java.lang.invoke.MethodHandle] call, and logs it,
+     * when the metafactory cannot link against the declaring class.
+     */
+    private fun createInvoker(method: Method): Invoker {
+      val declaringClass = method.declaringClass
+      val lookup = findLookup(declaringClass)
+      val handle = lookup.unreflect(method)
+
+      try {
+        if (Modifier.isStatic(method.modifiers)) {
+          val consumer = LambdaMetafactory.metafactory(
+            lookup, "accept", CONSUMER_TYPE, ACCEPT_TYPE, handle,
+            MethodType.methodType(Void.TYPE, method.parameterTypes[0])
+          ).target.invoke() as Consumer<Any?>
+          return Invoker { _, element -> consumer.accept(element) }
+        }
+        return LambdaMetafactory.metafactory(
+          lookup, "invoke", INVOKER_TYPE, INVOKE_TYPE, handle,
+          MethodType.methodType(Void.TYPE, declaringClass, method.parameterTypes[0])
+        ).target.invoke() as Invoker
+      } catch (e: Throwable) {
+        Hammer.instance?.logError(
+          "Failed to generate the invoker of ${declaringClass.name}.${method.name}. Calling it through a method handle.",
+          e
+        )
+        val exact = if (Modifier.isStatic(method.modifiers)) {
+          MethodHandles.dropArguments(handle, 0, Any::class.java).asType(INVOKE_TYPE)
+        } else {
+          handle.asType(INVOKE_TYPE)
+        }
+        return Invoker { listener, element -> exact.invoke(listener, element) }
+      }
+    }
+
+    /**
+     * Finds a lookup the metafactory accepts for the handlers of a class: a private lookup in the class when it is in
+     * the same module as this one, else the lookup of the [InvokerHost] of its class loader. A handler reached through
+     * the host must be public in a public class.
+     */
+    private fun findLookup(clazz: Class<*>): MethodHandles.Lookup {
+      try {
+        val lookup = MethodHandles.privateLookupIn(clazz, LOOKUP)
+        if (lookup.hasFullPrivilegeAccess()) return lookup
+      } catch (e: IllegalAccessException) {
+      }
+      val loader = clazz.classLoader
+      if (loader is LookupProvider) return loader.getInvokerLookup()
+      return LOOKUP
+    }
   }
 }
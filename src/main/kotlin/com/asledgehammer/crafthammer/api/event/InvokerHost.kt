@@ -0,0 +1,24 @@
+package com.asledgehammer.crafthammer.api.event
+
+import java.lang.invoke.MethodHandles
+
+/**
+ * **InvokerHost** hosts the invokers [HandleWrapper] generates for the handlers of a class loader.
+ *
+ * [LambdaMetafactory][java.lang.invoke.LambdaMetafactory] defines each invoker next to the class of its lookup and
+ * needs full access to that class. A class loaded by another class loader, such as a plugin's, is in another module,
+ * so no such lookup can be made for it from here. A class loader that implements [HandleWrapper.LookupProvider]
+ * defines its own copy of this class instead and hands out its [lookup].
+ *
+ * The class must stay self-contained, as its bytes are copied as-is.
+ *
+ * @author Jab
+ */
+object InvokerHost {
+
+  /**
+   * @return A lookup with full access to this class, in the class loader that defined it.
+   */
+  @JvmStatic
+  fun lookup(): MethodHandles.Lookup = MethodHandles.lookup()
+}
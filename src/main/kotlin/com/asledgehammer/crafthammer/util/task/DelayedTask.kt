@@ -9,22 +9,25 @@ import java.util.*
  *
  * @author Jab
  *
- * @param id
- * @property delay
+ * @property id
+ * @property delay The ticks to wait before the task runs. Read once when the task is registered.
  * @property runnable
  */
-open class DelayedTask(id: UUID, var delay: Long, val runnable: () -> Unit) {
+open class DelayedTask(val id: UUID, var delay: Long, val runnable: () -> Unit) {
 
   /**
    * TODO: Document.
    */
   var cancel = false
 
+  // The tick the task runs on. Set by Tasks; declared before init so registering does not get overwritten.
+  internal var deadline = 0L
+
   /**
    * TODO: Document.
    */
-  var ticksRemaining = delay
-    internal set
+  val ticksRemaining: Long
+    get() = (deadline - Tasks.currentTick - 1).coerceAtLeast(0L)
 
   init {
     require(delay >= 0) { "delay cannot be negative." }
@@ -2,51 +2,275 @@
 
 package com.asledgehammer.crafthammer.util.task
 
+import com.asledgehammer.crafthammer.CraftHammer
 import java.util.*
+import java.util.concurrent.*
+import java.util.concurrent.atomic.AtomicInteger
 
 /**
  * **Tasks** TODO: Document.
  *
+ * Delayed and repeating tasks are kept in a hierarchical timing wheel of [LEVELS] wheels with [SLOTS] slots each. A slot
+ * of one wheel spans a full turn of the wheel below it. Tasks are placed by how far away they are due, and each time a
+ * wheel completes a turn the next slot of the wheel above is cascaded down. A tick only touches the tasks due on that
+ * tick, plus one cascaded slot every [SLOTS] ticks, however many tasks are scheduled.
+ *
+ * File or database work that should not block the tick can run on a bounded pool with [runAsync] and [runLaterAsync],
+ * and hand its results back with [runOnMain]. Tasks that run longer than `tasks.slow_task_ms` are reported.
+ *
  * @author Jab
  */
 object Tasks {
 
-  private val tasks = HashMap<UUID, ArrayList<DelayedTask>>()
+  private const val SLOT_BITS = 6
+  private const val SLOTS = 1 shl SLOT_BITS
+  private const val SLOT_MASK = (SLOTS - 1).toLong()
+  private const val LEVELS = 4
+
+  // Ticks covered by the wheels. Tasks due later wait in the top wheel and are placed again each time it turns.
+  private const val SPAN = 1L shl (SLOT_BITS * LEVELS)
+
+  // Main thread only.
+  private val wheels = Array(LEVELS) { Array(SLOTS) { ArrayList<DelayedTask>() } }
+  private val owners = HashMap<UUID, MutableSet<DelayedTask>>()
+  private val due = ArrayList<DelayedTask>()
+
+  // Any thread.
+  private val pending = ConcurrentLinkedQueue<DelayedTask>()
+  private val mainQueue = ConcurrentLinkedQueue<() -> Unit>()
+
+  private var asyncThreads = 2
+  private var asyncQueueSize = 1024
+  private var slowTaskNanos = TimeUnit.MILLISECONDS.toNanos(50)
+
+  @Volatile
+  private var executor: ThreadPoolExecutor? = null
+
+  /** The number of ticks run so far. */
+  @Volatile
+  var currentTick = 0L
+    private set
+
+  /** Reads the `tasks` section of the configuration and starts the async pool. */
+  @JvmStatic
+  fun init() {
+    val cfg = CraftHammer.cfg
+    if (cfg.contains("tasks.async_threads")) asyncThreads = cfg.getInt("tasks.async_threads").coerceAtLeast(1)
+    if (cfg.contains("tasks.async_queue_size")) asyncQueueSize = cfg.getInt("tasks.async_queue_size").coerceAtLeast(1)
+    if (cfg.contains("tasks.slow_task_ms")) {
+      slowTaskNanos = TimeUnit.MILLISECONDS.toNanos(cfg.getInt("tasks.slow_task_ms").toLong().coerceAtLeast(0L))
+    }
+    executor()
+  }
 
   /** TODO: Document. */
   @JvmStatic
   fun tick() {
-    if (tasks.isNotEmpty()) {
-      for ((_, tasks) in tasks) {
-        if (tasks.isEmpty()) continue
-        val iterator = tasks.iterator()
-        while (iterator.hasNext()) {
-          val task = iterator.next()
-          if (task.cancel) {
-            iterator.remove()
-            continue
-          }
-          if (task.delay <= 0L) {
-            task.runnable()
-            if (task is Task) task.delay = task.period
-            else iterator.remove()
-          } else {
-            task.delay--
-          }
-        }
+
+    // Hand-offs from other threads run first so the tasks of this tick see their results.
+    while (true) {
+      val runnable = mainQueue.poll() ?: break
+      run(null, runnable, false)
+    }
+
+    while (true) {
+      val task = pending.poll() ?: break
+      if (task.cancel) continue
+      owners.computeIfAbsent(task.id) { Collections.newSetFromMap(IdentityHashMap()) }.add(task)
+      if (task.deadline <= currentTick) task.deadline = currentTick + 1
+      schedule(task, currentTick)
+    }
+
+    val tick = ++currentTick
+    cascade(tick)
+
+    val slot = wheels[0][(tick and SLOT_MASK).toInt()]
+    if (slot.isEmpty()) return
+    due.addAll(slot)
+    slot.clear()
+    for (index in due.indices) {
+      val task = due[index]
+      if (task.cancel) {
+        forget(task)
+        continue
+      }
+      if (task.deadline > tick) {
+        schedule(task, tick)
+        continue
+      }
+      if (run(task.id, task.runnable, false) != null) task.cancel = true
+      if (!task.cancel && task is Task) {
+        task.deadline = tick + task.period + 1
+        schedule(task, tick)
+      } else {
+        forget(task)
       }
     }
+    due.clear()
   }
 
-  /** TODO: Document. */
+  /**
+   * Registers a task. Safe to call from any thread; the task joins the wheel at the start of the next tick.
+   */
   @JvmStatic
   fun register(id: UUID, delayedTask: DelayedTask) {
-    tasks.computeIfAbsent(id) { ArrayList() }.add(delayedTask)
+    delayedTask.deadline = currentTick + delayedTask.delay + 1
+    pending.add(delayedTask)
   }
 
-  /** TODO: Document. */
+  /** Cancels every task registered for an id. Call from the main thread. */
   @JvmStatic
   fun unregister(id: UUID) {
-    tasks.remove(id)
+    owners.remove(id)?.forEach { it.cancel = true }
+    for (task in pending) if (task.id == id) task.cancel = true
+  }
+
+  /**
+   * Runs a task on the async pool. Failures are logged and complete the returned future exceptionally, as does a full
+   * pool queue.
+   */
+  @JvmStatic
+  fun runAsync(id: UUID, runnable: () -> Unit): CompletableFuture<Void> {
+    val future = CompletableFuture<Void>()
+    submit(id, runnable, future)
+    return future
+  }
+
+  /**
+   * Runs a task on the async pool after a delay in ticks. Cancelling the returned future before the delay ends skips
+   * the task.
+   */
+  @JvmStatic
+  fun runLaterAsync(id: UUID, delay: Long, runnable: () -> Unit): CompletableFuture<Void> {
+    val future = CompletableFuture<Void>()
+    DelayedTask(id, delay) { if (!future.isDone) submit(id, runnable, future) }
+    return future
+  }
+
+  /** Runs a task on the main thread at the start of the next tick. Safe to call from any thread. */
+  @JvmStatic
+  fun runOnMain(runnable: () -> Unit) {
+    mainQueue.add(runnable)
+  }
+
+  /**
+   * Stops the async pool, waiting briefly for running tasks, then runs the hand-offs they left for the main thread.
+   */
+  @JvmStatic
+  fun shutdown() {
+    val executor = executor ?: return
+    this.executor = null
+    executor.shutdown()
+    try {
+      if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+        CraftHammer.log("${executor.queue.size} async task(s) did not finish before shutdown.")
+        executor.shutdownNow()
+      }
+    } catch (e: InterruptedException) {
+      executor.shutdownNow()
+      Thread.currentThread().interrupt()
+    }
+    while (true) {
+      val runnable = mainQueue.poll() ?: break
+      run(null, runnable, false)
+    }
+  }
+
+  /**
+   * Places a task in the wheel relative to [tick], the last tick whose cascades have run.
+   */
+  private fun schedule(task: DelayedTask, tick: Long) {
+    if (task.deadline < tick) task.deadline = tick
+    val delta = task.deadline - tick
+    var level = 0
+    while (level < LEVELS - 1 && delta >= 1L shl ((level + 1) * SLOT_BITS)) level++
+    val target = if (delta < SPAN) task.deadline else tick + SPAN - 1
+    wheels[level][((target ushr (level * SLOT_BITS)) and SLOT_MASK).toInt()].add(task)
+  }
+
+  /**
+   * Moves the tasks of the next slot of each wheel that completed a turn into the wheels below.
+   */
+  private fun cascade(tick: Long) {
+    var level = 1
+    while (level < LEVELS && (tick and ((1L shl (level * SLOT_BITS)) - 1)) == 0L) {
+      val slot = wheels[level][((tick ushr (level * SLOT_BITS)) and SLOT_MASK).toInt()]
+      if (slot.isNotEmpty()) {
+        due.addAll(slot)
+        slot.clear()
+        for (index in due.indices) {
+          val task = due[index]
+          if (task.cancel) forget(task) else schedule(task, tick)
+        }
+        due.clear()
+      }
+      level++
+    }
+  }
+
+  private fun forget(task: DelayedTask) {
+    val tasks = owners[task.id] ?: return
+    tasks.remove(task)
+    if (tasks.isEmpty()) owners.remove(task.id)
+  }
+
+  private fun submit(id: UUID, runnable: () -> Unit, future: CompletableFuture<Void>) {
+    try {
+      executor().execute {
+        if (future.isDone) return@execute
+        val error = run(id, runnable, true)
+        if (error == null) future.complete(null) else future.completeExceptionally(error)
+      }
+    } catch (e: RejectedExecutionException) {
+      CraftHammer.logError("Async task queue is full ($asyncQueueSize). Rejected task: ${describe(id, runnable)}", e)
+      future.completeExceptionally(e)
+    }
+  }
+
+  /**
+   * Runs a task, reporting it if it fails or runs longer than the slow task threshold.
+   *
+   * @return The error thrown by the task, if any.
+   */
+  private fun run(id: UUID?, runnable: () -> Unit, async: Boolean): Throwable? {
+    val start = System.nanoTime()
+    var error: Throwable? = null
+    try {
+      runnable()
+    } catch (throwable: Throwable) {
+      error = throwable
+      val action = if (async) "" else " Cancelling task."
+      CraftHammer.logError("Failed to execute task: ${describe(id, runnable)}.$action", throwable)
+    }
+    val elapsed = System.nanoTime() - start
+    if (slowTaskNanos in 1..elapsed) {
+      val kind = if (async) "async task" else "task"
+      val millis = TimeUnit.NANOSECONDS.toMillis(elapsed)
+      val threshold = TimeUnit.NANOSECONDS.toMillis(slowTaskNanos)
+      CraftHammer.log("Slow $kind: ${describe(id, runnable)} took $millis ms (threshold: $threshold ms).")
+    }
+    return error
+  }
+
+  private fun describe(id: UUID?, runnable: () -> Unit): String =
+    if (id == null) runnable.javaClass.name else "${runnable.javaClass.name} ($id)"
+
+  private fun executor(): ThreadPoolExecutor {
+    executor?.let { return it }
+    synchronized(this) {
+      executor?.let { return it }
+      val count = AtomicInteger()
+      val factory = ThreadFactory { runnable ->
+        val thread = Thread(runnable, "CraftHammer-Async-${count.incrementAndGet()}")
+        thread.isDaemon = true
+        thread
+      }
+      val created = ThreadPoolExecutor(
+        asyncThreads, asyncThreads, 60L, TimeUnit.SECONDS, ArrayBlockingQueue(asyncQueueSize), factory
+      )
+      created.allowCoreThreadTimeOut(true)
+      executor = created
+      return created
+    }
   }
 }
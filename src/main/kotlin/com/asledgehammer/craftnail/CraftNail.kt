@@ -4,8 +4,19 @@ import com.asledgehammer.crafthammer.api.entity.Player
 import com.asledgehammer.crafthammer.api.event.log.LogListener
 import com.asledgehammer.crafthammer.util.cfg.YamlFile
 import com.asledgehammer.crafthammer.util.console.ANSIUtils
+import com.asledgehammer.crafthammer.util.task.Tasks
+import com.asledgehammer.craftnail.command.CraftNailCommands
+import com.asledgehammer.craftnail.command.ServerCommandRegistry
 import com.asledgehammer.craftnail.hook.CraftHookManager
+import com.asledgehammer.craftnail.hook.TickProfiler
+import com.asledgehammer.craftnail.packet.PacketPrecheck
+import com.asledgehammer.craftnail.packet.PacketProfiler
+import com.asledgehammer.craftnail.packet.PacketRateLimiter
+import com.asledgehammer.craftnail.packet.PacketScheduler
+import com.asledgehammer.craftnail.packet.TableResultStreamer
+import com.asledgehammer.craftnail.packet.security.PacketCheckStats
 import com.asledgehammer.craftnail.packet.security.PacketChecker
+import com.asledgehammer.craftnail.packet.security.ViolationAggregator
 import com.asledgehammer.craftnail.player.PlayerManager
 import com.asledgehammer.craftnail.util.TextFilter
 import com.asledgehammer.craftnail.util.log.SecurityLogger
@@ -71,10 +82,21 @@ object CraftNail {
         // Initialize components
         TextFilter.init()
         PacketChecker.init()
-        SecurityLogger.init()
         
         // Load configuration
         loadConfig()
+        SecurityLogger.init()
+        
+        // Start network stages configured in crafthammer.yml
+        PacketPrecheck.init()
+        PacketScheduler.init()
+        PacketRateLimiter.init()
+        PacketProfiler.init()
+        PacketCheckStats.init()
+        ViolationAggregator.init()
+        ServerCommandRegistry.init()
+        Tasks.init()
+        TickProfiler.init()
         
         // Load hooks
         log("Loading CraftHook(s)..")
@@ -87,6 +109,7 @@ object CraftNail {
      * Starts the CraftNail system.
      */
     fun start() {
+        CraftNailCommands.register()
         CraftHookManager.enableAll()
         log("Enabled ${CraftHookManager.size()} CraftHook(s).")
     }
@@ -95,6 +118,13 @@ object CraftNail {
      * Ticks the CraftNail system.
      */
     fun tick() {
+        PacketPrecheck.tick()
+        PacketRateLimiter.tick()
+        TableResultStreamer.tick()
+        PacketProfiler.tick()
+        PacketCheckStats.tick()
+        ViolationAggregator.tick()
+        Tasks.tick()
         CraftHookManager.tick()
     }
     
@@ -109,6 +139,11 @@ object CraftNail {
         log("Unloaded ${CraftHookManager.size()} CraftHook(s).")
         
         CraftHookManager.clear()
+        CraftNailCommands.unregister()
+        Tasks.shutdown()
+        TickProfiler.stop()
+        PacketPrecheck.stop()
+        TableResultStreamer.stop()
         SecurityLogger.stop()
     }
     
@@ -0,0 +1,193 @@
+package com.asledgehammer.craftnail.command
+
+import com.asledgehammer.crafthammer.CraftHammer
+import com.asledgehammer.crafthammer.api.command.CommandExecution
+import com.asledgehammer.crafthammer.api.command.CommandHandler
+import com.asledgehammer.crafthammer.api.command.CommandListener
+import com.asledgehammer.crafthammer.api.entity.Player
+import com.asledgehammer.craftnail.CraftNail
+import com.asledgehammer.craftnail.hook.TickProfiler
+import com.asledgehammer.craftnail.packet.PacketProfiler
+import com.asledgehammer.craftnail.packet.security.PacketCheckStats
+import java.util.UUID
+import zombie.network.PacketTypes
+import zombie.network.ServerWorldDatabase
+
+/**
+ * Server commands provided by CraftNail itself. Every command here is restricted to staff and the console.
+ */
+object CraftNailCommands : CommandListener {
+    
+    // Registration ID of the listener
+    private val id = UUID.randomUUID()
+    
+    /**
+     * Registers the commands.
+     */
+    fun register() {
+        CraftHammer.commands.removeAll(id)
+        CraftHammer.commands.add(id, this)
+    }
+    
+    /**
+     * Unregisters the commands.
+     */
+    fun unregister() {
+        CraftHammer.commands.removeAll(id)
+    }
+    
+    /**
+     * `/packetstats [top <count> | <type> | reset]`: Shows the handler latency and allocation of packet types.
+     */
+    @CommandHandler(commands = ["packetstats"])
+    fun onPacketStats(execution: CommandExecution) {
+        if (!checkStaff(execution)) {
+            return
+        }
+        
+        val args = execution.command.args
+        val commander = execution.commander
+        
+        if (!PacketProfiler.enabled) {
+            execution.deny("Packet statistics are disabled. (network.profiler.enabled)")
+            return
+        }
+        
+        when {
+            args.isEmpty() -> {
+                commander.sendMessages("Command", *PacketProfiler.report(10).toTypedArray())
+            }
+            args[0].equals("top", ignoreCase = true) -> {
+                val count = args.getOrNull(1)?.toIntOrNull() ?: 10
+                commander.sendMessages("Command", *PacketProfiler.report(count).toTypedArray())
+            }
+            args[0].equals("reset", ignoreCase = true) -> {
+                PacketProfiler.reset()
+                execution.accept("Packet statistics reset.")
+                return
+            }
+            else -> {
+                val type = PacketTypes.PacketType.values().firstOrNull { it.name.equals(args[0], ignoreCase = true) }
+                if (type == null) {
+                    execution.deny("Unknown packet type: ${args[0]}")
+                    return
+                }
+                commander.sendMessage("Command", PacketProfiler.report(type) ?: "No ${type.name} packets handled.")
+            }
+        }
+        
+        execution.accept()
+    }
+    
+    /**
+     * `/checkstats [top <count> | <check> | reset]`: Shows how often security checks run and fire, and what they cost.
+     */
+    @CommandHandler(commands = ["checkstats"])
+    fun onCheckStats(execution: CommandExecution) {
+        if (!checkStaff(execution)) {
+            return
+        }
+        
+        val args = execution.command.args
+        val commander = execution.commander
+        
+        if (!PacketCheckStats.enabled) {
+            execution.deny("Security check statistics are disabled. (network.check_stats.enabled)")
+            return
+        }
+        
+        when {
+            args.isEmpty() -> {
+                commander.sendMessages("Command", *PacketCheckStats.report(10).toTypedArray())
+            }
+            args[0].equals("top", ignoreCase = true) -> {
+                val count = args.getOrNull(1)?.toIntOrNull() ?: 10
+                commander.sendMessages("Command", *PacketCheckStats.report(count).toTypedArray())
+            }
+            args[0].equals("reset", ignoreCase = true) -> {
+                PacketCheckStats.reset()
+                execution.accept("Security check statistics reset.")
+                return
+            }
+            else -> {
+                val lines = PacketCheckStats.report(args[0])
+                if (lines == null) {
+                    execution.deny("Unknown security check: ${args[0]}")
+                    return
+                }
+                commander.sendMessages("Command", *lines.toTypedArray())
+            }
+        }
+        
+        execution.accept()
+    }
+    
+    /**
+     * `/profile plugins [reset]`: Shows the tick time and allocation of every hook and plugin module.
+     */
+    @CommandHandler(commands = ["profile"])
+    fun onProfile(execution: CommandExecution) {
+        if (!checkStaff(execution)) {
+            return
+        }
+        
+        val args = execution.command.args
+        if (args.isEmpty() || !args[0].equals("plugins", ignoreCase = true)) {
+            execution.deny("Usage: /profile plugins [reset]")
+            return
+        }
+        
+        if (!TickProfiler.enabled) {
+            execution.deny("Tick statistics are disabled. (tick_profiler.enabled)")
+            return
+        }
+        
+        if (args.getOrNull(1).equals("reset", ignoreCase = true)) {
+            TickProfiler.reset()
+            execution.accept("Tick statistics reset.")
+            return
+        }
+        
+        execution.commander.sendMessages("Command", *TickProfiler.report().toTypedArray())
+        execution.accept()
+    }
+    
+    /**
+     * `/authcheck`: Compares the login cache of bans and whitelist users with the database and reloads it.
+     */
+    @CommandHandler(commands = ["authcheck"])
+    fun onAuthCheck(execution: CommandExecution) {
+        if (!checkStaff(execution)) {
+            return
+        }
+        
+        val differences = try {
+            ServerWorldDatabase.instance.checkAuthCache()
+        } catch (e: Exception) {
+            CraftNail.logError("Failed to check the auth cache.", e)
+            execution.deny("Failed to read the user database.")
+            return
+        }
+        
+        if (differences.isEmpty()) {
+            execution.accept("The auth cache matches the database.")
+            return
+        }
+        
+        val lines = ArrayList(differences.take(20))
+        if (differences.size > 20) {
+            lines.add("${differences.size - 20} more difference(s).")
+        }
+        execution.commander.sendMessages("Command", *lines.toTypedArray())
+        execution.accept("Found ${differences.size} difference(s). The auth cache was reloaded.")
+    }
+    
+    private fun checkStaff(execution: CommandExecution): Boolean {
+        val commander = execution.commander
+        if (commander is Player && !commander.isStaff) {
+            execution.deny("You do not have permission to use this command.")
+            return false
+        }
+        return true
+    }
+}
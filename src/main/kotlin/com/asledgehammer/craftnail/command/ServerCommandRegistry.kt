@@ -0,0 +1,225 @@
+@file:Suppress("UNCHECKED_CAST")
+
+package com.asledgehammer.craftnail.command
+
+import com.asledgehammer.crafthammer.api.Console
+import com.asledgehammer.crafthammer.api.Hammer
+import com.asledgehammer.crafthammer.api.command.Command
+import com.asledgehammer.craftnail.CraftNail
+import com.asledgehammer.craftnail.player.PlayerManager
+import java.lang.invoke.LambdaMetafactory
+import java.lang.invoke.MethodHandles
+import java.lang.invoke.MethodType
+import java.sql.SQLException
+import java.util.Locale
+import zombie.commands.CommandBase
+import zombie.commands.CommandName
+import zombie.commands.serverCommands.QuitCommand
+import zombie.core.raknet.UdpConnection
+
+/**
+ * Immutable index of the game's server commands, built once at startup.
+ *
+ * [CommandBase.findCommandCls] compiles a pattern for every command name on every call and the command is then created
+ * through reflection. Here every name of every enabled command class is put in a case-insensitive prefix trie, bound to
+ * a constructor factory generated with [LambdaMetafactory]. Looking up a command walks the trie once along the raw
+ * input.
+ *
+ * [dispatch] is the single entry point for server commands: the command handlers of plugins get the command first,
+ * then the game command is looked up here. The rights of a game command are checked by [CommandBase.Execute], which
+ * also words the reply when they are missing.
+ */
+object ServerCommandRegistry {
+    
+    /**
+     * Creates a command instance with the arguments of the [CommandBase] constructor.
+     */
+    fun interface Factory {
+        fun create(username: String?, role: String?, raw: String?, connection: UdpConnection?): CommandBase
+    }
+    
+    /**
+     * A registered command class.
+     *
+     * @property type The command class.
+     * @property factory Creates instances of the command.
+     */
+    class Entry(val type: Class<out CommandBase>, val factory: Factory)
+    
+    // Names that only match the whole input
+    private val exactAliases = mapOf("stop" to QuitCommand::class.java)
+    
+    private var root = Node()
+    private var exact: Map<String, Entry> = emptyMap()
+    
+    @Volatile
+    private var initialized = false
+    
+    /**
+     * Builds the registry from the command classes of the game.
+     */
+    @Synchronized
+    fun init() {
+        val newRoot = Node()
+        val newEntries = HashMap<Class<*>, Entry>()
+        
+        for (clazz in CommandBase.getSubClasses()) {
+            val type = clazz as Class<out CommandBase>
+            if (CommandBase.isDisabled(type)) {
+                continue
+            }
+            
+            val entry = try {
+                createEntry(type)
+            } catch (e: Throwable) {
+                CraftNail.logError("Failed to register server command: ${type.simpleName}", e)
+                continue
+            }
+            newEntries[type] = entry
+            
+            for (name in type.getAnnotationsByType(CommandName::class.java)) {
+                newRoot.insert(name.name.lowercase(Locale.getDefault()), entry)
+            }
+        }
+        
+        val newExact = HashMap<String, Entry>()
+        for ((alias, type) in exactAliases) {
+            newEntries[type]?.let { newExact[alias] = it }
+        }
+        
+        root = newRoot
+        exact = newExact
+        initialized = true
+    }
+    
+    /**
+     * Runs a server command line, from the console, RCON or the chat of a player.
+     *
+     * @param raw The command line, without the leading slash.
+     * @param connection The connection of the player, or null for the console and RCON.
+     * @param username The name the game command runs as.
+     * @param role The role the game command runs as.
+     * @return The reply of the command, empty when a plugin handled it, or null if no command matches.
+     */
+    fun dispatch(raw: String, connection: UdpConnection?, username: String, role: String): String? {
+        val hammer = Hammer.instance!!
+        val sender = if (connection == null) hammer.console else PlayerManager.getPlayer(connection) as Console
+        val response = hammer.commands.dispatch(Command.fromRaw(raw), sender).response
+        val message = response.message
+        if (!message.isNullOrEmpty()) {
+            sender.sendMessage("Command", message)
+        }
+        if (response.handled) {
+            return ""
+        }
+        
+        val entry = find(raw) ?: return null
+        return try {
+            entry.factory.create(username, role, raw, connection).Execute()
+        } catch (e: SQLException) {
+            e.printStackTrace()
+            "A SQL error occured"
+        } catch (e: Exception) {
+            CraftNail.logError("Failed to execute server command: $raw", e)
+            "A ${e.javaClass.simpleName} error occured"
+        }
+    }
+    
+    /**
+     * Finds the command for a raw command line. A name matches when the line starts with it, ignoring case, and it is
+     * followed by a non-word character or the end of the line.
+     *
+     * @param raw The command line, without the leading slash.
+     * @return The command, or null if no command matches.
+     */
+    fun find(raw: String): Entry? {
+        if (!initialized) {
+            init()
+        }
+        
+        exact[raw.lowercase(Locale.getDefault())]?.let { return it }
+        
+        var node: Node? = root
+        var match: Entry? = null
+        var index = 0
+        while (node != null) {
+            if (node.entry != null && (index == raw.length || !isWordChar(raw[index]))) {
+                match = node.entry
+            }
+            if (index == raw.length) {
+                break
+            }
+            node = node.child(Character.toLowerCase(raw[index]))
+            index++
+        }
+        return match
+    }
+    
+    private fun createEntry(type: Class<out CommandBase>): Entry {
+        val constructorType = MethodType.methodType(
+            Void.TYPE,
+            String::class.java,
+            String::class.java,
+            String::class.java,
+            UdpConnection::class.java
+        )
+        val lookup = MethodHandles.lookup()
+        val constructor = lookup.findConstructor(type, constructorType)
+        
+        val factory = try {
+            LambdaMetafactory.metafactory(
+                lookup,
+                "create",
+                MethodType.methodType(Factory::class.java),
+                constructorType.changeReturnType(CommandBase::class.java),
+                constructor,
+                constructorType.changeReturnType(type)
+            ).target.invoke() as Factory
+        } catch (e: Throwable) {
+            val handle = constructor.asType(constructorType.changeReturnType(CommandBase::class.java))
+            Factory { username, role, raw, connection -> handle.invoke(username, role, raw, connection) as CommandBase }
+        }
+        
+        return Entry(type, factory)
+    }
+    
+    private fun isWordChar(char: Char): Boolean = char == '_' || Character.isLetterOrDigit(char)
+    
+    /**
+     * A node of the name trie. Children are kept in parallel arrays; command names share few prefixes, so a linear
+     * scan is faster than a map.
+     */
+    private class Node {
+        var entry: Entry? = null
+        var keys = CharArray(0)
+        var children = arrayOfNulls<Node>(0)
+        
+        fun child(char: Char): Node? {
+            for (index in keys.indices) {
+                if (keys[index] == char) {
+                    return children[index]
+                }
+            }
+            return null
+        }
+        
+        fun insert(name: String, entry: Entry) {
+            var node = this
+            for (char in name) {
+                var next = node.child(char)
+                if (next == null) {
+                    next = Node()
+                    node.keys = node.keys.copyOf(node.keys.size + 1)
+                    node.keys[node.keys.size - 1] = char
+                    node.children = node.children.copyOf(node.children.size + 1)
+                    node.children[node.children.size - 1] = next
+                }
+                node = next
+            }
+            // The first class registered for a name wins, as in CommandBase.findCommandCls
+            if (node.entry == null) {
+                node.entry = entry
+            }
+        }
+    }
+}
@@ -9,6 +9,8 @@ import com.asledgehammer.craftnail.CraftNail
 abstract class CraftHook {
 
     private var timeLastUpdate: Long = -1
+    private var ticksSkipped = 0
+    private var profile: TickProfiler.Stats? = null
 
     /**
      * Indicates whether the hook is currently running.
@@ -22,6 +24,13 @@ abstract class CraftHook {
     var loaded: Boolean = false
         private set
 
+    /**
+     * The number of server ticks between calls to [onTick]. Override to tick less often; the delta passed to [onTick]
+     * covers the whole time since the previous call.
+     */
+    open val tickInterval: Int
+        get() = 1
+
     /**
      * Returns the unique identifier for this hook.
      */
@@ -94,13 +103,22 @@ abstract class CraftHook {
     internal fun tick() {
         require(running) { "Cannot update CraftHook '${getId()}' because it is not running." }
 
+        if (++ticksSkipped < tickInterval) {
+            return
+        }
+        ticksSkipped = 0
+
         val timeNow = System.currentTimeMillis()
         val delta = if (timeLastUpdate == -1L) 0 else timeNow - timeLastUpdate
 
+        val profile = profile ?: TickProfiler.stats("hook/${getId()}").also { profile = it }
+        TickProfiler.begin(profile)
         try {
             onTick(delta)
         } catch (throwable: Throwable) {
             CraftNail.logError("Failed to update the CraftHook: ${getId()}", throwable)
+        } finally {
+            TickProfiler.end()
         }
 
         timeLastUpdate = timeNow
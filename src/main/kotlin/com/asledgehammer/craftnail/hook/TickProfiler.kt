@@ -0,0 +1,269 @@
+package com.asledgehammer.craftnail.hook
+
+import com.asledgehammer.craftnail.CraftNail
+import java.lang.management.ManagementFactory
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+import kotlin.concurrent.thread
+
+/**
+ * Records how long each CraftHook and plugin module takes to tick and how much it allocates while doing so.
+ *
+ * Each extension has a [Stats] holding a rolling window of its most recent ticks, queried with `/profile plugins`.
+ * Measurements nest, so the time of the Sledgehammer hook includes the modules it ticks. A watchdog thread watches the
+ * innermost extension being ticked and logs the stack of the main thread once when that extension runs past the
+ * configured threshold, which shows where a stalled plugin is stuck.
+ *
+ * [begin] and [end] are called from the main thread.
+ */
+object TickProfiler {
+    
+    /** Whether ticks are being measured. */
+    var enabled = false
+        private set
+    
+    private const val MAX_DEPTH = 16
+    
+    private val stats = ConcurrentHashMap<String, Stats>()
+    private var window = 600
+    
+    // Allocation counter of the main thread, if the JVM supports it
+    private val threadBean = ManagementFactory.getThreadMXBean() as? com.sun.management.ThreadMXBean
+    private var measureAllocations = false
+    
+    // The extensions being measured, innermost last
+    private val stack = arrayOfNulls<Stats>(MAX_DEPTH)
+    private val startNanos = LongArray(MAX_DEPTH)
+    private val startBytes = LongArray(MAX_DEPTH)
+    private var depth = 0
+    
+    // Read by the watchdog thread
+    private var watchdogNanos = TimeUnit.MILLISECONDS.toNanos(500)
+    @Volatile
+    private var mainThread: Thread? = null
+    @Volatile
+    private var watched: Stats? = null
+    @Volatile
+    private var watchedSince = 0L
+    @Volatile
+    private var watchedSequence = 0L
+    private var watchdog: Thread? = null
+    
+    /**
+     * Reads the profiler settings from crafthammer.yml and starts the watchdog.
+     */
+    fun init() {
+        val cfg = CraftNail.cfg
+        enabled = !cfg.contains("tick_profiler.enabled") || cfg.getBoolean("tick_profiler.enabled")
+        if (cfg.contains("tick_profiler.window")) {
+            window = cfg.getInt("tick_profiler.window").coerceAtLeast(1)
+        }
+        if (cfg.contains("tick_profiler.watchdog_ms")) {
+            watchdogNanos = TimeUnit.MILLISECONDS.toNanos(cfg.getInt("tick_profiler.watchdog_ms").toLong())
+        }
+        
+        measureAllocations = false
+        val bean = threadBean
+        if (enabled && bean != null && bean.isThreadAllocatedMemorySupported) {
+            if (!bean.isThreadAllocatedMemoryEnabled) {
+                bean.isThreadAllocatedMemoryEnabled = true
+            }
+            measureAllocations = bean.isThreadAllocatedMemoryEnabled
+        }
+        
+        reset()
+        
+        if (enabled && watchdogNanos > 0 && watchdog == null) {
+            watchdog = thread(isDaemon = true, name = "Craftboid_Tick_Watchdog") { runWatchdog() }
+        }
+    }
+    
+    /**
+     * Stops the watchdog.
+     */
+    fun stop() {
+        watchdog?.interrupt()
+        watchdog = null
+    }
+    
+    /**
+     * Gets the statistics of an extension, creating them if needed. Callers keep the result to avoid a lookup per tick.
+     *
+     * @param name The name of the extension.
+     */
+    fun stats(name: String): Stats = stats.computeIfAbsent(name) { Stats(it) }
+    
+    /**
+     * Marks the start of an extension's tick.
+     */
+    fun begin(entry: Stats) {
+        if (!enabled || depth == MAX_DEPTH) {
+            depth++
+            return
+        }
+        if (depth == 0) {
+            mainThread = Thread.currentThread()
+        }
+        stack[depth] = entry
+        if (measureAllocations) {
+            startBytes[depth] = threadBean!!.currentThreadAllocatedBytes
+        }
+        val now = System.nanoTime()
+        startNanos[depth] = now
+        depth++
+        watch(entry, now, true)
+    }
+    
+    /**
+     * Marks the end of the tick started by the matching [begin].
+     */
+    fun end() {
+        depth--
+        if (!enabled || depth >= MAX_DEPTH) {
+            return
+        }
+        val nanos = System.nanoTime() - startNanos[depth]
+        val bytes = if (measureAllocations) threadBean!!.currentThreadAllocatedBytes - startBytes[depth] else 0L
+        stack[depth]!!.record(nanos, bytes)
+        stack[depth] = null
+        
+        // The parent keeps the sequence of the child, so a stall reported for the child is not reported again for it
+        if (depth > 0) {
+            watch(stack[depth - 1], startNanos[depth - 1], false)
+        } else {
+            watch(null, 0L, false)
+        }
+    }
+    
+    /**
+     * Clears the statistics of every extension.
+     */
+    fun reset() {
+        for ((_, entry) in stats) {
+            entry.reset()
+        }
+    }
+    
+    /**
+     * Formats the statistics of every extension, the slowest first.
+     *
+     * @return One line per extension, preceded by a header.
+     */
+    fun report(): List<String> {
+        val lines = ArrayList<String>()
+        lines.add("Tick statistics over the last $window ticks of each hook and module:")
+        lines.add(
+            String.format(
+                "%-40s %8s %10s %10s %10s %12s",
+                "Name", "Ticks", "Avg (ms)", "p99 (ms)", "Max (ms)", "Bytes/tick"
+            )
+        )
+        
+        val sorted = stats.values.filter { it.size > 0 }.sortedByDescending { it.windowNanos() }
+        for (entry in sorted) {
+            val samples = entry.samples()
+            samples.sort()
+            val p99 = samples[((samples.size - 1) * 0.99).toInt()]
+            lines.add(
+                String.format(
+                    "%-40s %8d %10.2f %10.2f %10.2f %12d",
+                    entry.name,
+                    entry.ticks,
+                    samples.average() / 1_000_000.0,
+                    p99 / 1_000_000.0,
+                    samples.last() / 1_000_000.0,
+                    if (measureAllocations) entry.windowBytes() / samples.size else -1L
+                )
+            )
+        }
+        if (sorted.isEmpty()) {
+            lines.add("No hooks or modules ticked.")
+        }
+        return lines
+    }
+    
+    private fun watch(entry: Stats?, since: Long, next: Boolean) {
+        watchedSince = since
+        watched = entry
+        if (next) {
+            watchedSequence++
+        }
+    }
+    
+    private fun runWatchdog() {
+        var reported = -1L
+        val interval = TimeUnit.NANOSECONDS.toMillis(watchdogNanos / 4).coerceIn(10L, 100L)
+        while (!Thread.currentThread().isInterrupted) {
+            try {
+                Thread.sleep(interval)
+            } catch (e: InterruptedException) {
+                return
+            }
+            
+            val sequence = watchedSequence
+            val entry = watched ?: continue
+            val elapsed = System.nanoTime() - watchedSince
+            if (sequence == reported || elapsed < watchdogNanos) {
+                continue
+            }
+            reported = sequence
+            
+            val lines = ArrayList<Any?>()
+            lines.add(
+                "Watchdog: ${entry.name} has been ticking for ${TimeUnit.NANOSECONDS.toMillis(elapsed)} ms " +
+                    "(threshold: ${TimeUnit.NANOSECONDS.toMillis(watchdogNanos)} ms). Main thread stack:"
+            )
+            for (element in mainThread?.stackTrace ?: emptyArray()) {
+                lines.add("    at $element")
+            }
+            CraftNail.log(lines)
+        }
+    }
+    
+    /**
+     * Statistics of one hook or module: the duration and allocation of its last ticks, kept in a ring.
+     */
+    class Stats internal constructor(val name: String) {
+        
+        private var nanos = LongArray(window)
+        private var bytes = LongArray(window)
+        private var next = 0
+        
+        /** The number of samples in the window. */
+        var size = 0
+            private set
+        
+        /** The number of ticks recorded since the last reset. */
+        var ticks = 0L
+            private set
+        
+        internal fun record(nanos: Long, bytes: Long) {
+            this.nanos[next] = nanos
+            this.bytes[next] = bytes
+            next = (next + 1) % this.nanos.size
+            if (size < this.nanos.size) {
+                size++
+            }
+            ticks++
+        }
+        
+        internal fun reset() {
+            if (nanos.size != window) {
+                nanos = LongArray(window)
+                bytes = LongArray(window)
+            } else {
+                nanos.fill(0L)
+                bytes.fill(0L)
+            }
+            next = 0
+            size = 0
+            ticks = 0L
+        }
+        
+        internal fun samples(): LongArray = nanos.copyOf(size)
+        
+        internal fun windowNanos(): Long = nanos.sum()
+        
+        internal fun windowBytes(): Long = bytes.sum()
+    }
+}
@@ -0,0 +1,86 @@
+package com.asledgehammer.craftnail.packet
+
+import java.nio.ByteBuffer
+import java.util.function.Supplier
+import zombie.core.raknet.UdpConnection
+import zombie.network.packets.INetworkPacket
+
+/**
+ * A packet being checked and handled, decoded at most once.
+ *
+ * The security checks of a packet and its `GameServer.receive*` handler share one context. The first of them to ask
+ * for the packet object through [packet] parses it from the start of the payload, and every later caller gets the same
+ * object. The context also holds the map a failing check fills with its log fields, so checks that pass allocate
+ * nothing.
+ *
+ * A context is reused for every packet handled by its thread: [reset] it before a packet and [clear] it after.
+ */
+class PacketContext {
+    
+    /** The connection that sent the packet. */
+    lateinit var connection: UdpConnection
+        private set
+    
+    /** The packet payload. Code reading it directly restores its position when done. */
+    lateinit var buffer: ByteBuffer
+        private set
+    
+    /** The position of the payload in [buffer]. */
+    var position = 0
+        private set
+    
+    /** The fields describing a violation, filled by the check that found it. */
+    val fields = HashMap<String, Any>()
+    
+    // The decoded packet, if any
+    private var packet: INetworkPacket? = null
+    
+    /**
+     * Prepares the context for a packet.
+     *
+     * @param connection The connection that sent the packet.
+     * @param buffer The packet payload, positioned at its start.
+     * @return This context.
+     */
+    fun reset(connection: UdpConnection, buffer: ByteBuffer): PacketContext {
+        this.connection = connection
+        this.buffer = buffer
+        position = buffer.position()
+        packet = null
+        fields.clear()
+        return this
+    }
+    
+    /**
+     * Releases the decoded packet and the violation fields.
+     */
+    fun clear() {
+        packet = null
+        fields.clear()
+    }
+    
+    /**
+     * Gets the packet as a game packet object, parsing it on the first call. The position of [buffer] is left as it
+     * was.
+     *
+     * @param type The class of the packet object.
+     * @param factory Creates an empty packet object.
+     */
+    fun <T : INetworkPacket> packet(type: Class<T>, factory: Supplier<T>): T {
+        val current = packet
+        if (type.isInstance(current)) {
+            return type.cast(current)
+        }
+        
+        val created = factory.get()
+        val mark = buffer.position()
+        buffer.position(position)
+        try {
+            created.parse(buffer, connection)
+        } finally {
+            buffer.position(mark)
+        }
+        packet = created
+        return created
+    }
+}
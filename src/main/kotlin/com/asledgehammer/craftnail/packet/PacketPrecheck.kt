@@ -0,0 +1,204 @@
+package com.asledgehammer.craftnail.packet
+
+import com.asledgehammer.craftnail.CraftNail
+import com.asledgehammer.craftnail.packet.security.PacketChecker
+import java.util.Collections
+import java.util.IdentityHashMap
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.atomic.AtomicLong
+import zombie.core.raknet.UdpConnection
+import zombie.network.GameServer
+import zombie.network.ZomboidNetData
+import zombie.network.ZomboidNetDataPool
+
+/**
+ * Optional stage that evaluates read-only security checks on worker threads before packets reach the main loop.
+ *
+ * Every packet bound for the main loop's high priority queue is handed to a lane chosen by its connection, so the
+ * packets of one client keep their order. Packets rejected by a check are discarded on the lane and never reach the
+ * main loop; the action of the failed check (logging, kicking) is queued and run on the main thread by [tick]. Packets
+ * that pass are remembered until the main loop [take]s them, so only those skip their checks in the handler; a packet
+ * that reaches the main loop any other way, such as a deferred packet, is checked there as usual. A packet
+ * whose checks throw, or that arrives while its lane is full, is dropped as well, so the stage never lets a packet
+ * through unchecked.
+ */
+object PacketPrecheck {
+    
+    /** Whether the stage is running. */
+    @Volatile
+    var enabled = false
+        private set
+    
+    /** Number of packets rejected by the stage. */
+    val rejected = AtomicLong()
+    
+    /** Number of packets dropped because their lane was full. */
+    val overflowed = AtomicLong()
+    
+    // Worker lanes, read by the network thread
+    @Volatile
+    private var lanes: Array<Lane> = emptyArray()
+    
+    // Actions of failed checks, run on the main thread
+    private val actions = ConcurrentLinkedQueue<Runnable>()
+    
+    // Packets that passed and wait for their handler, by identity since packets are pooled
+    private val passed = Collections.synchronizedSet(Collections.newSetFromMap(IdentityHashMap<ZomboidNetData, Boolean>()))
+    
+    /**
+     * Starts the stage if it is enabled in crafthammer.yml.
+     */
+    fun init() {
+        stop()
+        
+        val cfg = CraftNail.cfg
+        if (!cfg.contains("network.precheck.enabled") || !cfg.getBoolean("network.precheck.enabled")) {
+            return
+        }
+        
+        val threads = if (cfg.contains("network.precheck.threads")) cfg.getInt("network.precheck.threads") else 2
+        val queueSize = if (cfg.contains("network.precheck.queue_size")) cfg.getInt("network.precheck.queue_size") else 4096
+        
+        lanes = Array(threads.coerceAtLeast(1)) { Lane(it, queueSize.coerceAtLeast(16)) }
+        for (lane in lanes) {
+            lane.start()
+        }
+        
+        enabled = true
+        CraftNail.log("Packet pre-check stage enabled with ${lanes.size} worker(s).")
+    }
+    
+    /**
+     * Hands a packet to the lane of its connection. The packet is dropped when the lane is full, so a flood from one
+     * client never stalls the network thread. Packets submitted while the stage stops go to the main loop unchecked.
+     */
+    fun submit(data: ZomboidNetData, connection: UdpConnection) {
+        val lanes = this.lanes
+        if (!enabled || lanes.isEmpty()) {
+            GameServer.queueIncoming(data)
+            return
+        }
+        
+        val guid = connection.getConnectedGUID()
+        val lane = lanes[Math.floorMod((guid xor (guid ushr 32)).toInt(), lanes.size)]
+        val job = Job(data, connection)
+        if (!lane.queue.offer(job)) {
+            overflowed.incrementAndGet()
+            ZomboidNetDataPool.instance.discard(data)
+            return
+        }
+        
+        // Take the packet back if the stage stopped and drained the lane in the meantime
+        if (!lane.running && lane.queue.remove(job)) {
+            GameServer.queueIncoming(data)
+        }
+    }
+    
+    /**
+     * Checks whether a packet passed the stage, and forgets it. Called from the main loop before the packet is handled.
+     */
+    fun take(data: ZomboidNetData): Boolean {
+        return passed.remove(data)
+    }
+    
+    /**
+     * Forgets a packet taken from the pool, in case it passed the stage before and was discarded without being handled.
+     * Called from the network thread.
+     */
+    fun forget(data: ZomboidNetData) {
+        if (passed.isNotEmpty()) {
+            passed.remove(data)
+        }
+    }
+    
+    /**
+     * Runs the actions of failed checks. Called from the main loop.
+     */
+    fun tick() {
+        while (true) {
+            val action = actions.poll() ?: return
+            try {
+                action.run()
+            } catch (e: Exception) {
+                CraftNail.logError("Failed to handle a rejected packet.", e)
+            }
+        }
+    }
+    
+    /**
+     * Stops the workers. Packets still queued are passed to the main loop unchecked; their handlers run the checks.
+     */
+    fun stop() {
+        enabled = false
+        val stopped = lanes
+        lanes = emptyArray()
+        for (lane in stopped) {
+            lane.running = false
+            lane.interrupt()
+        }
+        for (lane in stopped) {
+            lane.join(1000)
+            while (true) {
+                GameServer.queueIncoming((lane.queue.poll() ?: break).data)
+            }
+        }
+        tick()
+    }
+    
+    /**
+     * Evaluates a packet and forwards it to the main loop when it passes.
+     */
+    private fun process(job: Job) {
+        val data = job.data
+        val type = data.type
+        if (type != null && PacketChecker.isConcurrent(type)) {
+            val action = PacketChecker.precheck(type, job.connection, data.buffer)
+            if (action != null) {
+                rejected.incrementAndGet()
+                actions.add(action)
+                ZomboidNetDataPool.instance.discard(data)
+                return
+            }
+            passed.add(data)
+        }
+        GameServer.queueIncoming(data)
+    }
+    
+    /**
+     * A packet waiting on a lane, with the connection it was received from.
+     */
+    private class Job(val data: ZomboidNetData, val connection: UdpConnection)
+    
+    /**
+     * A worker thread with its own bounded queue.
+     */
+    private class Lane(index: Int, capacity: Int) : Thread("Craftboid_Precheck_Thread_$index") {
+        
+        val queue = ArrayBlockingQueue<Job>(capacity)
+        
+        @Volatile
+        var running = true
+        
+        init {
+            isDaemon = true
+        }
+        
+        override fun run() {
+            while (running) {
+                val job = try {
+                    queue.take()
+                } catch (e: InterruptedException) {
+                    continue
+                }
+                try {
+                    process(job)
+                } catch (e: Exception) {
+                    CraftNail.logError("Failed to pre-check packet of type: ${job.data.type}. The packet was dropped.", e)
+                    rejected.incrementAndGet()
+                    ZomboidNetDataPool.instance.discard(job.data)
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package com.asledgehammer.craftnail.packet
+
+import com.asledgehammer.craftnail.CraftNail
+import java.io.File
+import java.lang.management.ManagementFactory
+import java.text.SimpleDateFormat
+import java.util.Date
+import kotlin.concurrent.thread
+import zombie.ZomboidFileSystem
+import zombie.network.PacketTypes
+
+/**
+ * Records how long the server spends in each packet type's handler and how much it allocates there.
+ *
+ * Every call to `onServerPacket` on the main thread is timed and added to a fixed-size latency histogram for its
+ * packet type, together with the bytes the main thread allocated during the call. The histograms are queried with the
+ * `packetstats` command and written to `Logs/Craftboid/packet-stats.txt` at the configured interval.
+ *
+ * All methods are called from the main thread.
+ */
+object PacketProfiler {
+    
+    /** Whether handlers are being measured. */
+    var enabled = false
+        private set
+    
+    // Per packet type ordinal, created on the first packet of the type
+    private val types = PacketTypes.PacketType.values()
+    private val stats = arrayOfNulls<Stats>(types.size)
+    
+    // Allocation counter of the main thread, if the JVM supports it
+    private val threadBean = ManagementFactory.getThreadMXBean() as? com.sun.management.ThreadMXBean
+    private var measureAllocations = false
+    
+    // The call being measured
+    private var startNanos = 0L
+    private var startBytes = 0L
+    
+    // Periodic dump
+    private var dumpIntervalMillis = 300_000L
+    private var nextDump = 0L
+    private var since = System.currentTimeMillis()
+    private val dateFormat = SimpleDateFormat("yyyy-MM-dd' 'HH:mm:ss")
+    
+    /**
+     * Reads the profiler settings from crafthammer.yml.
+     */
+    fun init() {
+        val cfg = CraftNail.cfg
+        enabled = !cfg.contains("network.profiler.enabled") || cfg.getBoolean("network.profiler.enabled")
+        if (cfg.contains("network.profiler.dump_interval_s")) {
+            dumpIntervalMillis = cfg.getInt("network.profiler.dump_interval_s") * 1000L
+        }
+        
+        measureAllocations = false
+        val bean = threadBean
+        if (enabled && bean != null && bean.isThreadAllocatedMemorySupported) {
+            if (!bean.isThreadAllocatedMemoryEnabled) {
+                bean.isThreadAllocatedMemoryEnabled = true
+            }
+            measureAllocations = bean.isThreadAllocatedMemoryEnabled
+        }
+        
+        reset()
+    }
+    
+    /**
+     * Marks the start of a packet handler call.
+     */
+    fun begin() {
+        if (!enabled) {
+            return
+        }
+        if (measureAllocations) {
+            startBytes = threadBean!!.currentThreadAllocatedBytes
+        }
+        startNanos = System.nanoTime()
+    }
+    
+    /**
+     * Marks the end of the packet handler call started by [begin].
+     *
+     * @param type The type of the packet that was handled.
+     */
+    fun end(type: PacketTypes.PacketType) {
+        if (!enabled) {
+            return
+        }
+        val nanos = System.nanoTime() - startNanos
+        val bytes = if (measureAllocations) threadBean!!.currentThreadAllocatedBytes - startBytes else 0L
+        
+        var entry = stats[type.ordinal]
+        if (entry == null) {
+            entry = Stats()
+            stats[type.ordinal] = entry
+        }
+        entry.record(nanos, bytes)
+    }
+    
+    /**
+     * Writes the statistics to the dump file when the interval has passed. Called from the main loop.
+     */
+    fun tick() {
+        if (!enabled || dumpIntervalMillis <= 0) {
+            return
+        }
+        val now = System.currentTimeMillis()
+        if (now < nextDump) {
+            return
+        }
+        if (nextDump != 0L) {
+            dump()
+        }
+        nextDump = now + dumpIntervalMillis
+    }
+    
+    /**
+     * Clears every histogram.
+     */
+    fun reset() {
+        stats.fill(null)
+        since = System.currentTimeMillis()
+    }
+    
+    /**
+     * Formats the statistics of the packet types with the most total handler time.
+     *
+     * @param limit The number of packet types to include.
+     * @return One line per packet type, preceded by a header.
+     */
+    fun report(limit: Int = Int.MAX_VALUE): List<String> {
+        val lines = ArrayList<String>()
+        lines.add("Packet handler statistics since ${dateFormat.format(Date(since))}:")
+        lines.add(
+            String.format(
+                "%-32s %10s %10s %10s %10s %12s %12s",
+                "Type", "Calls", "p50 (us)", "p99 (us)", "Max (us)", "Total (ms)", "Bytes/call"
+            )
+        )
+        
+        val sorted = types.indices.filter { stats[it] != null }.sortedByDescending { stats[it]!!.totalNanos }
+        for (index in sorted.take(limit)) {
+            lines.add(format(types[index], stats[index]!!))
+        }
+        if (sorted.isEmpty()) {
+            lines.add("No packets handled.")
+        }
+        return lines
+    }
+    
+    /**
+     * Formats the statistics of a single packet type.
+     *
+     * @return The line, or null if no packet of the type was handled.
+     */
+    fun report(type: PacketTypes.PacketType): String? {
+        val entry = stats[type.ordinal] ?: return null
+        return format(type, entry)
+    }
+    
+    private fun format(type: PacketTypes.PacketType, entry: Stats): String {
+        return String.format(
+            "%-32s %10d %10.1f %10.1f %10.1f %12.1f %12d",
+            type.name,
+            entry.count,
+            entry.percentile(0.50) / 1000.0,
+            entry.percentile(0.99) / 1000.0,
+            entry.maxNanos / 1000.0,
+            entry.totalNanos / 1_000_000.0,
+            if (measureAllocations) entry.totalBytes / entry.count else -1L
+        )
+    }
+    
+    private fun dump() {
+        val text = report().joinToString(System.lineSeparator(), postfix = System.lineSeparator())
+        val dir = File("${ZomboidFileSystem.instance.getCacheDir()}${File.separator}Logs${File.separator}Craftboid")
+        
+        // Write off the main thread
+        thread(isDaemon = true, name = "Craftboid_Packet_Stats_Thread") {
+            try {
+                if (!dir.exists()) {
+                    dir.mkdirs()
+                }
+                File(dir, "packet-stats.txt").writeText(text, Charsets.UTF_8)
+            } catch (e: Exception) {
+                CraftNail.logError("Failed to write packet statistics.", e)
+            }
+        }
+    }
+    
+    /**
+     * Statistics of one packet type. Latencies are kept in a log-linear histogram of [BUCKETS] counters: 16 linear
+     * sub-buckets per power of two, so a percentile is accurate to within about 6%.
+     */
+    private class Stats {
+        val buckets = LongArray(BUCKETS)
+        var count = 0L
+        var totalNanos = 0L
+        var maxNanos = 0L
+        var totalBytes = 0L
+        
+        fun record(nanos: Long, bytes: Long) {
+            buckets[bucket(nanos)]++
+            count++
+            totalNanos += nanos
+            totalBytes += bytes
+            if (nanos > maxNanos) {
+                maxNanos = nanos
+            }
+        }
+        
+        fun percentile(fraction: Double): Double {
+            val target = Math.ceil(count * fraction).toLong().coerceAtLeast(1L)
+            var seen = 0L
+            for (index in buckets.indices) {
+                seen += buckets[index]
+                if (seen >= target) {
+                    return minOf(midpoint(index), maxNanos.toDouble())
+                }
+            }
+            return maxNanos.toDouble()
+        }
+        
+        companion object {
+            private const val SUB_BITS = 4
+            private const val SUB_COUNT = 1 shl SUB_BITS
+            private const val MAX_EXPONENT = 40
+            const val BUCKETS = (MAX_EXPONENT - SUB_BITS + 2) * SUB_COUNT
+            
+            fun bucket(nanos: Long): Int {
+                val value = nanos.coerceIn(0L, (1L shl (MAX_EXPONENT + 1)) - 1)
+                if (value < SUB_COUNT) {
+                    return value.toInt()
+                }
+                val exponent = 63 - java.lang.Long.numberOfLeadingZeros(value)
+                val sub = (value ushr (exponent - SUB_BITS)).toInt() and (SUB_COUNT - 1)
+                return (exponent - SUB_BITS + 1) * SUB_COUNT + sub
+            }
+            
+            fun midpoint(index: Int): Double {
+                if (index < SUB_COUNT) {
+                    return index.toDouble()
+                }
+                val exponent = index / SUB_COUNT + SUB_BITS - 1
+                val sub = index % SUB_COUNT
+                val width = 1L shl (exponent - SUB_BITS)
+                val low = (1L shl exponent) + sub * width
+                return low + width / 2.0
+            }
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package com.asledgehammer.craftnail.packet
+
+import com.asledgehammer.craftnail.CraftNail
+import com.asledgehammer.craftnail.packet.security.PacketChecker
+import java.util.Locale
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.atomic.AtomicLongArray
+import zombie.core.raknet.UdpConnection
+import zombie.network.PacketTypes
+
+/**
+ * Token-bucket rate limits per connection and packet type, applied as packets arrive from the network thread.
+ *
+ * Each limited packet type has a bucket per connection that refills at `rate` packets per second up to `burst`.
+ * A packet arriving at an empty bucket is handled by the limit's action: dropped before it is pooled, deferred to the
+ * main loop's deferred queue, or reported to the `rate_limit.exceeded` security check, which logs or kicks the connection
+ * on the main thread according to its mode.
+ */
+object PacketRateLimiter {
+    
+    /** The packet is within its limit. */
+    const val PASS = 0
+    
+    /** The packet is over its limit and must be dropped. */
+    const val DROP = 1
+    
+    /** The packet is over its limit and must be queued to be handled after everything else. */
+    const val DEFER = 2
+    
+    /**
+     * What happens to a packet over its limit.
+     */
+    enum class Action {
+        DROP,
+        DEFER,
+        KICK
+    }
+    
+    /**
+     * A configured limit for a packet type.
+     */
+    class Limit(val rate: Double, val burst: Double, val action: Action)
+    
+    /**
+     * The buckets of one connection, indexed by packet type ordinal.
+     */
+    class State(size: Int) {
+        val tokens = DoubleArray(size) { Double.NaN }
+        val lastRefill = LongArray(size)
+        
+        // Set while a violation is waiting for the main thread, and for good once the connection was kicked
+        @Volatile
+        var reported = false
+    }
+    
+    /** Whether any limit is configured. */
+    @Volatile
+    var enabled = false
+        private set
+    
+    // Limits and counters by packet type ordinal
+    private val types = PacketTypes.PacketType.values()
+    private var limits = arrayOfNulls<Limit>(types.size)
+    private var typesById = arrayOfNulls<PacketTypes.PacketType>(0)
+    private var exemptStaff = true
+    
+    /** Packets over their limit that were dropped, by packet type ordinal. */
+    val dropped = AtomicLongArray(types.size)
+    
+    /** Packets over their limit that were deferred, by packet type ordinal. */
+    val deferred = AtomicLongArray(types.size)
+    
+    /** Violations reported to the security check for going over a limit, by packet type ordinal. */
+    val reported = AtomicLongArray(types.size)
+    
+    // Violations waiting for the main thread
+    private val violations = ConcurrentLinkedQueue<Violation>()
+    
+    /**
+     * Reads the limits from crafthammer.yml.
+     */
+    fun init() {
+        val cfg = CraftNail.cfg
+        val newLimits = arrayOfNulls<Limit>(types.size)
+        
+        // Index packet types by their wire id
+        var maxId = 0
+        for (type in types) {
+            maxId = maxOf(maxId, type.id.toInt())
+        }
+        val byId = arrayOfNulls<PacketTypes.PacketType>(maxId + 1)
+        for (type in types) {
+            if (type.id >= 0) {
+                byId[type.id.toInt()] = type
+            }
+        }
+        
+        if (cfg.contains("network.rate_limits.enabled") && cfg.getBoolean("network.rate_limits.enabled")) {
+            exemptStaff = !cfg.contains("network.rate_limits.exempt_staff") || cfg.getBoolean("network.rate_limits.exempt_staff")
+            
+            if (cfg.isSection("network.rate_limits.types")) {
+                val section = cfg.getSection("network.rate_limits.types")
+                for ((key, value) in section.toMap()) {
+                    val type = types.firstOrNull { it.name.equals(key, ignoreCase = true) }
+                    if (type == null || value !is Map<*, *>) {
+                        CraftNail.logError("Invalid entry in network.rate_limits.types: $key")
+                        continue
+                    }
+                    
+                    val rate = (value["rate"] as? Number)?.toDouble() ?: continue
+                    val burst = (value["burst"] as? Number)?.toDouble() ?: rate
+                    val action = try {
+                        Action.valueOf(value["action"]?.toString()?.uppercase(Locale.getDefault()) ?: "DROP")
+                    } catch (e: IllegalArgumentException) {
+                        CraftNail.logError("Unknown action for network.rate_limits.types.$key: ${value["action"]}")
+                        Action.DROP
+                    }
+                    
+                    if (rate > 0) {
+                        newLimits[type.ordinal] = Limit(rate, maxOf(burst, 1.0), action)
+                    }
+                }
+            }
+        }
+        
+        typesById = byId
+        limits = newLimits
+        enabled = newLimits.any { it != null }
+        
+        if (enabled) {
+            CraftNail.log("Loaded ${newLimits.count { it != null }} packet rate limit(s).")
+        }
+    }
+    
+    /**
+     * Tests a packet against the limit of its type. Called from the network thread before the packet is pooled.
+     *
+     * @param connection The connection the packet was received from.
+     * @param id The packet type id.
+     * @return [PASS], [DROP] or [DEFER].
+     */
+    fun test(connection: UdpConnection, id: Short): Int {
+        if (!enabled || id < 0 || id >= typesById.size) {
+            return PASS
+        }
+        
+        val type = typesById[id.toInt()] ?: return PASS
+        val limit = limits[type.ordinal] ?: return PASS
+        
+        if (exemptStaff && CraftNail.isStaff(connection)) {
+            return PASS
+        }
+        
+        var state = connection.rateLimits
+        if (state == null) {
+            state = State(types.size)
+            connection.rateLimits = state
+        }
+        
+        // Refill the bucket for the time passed since the last packet
+        val index = type.ordinal
+        val now = System.nanoTime()
+        var tokens = state.tokens[index]
+        tokens = if (tokens.isNaN()) {
+            limit.burst
+        } else {
+            minOf(limit.burst, tokens + (now - state.lastRefill[index]) * limit.rate / 1_000_000_000.0)
+        }
+        state.lastRefill[index] = now
+        
+        if (tokens >= 1.0) {
+            state.tokens[index] = tokens - 1.0
+            return PASS
+        }
+        
+        state.tokens[index] = tokens
+        
+        return when (limit.action) {
+            Action.DROP -> {
+                dropped.incrementAndGet(index)
+                DROP
+            }
+            Action.DEFER -> {
+                deferred.incrementAndGet(index)
+                DEFER
+            }
+            Action.KICK -> {
+                // Drop whatever arrives while the violation or the disconnect is pending
+                if (!state.reported) {
+                    state.reported = true
+                    reported.incrementAndGet(index)
+                    violations.add(Violation(connection, state, type, limit))
+                }
+                DROP
+            }
+        }
+    }
+    
+    /**
+     * Hands the violations found since the last tick to the security check. Called from the main loop.
+     */
+    fun tick() {
+        while (true) {
+            val violation = violations.poll() ?: return
+            try {
+                val kicked = PacketChecker.rejectRateLimit(violation.connection, violation.type, violation.limit)
+                if (!kicked) {
+                    violation.state.reported = false
+                }
+            } catch (e: Exception) {
+                violation.state.reported = false
+                CraftNail.logError("Failed to handle a rate limit violation.", e)
+            }
+        }
+    }
+    
+    /**
+     * Gets the limit configured for a packet type, if any.
+     */
+    fun getLimit(type: PacketTypes.PacketType): Limit? = limits[type.ordinal]
+    
+    /**
+     * A connection that went over a limit whose action is [Action.KICK].
+     */
+    private class Violation(
+        val connection: UdpConnection,
+        val state: State,
+        val type: PacketTypes.PacketType,
+        val limit: Limit
+    )
+}
@@ -0,0 +1,287 @@
+package com.asledgehammer.craftnail.packet
+
+import com.asledgehammer.craftnail.CraftNail
+import gnu.trove.map.hash.TLongObjectHashMap
+import java.util.ArrayDeque
+import java.util.Locale
+import java.util.function.Consumer
+import zombie.network.PacketTypes
+import zombie.network.ZomboidNetData
+import zombie.network.ZomboidNetDataPool
+
+/**
+ * Schedules the packets the main loop handles each tick.
+ *
+ * Packets are sorted into priority classes by packet type and queued per connection. Critical packets are always
+ * handled in full. Normal and bulk packets are handled round-robin across connections, one packet per connection per
+ * turn, until the tick budget runs out; whatever is left is deferred to the next tick instead of being lost. Bulk
+ * packets (vehicle physics) are only dropped when they grow stale or a connection queues too many of them. Packets
+ * deferred by a rate limit have a class of their own, handled after everything else and never dropped.
+ *
+ * All methods are called from the main thread.
+ */
+object PacketScheduler {
+    
+    /**
+     * The priority classes, in the order they are handled.
+     */
+    enum class Priority {
+        CRITICAL,
+        NORMAL,
+        BULK,
+        
+        /** Packets deferred by a rate limit. Not assignable to packet types. */
+        DEFERRED
+    }
+    
+    /** Packets handled since startup. */
+    var processed = 0L
+        private set
+    
+    /** Packets carried over to a later tick because the budget ran out, each counted once however long it waits. */
+    var deferred = 0L
+        private set
+    
+    /** Bulk packets dropped for being stale or over the per-connection limit. */
+    var dropped = 0L
+        private set
+    
+    /** The time the main loop may spend on normal and bulk packets each tick. */
+    var budgetNanos = 70_000_000L
+        private set
+    
+    // Bulk packet limits
+    private var bulkMaxAgeMillis = 500L
+    private var bulkMaxQueued = 64
+    
+    // Priority class per packet type ordinal
+    private val priorities = arrayOfNulls<Priority>(PacketTypes.PacketType.values().size)
+    
+    // Queues per priority class
+    private val classes = Array(Priority.values().size) { ClassQueue() }
+    
+    /**
+     * Reads the scheduler settings from crafthammer.yml.
+     */
+    fun init() {
+        val cfg = CraftNail.cfg
+        
+        if (cfg.contains("network.scheduler.budget_ms")) {
+            budgetNanos = cfg.getInt("network.scheduler.budget_ms").coerceAtLeast(1) * 1_000_000L
+        }
+        if (cfg.contains("network.scheduler.bulk_max_age_ms")) {
+            bulkMaxAgeMillis = cfg.getInt("network.scheduler.bulk_max_age_ms").coerceAtLeast(1).toLong()
+        }
+        if (cfg.contains("network.scheduler.bulk_max_queued")) {
+            bulkMaxQueued = cfg.getInt("network.scheduler.bulk_max_queued").coerceAtLeast(1)
+        }
+        
+        // Defaults: the packets allowed before login are never deferred
+        priorities.fill(null)
+        priorities[PacketTypes.PacketType.Login.ordinal] = Priority.CRITICAL
+        priorities[PacketTypes.PacketType.Ping.ordinal] = Priority.CRITICAL
+        priorities[PacketTypes.PacketType.ScoreboardUpdate.ordinal] = Priority.CRITICAL
+        
+        if (cfg.isSection("network.scheduler.priorities")) {
+            val section = cfg.getSection("network.scheduler.priorities")
+            for ((key, value) in section.toMap()) {
+                val type = PacketTypes.PacketType.values().firstOrNull { it.name.equals(key, ignoreCase = true) }
+                if (type == null) {
+                    CraftNail.logError("Unknown packet type in network.scheduler.priorities: $key")
+                    continue
+                }
+                val priority = try {
+                    Priority.valueOf(value.toString().uppercase(Locale.getDefault()))
+                } catch (e: IllegalArgumentException) {
+                    null
+                }
+                if (priority == null || priority == Priority.DEFERRED) {
+                    CraftNail.logError("Unknown priority for packet type $key: $value")
+                    continue
+                }
+                priorities[type.ordinal] = priority
+            }
+        }
+    }
+    
+    /**
+     * Queues a packet taken from the main loop's high priority queue.
+     */
+    fun add(data: ZomboidNetData) {
+        val type = data.type
+        val priority = if (type == null) Priority.NORMAL else priorities[type.ordinal] ?: Priority.NORMAL
+        classes[priority.ordinal].add(data, priority == Priority.BULK)
+    }
+    
+    /**
+     * Queues a bulk packet, such as vehicle physics, taken from the main loop's low priority queue.
+     */
+    fun addBulk(data: ZomboidNetData) {
+        classes[Priority.BULK.ordinal].add(data, true)
+    }
+    
+    /**
+     * Queues a packet deferred by its rate limit, taken from the main loop's deferred queue.
+     */
+    fun addDeferred(data: ZomboidNetData) {
+        classes[Priority.DEFERRED.ordinal].add(data, false)
+    }
+    
+    /**
+     * Handles the packets of a priority class until the deadline passes.
+     *
+     * @param priority The class to handle.
+     * @param deadline The [System.nanoTime] after which packets are deferred, or [Long.MAX_VALUE] for no limit.
+     * @param handler The handler for each packet.
+     * @return true if packets were left for the next tick.
+     */
+    fun drain(priority: Priority, deadline: Long, handler: Consumer<ZomboidNetData>): Boolean {
+        val queue = classes[priority.ordinal]
+        val bulk = priority == Priority.BULK
+        val staleBefore = System.currentTimeMillis() - bulkMaxAgeMillis
+        
+        while (queue.size > 0) {
+            if (deadline != Long.MAX_VALUE && System.nanoTime() > deadline) {
+                if (bulk) {
+                    queue.dropStale(staleBefore)
+                }
+                deferred += queue.markDeferred()
+                return queue.size > 0
+            }
+            
+            val data = queue.poll()
+            if (bulk && data.time < staleBefore) {
+                discard(data)
+                continue
+            }
+            
+            processed++
+            handler.accept(data)
+        }
+        
+        return false
+    }
+    
+    /**
+     * Discards every packet queued for a connection. Called when the connection is removed.
+     */
+    fun purge(guid: Long) {
+        for (queue in classes) {
+            queue.purge(guid)
+        }
+    }
+    
+    /**
+     * Gets the number of packets waiting in a priority class.
+     */
+    fun getPending(priority: Priority): Int = classes[priority.ordinal].size
+    
+    private fun discard(data: ZomboidNetData) {
+        dropped++
+        ZomboidNetDataPool.instance.discard(data)
+    }
+    
+    /**
+     * The packets of one connection in one priority class.
+     */
+    private class ConnectionQueue(val guid: Long) {
+        val packets = ArrayDeque<ZomboidNetData>()
+        var scheduled = false
+        
+        // Number of packets at the head of the queue already counted as deferred
+        var counted = 0
+        
+        fun poll(): ZomboidNetData {
+            if (counted > 0) {
+                counted--
+            }
+            return packets.poll()
+        }
+    }
+    
+    /**
+     * The queues of one priority class, with the ring of connections that have packets waiting.
+     */
+    private class ClassQueue {
+        val byConnection = TLongObjectHashMap<ConnectionQueue>()
+        val ring = ArrayDeque<ConnectionQueue>()
+        var size = 0
+        
+        fun add(data: ZomboidNetData, bulk: Boolean) {
+            var queue = byConnection.get(data.connection)
+            if (queue == null) {
+                queue = ConnectionQueue(data.connection)
+                byConnection.put(data.connection, queue)
+            }
+            
+            if (bulk && queue.packets.isNotEmpty() && queue.packets.size >= bulkMaxQueued) {
+                size--
+                discard(queue.poll())
+            }
+            
+            queue.packets.add(data)
+            size++
+            
+            if (!queue.scheduled) {
+                queue.scheduled = true
+                ring.add(queue)
+            }
+        }
+        
+        fun poll(): ZomboidNetData {
+            val queue = ring.poll()
+            val data = queue.poll()
+            size--
+            
+            if (queue.packets.isEmpty()) {
+                queue.scheduled = false
+                byConnection.remove(queue.guid)
+            } else {
+                ring.add(queue)
+            }
+            
+            return data
+        }
+        
+        fun dropStale(staleBefore: Long) {
+            val iterator = ring.iterator()
+            while (iterator.hasNext()) {
+                val queue = iterator.next()
+                while (queue.packets.isNotEmpty() && queue.packets.peek().time < staleBefore) {
+                    size--
+                    discard(queue.poll())
+                }
+                if (queue.packets.isEmpty()) {
+                    queue.scheduled = false
+                    byConnection.remove(queue.guid)
+                    iterator.remove()
+                }
+            }
+        }
+        
+        /**
+         * Marks every queued packet as deferred.
+         *
+         * @return The number of packets deferred for the first time.
+         */
+        fun markDeferred(): Int {
+            var count = 0
+            for (queue in ring) {
+                count += queue.packets.size - queue.counted
+                queue.counted = queue.packets.size
+            }
+            return count
+        }
+        
+        fun purge(guid: Long) {
+            val queue = byConnection.remove(guid) ?: return
+            for (data in queue.packets) {
+                size--
+                ZomboidNetDataPool.instance.discard(data)
+            }
+            queue.packets.clear()
+            queue.scheduled = false
+            ring.remove(queue)
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.asledgehammer.craftnail.packet
+
+import com.asledgehammer.craftnail.CraftNail
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import zombie.core.raknet.UdpConnection
+import zombie.network.DBResult
+import zombie.network.GameServer
+import zombie.network.ServerWorldDatabase
+
+/**
+ * Sends database tables to the admin panel of a client one page at a time.
+ *
+ * A table is read in pages with keyset pagination, so a page costs the same whichever part of the table it comes from.
+ * Pages are read on a worker thread, and the next page is only read once the previous one was sent, so at most one page
+ * of a table is held in memory however large the table is. [tick] sends at most one page of every request per tick.
+ */
+object TableResultStreamer {
+    
+    /** The most rows read into one page, whatever the client asks for. */
+    const val MAX_PAGE_SIZE = 500
+    
+    // Requests being sent, used from the main thread only
+    private val streams = ArrayList<Stream>()
+    
+    // Reads the pages
+    private var reader: ExecutorService? = null
+    
+    /**
+     * Starts sending a table to a client. A request for a table the client is already receiving restarts it.
+     *
+     * @param connection The client.
+     * @param table The name of the table.
+     * @param pageSize The number of rows per page, clamped to [MAX_PAGE_SIZE].
+     */
+    fun request(connection: UdpConnection, table: String, pageSize: Int) {
+        val iterator = streams.iterator()
+        while (iterator.hasNext()) {
+            val stream = iterator.next()
+            if (stream.connection === connection && stream.table == table) {
+                stream.cancelled = true
+                iterator.remove()
+            }
+        }
+        
+        val stream = Stream(connection, table, pageSize.coerceIn(1, MAX_PAGE_SIZE))
+        streams.add(stream)
+        read(stream)
+    }
+    
+    /**
+     * Sends the pages that were read since the last tick. Called from the main loop.
+     */
+    fun tick() {
+        if (streams.isEmpty()) {
+            return
+        }
+        
+        val iterator = streams.iterator()
+        while (iterator.hasNext()) {
+            val stream = iterator.next()
+            if (stream.failed || !GameServer.udpEngine.connections.contains(stream.connection)) {
+                stream.cancelled = true
+                iterator.remove()
+                continue
+            }
+            
+            val page = stream.page ?: continue
+            stream.page = null
+            GameServer.sendTableResult(stream.connection, stream.table, page, stream.offset)
+            stream.offset += page.size
+            
+            // A short page is the last one
+            if (page.size < stream.pageSize) {
+                iterator.remove()
+            } else {
+                read(stream)
+            }
+        }
+    }
+    
+    /**
+     * Drops every request and stops the worker thread.
+     */
+    fun stop() {
+        for (stream in streams) {
+            stream.cancelled = true
+        }
+        streams.clear()
+        
+        val reader = reader ?: return
+        this.reader = null
+        reader.shutdownNow()
+        try {
+            reader.awaitTermination(5, TimeUnit.SECONDS)
+        } catch (e: InterruptedException) {
+            Thread.currentThread().interrupt()
+        }
+    }
+    
+    private fun read(stream: Stream) {
+        val executor = reader ?: Executors.newSingleThreadExecutor { runnable ->
+            val thread = Thread(runnable, "Craftboid_Table_Result_Thread")
+            thread.isDaemon = true
+            thread
+        }.also { reader = it }
+        
+        executor.execute {
+            if (stream.cancelled) {
+                return@execute
+            }
+            try {
+                val database = ServerWorldDatabase.instance
+                val columns = stream.columns ?: database.getTableColumns(stream.table).also { stream.columns = it }
+                stream.page = database.getTablePage(stream.table, columns, stream.cursor, stream.pageSize)
+            } catch (e: Exception) {
+                CraftNail.logError("Failed to read page ${stream.offset / stream.pageSize} of table ${stream.table}.", e)
+                stream.failed = true
+            }
+        }
+    }
+    
+    /**
+     * A table being sent to a client.
+     */
+    private class Stream(val connection: UdpConnection, val table: String, val pageSize: Int) {
+        
+        // Where the next page starts, used by the worker thread only
+        val cursor = ServerWorldDatabase.TableCursor()
+        var columns: ArrayList<String>? = null
+        
+        // The row number of the first row of the next page sent
+        var offset = 0
+        
+        // The page read and waiting to be sent
+        @Volatile
+        var page: ArrayList<DBResult>? = null
+        
+        @Volatile
+        var failed = false
+        
+        @Volatile
+        var cancelled = false
+    }
+}
@@ -2,6 +2,7 @@ package com.asledgehammer.craftnail.packet.security
 
 import com.asledgehammer.crafthammer.util.cfg.YamlFile
 import com.asledgehammer.craftnail.CraftNail
+import com.asledgehammer.craftnail.player.PlayerRegistry
 import com.asledgehammer.craftnail.util.IsoUtils
 import java.nio.ByteBuffer
 import java.util.HashMap
@@ -45,7 +46,7 @@ class BandageDistanceCheck(cfg: YamlFile, id: String) : PacketCheck(cfg, id) {
         
         // Get players
         val author = GameServer.getAnyPlayerFromConnection(connection)!!
-        val target = GameServer.IDToPlayerMap[targetId]!!
+        val target = PlayerRegistry.getPlayer(targetId)!!
         
         // Calculate distance
         val distanceMeasured = IsoUtils.getDistance(author, target as IsoPlayer)
@@ -2,11 +2,11 @@ package com.asledgehammer.craftnail.packet.security
 
 import com.asledgehammer.crafthammer.util.cfg.YamlFile
 import com.asledgehammer.craftnail.CraftNail
+import com.asledgehammer.craftnail.player.PlayerRegistry
 import java.nio.ByteBuffer
 import zombie.GameWindow
 import zombie.characters.BodyDamage.BodyPartType
 import zombie.core.raknet.UdpConnection
-import zombie.network.GameServer
 
 class BandageOfflinePlayerCheck(cfg: YamlFile, id: String) : PacketCheck(cfg, id) {
     
@@ -26,7 +26,7 @@ class BandageOfflinePlayerCheck(cfg: YamlFile, id: String) : PacketCheck(cfg, id
         val isAlcoholicBandage = buffer.get() == 1.toByte()
         val bandageType = GameWindow.ReadStringUTF(buffer)
         
-        val check = GameServer.IDToPlayerMap[targetId] != null
+        val check = PlayerRegistry.getPlayer(targetId) != null
         
         if (!check) {
             fields["body_part"] = BodyPartType.FromIndex(bodyPartIndex).name
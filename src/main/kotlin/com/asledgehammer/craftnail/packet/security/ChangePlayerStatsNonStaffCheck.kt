@@ -2,10 +2,10 @@ package com.asledgehammer.craftnail.packet.security
 
 import com.asledgehammer.crafthammer.util.cfg.YamlFile
 import com.asledgehammer.craftnail.CraftNail
+import com.asledgehammer.craftnail.player.PlayerRegistry
 import java.nio.ByteBuffer
 import zombie.characters.IsoPlayer
 import zombie.core.raknet.UdpConnection
-import zombie.network.GameServer
 
 class ChangePlayerStatsNonStaffCheck(cfg: YamlFile, id: String) : PacketCheck(cfg, id) {
     
@@ -18,7 +18,7 @@ class ChangePlayerStatsNonStaffCheck(cfg: YamlFile, id: String) : PacketCheck(cf
             return true
         }
         
-        val target = GameServer.IDToPlayerMap[buffer.short] as IsoPlayer
+        val target = PlayerRegistry.getPlayer(buffer.short) as IsoPlayer
         fields["target_username"] = target.username
         
         return false
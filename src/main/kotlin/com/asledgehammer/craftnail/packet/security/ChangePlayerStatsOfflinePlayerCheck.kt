@@ -2,10 +2,10 @@ package com.asledgehammer.craftnail.packet.security
 
 import com.asledgehammer.crafthammer.util.cfg.YamlFile
 import com.asledgehammer.craftnail.CraftNail
+import com.asledgehammer.craftnail.player.PlayerRegistry
 import java.nio.ByteBuffer
 import zombie.characters.IsoPlayer
 import zombie.core.raknet.UdpConnection
-import zombie.network.GameServer
 
 class ChangePlayerStatsOfflinePlayerCheck(cfg: YamlFile, id: String) : PacketCheck(cfg, id) {
     
@@ -19,7 +19,7 @@ class ChangePlayerStatsOfflinePlayerCheck(cfg: YamlFile, id: String) : PacketChe
         }
         
         val targetId = buffer.short
-        val target = GameServer.IDToPlayerMap[targetId] as? IsoPlayer
+        val target = PlayerRegistry.getPlayer(targetId) as? IsoPlayer
         
         return target != null
     }
@@ -8,6 +8,9 @@ import zombie.core.raknet.UdpConnection
 
 class ChatMessageFromPlayerOtherPlayer(cfg: YamlFile, id: String) : PacketCheck(cfg, id) {
     
+    override val concurrent: Boolean
+        get() = true
+    
     override fun onPacket(
         connection: UdpConnection,
         buffer: ByteBuffer,
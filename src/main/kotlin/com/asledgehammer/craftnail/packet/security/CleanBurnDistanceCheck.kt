@@ -2,26 +2,22 @@ package com.asledgehammer.craftnail.packet.security
 
 import com.asledgehammer.crafthammer.util.cfg.YamlFile
 import com.asledgehammer.craftnail.CraftNail
+import com.asledgehammer.craftnail.packet.PacketContext
 import com.asledgehammer.craftnail.util.IsoUtils
-import java.nio.ByteBuffer
 import zombie.characters.IsoPlayer
-import zombie.core.raknet.UdpConnection
 import zombie.network.GameServer
 import zombie.network.packets.CleanBurn
 
 class CleanBurnDistanceCheck(cfg: YamlFile, id: String) : PacketCheck(cfg, id) {
     
-    override fun onPacket(
-        connection: UdpConnection,
-        buffer: ByteBuffer,
-        fields: HashMap<String, Any>
-    ): Boolean {
+    override fun onPacket(context: PacketContext, fields: HashMap<String, Any>): Boolean {
+        val connection = context.connection
+        
         if (CraftNail.isStaff(connection)) {
             return true
         }
         
-        val packet = CleanBurn()
-        packet.parse(buffer, connection)
+        val packet = context.packet(CleanBurn::class.java) { CleanBurn() }
         
         // Note: in the decompiled code, there's what appears to be a logic error
         // with the negation of (packet.validate(connection) && packet.isConsistent())
@@ -29,8 +25,6 @@ class CleanBurnDistanceCheck(cfg: YamlFile, id: String) : PacketCheck(cfg, id) {
         var check = packet.validate(connection) && packet.isConsistent()
         
         if (check) {
-            packet.process()
-            
             val author = GameServer.getAnyPlayerFromConnection(connection) as IsoPlayer
             val target = packet.getTarget().getPlayer()
             
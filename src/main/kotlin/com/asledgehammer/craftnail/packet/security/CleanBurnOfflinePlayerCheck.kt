@@ -2,9 +2,9 @@ package com.asledgehammer.craftnail.packet.security
 
 import com.asledgehammer.crafthammer.util.cfg.YamlFile
 import com.asledgehammer.craftnail.CraftNail
+import com.asledgehammer.craftnail.player.PlayerRegistry
 import java.nio.ByteBuffer
 import zombie.core.raknet.UdpConnection
-import zombie.network.GameServer
 
 class CleanBurnOfflinePlayerCheck(cfg: YamlFile, id: String) : PacketCheck(cfg, id) {
     
@@ -19,6 +19,6 @@ class CleanBurnOfflinePlayerCheck(cfg: YamlFile, id: String) : PacketCheck(cfg,
         
         val targetId = buffer.short
         
-        return GameServer.IDToPlayerMap[targetId] != null
+        return PlayerRegistry.getPlayer(targetId) != null
     }
 }
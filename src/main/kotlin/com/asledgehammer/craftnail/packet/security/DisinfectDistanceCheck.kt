@@ -2,24 +2,20 @@ package com.asledgehammer.craftnail.packet.security
 
 import com.asledgehammer.crafthammer.util.cfg.YamlFile
 import com.asledgehammer.craftnail.CraftNail
+import com.asledgehammer.craftnail.packet.PacketContext
 import com.asledgehammer.craftnail.util.IsoUtils
-import java.nio.ByteBuffer
-import zombie.core.raknet.UdpConnection
 import zombie.network.packets.Disinfect
 
 class DisinfectDistanceCheck(cfg: YamlFile, id: String) : PacketCheck(cfg, id) {
     
-    override fun onPacket(
-        connection: UdpConnection,
-        buffer: ByteBuffer,
-        fields: HashMap<String, Any>
-    ): Boolean {
+    override fun onPacket(context: PacketContext, fields: HashMap<String, Any>): Boolean {
+        val connection = context.connection
+        
         if (CraftNail.isStaff(connection)) {
             return true
         }
         
-        val packet = Disinfect()
-        packet.parse(buffer, connection)
+        val packet = context.packet(Disinfect::class.java) { Disinfect() }
         
         var check = packet.validate(connection) && packet.isConsistent()
         
@@ -2,9 +2,9 @@ package com.asledgehammer.craftnail.packet.security
 
 import com.asledgehammer.crafthammer.util.cfg.YamlFile
 import com.asledgehammer.craftnail.CraftNail
+import com.asledgehammer.craftnail.player.PlayerRegistry
 import java.nio.ByteBuffer
 import zombie.core.raknet.UdpConnection
-import zombie.network.GameServer
 
 class ExtraInfoOfflinePlayerCheck(cfg: YamlFile, id: String) : PacketCheck(cfg, id) {
     
@@ -13,6 +13,6 @@ class ExtraInfoOfflinePlayerCheck(cfg: YamlFile, id: String) : PacketCheck(cfg,
         buffer: ByteBuffer,
         fields: HashMap<String, Any>
     ): Boolean {
-        return CraftNail.isStaff(connection) || GameServer.IDToPlayerMap[buffer.short] != null
+        return CraftNail.isStaff(connection) || PlayerRegistry.getPlayer(buffer.short) != null
     }
 }
@@ -2,10 +2,10 @@ package com.asledgehammer.craftnail.packet.security
 
 import com.asledgehammer.crafthammer.util.cfg.YamlFile
 import com.asledgehammer.craftnail.CraftNail
+import com.asledgehammer.craftnail.player.PlayerRegistry
 import java.nio.ByteBuffer
 import zombie.characters.IsoPlayer
 import zombie.core.raknet.UdpConnection
-import zombie.network.GameServer
 
 class ExtraInfoVarsCheck(cfg: YamlFile, id: String) : PacketCheck(cfg, id) {
     
@@ -26,7 +26,7 @@ class ExtraInfoVarsCheck(cfg: YamlFile, id: String) : PacketCheck(cfg, id) {
         val isShowAdminTagEnabled = buffer.get() == 1.toByte()
         val isCanHearAllEnabled = buffer.get() == 1.toByte()
         
-        val player = GameServer.IDToPlayerMap[playerID] as IsoPlayer
+        val player = PlayerRegistry.getPlayer(playerID) as IsoPlayer
         
         val pass = (!player.isGodMod() && isGodModEnabled) || 
                    (!player.isGhostMode() && isGhostModeEnabled) || 
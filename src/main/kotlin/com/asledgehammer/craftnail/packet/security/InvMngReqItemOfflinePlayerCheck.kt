@@ -2,10 +2,10 @@ package com.asledgehammer.craftnail.packet.security
 
 import com.asledgehammer.crafthammer.util.cfg.YamlFile
 import com.asledgehammer.craftnail.CraftNail
+import com.asledgehammer.craftnail.player.PlayerRegistry
 import java.nio.ByteBuffer
 import zombie.GameWindow
 import zombie.core.raknet.UdpConnection
-import zombie.network.GameServer
 
 class InvMngReqItemOfflinePlayerCheck(cfg: YamlFile, id: String) : PacketCheck(cfg, id) {
     
@@ -27,6 +27,6 @@ class InvMngReqItemOfflinePlayerCheck(cfg: YamlFile, id: String) : PacketCheck(c
         buffer.short
         val targetId = buffer.short
         
-        return GameServer.IDToPlayerMap[targetId] != null
+        return PlayerRegistry.getPlayer(targetId) != null
     }
 }
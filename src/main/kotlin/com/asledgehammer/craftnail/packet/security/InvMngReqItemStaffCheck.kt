@@ -2,11 +2,11 @@ package com.asledgehammer.craftnail.packet.security
 
 import com.asledgehammer.crafthammer.util.cfg.YamlFile
 import com.asledgehammer.craftnail.CraftNail
+import com.asledgehammer.craftnail.player.PlayerRegistry
 import java.nio.ByteBuffer
 import zombie.GameWindow
 import zombie.characters.IsoPlayer
 import zombie.core.raknet.UdpConnection
-import zombie.network.GameServer
 
 class InvMngReqItemStaffCheck(cfg: YamlFile, id: String) : PacketCheck(cfg, id) {
     
@@ -28,7 +28,7 @@ class InvMngReqItemStaffCheck(cfg: YamlFile, id: String) : PacketCheck(cfg, id)
         buffer.short
         val targetId = buffer.short
         
-        val target = GameServer.IDToPlayerMap[targetId] as IsoPlayer
+        val target = PlayerRegistry.getPlayer(targetId) as IsoPlayer
         fields["target_username"] = target.username
         
         return false
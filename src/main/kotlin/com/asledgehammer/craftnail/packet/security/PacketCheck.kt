@@ -4,6 +4,7 @@ import com.asledgehammer.crafthammer.util.cfg.CFGSection
 import com.asledgehammer.crafthammer.util.cfg.YamlFile
 import com.asledgehammer.crafthammer.util.console.ANSIUtils
 import com.asledgehammer.craftnail.CraftNail
+import com.asledgehammer.craftnail.packet.PacketContext
 import com.asledgehammer.craftnail.util.PacketUtils
 import com.asledgehammer.craftnail.util.log.SecurityLogger
 import zombie.core.raknet.UdpConnection
@@ -21,8 +22,15 @@ abstract class PacketCheck(cfg: YamlFile, val id: String) {
     
     private val logMessages: List<String>
     private val kickMessage: String
-    private val logMessagesInServerChat: Boolean
-    private val mode: Mode
+    
+    /** Whether violations are also reported in the chat of online staff. */
+    internal val logMessagesInServerChat: Boolean
+    
+    /** What the check does when it finds a violation. */
+    val mode: Mode
+    
+    /** The counters of this check, updated while [PacketCheckStats.enabled]. */
+    val stats = PacketCheckStats.Counters()
     
     init {
         val cfgCheck = cfg.getSection("security_checks.$id")
@@ -70,6 +78,7 @@ abstract class PacketCheck(cfg: YamlFile, val id: String) {
         
         // Print status and increment active check count if not OFF
         printStatus()
+        PacketCheckStats.register(this)
         if (mode != Mode.OFF) {
             activeCheckCount++
         }
@@ -78,20 +87,48 @@ abstract class PacketCheck(cfg: YamlFile, val id: String) {
     /**
      * Checks if the packet is valid according to this security check.
      * 
-     * @param connection The connection that sent the packet.
-     * @param buffer The packet data.
+     * @param context The packet, shared with the other checks and the handler of the packet.
      * @return true if the packet is valid, false if it should be rejected.
      */
-    fun check(connection: UdpConnection, buffer: ByteBuffer): Boolean {
+    fun check(context: PacketContext): Boolean {
+        if (test(context)) {
+            return true
+        }
+        handleFailedCheck(context.connection, context.fields)
+        return false
+    }
+    
+    /**
+     * Runs the check without acting on the result. The buffer position is restored when the packet passes.
+     * 
+     * @param context The packet.
+     * @return A copy of the fields describing the violation, or null if the packet is valid.
+     */
+    fun evaluate(context: PacketContext): HashMap<String, Any>? {
+        return if (test(context)) null else HashMap(context.fields)
+    }
+    
+    private fun test(context: PacketContext): Boolean {
         if (mode == Mode.OFF) {
             return true
         }
+        if (!PacketCheckStats.enabled) {
+            return run(context)
+        }
         
-        val fields = HashMap<String, Any>()
+        val start = System.nanoTime()
+        val passed = run(context)
+        stats.record(System.nanoTime() - start, passed)
+        return passed
+    }
+    
+    private fun run(context: PacketContext): Boolean {
+        val fields = context.fields
+        fields.clear()
+        val buffer = context.buffer
         val originalBufferPosition = buffer.position()
         
-        if (!onPacket(connection, buffer, fields)) {
-            handleFailedCheck(connection, fields)
+        if (!onPacket(context, fields)) {
             return false
         }
         
@@ -100,29 +137,64 @@ abstract class PacketCheck(cfg: YamlFile, val id: String) {
     }
     
     /**
-     * Abstract method to be implemented by subclasses to check a specific packet type.
+     * Acts on a violation found by [evaluate]. Must be called on the main thread.
+     * 
+     * @param connection The connection that sent the packet.
+     * @param fields The fields returned by [evaluate].
+     */
+    fun reject(connection: UdpConnection, fields: HashMap<String, Any>) {
+        handleFailedCheck(connection, fields)
+    }
+    
+    /**
+     * Whether [onPacket] only reads the connection and the packet buffer, which makes it safe to evaluate off the
+     * main thread.
+     */
+    open val concurrent: Boolean
+        get() = false
+    
+    /**
+     * Checks a specific packet type. Checks that need the packet as a game packet object override this and get it from
+     * [PacketContext.packet], so it is parsed once for every check and the handler.
+     * 
+     * @param context The packet.
+     * @param fields A map to store fields for logging purposes.
+     * @return true if the packet is valid, false if it should be rejected.
+     */
+    protected open fun onPacket(context: PacketContext, fields: HashMap<String, Any>): Boolean {
+        return onPacket(context.connection, context.buffer, fields)
+    }
+    
+    /**
+     * Checks a specific packet type by reading the packet data directly.
      * 
      * @param connection The connection that sent the packet.
      * @param buffer The packet data.
      * @param fields A map to store fields for logging purposes.
      * @return true if the packet is valid, false if it should be rejected.
      */
-    protected abstract fun onPacket(
+    protected open fun onPacket(
         connection: UdpConnection, 
         buffer: ByteBuffer, 
         fields: HashMap<String, Any>
-    ): Boolean
+    ): Boolean {
+        return true
+    }
     
     /**
-     * Logs a violation to the security log.
+     * Logs a violation to the security log. Repeated violations of a player are summarized by [ViolationAggregator].
      */
     protected fun log(fields: Map<String, Any>) {
+        if (!ViolationAggregator.record(this, fields["player_username"]?.toString() ?: "")) {
+            return
+        }
+        
         val color = if (mode == Mode.KICK) ANSIUtils.ANSI_RED else ANSIUtils.ANSI_YELLOW
         val messages = PacketChecker.injectList(logMessages, fields, color)
         
         SecurityLogger.log(messages)
         
-        if (logMessagesInServerChat) {
+        if (logMessagesInServerChat && ViolationAggregator.allowStaffMessage()) {
             CraftNail.messageStaff("Security", messages)
         }
     }
@@ -142,6 +214,10 @@ abstract class PacketCheck(cfg: YamlFile, val id: String) {
             else -> ""
         }
         
+        if (PacketCheckStats.enabled && mode != Mode.OFF) {
+            stats.recordAction()
+        }
+        
         // Handle based on mode
         when (mode) {
             Mode.IGNORE -> log(fields)
@@ -0,0 +1,217 @@
+package com.asledgehammer.craftnail.packet.security
+
+import com.asledgehammer.craftnail.CraftNail
+import java.io.File
+import java.text.SimpleDateFormat
+import java.util.Date
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.atomic.LongAdder
+import kotlin.concurrent.thread
+import zombie.ZomboidFileSystem
+
+/**
+ * Counts how often each security check runs, how often it finds a violation, how often it acts on one and how long it
+ * takes.
+ *
+ * The counters are [LongAdder]s, since checks also run on the pre-check workers. When disabled, a check reads one flag
+ * and does nothing else. The counters are queried with the `checkstats` command and written to
+ * `Logs/Craftboid/check-stats.txt` at the configured interval, which shows checks that cost a lot and never fire.
+ */
+object PacketCheckStats {
+    
+    /** Whether the checks are being counted. */
+    var enabled = false
+        private set
+    
+    // Every constructed check, in registration order
+    private val checks = CopyOnWriteArrayList<PacketCheck>()
+    
+    // Periodic dump
+    private var dumpIntervalMillis = 300_000L
+    private var nextDump = 0L
+    private var since = System.currentTimeMillis()
+    private val dateFormat = SimpleDateFormat("yyyy-MM-dd' 'HH:mm:ss")
+    
+    /**
+     * Reads the settings from crafthammer.yml.
+     */
+    fun init() {
+        val cfg = CraftNail.cfg
+        enabled = cfg.contains("network.check_stats.enabled") && cfg.getBoolean("network.check_stats.enabled")
+        if (cfg.contains("network.check_stats.dump_interval_s")) {
+            dumpIntervalMillis = cfg.getInt("network.check_stats.dump_interval_s") * 1000L
+        }
+        reset()
+    }
+    
+    /**
+     * Adds a check to the statistics. Called by [PacketCheck] when constructed.
+     */
+    internal fun register(check: PacketCheck) {
+        checks.add(check)
+    }
+    
+    /**
+     * Forgets every check. Called before the checks are loaded again.
+     */
+    internal fun clear() {
+        checks.clear()
+    }
+    
+    /**
+     * Writes the statistics to the dump file when the interval has passed. Called from the main loop.
+     */
+    fun tick() {
+        if (!enabled || dumpIntervalMillis <= 0) {
+            return
+        }
+        val now = System.currentTimeMillis()
+        if (now < nextDump) {
+            return
+        }
+        if (nextDump != 0L) {
+            dump()
+        }
+        nextDump = now + dumpIntervalMillis
+    }
+    
+    /**
+     * Clears the counters of every check.
+     */
+    fun reset() {
+        for (check in checks) {
+            check.stats.reset()
+        }
+        since = System.currentTimeMillis()
+    }
+    
+    /**
+     * Formats the counters of the checks with the most total time.
+     *
+     * @param limit The number of checks to include.
+     * @return One line per check, preceded by a header.
+     */
+    fun report(limit: Int = Int.MAX_VALUE): List<String> {
+        val lines = header()
+        val sorted = checks.filter { it.stats.evaluations > 0 }.sortedByDescending { it.stats.nanos }
+        for (check in sorted.take(limit)) {
+            lines.add(format(check))
+        }
+        if (sorted.isEmpty()) {
+            lines.add("No checks evaluated.")
+        }
+        return lines
+    }
+    
+    /**
+     * Formats the counters of the checks with a configuration id or class name.
+     *
+     * @return The lines, or null if no check matches.
+     */
+    fun report(name: String): List<String>? {
+        val matches = checks.filter { it.id.equals(name, ignoreCase = true) || name(it).equals(name, ignoreCase = true) }
+        if (matches.isEmpty()) {
+            return null
+        }
+        val lines = header()
+        for (check in matches) {
+            lines.add(format(check))
+        }
+        return lines
+    }
+    
+    private fun header(): ArrayList<String> {
+        val lines = ArrayList<String>()
+        lines.add("Security check statistics since ${dateFormat.format(Date(since))}:")
+        lines.add(
+            String.format(
+                "%-36s %-6s %10s %10s %8s %7s %11s %9s",
+                "Check", "Mode", "Evals", "Violations", "Actions", "Hit %", "Total (ms)", "ns/eval"
+            )
+        )
+        return lines
+    }
+    
+    private fun format(check: PacketCheck): String {
+        val stats = check.stats
+        val evaluations = stats.evaluations
+        val violations = stats.violations
+        val nanos = stats.nanos
+        return String.format(
+            "%-36s %-6s %10d %10d %8d %7.2f %11.1f %9d",
+            name(check),
+            check.mode.name,
+            evaluations,
+            violations,
+            stats.actions,
+            if (evaluations > 0) violations * 100.0 / evaluations else 0.0,
+            nanos / 1_000_000.0,
+            if (evaluations > 0) nanos / evaluations else 0L
+        )
+    }
+    
+    private fun name(check: PacketCheck): String = check.javaClass.simpleName.removeSuffix("Check")
+    
+    private fun dump() {
+        val text = report().joinToString(System.lineSeparator(), postfix = System.lineSeparator())
+        val dir = File("${ZomboidFileSystem.instance.getCacheDir()}${File.separator}Logs${File.separator}Craftboid")
+        
+        // Write off the main thread
+        thread(isDaemon = true, name = "Craftboid_Check_Stats_Thread") {
+            try {
+                if (!dir.exists()) {
+                    dir.mkdirs()
+                }
+                File(dir, "check-stats.txt").writeText(text, Charsets.UTF_8)
+            } catch (e: Exception) {
+                CraftNail.logError("Failed to write security check statistics.", e)
+            }
+        }
+    }
+    
+    /**
+     * The counters of one check.
+     */
+    class Counters internal constructor() {
+        
+        private val evaluationCount = LongAdder()
+        private val violationCount = LongAdder()
+        private val actionCount = LongAdder()
+        private val nanoCount = LongAdder()
+        
+        /** The number of packets the check evaluated. */
+        val evaluations: Long
+            get() = evaluationCount.sum()
+        
+        /** The number of packets the check found a violation in. */
+        val violations: Long
+            get() = violationCount.sum()
+        
+        /** The number of violations logged or kicked for. */
+        val actions: Long
+            get() = actionCount.sum()
+        
+        /** The total time spent evaluating the check. */
+        val nanos: Long
+            get() = nanoCount.sum()
+        
+        internal fun record(nanos: Long, passed: Boolean) {
+            evaluationCount.increment()
+            nanoCount.add(nanos)
+            if (!passed) {
+                violationCount.increment()
+            }
+        }
+        
+        internal fun recordAction() {
+            actionCount.increment()
+        }
+        
+        internal fun reset() {
+            evaluationCount.reset()
+            violationCount.reset()
+            actionCount.reset()
+            nanoCount.reset()
+        }
+    }
+}
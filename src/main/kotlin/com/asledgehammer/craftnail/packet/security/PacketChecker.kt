@@ -4,6 +4,8 @@ import com.asledgehammer.crafthammer.util.cfg.CFGSection
 import com.asledgehammer.crafthammer.util.cfg.YamlFile
 import com.asledgehammer.crafthammer.util.console.ANSIUtils
 import com.asledgehammer.craftnail.CraftNail
+import com.asledgehammer.craftnail.packet.PacketContext
+import com.asledgehammer.craftnail.packet.PacketRateLimiter
 import com.asledgehammer.craftnail.util.TextFilter
 import java.io.File
 import java.io.FileOutputStream
@@ -15,9 +17,13 @@ import java.util.ArrayList
 import zombie.GameWindow
 import zombie.ZomboidFileSystem
 import zombie.core.raknet.UdpConnection
+import zombie.network.PacketTypes
 
 /**
  * Main class for managing packet security checks.
+ *
+ * Loading security.yml compiles the enabled checks, and the [RuleCheck]s declared in its `rules` section, into a table
+ * indexed by packet type ordinal, so checking a packet is one array load followed by its checks.
  */
 object PacketChecker {
     
@@ -109,6 +115,36 @@ object PacketChecker {
     // Weather checks
     private lateinit var climateManagerStaffCheck: ClimateManagerStaffCheck
     
+    // Rate limit check, reported by PacketRateLimiter
+    private lateinit var rateLimitExceeded: RateLimitCheck
+    
+    // The enabled checks of each packet type in the order they run, indexed by packet type ordinal
+    private val packetTypes = PacketTypes.PacketType.values()
+    @Volatile
+    private var checksByType = arrayOfNulls<Array<PacketCheck>>(packetTypes.size)
+    
+    // Packet types whose enabled checks are all safe to run on the pre-check workers
+    @Volatile
+    private var concurrentByType = BooleanArray(packetTypes.size)
+    
+    // Packet types whose handlers call a check method of their own
+    private var handledByType = BooleanArray(packetTypes.size)
+    
+    /**
+     * Whether the packet being handled on the main thread already passed the pre-check stage, in which case its checks
+     * are not run again. Set by the main loop for each packet.
+     */
+    var prechecked = false
+    
+    /**
+     * The packet being checked and handled on the main thread. Every check method resets it, so the handler that
+     * follows can take the packet object the checks already decoded.
+     */
+    val context = PacketContext()
+    
+    // Contexts of the pre-check workers
+    private val workerContext = ThreadLocal.withInitial { PacketContext() }
+    
     // State tracking
     private var fileReadOnce = false
     private var loadedSuccessfully = false
@@ -149,6 +185,7 @@ object PacketChecker {
             
             // Reset active check count
             PacketCheck.activeCheckCount = 0
+            PacketCheckStats.clear()
             
             // Load default settings
             val def = cfg.getSection("security_checks.default")
@@ -210,11 +247,91 @@ object PacketChecker {
             executeQueryAdmin = ExecuteQueryAdminCheck(cfg, "database.modify_not_admin")
             climateManagerStaffCheck = ClimateManagerStaffCheck(cfg, "climate_manager.not_staff")
             
+            // Files written before the rate limiter have no section for its check; kick as they always did
+            if (!cfg.contains("security_checks.rate_limit.exceeded")) {
+                val section = cfg.getSection("security_checks")
+                val rateLimit = if (section.isSection("rate_limit")) section.getSection("rate_limit") else section.createSection("rate_limit")
+                val exceeded = rateLimit.createSection("exceeded")
+                exceeded.set("mode", "kick")
+                exceeded.set("log_message", "The player \"%player_username%\" exceeded the rate limit for %packet_type% (%rate%/s, burst %burst%). (%action%)")
+            }
+            rateLimitExceeded = RateLimitCheck(cfg, "rate_limit.exceeded")
+            
+            // Compile the enabled checks into a table indexed by packet type
+            val table = arrayOfNulls<ArrayList<PacketCheck>>(packetTypes.size)
+            add(table, PacketTypes.PacketType.ExtraInfo, extraInfoOfflinePlayer, extraInfoVars)
+            add(table, PacketTypes.PacketType.Teleport, teleportStaff)
+            add(table, PacketTypes.PacketType.ChangePlayerStats, changePlayerStatsOfflinePlayer, changePlayerStatsNonStaff)
+            add(table, PacketTypes.PacketType.InvMngGetItem, invMngGetItemOfflinePlayer, invMngGetItemStaff)
+            add(table, PacketTypes.PacketType.InvMngReqItem, invMngReqItemOfflinePlayer, invMngReqItemStaff)
+            add(table, PacketTypes.PacketType.InvMngRemoveItem, invMngRemoveItemOfflinePlayer, invMngRemoveItemStaff)
+            add(table, PacketTypes.PacketType.RequestInventory, requestInventoryOfflinePlayer, requestInventoryStaff)
+            add(table, PacketTypes.PacketType.SandboxOptions, sandboxOptionsStaff)
+            add(table, PacketTypes.PacketType.SyncNonPvpZone, syncNonPvpZoneStaff)
+            add(table, PacketTypes.PacketType.ChatMessageFromPlayer, chatMessageFromPlayerOtherPlayer)
+            add(table, PacketTypes.PacketType.Bandage, bandageOfflinePlayer, bandageDistance)
+            add(table, PacketTypes.PacketType.Stitch, stitchOfflinePlayer, stitchDistance)
+            add(table, PacketTypes.PacketType.WoundInfection, woundInfectionOfflinePlayer, woundInfectionDistance)
+            add(table, PacketTypes.PacketType.Disinfect, disinfectOfflinePlayer, disinfectDistance)
+            add(table, PacketTypes.PacketType.Splint, splintOfflinePlayer, splintDistance)
+            add(table, PacketTypes.PacketType.AdditionalPain, additionalPainOfflinePlayer, additionalPainDistance)
+            add(table, PacketTypes.PacketType.RemoveGlass, removeGlassOfflinePlayer, removeGlassDistance)
+            add(table, PacketTypes.PacketType.RemoveBullet, removeBulletOfflinePlayer, removeBulletDistance)
+            add(table, PacketTypes.PacketType.CleanBurn, cleanBurnOfflinePlayer, cleanBurnDistance)
+            add(table, PacketTypes.PacketType.HitCharacter, hitCharacterPvpDisabled)
+            add(table, PacketTypes.PacketType.PlayerDeath, playerDeathOfflinePlayer, playerDeathSelf)
+            add(table, PacketTypes.PacketType.PlayerDamage, playerDamageOfflinePlayer, playerDamageDistance)
+            add(table, PacketTypes.PacketType.StartFire, startFireDisabled, startFireGridSquare, startFireDistance)
+            add(
+                table,
+                PacketTypes.PacketType.RemoveItemFromSquare,
+                removeItemFromSquareGridSquare,
+                removeItemFromSquareObjectIndex,
+                removeItemFromSquareDistanceCheck
+            )
+            add(table, PacketTypes.PacketType.SledgehammerDestroy, sledgehammerDestroyDisabled, sledgehammerWeapon)
+            add(table, PacketTypes.PacketType.GetDBSchema, getDBSchemaAdmin)
+            add(table, PacketTypes.PacketType.GetTableResult, getTableResultAdmin)
+            add(table, PacketTypes.PacketType.ExecuteQuery, executeQueryAdmin)
+            add(table, PacketTypes.PacketType.ClimateManagerPacket, climateManagerStaffCheck)
+            val handled = BooleanArray(packetTypes.size) { table[it] != null }
+            
+            // Append the rules declared in security.yml. A broken rule is skipped rather than failing every check.
+            var ruleCount = 0
+            if (cfg.contains("security_checks.rules")) {
+                for (name in cfg.getSection("security_checks.rules").childKeys.sorted()) {
+                    val rule = try {
+                        RuleCheck.read(cfg, name)
+                    } catch (e: Exception) {
+                        CraftNail.logError("Failed to read the security rule '$name'. Skipping it.", e)
+                        continue
+                    }
+                    add(table, rule.type, rule)
+                    if (rule.mode != Mode.OFF) {
+                        ruleCount++
+                    }
+                }
+            }
+            
+            val checks = arrayOfNulls<Array<PacketCheck>>(packetTypes.size)
+            val concurrent = BooleanArray(packetTypes.size)
+            for (index in table.indices) {
+                val list = table[index]
+                if (list.isNullOrEmpty()) {
+                    continue
+                }
+                checks[index] = list.toTypedArray()
+                concurrent[index] = list.all { it.concurrent }
+            }
+            handledByType = handled
+            concurrentByType = concurrent
+            checksByType = checks
+            
             // Mark initialization as successful
             loadedSuccessfully = true
             
             // Log success
-            CraftNail.log("Loaded ${PacketCheck.activeCheckCount} security check(s).")
+            CraftNail.log("Loaded ${PacketCheck.activeCheckCount} security check(s), $ruleCount of them from rules.")
         } catch (e: Exception) {
             // Log error
             val message = if (!fileReadOnce) {
@@ -226,6 +343,60 @@ object PacketChecker {
         }
     }
     
+    /**
+     * Adds the enabled checks of a packet type to the table being compiled. Disabled checks are left out, so they cost
+     * nothing when packets arrive.
+     */
+    private fun add(table: Array<ArrayList<PacketCheck>?>, type: PacketTypes.PacketType, vararg checks: PacketCheck) {
+        val list = table[type.ordinal] ?: ArrayList<PacketCheck>(checks.size).also { table[type.ordinal] = it }
+        for (check in checks) {
+            if (check.mode != Mode.OFF) {
+                list.add(check)
+            }
+        }
+    }
+    
+    /**
+     * Checks whether every check of a packet type can be evaluated by the pre-check stage.
+     */
+    fun isConcurrent(type: PacketTypes.PacketType): Boolean {
+        return loadedSuccessfully && concurrentByType[type.ordinal]
+    }
+    
+    /**
+     * Evaluates the concurrent checks of a packet off the main thread.
+     * 
+     * @return The action to run on the main thread for the first failed check, or null if the packet passed.
+     */
+    fun precheck(type: PacketTypes.PacketType, connection: UdpConnection, buffer: ByteBuffer): Runnable? {
+        if (!concurrentByType[type.ordinal]) return null
+        val checks = checksByType[type.ordinal] ?: return null
+        val context = workerContext.get().reset(connection, buffer)
+        try {
+            for (check in checks) {
+                val fields = check.evaluate(context) ?: continue
+                return Runnable { check.reject(connection, fields) }
+            }
+            return null
+        } finally {
+            context.clear()
+        }
+    }
+    
+    /**
+     * Acts on a connection that went over a rate limit whose action is `kick`. Called on the main thread.
+     *
+     * @param connection The connection.
+     * @param type The packet type of the limit.
+     * @param limit The limit.
+     * @return true if the connection was kicked.
+     */
+    fun rejectRateLimit(connection: UdpConnection, type: PacketTypes.PacketType, limit: PacketRateLimiter.Limit): Boolean {
+        if (!loadedSuccessfully) return false
+        rateLimitExceeded.reject(connection, type, limit)
+        return rateLimitExceeded.mode == Mode.KICK
+    }
+    
     /**
      * Copies the default security configuration file from resources.
      */
@@ -291,171 +462,147 @@ object PacketChecker {
     
     /* Begin packet check methods */
     
+    /**
+     * Runs the enabled checks of a packet type in order, stopping at the first violation.
+     * 
+     * @param type The type of the packet.
+     * @param connection The connection that sent the packet.
+     * @param buffer The packet data.
+     * @return true if the packet is valid, false if it should be rejected.
+     */
+    fun check(type: PacketTypes.PacketType, connection: UdpConnection, buffer: ByteBuffer): Boolean {
+        context.reset(connection, buffer)
+        if (!loadedSuccessfully || prechecked) return true
+        val checks = checksByType[type.ordinal] ?: return true
+        for (index in checks.indices) {
+            if (!checks[index].check(context)) return false
+        }
+        return true
+    }
+    
+    /**
+     * Runs the rules of a packet type whose handler has no check method of its own. Called from the main loop before
+     * the packet is handled.
+     */
+    fun checkOtherPacket(type: PacketTypes.PacketType, connection: UdpConnection, buffer: ByteBuffer): Boolean {
+        if (handledByType[type.ordinal]) return true
+        return check(type, connection, buffer)
+    }
+    
     fun checkClimateManagerPacket(connection: UdpConnection, buffer: ByteBuffer): Boolean {
-        if (!loadedSuccessfully) return true
-        return climateManagerStaffCheck.check(connection, buffer)
+        return check(PacketTypes.PacketType.ClimateManagerPacket, connection, buffer)
     }
     
     fun checkExecuteQueryPacket(connection: UdpConnection, buffer: ByteBuffer): Boolean {
-        if (!loadedSuccessfully) return true
-        return executeQueryAdmin.check(connection, buffer)
+        return check(PacketTypes.PacketType.ExecuteQuery, connection, buffer)
     }
     
     fun checkGetTableResultPacket(connection: UdpConnection, buffer: ByteBuffer): Boolean {
-        if (!loadedSuccessfully) return true
-        return getTableResultAdmin.check(connection, buffer)
+        return check(PacketTypes.PacketType.GetTableResult, connection, buffer)
     }
     
     fun checkGetDBSchemaPacket(connection: UdpConnection, buffer: ByteBuffer): Boolean {
-        if (!loadedSuccessfully) return true
-        return getDBSchemaAdmin.check(connection, buffer)
+        return check(PacketTypes.PacketType.GetDBSchema, connection, buffer)
     }
     
     fun checkSledgehammerDestroyPacket(connection: UdpConnection, buffer: ByteBuffer): Boolean {
-        if (!loadedSuccessfully) return true
-        if (!sledgehammerDestroyDisabled.check(connection, buffer)) return false
-        return sledgehammerWeapon.check(connection, buffer)
+        return check(PacketTypes.PacketType.SledgehammerDestroy, connection, buffer)
     }
     
     fun checkRemoveItemFromSquarePacket(connection: UdpConnection, buffer: ByteBuffer): Boolean {
-        if (!loadedSuccessfully) return true
-        if (!removeItemFromSquareGridSquare.check(connection, buffer)) return false
-        if (!removeItemFromSquareObjectIndex.check(connection, buffer)) return false
-        return removeItemFromSquareDistanceCheck.check(connection, buffer)
+        return check(PacketTypes.PacketType.RemoveItemFromSquare, connection, buffer)
     }
     
     fun checkStartFirePacket(connection: UdpConnection, buffer: ByteBuffer): Boolean {
-        if (!loadedSuccessfully) return true
-        if (!startFireDisabled.check(connection, buffer)) return false
-        if (!startFireGridSquare.check(connection, buffer)) return false
-        return startFireDistance.check(connection, buffer)
+        return check(PacketTypes.PacketType.StartFire, connection, buffer)
     }
     
     fun checkPlayerDamagePacket(connection: UdpConnection, buffer: ByteBuffer): Boolean {
-        if (!loadedSuccessfully) return true
-        if (!playerDamageOfflinePlayer.check(connection, buffer)) return false
-        return playerDamageDistance.check(connection, buffer)
+        return check(PacketTypes.PacketType.PlayerDamage, connection, buffer)
     }
     
     fun checkPlayerDeathPacket(connection: UdpConnection, buffer: ByteBuffer): Boolean {
-        if (!loadedSuccessfully) return true
-        if (!playerDeathOfflinePlayer.check(connection, buffer)) return false
-        return playerDeathSelf.check(connection, buffer)
+        return check(PacketTypes.PacketType.PlayerDeath, connection, buffer)
     }
     
     fun checkHitCharacterPacket(connection: UdpConnection, buffer: ByteBuffer): Boolean {
-        if (!loadedSuccessfully) return true
-        return hitCharacterPvpDisabled.check(connection, buffer)
+        return check(PacketTypes.PacketType.HitCharacter, connection, buffer)
     }
     
     fun checkCleanBurnPacket(connection: UdpConnection, buffer: ByteBuffer): Boolean {
-        if (!loadedSuccessfully) return true
-        if (!cleanBurnOfflinePlayer.check(connection, buffer)) return false
-        return cleanBurnDistance.check(connection, buffer)
+        return check(PacketTypes.PacketType.CleanBurn, connection, buffer)
     }
     
     fun checkRemoveBulletPacket(connection: UdpConnection, buffer: ByteBuffer): Boolean {
-        if (!loadedSuccessfully) return true
-        if (!removeBulletOfflinePlayer.check(connection, buffer)) return false
-        return removeBulletDistance.check(connection, buffer)
+        return check(PacketTypes.PacketType.RemoveBullet, connection, buffer)
     }
     
     fun checkRemoveGlassPacket(connection: UdpConnection, buffer: ByteBuffer): Boolean {
-        if (!loadedSuccessfully) return true
-        if (!removeGlassOfflinePlayer.check(connection, buffer)) return false
-        return removeGlassDistance.check(connection, buffer)
+        return check(PacketTypes.PacketType.RemoveGlass, connection, buffer)
     }
     
     fun checkAdditionalPainPacket(connection: UdpConnection, buffer: ByteBuffer): Boolean {
-        if (!loadedSuccessfully) return true
-        if (!additionalPainOfflinePlayer.check(connection, buffer)) return false
-        return additionalPainDistance.check(connection, buffer)
+        return check(PacketTypes.PacketType.AdditionalPain, connection, buffer)
     }
     
     fun checkSplintPacket(connection: UdpConnection, buffer: ByteBuffer): Boolean {
-        if (!loadedSuccessfully) return true
-        if (!splintOfflinePlayer.check(connection, buffer)) return false
-        return splintDistance.check(connection, buffer)
+        return check(PacketTypes.PacketType.Splint, connection, buffer)
     }
     
     fun checkDisinfectPacket(connection: UdpConnection, buffer: ByteBuffer): Boolean {
-        if (!loadedSuccessfully) return true
-        if (!disinfectOfflinePlayer.check(connection, buffer)) return false
-        return disinfectDistance.check(connection, buffer)
+        return check(PacketTypes.PacketType.Disinfect, connection, buffer)
     }
     
     fun checkWoundInfectionPacket(connection: UdpConnection, buffer: ByteBuffer): Boolean {
-        if (!loadedSuccessfully) return true
-        if (!woundInfectionOfflinePlayer.check(connection, buffer)) return false
-        return woundInfectionDistance.check(connection, buffer)
+        return check(PacketTypes.PacketType.WoundInfection, connection, buffer)
     }
     
     fun checkStitchPacket(connection: UdpConnection, buffer: ByteBuffer): Boolean {
-        if (!loadedSuccessfully) return true
-        if (!stitchOfflinePlayer.check(connection, buffer)) return false
-        return stitchDistance.check(connection, buffer)
+        return check(PacketTypes.PacketType.Stitch, connection, buffer)
     }
     
     fun checkBandagePacket(connection: UdpConnection, buffer: ByteBuffer): Boolean {
-        if (!loadedSuccessfully) return true
-        if (!bandageOfflinePlayer.check(connection, buffer)) return false
-        return bandageDistance.check(connection, buffer)
+        return check(PacketTypes.PacketType.Bandage, connection, buffer)
     }
     
     fun checkChatMessageFromPlayerPacket(connection: UdpConnection, buffer: ByteBuffer): Boolean {
-        if (!loadedSuccessfully) return true
-        return chatMessageFromPlayerOtherPlayer.check(connection, buffer)
+        return check(PacketTypes.PacketType.ChatMessageFromPlayer, connection, buffer)
     }
     
     fun checkSyncNonPvpZonePacket(connection: UdpConnection, buffer: ByteBuffer): Boolean {
-        if (!loadedSuccessfully) return true
-        return syncNonPvpZoneStaff.check(connection, buffer)
+        return check(PacketTypes.PacketType.SyncNonPvpZone, connection, buffer)
     }
     
     fun checkSandboxOptionsPacket(connection: UdpConnection, buffer: ByteBuffer): Boolean {
-        if (!loadedSuccessfully) return true
-        return sandboxOptionsStaff.check(connection, buffer)
+        return check(PacketTypes.PacketType.SandboxOptions, connection, buffer)
     }
     
     fun checkRequestInventoryPacket(connection: UdpConnection, buffer: ByteBuffer): Boolean {
-        if (!loadedSuccessfully) return true
-        if (!requestInventoryOfflinePlayer.check(connection, buffer)) return false
-        return requestInventoryStaff.check(connection, buffer)
+        return check(PacketTypes.PacketType.RequestInventory, connection, buffer)
     }
     
     fun checkInvMngGetItemPacket(connection: UdpConnection, buffer: ByteBuffer): Boolean {
-        if (!loadedSuccessfully) return true
-        if (!invMngGetItemOfflinePlayer.check(connection, buffer)) return false
-        return invMngGetItemStaff.check(connection, buffer)
+        return check(PacketTypes.PacketType.InvMngGetItem, connection, buffer)
     }
     
     fun checkInvMngReqItemPacket(connection: UdpConnection, buffer: ByteBuffer): Boolean {
-        if (!loadedSuccessfully) return true
-        if (!invMngReqItemOfflinePlayer.check(connection, buffer)) return false
-        return invMngReqItemStaff.check(connection, buffer)
+        return check(PacketTypes.PacketType.InvMngReqItem, connection, buffer)
     }
     
     fun checkInvMngRemoveItemPacket(connection: UdpConnection, buffer: ByteBuffer): Boolean {
-        if (!loadedSuccessfully) return true
-        if (!invMngRemoveItemOfflinePlayer.check(connection, buffer)) return false
-        return invMngRemoveItemStaff.check(connection, buffer)
+        return check(PacketTypes.PacketType.InvMngRemoveItem, connection, buffer)
     }
     
     fun checkChangePlayerStatsPacket(connection: UdpConnection, buffer: ByteBuffer): Boolean {
-        if (!loadedSuccessfully) return true
-        if (!changePlayerStatsOfflinePlayer.check(connection, buffer)) return false
-        return changePlayerStatsNonStaff.check(connection, buffer)
+        return check(PacketTypes.PacketType.ChangePlayerStats, connection, buffer)
     }
     
     fun checkExtraInfoPacket(connection: UdpConnection, buffer: ByteBuffer): Boolean {
-        if (!loadedSuccessfully) return true
-        if (!extraInfoOfflinePlayer.check(connection, buffer)) return false
-        return extraInfoVars.check(connection, buffer)
+        return check(PacketTypes.PacketType.ExtraInfo, connection, buffer)
     }
     
     fun checkTeleportPacket(connection: UdpConnection, buffer: ByteBuffer): Boolean {
-        if (!loadedSuccessfully) return true
-        return teleportStaff.check(connection, buffer)
+        return check(PacketTypes.PacketType.Teleport, connection, buffer)
     }
     
     /**
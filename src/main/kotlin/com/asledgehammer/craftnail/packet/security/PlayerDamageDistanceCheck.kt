@@ -2,6 +2,7 @@ package com.asledgehammer.craftnail.packet.security
 
 import com.asledgehammer.crafthammer.util.cfg.YamlFile
 import com.asledgehammer.craftnail.CraftNail
+import com.asledgehammer.craftnail.player.PlayerRegistry
 import com.asledgehammer.craftnail.util.IsoUtils
 import java.nio.ByteBuffer
 import zombie.characters.IsoPlayer
@@ -23,7 +24,7 @@ class PlayerDamageDistanceCheck(cfg: YamlFile, id: String) : PacketCheck(cfg, id
         val damageAmount = buffer.float
         
         val author = GameServer.getAnyPlayerFromConnection(connection)
-        val target = GameServer.IDToPlayerMap[targetId] as IsoPlayer
+        val target = PlayerRegistry.getPlayer(targetId) as IsoPlayer
         
         val distanceMeasured = IsoUtils.getDistance(author, target)
         val check = distance >= distanceMeasured
@@ -2,24 +2,20 @@ package com.asledgehammer.craftnail.packet.security
 
 import com.asledgehammer.crafthammer.util.cfg.YamlFile
 import com.asledgehammer.craftnail.CraftNail
-import java.nio.ByteBuffer
+import com.asledgehammer.craftnail.packet.PacketContext
 import zombie.characters.IsoPlayer
-import zombie.core.raknet.UdpConnection
 import zombie.network.packets.DeadPlayerPacket
 
 class PlayerDeathOfflinePlayerCheck(cfg: YamlFile, id: String) : PacketCheck(cfg, id) {
     
-    override fun onPacket(
-        connection: UdpConnection,
-        buffer: ByteBuffer,
-        fields: HashMap<String, Any>
-    ): Boolean {
+    override fun onPacket(context: PacketContext, fields: HashMap<String, Any>): Boolean {
+        val connection = context.connection
+        
         if (CraftNail.isStaff(connection)) {
             return true
         }
         
-        val packet = DeadPlayerPacket()
-        packet.parse(buffer, connection)
+        val packet = context.packet(DeadPlayerPacket::class.java) { DeadPlayerPacket() }
         
         val toDie = packet.getPlayer()
         
@@ -0,0 +1,31 @@
+package com.asledgehammer.craftnail.packet.security
+
+import com.asledgehammer.crafthammer.util.cfg.YamlFile
+import com.asledgehammer.craftnail.packet.PacketRateLimiter
+import zombie.core.raknet.UdpConnection
+import zombie.network.PacketTypes
+
+/**
+ * Reports connections that go over a rate limit whose action is `kick`.
+ *
+ * The limits are tested by [PacketRateLimiter] on the network thread, so this check is never run against a packet.
+ * The limiter queues the violation instead, and [reject] acts on it on the main thread according to the mode of the
+ * check, like any other security check.
+ */
+class RateLimitCheck(cfg: YamlFile, id: String) : PacketCheck(cfg, id) {
+    
+    /**
+     * Acts on a connection that went over a rate limit. Must be called on the main thread.
+     *
+     * @param connection The connection.
+     * @param type The packet type of the limit.
+     * @param limit The limit.
+     */
+    fun reject(connection: UdpConnection, type: PacketTypes.PacketType, limit: PacketRateLimiter.Limit) {
+        val fields = HashMap<String, Any>()
+        fields["packet_type"] = type.name
+        fields["rate"] = limit.rate
+        fields["burst"] = limit.burst
+        reject(connection, fields)
+    }
+}
@@ -2,22 +2,19 @@ package com.asledgehammer.craftnail.packet.security
 
 import com.asledgehammer.crafthammer.util.cfg.YamlFile
 import com.asledgehammer.craftnail.CraftNail
-import java.nio.ByteBuffer
-import zombie.core.raknet.UdpConnection
+import com.asledgehammer.craftnail.packet.PacketContext
 import zombie.network.packets.RemoveBullet
 
 class RemoveBulletOfflinePlayerCheck(cfg: YamlFile, id: String) : PacketCheck(cfg, id) {
     
-    override fun onPacket(
-        connection: UdpConnection,
-        buffer: ByteBuffer,
-        fields: HashMap<String, Any>
-    ): Boolean {
+    override fun onPacket(context: PacketContext, fields: HashMap<String, Any>): Boolean {
+        val connection = context.connection
+        
         if (CraftNail.isStaff(connection)) {
             return true
         }
         
-        val packet = RemoveBullet()
+        val packet = context.packet(RemoveBullet::class.java) { RemoveBullet() }
         
         return packet.validate(connection) && packet.isConsistent()
     }
@@ -2,23 +2,19 @@ package com.asledgehammer.craftnail.packet.security
 
 import com.asledgehammer.crafthammer.util.cfg.YamlFile
 import com.asledgehammer.craftnail.CraftNail
-import java.nio.ByteBuffer
-import zombie.core.raknet.UdpConnection
+import com.asledgehammer.craftnail.packet.PacketContext
 import zombie.network.packets.RemoveGlass
 
 class RemoveGlassOfflinePlayerCheck(cfg: YamlFile, id: String) : PacketCheck(cfg, id) {
     
-    override fun onPacket(
-        connection: UdpConnection,
-        buffer: ByteBuffer,
-        fields: HashMap<String, Any>
-    ): Boolean {
+    override fun onPacket(context: PacketContext, fields: HashMap<String, Any>): Boolean {
+        val connection = context.connection
+        
         if (CraftNail.isStaff(connection)) {
             return true
         }
         
-        val packet = RemoveGlass()
-        packet.parse(buffer, connection)
+        val packet = context.packet(RemoveGlass::class.java) { RemoveGlass() }
         
         return packet.isConsistent() && packet.validate(connection)
     }
@@ -2,9 +2,9 @@ package com.asledgehammer.craftnail.packet.security
 
 import com.asledgehammer.crafthammer.util.cfg.YamlFile
 import com.asledgehammer.craftnail.CraftNail
+import com.asledgehammer.craftnail.player.PlayerRegistry
 import java.nio.ByteBuffer
 import zombie.core.raknet.UdpConnection
-import zombie.network.GameServer
 
 class RequestInventoryOfflinePlayerCheck(cfg: YamlFile, id: String) : PacketCheck(cfg, id) {
     
@@ -20,6 +20,6 @@ class RequestInventoryOfflinePlayerCheck(cfg: YamlFile, id: String) : PacketChec
         buffer.short
         val targetId = buffer.short
         
-        return GameServer.IDToAddressMap[targetId] != null
+        return PlayerRegistry.getAddress(targetId) != null
     }
 }
@@ -0,0 +1,191 @@
+package com.asledgehammer.craftnail.packet.security
+
+import com.asledgehammer.crafthammer.util.cfg.YamlFile
+import com.asledgehammer.craftnail.CraftNail
+import com.asledgehammer.craftnail.packet.PacketContext
+import com.asledgehammer.craftnail.util.IsoUtils
+import java.util.Locale
+import java.util.WeakHashMap
+import zombie.characters.IsoPlayer
+import zombie.core.raknet.UdpConnection
+import zombie.network.GameServer
+import zombie.network.PacketTypes
+
+/**
+ * A security check declared in the `security_checks.rules` section of security.yml rather than in code.
+ *
+ * A rule names the packet type it applies to and what it checks, next to the `mode`, `log_message` and `kick_message`
+ * every check has:
+ *
+ * ```yaml
+ * rules:
+ *   add_explosive_trap_distance:
+ *     packet: AddExplosiveTrap
+ *     rule: distance
+ *     distance: 20.0
+ *     offset: 0
+ *     format: int
+ *     log_message: 'The player %player_username% placed a trap %distance_measured% tiles away. (%action%)'
+ * ```
+ *
+ * Rules run after the built-in checks of their packet type. The rule kinds are listed in [Kind].
+ */
+class RuleCheck private constructor(
+    cfg: YamlFile,
+    id: String,
+    /** The packet type the rule applies to. */
+    val type: PacketTypes.PacketType,
+    private val kind: Kind,
+    private val offset: Int,
+    private val floats: Boolean,
+    private val rate: Double,
+    private val burst: Double
+) : PacketCheck(cfg, id) {
+    
+    /**
+     * What a rule checks.
+     */
+    enum class Kind {
+        /** The sender must be staff. */
+        STAFF,
+        
+        /** The sender must be an admin. */
+        ADMIN,
+        
+        /**
+         * The position read from the payload at `offset` must be within `distance` of the sender. The position is
+         * three ints or three floats, as set by `format`.
+         */
+        DISTANCE,
+        
+        /** The sender may send at most `rate` packets of the type per second, with bursts of up to `burst`. */
+        RATE
+    }
+    
+    // Token buckets of the rate rule, by connection
+    private val buckets = WeakHashMap<UdpConnection, Bucket>()
+    
+    override val concurrent: Boolean
+        get() = kind == Kind.STAFF || kind == Kind.ADMIN
+    
+    override fun onPacket(context: PacketContext, fields: HashMap<String, Any>): Boolean {
+        val connection = context.connection
+        return when (kind) {
+            Kind.STAFF -> CraftNail.isStaff(connection)
+            Kind.ADMIN -> connection.accessLevel.toInt() == 32
+            Kind.DISTANCE -> checkDistance(context, fields)
+            Kind.RATE -> checkRate(connection, fields)
+        }
+    }
+    
+    private fun checkDistance(context: PacketContext, fields: HashMap<String, Any>): Boolean {
+        val connection = context.connection
+        if (CraftNail.isStaff(connection)) {
+            return true
+        }
+        
+        val author = GameServer.getAnyPlayerFromConnection(connection) as? IsoPlayer ?: return true
+        
+        // Read without moving the buffer
+        val buffer = context.buffer
+        val index = context.position + offset
+        if (index < 0 || index + 12 > buffer.limit()) {
+            fields["distance"] = distance
+            fields["distance_measured"] = "malformed"
+            return false
+        }
+        val x: Float
+        val y: Float
+        val z: Float
+        if (floats) {
+            x = buffer.getFloat(index)
+            y = buffer.getFloat(index + 4)
+            z = buffer.getFloat(index + 8)
+        } else {
+            x = buffer.getInt(index).toFloat()
+            y = buffer.getInt(index + 4).toFloat()
+            z = buffer.getInt(index + 8).toFloat()
+        }
+        
+        val distanceMeasured = IsoUtils.getDistance(author, x, y, z)
+        if (distance >= distanceMeasured) {
+            return true
+        }
+        
+        fields["x"] = x
+        fields["y"] = y
+        fields["z"] = z
+        fields["distance"] = distance
+        fields["distance_measured"] = distanceMeasured
+        return false
+    }
+    
+    private fun checkRate(connection: UdpConnection, fields: HashMap<String, Any>): Boolean {
+        if (CraftNail.isStaff(connection)) {
+            return true
+        }
+        
+        val now = System.nanoTime()
+        val bucket = buckets.getOrPut(connection) { Bucket(burst, now) }
+        bucket.tokens = (bucket.tokens + (now - bucket.lastRefill) / 1_000_000_000.0 * rate).coerceAtMost(burst)
+        bucket.lastRefill = now
+        
+        if (bucket.tokens >= 1.0) {
+            bucket.tokens -= 1.0
+            return true
+        }
+        
+        fields["rate"] = rate
+        fields["burst"] = burst
+        return false
+    }
+    
+    private class Bucket(var tokens: Double, var lastRefill: Long)
+    
+    companion object {
+        
+        /**
+         * Reads a rule from the `security_checks.rules` section.
+         *
+         * @param cfg The security configuration.
+         * @param name The name of the rule in the section.
+         * @throws IllegalArgumentException If the rule names an unknown packet type or rule kind, or misses a setting.
+         */
+        fun read(cfg: YamlFile, name: String): RuleCheck {
+            val id = "rules.$name"
+            val section = cfg.getSection("security_checks.$id")
+            
+            if (!section.contains("packet")) {
+                throw IllegalArgumentException("'packet' isn't defined for 'security_checks.$id' in security.yml.")
+            }
+            val packetName = section.getString("packet").trim()
+            val type = PacketTypes.PacketType.values().firstOrNull { it.name.equals(packetName, ignoreCase = true) }
+                ?: throw IllegalArgumentException("Unknown packet type '$packetName' for 'security_checks.$id'.")
+            
+            if (!section.contains("rule")) {
+                throw IllegalArgumentException("'rule' isn't defined for 'security_checks.$id' in security.yml.")
+            }
+            val kindName = section.getString("rule").trim().uppercase(Locale.getDefault())
+            val kind = Kind.values().firstOrNull { it.name == kindName }
+                ?: throw IllegalArgumentException("Unknown rule '$kindName' for 'security_checks.$id'.")
+            
+            val offset = if (section.contains("offset")) section.getInt("offset") else 0
+            val floats = !section.contains("format") || !section.getString("format").trim().equals("int", true)
+            
+            var rate = 0.0
+            var burst = 0.0
+            if (kind == Kind.RATE) {
+                if (!section.contains("rate")) {
+                    throw IllegalArgumentException("'rate' isn't defined for 'security_checks.$id' in security.yml.")
+                }
+                rate = (section.get("rate") as Number).toDouble()
+                burst = if (section.contains("burst")) (section.get("burst") as Number).toDouble() else rate
+                if (rate <= 0.0 || burst < 1.0) {
+                    throw IllegalArgumentException("'security_checks.$id' needs a positive rate and burst.")
+                }
+            }
+            
+            return RuleCheck(cfg, id, type, kind, offset, floats, rate, burst)
+        }
+    }
+}
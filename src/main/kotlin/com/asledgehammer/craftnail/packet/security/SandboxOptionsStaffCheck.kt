@@ -7,6 +7,9 @@ import zombie.core.raknet.UdpConnection
 
 class SandboxOptionsStaffCheck(cfg: YamlFile, id: String) : PacketCheck(cfg, id) {
     
+    override val concurrent: Boolean
+        get() = true
+    
     override fun onPacket(
         connection: UdpConnection,
         buffer: ByteBuffer,
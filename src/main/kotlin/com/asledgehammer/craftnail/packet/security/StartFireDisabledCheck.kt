@@ -2,30 +2,24 @@ package com.asledgehammer.craftnail.packet.security
 
 import com.asledgehammer.crafthammer.util.cfg.YamlFile
 import com.asledgehammer.craftnail.CraftNail
-import java.nio.ByteBuffer
-import zombie.core.raknet.UdpConnection
+import com.asledgehammer.craftnail.packet.PacketContext
 import zombie.network.ServerOptions
 import zombie.network.packets.StartFire
 
 class StartFireDisabledCheck(cfg: YamlFile, id: String) : PacketCheck(cfg, id) {
     
-    override fun onPacket(
-        connection: UdpConnection,
-        buffer: ByteBuffer,
-        fields: HashMap<String, Any>
-    ): Boolean {
+    override fun onPacket(context: PacketContext, fields: HashMap<String, Any>): Boolean {
+        val connection = context.connection
+        
         if (CraftNail.isStaff(connection)) {
             return true
         }
         
-        val packet = StartFire()
-        packet.parse(buffer, connection)
+        val packet = context.packet(StartFire::class.java) { StartFire() }
         
         var check = packet.isConsistent() && packet.validate(connection)
         
         if (check) {
-            packet.process()
-            
             check = !ServerOptions.instance.NoFire.getValue()
             
             if (!check) {
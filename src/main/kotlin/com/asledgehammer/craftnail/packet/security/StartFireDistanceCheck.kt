@@ -2,32 +2,26 @@ package com.asledgehammer.craftnail.packet.security
 
 import com.asledgehammer.crafthammer.util.cfg.YamlFile
 import com.asledgehammer.craftnail.CraftNail
+import com.asledgehammer.craftnail.packet.PacketContext
 import com.asledgehammer.craftnail.util.IsoUtils
-import java.nio.ByteBuffer
 import zombie.characters.IsoPlayer
-import zombie.core.raknet.UdpConnection
 import zombie.network.GameServer
 import zombie.network.packets.StartFire
 
 class StartFireDistanceCheck(cfg: YamlFile, id: String) : PacketCheck(cfg, id) {
     
-    override fun onPacket(
-        connection: UdpConnection,
-        buffer: ByteBuffer,
-        fields: HashMap<String, Any>
-    ): Boolean {
+    override fun onPacket(context: PacketContext, fields: HashMap<String, Any>): Boolean {
+        val connection = context.connection
+        
         if (CraftNail.isStaff(connection)) {
             return true
         }
         
-        val packet = StartFire()
-        packet.parse(buffer, connection)
+        val packet = context.packet(StartFire::class.java) { StartFire() }
         
         var check = packet.isConsistent() && packet.validate(connection)
         
         if (check) {
-            packet.process()
-            
             val x = packet.square.getX()
             val y = packet.square.getY()
             val z = packet.square.getZ()
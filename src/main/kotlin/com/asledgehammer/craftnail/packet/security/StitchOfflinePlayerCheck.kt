@@ -2,23 +2,19 @@ package com.asledgehammer.craftnail.packet.security
 
 import com.asledgehammer.crafthammer.util.cfg.YamlFile
 import com.asledgehammer.craftnail.CraftNail
-import java.nio.ByteBuffer
-import zombie.core.raknet.UdpConnection
+import com.asledgehammer.craftnail.packet.PacketContext
 import zombie.network.packets.Stitch
 
 class StitchOfflinePlayerCheck(cfg: YamlFile, id: String) : PacketCheck(cfg, id) {
     
-    override fun onPacket(
-        connection: UdpConnection,
-        buffer: ByteBuffer,
-        fields: HashMap<String, Any>
-    ): Boolean {
+    override fun onPacket(context: PacketContext, fields: HashMap<String, Any>): Boolean {
+        val connection = context.connection
+        
         if (CraftNail.isStaff(connection)) {
             return true
         }
         
-        val packet = Stitch()
-        packet.parse(buffer, connection)
+        val packet = context.packet(Stitch::class.java) { Stitch() }
         
         return packet.isConsistent() && packet.validate(connection)
     }
@@ -0,0 +1,172 @@
+package com.asledgehammer.craftnail.packet.security
+
+import com.asledgehammer.crafthammer.util.console.ANSIUtils
+import com.asledgehammer.craftnail.CraftNail
+import com.asledgehammer.craftnail.util.log.SecurityLogger
+
+/**
+ * Limits how many violation messages reach the security log and staff chat while a client floods a bad packet.
+ *
+ * Violations are counted per player and check over a window of a few seconds. The first violations of each pair are
+ * logged in full, the rest are only counted, and at the end of the window one summary line is logged for every pair
+ * that went over, such as `"Bob" triggered StartFireDistanceCheck 412 times in 5s`. Staff chat messages are capped
+ * for the whole window.
+ *
+ * The pairs are kept in a fixed-size open addressing table, so memory does not grow during an attack. Violations of
+ * pairs that no longer fit in the table are counted in total only. Used from the main thread.
+ */
+object ViolationAggregator {
+    
+    // Settings, from crafthammer.yml
+    private var windowMillis = 5000L
+    private var maxPerKey = 3
+    private var maxStaffMessages = 20
+    private var capacity = 1024
+    
+    // The table of player and check pairs, and the slots in use in the order they were taken
+    private var usernames = arrayOfNulls<String>(0)
+    private var checks = arrayOfNulls<PacketCheck>(0)
+    private var counts = IntArray(0)
+    private var used = IntArray(0)
+    private var size = 0
+    
+    // Violations of pairs the table had no room for
+    private var untracked = 0
+    
+    private var staffMessages = 0
+    private var windowStart = 0L
+    
+    /**
+     * Reads the settings from crafthammer.yml.
+     */
+    fun init() {
+        val cfg = CraftNail.cfg
+        if (cfg.contains("security_notifications.window_s")) {
+            windowMillis = cfg.getInt("security_notifications.window_s").coerceAtLeast(1) * 1000L
+        }
+        if (cfg.contains("security_notifications.max_per_key")) {
+            maxPerKey = cfg.getInt("security_notifications.max_per_key").coerceAtLeast(0)
+        }
+        if (cfg.contains("security_notifications.max_staff_messages")) {
+            maxStaffMessages = cfg.getInt("security_notifications.max_staff_messages").coerceAtLeast(0)
+        }
+        if (cfg.contains("security_notifications.max_keys")) {
+            capacity = cfg.getInt("security_notifications.max_keys").coerceIn(16, 1 shl 16)
+        }
+        
+        // Twice the pairs tracked, rounded up to a power of two, keeps the probes short
+        val slots = Integer.highestOneBit(capacity * 2 - 1) shl 1
+        usernames = arrayOfNulls(slots)
+        checks = arrayOfNulls(slots)
+        counts = IntArray(slots)
+        used = IntArray(capacity)
+        size = 0
+        untracked = 0
+        staffMessages = 0
+        windowStart = System.currentTimeMillis()
+    }
+    
+    /**
+     * Counts a violation.
+     *
+     * @param check The check that found the violation.
+     * @param username The name of the player.
+     * @return true if the violation should be logged in full.
+     */
+    fun record(check: PacketCheck, username: String): Boolean {
+        if (usernames.isEmpty()) {
+            return true
+        }
+        
+        val mask = usernames.size - 1
+        var index = (username.hashCode() * 31 + System.identityHashCode(check)) and mask
+        while (true) {
+            val current = usernames[index]
+            if (current == null) {
+                if (size == capacity) {
+                    untracked++
+                    return false
+                }
+                usernames[index] = username
+                checks[index] = check
+                counts[index] = 1
+                used[size++] = index
+                return maxPerKey > 0
+            }
+            if (checks[index] === check && current == username) {
+                return ++counts[index] <= maxPerKey
+            }
+            index = (index + 1) and mask
+        }
+    }
+    
+    /**
+     * Takes one staff chat message from the budget of the window.
+     *
+     * @return true if the message may be sent.
+     */
+    fun allowStaffMessage(): Boolean {
+        if (staffMessages >= maxStaffMessages) {
+            return false
+        }
+        staffMessages++
+        return true
+    }
+    
+    /**
+     * Ends the window when it has passed, logging a summary of the violations that were not logged in full. Called
+     * from the main loop.
+     */
+    fun tick() {
+        val now = System.currentTimeMillis()
+        if (now - windowStart < windowMillis) {
+            return
+        }
+        val seconds = (now - windowStart) / 1000L
+        windowStart = now
+        staffMessages = 0
+        if (size == 0 && untracked == 0) {
+            return
+        }
+        
+        val lines = ArrayList<String>()
+        val staffLines = ArrayList<String>()
+        for (slot in 0 until size) {
+            val index = used[slot]
+            val check = checks[index]!!
+            val count = counts[index]
+            if (count > maxPerKey) {
+                val line = "The player \"${usernames[index]}\" triggered ${name(check)} $count times in ${seconds}s " +
+                    "(${count - maxPerKey} not logged)."
+                lines.add(line)
+                if (check.logMessagesInServerChat) {
+                    staffLines.add(line)
+                }
+            }
+            usernames[index] = null
+            checks[index] = null
+            counts[index] = 0
+        }
+        size = 0
+        if (untracked > 0) {
+            lines.add("$untracked more violation(s) in ${seconds}s from players and checks past the tracking limit.")
+            untracked = 0
+        }
+        
+        if (lines.isEmpty()) {
+            return
+        }
+        SecurityLogger.log(lines.map { ANSIUtils.ANSI_YELLOW + it + ANSIUtils.ANSI_RESET })
+        if (staffLines.isNotEmpty() && maxStaffMessages > 0) {
+            if (staffLines.size > maxStaffMessages) {
+                val hidden = staffLines.size - maxStaffMessages
+                staffLines.subList(maxStaffMessages, staffLines.size).clear()
+                staffLines.add("$hidden more summaries in the security log.")
+            }
+            CraftNail.messageStaff("Security", staffLines)
+        }
+    }
+    
+    private fun name(check: PacketCheck): String =
+        if (check is RuleCheck) check.id else check.javaClass.simpleName
+}
@@ -2,6 +2,7 @@ package com.asledgehammer.craftnail.packet.security
 
 import com.asledgehammer.crafthammer.util.cfg.YamlFile
 import com.asledgehammer.craftnail.CraftNail
+import com.asledgehammer.craftnail.player.PlayerRegistry
 import com.asledgehammer.craftnail.util.IsoUtils
 import java.nio.ByteBuffer
 import zombie.characters.BodyDamage.BodyPartType
@@ -25,7 +26,7 @@ class WoundInfectionDistanceCheck(cfg: YamlFile, id: String) : PacketCheck(cfg,
         val flag = buffer.get() == 1.toByte()
         
         val author = GameServer.getAnyPlayerFromConnection(connection) as IsoPlayer
-        val target = GameServer.IDToPlayerMap[targetId] as IsoPlayer
+        val target = PlayerRegistry.getPlayer(targetId) as IsoPlayer
         
         val distanceMeasured = IsoUtils.getDistance(author, target)
         val check = distance >= distanceMeasured
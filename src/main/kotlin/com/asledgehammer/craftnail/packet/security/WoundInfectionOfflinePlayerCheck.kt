@@ -2,10 +2,10 @@ package com.asledgehammer.craftnail.packet.security
 
 import com.asledgehammer.crafthammer.util.cfg.YamlFile
 import com.asledgehammer.craftnail.CraftNail
+import com.asledgehammer.craftnail.player.PlayerRegistry
 import java.nio.ByteBuffer
 import zombie.characters.BodyDamage.BodyPartType
 import zombie.core.raknet.UdpConnection
-import zombie.network.GameServer
 
 class WoundInfectionOfflinePlayerCheck(cfg: YamlFile, id: String) : PacketCheck(cfg, id) {
     
@@ -22,7 +22,7 @@ class WoundInfectionOfflinePlayerCheck(cfg: YamlFile, id: String) : PacketCheck(
         val bodyPartIndex = buffer.int
         val flag = buffer.get() == 1.toByte()
         
-        val check = GameServer.IDToPlayerMap[targetId] != null
+        val check = PlayerRegistry.getPlayer(targetId) != null
         
         if (!check) {
             fields["body_part"] = BodyPartType.FromIndex(bodyPartIndex).name
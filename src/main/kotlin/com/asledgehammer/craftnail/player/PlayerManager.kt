@@ -10,22 +10,13 @@ import com.asledgehammer.crafthammer.api.event.player.PlayerQuitEvent
 import com.asledgehammer.crafthammer.api.network.Connection
 import com.asledgehammer.craftnail.api.entity.living.CraftPlayer
 import com.asledgehammer.craftnail.api.network.CraftConnection
-import java.util.Collections
-import java.util.Locale
 import zombie.characters.IsoPlayer
 import zombie.core.raknet.UdpConnection
 
 /**
- * Manages player tracking and events.
+ * Manages player tracking and events. The players and connections are kept in the [PlayerRegistry].
  */
 object PlayerManager {
-    // Maps for tracking players, connections, and IDs
-    private val playersByIso = HashMap<IsoPlayer, Player>()
-    private val isosByplayer = HashMap<Player, IsoPlayer>()
-    private val playersByName = HashMap<String, Player>()
-    private val playersById = HashMap<Short, Player>()
-    private val playersByConnection = HashMap<Connection, Player>()
-    private val connectionsByHandle = HashMap<UdpConnection, Connection>()
 
     /**
      * Gets all online players.
@@ -33,7 +24,7 @@ object PlayerManager {
      * @return An unmodifiable collection of all online players.
      */
     val onlinePlayers: Collection<Player>
-        get() = Collections.unmodifiableCollection(playersByIso.values)
+        get() = PlayerRegistry.onlinePlayers
 
     /**
      * Handles the pre-login phase when a player connects.
@@ -51,7 +42,7 @@ object PlayerManager {
 
         // If login was not cancelled, store the connection
         if (!preLoginEvent.cancelled) {
-            connectionsByHandle[udpConnection] = connection
+            PlayerRegistry.attach(udpConnection, connection)
         }
 
         // Return kick message if login was cancelled
@@ -66,7 +57,7 @@ object PlayerManager {
      */
     fun onPostLogin(udpConnection: UdpConnection): Boolean {
         // Get the connection
-        val connection = connectionsByHandle[udpConnection]!!
+        val connection = PlayerRegistry.getApiConnection(udpConnection)!!
 
         // Create and dispatch post-login event
         val postLoginEvent = PostLoginEvent(connection)
@@ -74,7 +65,7 @@ object PlayerManager {
 
         // If login was cancelled, remove the connection
         if (postLoginEvent.cancelled) {
-            connectionsByHandle.remove(udpConnection)
+            PlayerRegistry.detach(udpConnection)
             return false
         }
 
@@ -89,42 +80,27 @@ object PlayerManager {
      */
     fun onJoin(udpConnection: UdpConnection, isoPlayer: IsoPlayer) {
         // Get the connection
-        val connection = connectionsByHandle[udpConnection]!!
+        val connection = PlayerRegistry.getApiConnection(udpConnection)!!
 
-        // Create player and store it in maps
+        // Create player and store it in the registry
         val player = CraftPlayer(connection, isoPlayer)
-        playersByConnection[connection] = player
-        playersByName[isoPlayer.username.lowercase(Locale.getDefault())] = player
-        playersByIso[isoPlayer] = player
-        isosByplayer[player] = isoPlayer
-        playersById[isoPlayer.getID().toShort()] = player
+        PlayerRegistry.setApiPlayer(isoPlayer, player)
 
         // Create and dispatch player join event
         Hammer.instance!!.events.dispatch(PlayerJoinEvent(player))
     }
 
     /**
-     * Handles the quit phase when a player leaves the game.
+     * Handles the quit phase when a player leaves the game. Called before the players of the connection are removed
+     * from the registry.
      *
      * @param udpConnection The connection of the player.
      */
     fun onQuit(udpConnection: UdpConnection) {
-        // Get the connection
-        val connection = connectionsByHandle[udpConnection] ?: return
-        connectionsByHandle.remove(udpConnection)
-
-        // Get the player
-        val player = playersByConnection[connection] ?: return
-        playersByConnection.remove(connection)
-
-        // Create and dispatch player quit event
-        Hammer.instance!!.events.dispatch(PlayerQuitEvent(player))
-
-        // Remove player from maps
-        val isoPlayer = isosByplayer.remove(player) ?: return
-        playersByIso.remove(isoPlayer)
-        playersByName.remove(isoPlayer.username.lowercase(Locale.getDefault()))
-        playersById.remove(isoPlayer.getID().toShort())
+        // Create and dispatch player quit events
+        for (player in PlayerRegistry.getApiPlayers(udpConnection)) {
+            Hammer.instance!!.events.dispatch(PlayerQuitEvent(player))
+        }
     }
 
     /**
@@ -134,7 +110,7 @@ object PlayerManager {
      * @return The API connection.
      */
     fun getConnection(udpConnection: UdpConnection): Connection {
-        return connectionsByHandle[udpConnection]!!
+        return PlayerRegistry.getApiConnection(udpConnection)!!
     }
 
     /**
@@ -144,7 +120,7 @@ object PlayerManager {
      * @return The API player.
      */
     fun getPlayer(isoPlayer: IsoPlayer): Player {
-        return playersByIso[isoPlayer]!!
+        return PlayerRegistry.getApiPlayer(isoPlayer)!!
     }
 
     /**
@@ -154,6 +130,6 @@ object PlayerManager {
      * @return The API player.
      */
     fun getPlayer(udpConnection: UdpConnection): Player {
-        return playersByConnection[connectionsByHandle[udpConnection]]!!
+        return PlayerRegistry.getApiPlayers(udpConnection).first()
     }
 }
\ No newline at end of file
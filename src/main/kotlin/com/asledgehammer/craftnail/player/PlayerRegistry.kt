@@ -0,0 +1,429 @@
+package com.asledgehammer.craftnail.player
+
+import com.asledgehammer.crafthammer.api.entity.Player
+import com.asledgehammer.crafthammer.api.network.Connection
+import java.util.Collections
+import java.util.Locale
+import zombie.characters.IsoPlayer
+import zombie.core.raknet.UdpConnection
+import zombie.iso.Vector2
+import zombie.network.GameServer
+
+/**
+ * The connections and players online, indexed so that every lookup takes constant time.
+ *
+ * Every connection holds a slot, and the online IDs of its players are `slot * 4 + index`. Connections are kept in an
+ * array by slot with a bitmap of the slots in use, and players, their addresses and their API objects in arrays by
+ * online ID. A hash index on GUIDs finds the slot and API connection of a connection, and a hash index on usernames
+ * finds players by name. Usernames match case, so players whose usernames differ only in case are indexed apart.
+ * Display names are indexed in lower case, and GameServer re-indexes a player whenever it changes their display name.
+ *
+ * GameServer updates the registry on login and disconnect. Its `IDToPlayerMap` and `IDToAddressMap` are still written
+ * through the registry, as game classes outside this tree read them, but nothing here reads them anymore. Updated on the
+ * main thread; the lookups by online ID only read arrays and are safe from the pre-check workers.
+ */
+object PlayerRegistry {
+
+    /** The number of connection slots. */
+    const val SLOTS = GameServer.MAX_PLAYERS
+
+    /** The number of players a connection can have. */
+    const val PLAYERS_PER_SLOT = 4
+
+    private const val IDS = SLOTS * PLAYERS_PER_SLOT
+
+    // Connections by slot, and one bit per slot in use
+    private val connections = arrayOfNulls<UdpConnection>(SLOTS)
+    private val usedSlots = LongArray((SLOTS + 63) / 64)
+
+    // By online ID
+    private val players = arrayOfNulls<IsoPlayer>(IDS)
+    private val apiPlayers = arrayOfNulls<Player>(IDS)
+    private val addresses = LongArray(IDS)
+    private val addressed = BooleanArray(IDS)
+    private val coords = arrayOfNulls<Vector2>(IDS)
+
+    // GUID index, with linear probing. A connection is indexed from its login until it disconnects.
+    private var guids = LongArray(SLOTS * 2)
+    private var guidUsed = BooleanArray(SLOTS * 2)
+    private var guidSlots = IntArray(SLOTS * 2)
+    private var guidConnections = arrayOfNulls<Connection>(SLOTS * 2)
+    private var guidCount = 0
+
+    // Players by username and in join order
+    private val byName = HashMap<String, IsoPlayer>()
+    private val online = ArrayList<IsoPlayer>()
+    private val onlineApiPlayers = ArrayList<Player>()
+
+    // Players by lower case display name, listed as names that differ only in case share a key, and the key indexed
+    // for each online ID
+    private val byDisplayName = HashMap<String, ArrayList<IsoPlayer>>()
+    private val displayNameKeys = arrayOfNulls<String>(IDS)
+
+    /** The API players online, in join order. */
+    val onlinePlayers: List<Player> = Collections.unmodifiableList(onlineApiPlayers)
+
+    /**
+     * Finds the first free slot.
+     *
+     * @param limit The number of slots that may be used.
+     * @return The slot, or -1 if every slot is in use.
+     */
+    fun getFreeSlot(limit: Int): Int {
+        val end = limit.coerceAtMost(SLOTS)
+        for (word in usedSlots.indices) {
+            val free = usedSlots[word].inv()
+            if (free == 0L) {
+                continue
+            }
+            val slot = word * 64 + java.lang.Long.numberOfTrailingZeros(free)
+            return if (slot < end) slot else -1
+        }
+        return -1
+    }
+
+    /**
+     * Gives a slot to a connection.
+     */
+    fun connect(slot: Int, connection: UdpConnection) {
+        connections[slot] = connection
+        usedSlots[slot ushr 6] = usedSlots[slot ushr 6] or (1L shl slot)
+        guidSlots[index(connection.getConnectedGUID(), true)] = slot
+        coords[slot * PLAYERS_PER_SLOT] = Vector2()
+    }
+
+    /**
+     * Frees the slot of a connection, with the addresses of its players, and forgets the connection.
+     */
+    fun disconnect(connection: UdpConnection) {
+        val guid = connection.getConnectedGUID()
+        val index = index(guid, false)
+        if (index == -1) {
+            return
+        }
+        val slot = guidSlots[index]
+        if (slot != -1 && connections[slot] === connection) {
+            connections[slot] = null
+            usedSlots[slot ushr 6] = usedSlots[slot ushr 6] and (1L shl slot).inv()
+            for (id in slot * PLAYERS_PER_SLOT until (slot + 1) * PLAYERS_PER_SLOT) {
+                if (addressed[id] && addresses[id] == guid) {
+                    clearAddress(id)
+                }
+                coords[id] = null
+            }
+        }
+        remove(index)
+    }
+
+    /**
+     * Gets the slot of a connection.
+     *
+     * @return The slot, or -1 if the connection has none.
+     */
+    fun getSlot(connection: UdpConnection): Int {
+        val index = index(connection.getConnectedGUID(), false)
+        if (index == -1) {
+            return -1
+        }
+        val slot = guidSlots[index]
+        return if (slot != -1 && connections[slot] === connection) slot else -1
+    }
+
+    /**
+     * Gets the connection in a slot.
+     */
+    fun getConnection(slot: Int): UdpConnection? = if (slot in 0 until SLOTS) connections[slot] else null
+
+    /**
+     * Records the GUID of the connection an online ID belongs to.
+     */
+    fun setAddress(id: Short, guid: Long) {
+        val index = id.toInt()
+        addresses[index] = guid
+        addressed[index] = true
+        GameServer.IDToAddressMap[id] = guid
+    }
+
+    /**
+     * Gets the GUID of the connection an online ID belongs to, or null if the ID is not in use.
+     */
+    fun getAddress(id: Short): Long? {
+        val index = id.toInt()
+        return if (index in 0 until IDS && addressed[index]) addresses[index] else null
+    }
+
+    /**
+     * Gets the GUID of the connection of a player, or null if the player is not online.
+     */
+    fun getAddress(player: IsoPlayer): Long? {
+        val index = player.OnlineID.toInt()
+        return if (index in 0 until IDS && players[index] === player && addressed[index]) addresses[index] else null
+    }
+
+    /**
+     * Gets the player with an online ID.
+     */
+    fun getPlayer(id: Short): IsoPlayer? {
+        val index = id.toInt()
+        return if (index in 0 until IDS) players[index] else null
+    }
+
+    /**
+     * Checks if a player is online.
+     */
+    fun isOnline(player: IsoPlayer): Boolean {
+        val index = player.OnlineID.toInt()
+        return index in 0 until IDS && players[index] === player
+    }
+
+    /**
+     * Adds a player under its online ID.
+     */
+    fun join(id: Short, player: IsoPlayer, guid: Long) {
+        val index = id.toInt()
+        players[index]?.let { leave(it) }
+        players[index] = player
+        setAddress(id, guid)
+        byName[player.username] = player
+        online.add(player)
+        GameServer.IDToPlayerMap[id] = player
+    }
+
+    /**
+     * Removes a player, with the address of its online ID.
+     */
+    fun leave(player: IsoPlayer) {
+        val index = player.OnlineID.toInt()
+        if (index in 0 until IDS && players[index] === player) {
+            players[index] = null
+            apiPlayers[index]?.let { onlineApiPlayers.remove(it) }
+            apiPlayers[index] = null
+            clearAddress(index)
+            displayNameKeys[index]?.let { unindexDisplayName(it, player) }
+            displayNameKeys[index] = null
+        }
+        byName.remove(player.username, player)
+        online.remove(player)
+        GameServer.IDToPlayerMap.remove(player.OnlineID, player)
+    }
+
+    /**
+     * Gets a player by username, matching case.
+     */
+    fun getPlayerByUsername(name: String): IsoPlayer? {
+        return byName[name]
+    }
+
+    /**
+     * Gets a player by display name.
+     *
+     * @param name The display name.
+     * @param ignoreCase Whether to ignore case.
+     */
+    fun getPlayerByDisplayName(name: String, ignoreCase: Boolean): IsoPlayer? {
+        val indexed = byDisplayName[name.lowercase(Locale.ROOT)] ?: return null
+        return indexed.firstOrNull { it.displayName.equals(name, ignoreCase) }
+    }
+
+    /**
+     * Indexes the current display name of an online player. Called whenever its display name is set.
+     */
+    fun updateDisplayName(player: IsoPlayer) {
+        val index = player.OnlineID.toInt()
+        if (index !in 0 until IDS || players[index] !== player) {
+            return
+        }
+        val key = player.displayName?.lowercase(Locale.ROOT)
+        val old = displayNameKeys[index]
+        if (key == old) {
+            return
+        }
+        old?.let { unindexDisplayName(it, player) }
+        displayNameKeys[index] = key
+        if (key != null) {
+            byDisplayName.getOrPut(key) { ArrayList(1) }.add(player)
+        }
+    }
+
+    /**
+     * Gets the first player whose display name starts with a prefix, ignoring case.
+     */
+    fun getPlayerByDisplayNamePrefix(prefix: String): IsoPlayer? {
+        val lower = prefix.lowercase(Locale.ROOT)
+        return online.firstOrNull { it.displayName?.lowercase(Locale.ROOT)?.startsWith(lower) == true }
+    }
+
+    /**
+     * Gets the last position checked for a player moving too fast.
+     */
+    fun getCoords(id: Short): Vector2? {
+        val index = id.toInt()
+        return if (index in 0 until IDS) coords[index] else null
+    }
+
+    /**
+     * Sets the last position checked for a player moving too fast.
+     */
+    fun setCoords(id: Short, position: Vector2) {
+        coords[id.toInt()] = position
+    }
+
+    /**
+     * Indexes the API connection of a connection, from its login.
+     */
+    fun attach(connection: UdpConnection, api: Connection) {
+        guidConnections[index(connection.getConnectedGUID(), true)] = api
+    }
+
+    /**
+     * Forgets the API connection of a connection whose login was cancelled.
+     */
+    fun detach(connection: UdpConnection) {
+        val index = index(connection.getConnectedGUID(), false)
+        if (index == -1) {
+            return
+        }
+        guidConnections[index] = null
+        if (guidSlots[index] == -1) {
+            remove(index)
+        }
+    }
+
+    /**
+     * Gets the API connection of a connection.
+     */
+    fun getApiConnection(connection: UdpConnection): Connection? {
+        val index = index(connection.getConnectedGUID(), false)
+        return if (index == -1) null else guidConnections[index]
+    }
+
+    /**
+     * Sets the API player of an online player.
+     */
+    fun setApiPlayer(player: IsoPlayer, api: Player) {
+        val index = player.OnlineID.toInt()
+        if (index !in 0 until IDS || players[index] !== player) {
+            return
+        }
+        apiPlayers[index]?.let { onlineApiPlayers.remove(it) }
+        apiPlayers[index] = api
+        onlineApiPlayers.add(api)
+        updateDisplayName(player)
+    }
+
+    /**
+     * Gets the API player of an online player.
+     */
+    fun getApiPlayer(player: IsoPlayer): Player? {
+        val index = player.OnlineID.toInt()
+        return if (index in 0 until IDS && players[index] === player) apiPlayers[index] else null
+    }
+
+    /**
+     * Gets the API players of a connection.
+     */
+    fun getApiPlayers(connection: UdpConnection): List<Player> {
+        val slot = getSlot(connection)
+        if (slot == -1) {
+            return emptyList()
+        }
+        val list = ArrayList<Player>(PLAYERS_PER_SLOT)
+        for (id in slot * PLAYERS_PER_SLOT until (slot + 1) * PLAYERS_PER_SLOT) {
+            apiPlayers[id]?.let { list.add(it) }
+        }
+        return list
+    }
+
+    private fun clearAddress(index: Int) {
+        addressed[index] = false
+        addresses[index] = 0L
+        GameServer.IDToAddressMap.remove(index.toShort())
+    }
+
+    private fun unindexDisplayName(key: String, player: IsoPlayer) {
+        val indexed = byDisplayName[key] ?: return
+        indexed.remove(player)
+        if (indexed.isEmpty()) {
+            byDisplayName.remove(key)
+        }
+    }
+
+    /**
+     * Finds the entry of a GUID in the index.
+     *
+     * @param add Whether to add the GUID when it is not indexed.
+     * @return The entry, or -1 if the GUID is not indexed and was not added.
+     */
+    private fun index(guid: Long, add: Boolean): Int {
+        val mask = guids.size - 1
+        var index = mix(guid) and mask
+        while (guidUsed[index]) {
+            if (guids[index] == guid) {
+                return index
+            }
+            index = (index + 1) and mask
+        }
+        if (!add) {
+            return -1
+        }
+        if ((guidCount + 1) * 4 > guids.size * 3) {
+            grow()
+            return index(guid, true)
+        }
+        guids[index] = guid
+        guidUsed[index] = true
+        guidSlots[index] = -1
+        guidConnections[index] = null
+        guidCount++
+        return index
+    }
+
+    /**
+     * Removes an entry from the GUID index, moving back the entries probed past it.
+     */
+    private fun remove(removed: Int) {
+        val mask = guids.size - 1
+        var hole = removed
+        var index = (hole + 1) and mask
+        while (guidUsed[index]) {
+            val home = mix(guids[index]) and mask
+            // Move the entry into the hole if the hole lies between its home and where it is now
+            if ((index - home and mask) >= (index - hole and mask)) {
+                guids[hole] = guids[index]
+                guidSlots[hole] = guidSlots[index]
+                guidConnections[hole] = guidConnections[index]
+                hole = index
+            }
+            index = (index + 1) and mask
+        }
+        guidUsed[hole] = false
+        guids[hole] = 0L
+        guidSlots[hole] = -1
+        guidConnections[hole] = null
+        guidCount--
+    }
+
+    private fun grow() {
+        val oldGuids = guids
+        val oldUsed = guidUsed
+        val oldSlots = guidSlots
+        val oldConnections = guidConnections
+        guids = LongArray(oldGuids.size * 2)
+        guidUsed = BooleanArray(oldGuids.size * 2)
+        guidSlots = IntArray(oldGuids.size * 2)
+        guidConnections = arrayOfNulls(oldGuids.size * 2)
+        guidCount = 0
+        for (old in oldGuids.indices) {
+            if (oldUsed[old]) {
+                val index = index(oldGuids[old], true)
+                guidSlots[index] = oldSlots[old]
+                guidConnections[index] = oldConnections[old]
+            }
+        }
+    }
+
+    private fun mix(guid: Long): Int {
+        val hash = guid * -0x61c8864680b583ebL
+        return (hash xor (hash ushr 32)).toInt()
+    }
+}
@@ -6,42 +6,64 @@ import java.io.BufferedWriter
 import java.io.File
 import java.io.FileReader
 import java.io.FileWriter
-import java.util.Locale
+import java.text.Normalizer
 import zombie.ZomboidFileSystem
 import zombie.debug.DebugLog
 import zombie.debug.DebugType
 
 /**
  * Handles filtering of inappropriate text in chat messages.
+ *
+ * Plain phrases are compiled into one Aho-Corasick automaton and matched in a single pass over the message, however
+ * many are loaded. Phrases using regex syntax are joined into one alternation to test a message, so it is scanned once
+ * for all of them too. Censoring still runs each regex on its own, as an alternation only finds one of the matches of
+ * different phrases that overlap. Messages are folded once before matching: lowercased, with accents removed and, for plain phrases, with
+ * common leet substitutions undone, so "B4DW0RD" matches "badword". Folding keeps every character in place, so the
+ * matches are censored at the same positions in the original message.
  */
 object TextFilter {
-    // Lists for storing patterns and their regex equivalents
+    // The loaded phrases, as written in filters.txt
     private val patterns = ArrayList<String>()
-    private val patternsRegex = ArrayList<Regex>()
-    private val patternsRegexLower = ArrayList<Regex>()
-    private val patternsCensored = HashMap<Regex, String>()
+    
+    // Plain phrases, folded and compiled into an automaton
+    private var automaton = Automaton(emptyList())
+    
+    // Phrases using regex syntax, one pattern each for censoring
+    private var regexes = emptyList<Regex>()
+    
+    // The same phrases joined into one pattern if possible, for testing
+    private var joinedRegexes = emptyList<Regex>()
+    
+    // Characters that make a phrase a regex
+    private const val REGEX_CHARS = "\\^$.|?*+()[]{}"
+    
+    // Regexes that can't be joined into one alternation
+    private val backReference = Regex("""\\[1-9]|\\k<""")
+    
+    // Leet substitutions undone for plain phrases
+    private const val LEET_FROM = "013457@$"
+    private const val LEET_TO = "oieastas"
+    
+    // Folded characters, by character. 0 means not folded yet.
+    private val foldCache = CharArray(65536)
     
     /**
      * Initializes the text filter by loading patterns from the filters.txt file.
      */
     fun init() {
-        // Clear existing patterns if any
-        if (isNotEmpty()) {
-            patterns.clear()
-            patternsRegex.clear()
-            patternsCensored.clear()
-        }
-        
         // Get the path to the filters file
         val cacheDir = ZomboidFileSystem.instance.getCacheDir()
         val fileFilters = File("$cacheDir${File.separator}Server${File.separator}filters.txt")
         
         // Create the file if it doesn't exist
         if (!fileFilters.exists()) {
+            load(emptyList())
             createFile()
             return
         }
         
+        val lines = ArrayList<String>()
+        
         try {
             // Read the file
             val fileReader = FileReader(fileFilters)
@@ -49,22 +71,7 @@ object TextFilter {
             
             var line = bufferedReader.readLine()
             while (line != null) {
-                // Trim the line
-                val trimmedLine = line.trim()
-                
-                // Skip empty lines and comments
-                if (trimmedLine.isEmpty() || trimmedLine.startsWith("#")) {
-                    line = bufferedReader.readLine()
-                    continue
-                }
-                
-                // Check if the pattern is at least 3 characters
-                if (trimmedLine.length >= 3) {
-                    patterns.add(trimmedLine)
-                } else {
-                    println("Craftboid: Filter ignored due to being less than 3 characters in length.")
-                }
-                
+                lines.add(line)
                 line = bufferedReader.readLine()
             }
             
@@ -74,30 +81,60 @@ object TextFilter {
             e.printStackTrace(System.err)
         }
         
-        // Compile patterns
-        if (patterns.isNotEmpty()) {
-            for (pattern in patterns) {
-                // Create regex for exact match
-                val regex = Regex(pattern)
-                patternsRegex.add(regex)
-                
-                // Create lowercase regex for case-insensitive match
-                val lowerPattern = pattern.lowercase(Locale.getDefault())
-                patternsRegexLower.add(Regex(lowerPattern))
-                
-                // Create censored version (first character + asterisks + last character)
-                val first = pattern[0].toString()
-                val body = "*".repeat(maxOf(0, pattern.length - 2))
-                val last = regex.pattern[pattern.length - 1]
-                
-                patternsCensored[regex] = "$first$body$last"
-            }
-        }
+        load(lines)
         
         // Log the number of loaded filters
         DebugLog.log(DebugType.Security, "Loaded ${patterns.size} filter phrase(s).")
     }
     
+    /**
+     * Replaces the loaded patterns with the given lines, in the format of filters.txt.
+     * 
+     * @param lines The lines to load. Empty lines and lines starting with '#' are skipped.
+     */
+    fun load(lines: Collection<String>) {
+        // Clear existing patterns if any
+        patterns.clear()
+        
+        for (line in lines) {
+            // Trim the line
+            val trimmedLine = line.trim()
+            
+            // Skip empty lines and comments
+            if (trimmedLine.isEmpty() || trimmedLine.startsWith("#")) {
+                continue
+            }
+            
+            // Check if the pattern is at least 3 characters
+            if (trimmedLine.length >= 3) {
+                patterns.add(trimmedLine)
+            } else {
+                println("Craftboid: Filter ignored due to being less than 3 characters in length.")
+            }
+        }
+        
+        // Sort the phrases into plain phrases and regexes
+        val literals = ArrayList<String>()
+        val regexSources = ArrayList<String>()
+        for (pattern in patterns) {
+            if (pattern.none { it in REGEX_CHARS }) {
+                literals.add(fold(pattern, true))
+                continue
+            }
+            try {
+                Regex(pattern)
+                regexSources.add(pattern)
+            } catch (e: Exception) {
+                println("Craftboid: Filter '$pattern' is not a valid regex. Matching it as a phrase.")
+                literals.add(fold(pattern, true))
+            }
+        }
+        
+        automaton = Automaton(literals)
+        regexes = regexSources.map { Regex(it, RegexOption.IGNORE_CASE) }
+        joinedRegexes = joinRegexes(regexSources)
+    }
+    
     /**
      * Tests if a string contains any filtered words.
      * 
@@ -110,12 +147,16 @@ object TextFilter {
             return false
         }
         
-        // Convert to lowercase for case-insensitive matching
-        val stringLower = string.lowercase(Locale.getDefault())
+        if (automaton.containsMatch(fold(string, true))) {
+            return true
+        }
+        if (joinedRegexes.isEmpty()) {
+            return false
+        }
         
-        // Check against all patterns
-        for (regex in patternsRegexLower) {
-            if (regex.containsMatchIn(stringLower)) {
+        val stringFolded = fold(string, false)
+        for (regex in joinedRegexes) {
+            if (regex.containsMatchIn(stringFolded)) {
                 return true
             }
         }
@@ -124,25 +165,253 @@ object TextFilter {
     }
     
     /**
-     * Censors filtered words in a string.
+     * Censors filtered words in a string. Each match keeps its first and last character; the rest become asterisks.
      * 
      * @param string The string to censor.
      * @return The censored string.
      */
     fun censor(string: String): String {
-        var s = string
-        
         // Quick checks
-        if (s.isEmpty() || isEmpty()) {
-            return s
+        if (string.isEmpty() || isEmpty()) {
+            return string
+        }
+        
+        // Mark the characters covered by a match
+        val censored = BooleanArray(string.length)
+        var found = automaton.mark(fold(string, true), censored)
+        if (regexes.isNotEmpty()) {
+            val stringFolded = fold(string, false)
+            for (regex in regexes) {
+                for (match in regex.findAll(stringFolded)) {
+                    if (match.range.isEmpty()) {
+                        continue
+                    }
+                    markRange(censored, match.range.first, match.range.last + 1)
+                    found = true
+                }
+            }
+        }
+        if (!found) {
+            return string
+        }
+        
+        val chars = string.toCharArray()
+        for (index in chars.indices) {
+            if (censored[index]) {
+                chars[index] = '*'
+            }
+        }
+        return String(chars)
+    }
+    
+    /**
+     * Marks the characters of a match to be censored, keeping its first and last character.
+     */
+    private fun markRange(censored: BooleanArray, start: Int, end: Int) {
+        for (index in start + 1 until end - 1) {
+            censored[index] = true
+        }
+    }
+    
+    /**
+     * Folds a string for matching, keeping its length: lowercase, without accents and, if [leet] is set, with leet
+     * substitutions undone.
+     */
+    private fun fold(string: String, leet: Boolean): String {
+        val chars = CharArray(string.length)
+        for (index in string.indices) {
+            var char = foldChar(string[index])
+            if (leet) {
+                val leetIndex = LEET_FROM.indexOf(char)
+                if (leetIndex != -1) {
+                    char = LEET_TO[leetIndex]
+                }
+            }
+            chars[index] = char
+        }
+        return String(chars)
+    }
+    
+    private fun foldChar(char: Char): Char {
+        val cached = foldCache[char.code]
+        if (cached != 0.toChar()) {
+            return cached
+        }
+        
+        var folded = Character.toLowerCase(char)
+        if (folded.code >= 0x80) {
+            // Keep the base letter of accented characters
+            val decomposed = Normalizer.normalize(folded.toString(), Normalizer.Form.NFD)
+            if (decomposed.isNotEmpty() && Character.isLetter(decomposed[0])) {
+                folded = decomposed[0]
+            }
+        }
+        if (folded == 0.toChar()) {
+            return folded
+        }
+        foldCache[char.code] = folded
+        return folded
+    }
+    
+    /**
+     * Joins regex phrases into one alternation for [test]. Phrases that can't be joined, such as those with
+     * back-references, keep their own regex.
+     */
+    private fun joinRegexes(sources: List<String>): List<Regex> {
+        if (sources.isEmpty()) {
+            return emptyList()
+        }
+        
+        val joinable = sources.filter { !it.contains(backReference) }
+        val separate = sources.filter { it.contains(backReference) }
+        val result = ArrayList<Regex>()
+        if (joinable.isNotEmpty()) {
+            try {
+                result.add(Regex(joinable.joinToString("|") { "(?:$it)" }, RegexOption.IGNORE_CASE))
+            } catch (e: Exception) {
+                joinable.mapTo(result) { Regex(it, RegexOption.IGNORE_CASE) }
+            }
+        }
+        separate.mapTo(result) { Regex(it, RegexOption.IGNORE_CASE) }
+        return result
+    }
+    
+    /**
+     * An Aho-Corasick automaton over folded phrases. Each node keeps its children in parallel arrays, and the length of
+     * the longest phrase ending at it, following its suffix links.
+     */
+    private class Automaton(phrases: List<String>) {
+        
+        private var keys = arrayOf(CharArray(0))
+        private var children = arrayOf(IntArray(0))
+        private var fail = IntArray(1)
+        private var matchLength = IntArray(1)
+        private var size = 1
+        
+        init {
+            for (phrase in phrases) {
+                insert(phrase)
+            }
+            link()
+        }
+        
+        /**
+         * Checks whether the text contains a phrase.
+         */
+        fun containsMatch(text: String): Boolean {
+            if (size == 1) {
+                return false
+            }
+            var node = 0
+            for (char in text) {
+                node = next(node, char)
+                if (matchLength[node] > 0) {
+                    return true
+                }
+            }
+            return false
+        }
+        
+        /**
+         * Marks every match in the text to be censored.
+         * 
+         * @return true if the text contains a phrase.
+         */
+        fun mark(text: String, censored: BooleanArray): Boolean {
+            if (size == 1) {
+                return false
+            }
+            var found = false
+            var node = 0
+            for (index in text.indices) {
+                node = next(node, text[index])
+                val length = matchLength[node]
+                if (length > 0) {
+                    markRange(censored, index + 1 - length, index + 1)
+                    found = true
+                }
+            }
+            return found
         }
         
-        // Replace filtered words with censored versions
-        for (pattern in patternsRegex) {
-            s = pattern.replace(s, patternsCensored[pattern]!!)
+        private fun next(node: Int, char: Char): Int {
+            var current = node
+            while (true) {
+                val child = child(current, char)
+                if (child != -1) {
+                    return child
+                }
+                if (current == 0) {
+                    return 0
+                }
+                current = fail[current]
+            }
         }
         
-        return s
+        private fun child(node: Int, char: Char): Int {
+            val nodeKeys = keys[node]
+            for (index in nodeKeys.indices) {
+                if (nodeKeys[index] == char) {
+                    return children[node][index]
+                }
+            }
+            return -1
+        }
+        
+        private fun insert(phrase: String) {
+            var node = 0
+            for (char in phrase) {
+                var next = child(node, char)
+                if (next == -1) {
+                    next = add()
+                    keys[node] = keys[node].copyOf(keys[node].size + 1)
+                    keys[node][keys[node].size - 1] = char
+                    children[node] = children[node].copyOf(children[node].size + 1)
+                    children[node][children[node].size - 1] = next
+                }
+                node = next
+            }
+            matchLength[node] = maxOf(matchLength[node], phrase.length)
+        }
+        
+        private fun add(): Int {
+            if (size == fail.size) {
+                val capacity = size * 2
+                keys = keys.copyOf(capacity).let { array -> Array(capacity) { array[it] ?: CharArray(0) } }
+                children = children.copyOf(capacity).let { array -> Array(capacity) { array[it] ?: IntArray(0) } }
+                fail = fail.copyOf(capacity)
+                matchLength = matchLength.copyOf(capacity)
+            }
+            return size++
+        }
+        
+        /**
+         * Sets the suffix links breadth first and carries the longest match of each suffix down to the nodes using it.
+         */
+        private fun link() {
+            val queue = IntArray(size)
+            var head = 0
+            var tail = 0
+            for (child in children[0]) {
+                fail[child] = 0
+                queue[tail++] = child
+            }
+            while (head < tail) {
+                val node = queue[head++]
+                val nodeKeys = keys[node]
+                for (index in nodeKeys.indices) {
+                    val child = children[node][index]
+                    var link = fail[node]
+                    while (link != 0 && child(link, nodeKeys[index]) == -1) {
+                        link = fail[link]
+                    }
+                    val target = child(link, nodeKeys[index])
+                    fail[child] = if (target != -1 && target != child) target else 0
+                    matchLength[child] = maxOf(matchLength[child], matchLength[fail[child]])
+                    queue[tail++] = child
+                }
+            }
+        }
     }
     
     /**
@@ -2,12 +2,24 @@ package com.asledgehammer.craftnail.util.log
 
 import com.asledgehammer.crafthammer.util.console.ANSIUtils
 import com.asledgehammer.craftnail.CraftNail
-import java.io.BufferedWriter
 import java.io.File
+import java.io.FileInputStream
 import java.io.FileOutputStream
-import java.io.OutputStreamWriter
-import java.text.SimpleDateFormat
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.StandardOpenOption
+import java.time.Instant
+import java.time.LocalDate
+import java.time.ZoneId
+import java.time.format.DateTimeFormatter
 import java.util.Date
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+import java.util.concurrent.locks.LockSupport
+import java.util.zip.GZIPOutputStream
 import kotlin.text.Charsets
 import zombie.ZomboidFileSystem
 import zombie.debug.DebugLog
@@ -15,113 +27,349 @@ import zombie.debug.DebugType
 
 /**
  * Logs security-related events to a file.
+ *
+ * Entries are put in a bounded ring buffer by any number of threads without locking and written by one writer thread,
+ * which keeps the log file open. An entry logged while the buffer is full is dropped and counted, so a flood of
+ * violations costs the logging threads nothing more than a failed slot claim; the writer notes the number dropped in
+ * the log. The log is archived when it reaches the configured size or a new day starts, and archives are gzipped in the
+ * background.
  */
 object SecurityLogger {
-    // File to write logs to
+    
+    // Writer settings, from crafthammer.yml
+    private var capacity = 8192
+    private var maxSize = 16L * 1024 * 1024
+    private var rotateDaily = true
+    private var maxArchives = 30
+    
+    // Directory and file to write logs to
+    private lateinit var dir: File
     private lateinit var file: File
     
     // Thread for asynchronous logging
-    private lateinit var thread: Thread
+    @Volatile
+    private var thread: Thread? = null
     
     // Whether the logger is running
+    @Volatile
     private var running = false
     
     // Date format for log entries
-    private val dateFormat = SimpleDateFormat("yyyy-MM-dd' 'HH:mm:ss.SSS")
+    private val dateFormat = DateTimeFormatter.ofPattern("yyyy-MM-dd' 'HH:mm:ss.SSS").withZone(ZoneId.systemDefault())
+    private val archiveFormat = DateTimeFormatter.ofPattern("yyyy-MM-dd")
+    
+    // The ring buffer. A slot is free for the producer at position p when its sequence is p, and holds an entry for
+    // the writer when its sequence is p + 1.
+    private var mask = 0
+    private var sequences = AtomicLongArray(0)
+    private var times = LongArray(0)
+    private var lines = arrayOfNulls<String>(0)
+    private val tail = AtomicLong()
+    private var head = 0L
+    
+    // Entries dropped because the buffer was full
+    private val droppedCount = AtomicLong()
+    private var droppedReported = 0L
+    
+    // The open log file, used by the writer thread only
+    private var channel: FileChannel? = null
+    private var fileDay: LocalDate = LocalDate.now()
+    private var fileSize = 0L
+    private val text = StringBuilder(8192)
+    
+    // Compresses archived logs
+    private var compressor: ExecutorService? = null
     
-    // Queue of log entries to write
-    private val queue = ArrayList<Entry>()
+    /** The number of entries dropped because the buffer was full. */
+    val dropped: Long
+        get() = droppedCount.get()
     
     /**
      * Initializes the security logger.
      */
     fun init() {
         try {
+            val cfg = CraftNail.cfg
+            if (cfg.contains("security_log.buffer_size")) {
+                capacity = cfg.getInt("security_log.buffer_size").coerceIn(64, 1 shl 20)
+            }
+            if (cfg.contains("security_log.max_size_mb")) {
+                maxSize = cfg.getInt("security_log.max_size_mb").toLong() * 1024 * 1024
+            }
+            if (cfg.contains("security_log.rotate_daily")) {
+                rotateDaily = cfg.getBoolean("security_log.rotate_daily")
+            }
+            if (cfg.contains("security_log.max_archives")) {
+                maxArchives = cfg.getInt("security_log.max_archives")
+            }
+            
+            // Round the buffer up to a power of two
+            capacity = Integer.highestOneBit(capacity - 1) shl 1
+            mask = capacity - 1
+            sequences = AtomicLongArray(capacity)
+            for (index in 0 until capacity) {
+                sequences.set(index, index.toLong())
+            }
+            times = LongArray(capacity)
+            lines = arrayOfNulls(capacity)
+            tail.set(0L)
+            head = 0L
+            
             // Create log directory if it doesn't exist
-            val dir = File("${ZomboidFileSystem.instance.getCacheDir()}${File.separator}Logs${File.separator}Craftboid")
+            dir = File("${ZomboidFileSystem.instance.getCacheDir()}${File.separator}Logs${File.separator}Craftboid")
             
             if (!dir.exists() && !dir.mkdirs()) {
                 throw RuntimeException("Cannot make directory: ${dir.path}")
             }
             
-            // Create log file
+            // Open log file
             file = File(dir, "security.log")
+            if (file.exists() && file.length() > 0) {
+                fileDay = Instant.ofEpochMilli(file.lastModified()).atZone(ZoneId.systemDefault()).toLocalDate()
+            }
+            open()
             
-            if (!file.exists()) {
-                file.createNewFile()
+            compressor = Executors.newSingleThreadExecutor { runnable ->
+                val thread = Thread(runnable, "Security_Logger_Gzip_Thread")
+                thread.isDaemon = true
+                thread
             }
             
             // Start logging thread
-            thread = Thread({ 
-                while (running) {
-                    Thread.sleep(1000)
-                    poll()
-                }
-                poll() // One final poll when stopped
-            }, "Security_Logger_Thread")
-            
-            thread.start()
             running = true
+            thread = Thread({ run() }, "Security_Logger_Thread").also { it.start() }
         } catch (e: Exception) {
+            running = false
             CraftNail.logError("Failed to initialize security logger. Security events will not be logged.", e)
         }
     }
     
     /**
-     * Stops the security logger.
+     * Stops the security logger, writing the entries left in the buffer.
      */
     fun stop() {
         running = false
-        poll() // One final poll
+        val thread = thread ?: return
+        this.thread = null
+        LockSupport.unpark(thread)
+        try {
+            thread.join(5000L)
+        } catch (e: InterruptedException) {
+            Thread.currentThread().interrupt()
+        }
+        
+        val compressor = compressor ?: return
+        this.compressor = null
+        compressor.shutdown()
+        try {
+            compressor.awaitTermination(10, TimeUnit.SECONDS)
+        } catch (e: InterruptedException) {
+            Thread.currentThread().interrupt()
+        }
     }
     
     /**
-     * Queues a log entry to be written to the log file.
-     * 
+     * Queues a log entry to be written to the log file. Safe to call from any thread.
+     *
      * @param date The date of the log entry.
      * @param line The log message.
      */
     fun queue(date: Date, line: String) {
-        if (running) {
-            synchronized(queue) {
-                queue.add(Entry(date, line))
+        if (!running) {
+            return
+        }
+        
+        while (true) {
+            val position = tail.get()
+            val index = (position and mask.toLong()).toInt()
+            val available = sequences.get(index) - position
+            if (available < 0L) {
+                droppedCount.incrementAndGet()
+                return
+            }
+            if (available == 0L && tail.compareAndSet(position, position + 1)) {
+                times[index] = date.time
+                lines[index] = line
+                sequences.lazySet(index, position + 1)
+                
+                // Wake the writer early when the buffer fills up
+                if ((position and (mask.toLong() shr 2)) == 0L) {
+                    thread?.let { LockSupport.unpark(it) }
+                }
+                return
             }
         }
     }
     
+    /**
+     * The loop of the writer thread.
+     */
+    private fun run() {
+        while (running) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(100))
+            poll()
+        }
+        poll() // One final poll when stopped
+        try {
+            channel?.close()
+        } catch (e: Exception) {
+            CraftNail.logError("Failed to close the security log.", e)
+        }
+        channel = null
+    }
+    
     /**
      * Writes queued log entries to the log file.
      */
     private fun poll() {
-        synchronized(queue) {
-            if (queue.isEmpty()) {
-                return
+        try {
+            val dropped = droppedCount.get()
+            if (dropped != droppedReported) {
+                append(System.currentTimeMillis(), "${dropped - droppedReported} security log entries dropped: buffer full.")
+                droppedReported = dropped
             }
             
-            // Open file for writing (append mode)
-            OutputStreamWriter(FileOutputStream(file, true), Charsets.UTF_8).use { outputStreamWriter ->
-                val writer = BufferedWriter(outputStreamWriter, 8192)
+            while (true) {
+                val index = (head and mask.toLong()).toInt()
+                if (sequences.get(index) != head + 1) {
+                    break
+                }
+                val time = times[index]
+                val line = lines[index]
+                lines[index] = null
+                sequences.lazySet(index, head + capacity)
+                head++
                 
-                try {
-                    // Write each entry
-                    for (entry in queue) {
-                        writer.write(entry.toString())
-                        writer.newLine()
-                    }
-                    
-                    // Clear queue
-                    queue.clear()
-                } finally {
-                    // Ensure writer is closed
-                    writer.close()
+                append(time, line ?: "")
+                if (text.length >= 8192) {
+                    flush()
+                }
+            }
+            flush()
+        } catch (e: Exception) {
+            text.setLength(0)
+            CraftNail.logError("Failed to write the security log.", e)
+        }
+    }
+    
+    private fun append(time: Long, line: String) {
+        val instant = Instant.ofEpochMilli(time)
+        if (rotateDaily) {
+            val day = instant.atZone(ZoneId.systemDefault()).toLocalDate()
+            if (day.isAfter(fileDay)) {
+                flush()
+                if (fileSize > 0) {
+                    rotate()
                 }
+                fileDay = day
             }
         }
+        text.append('[')
+        dateFormat.formatTo(instant, text)
+        text.append("] ").append(ANSIUtils.strip(line)).append(System.lineSeparator())
+    }
+    
+    private fun flush() {
+        if (text.isEmpty()) {
+            return
+        }
+        val buffer = ByteBuffer.wrap(text.toString().toByteArray(Charsets.UTF_8))
+        text.setLength(0)
+        
+        if (maxSize > 0 && fileSize > 0 && fileSize + buffer.remaining() > maxSize) {
+            rotate()
+        }
+        val channel = channel ?: open()
+        while (buffer.hasRemaining()) {
+            fileSize += channel.write(buffer)
+        }
+    }
+    
+    private fun open(): FileChannel {
+        val opened = FileChannel.open(
+            file.toPath(),
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.APPEND
+        )
+        channel = opened
+        fileSize = opened.size()
+        if (fileSize == 0L) {
+            fileDay = LocalDate.now()
+        }
+        return opened
+    }
+    
+    /**
+     * Renames the log to an archive named after the day it was written and opens a new log. The archive is gzipped on
+     * the compressor thread.
+     */
+    private fun rotate() {
+        channel?.close()
+        channel = null
+        
+        val day = archiveFormat.format(fileDay)
+        var number = 1
+        var archive: File
+        do {
+            archive = File(dir, "security-$day-$number.log")
+            number++
+        } while (archive.exists() || File(dir, "${archive.name}.gz").exists())
+        
+        if (!file.renameTo(archive)) {
+            CraftNail.logError("Failed to archive the security log to ${archive.name}.")
+        }
+        fileDay = LocalDate.now()
+        open()
+        
+        val compressor = compressor
+        if (compressor == null || compressor.isShutdown) {
+            return
+        }
+        compressor.execute {
+            compress(archive)
+            prune()
+        }
+    }
+    
+    private fun compress(archive: File) {
+        if (!archive.exists()) {
+            return
+        }
+        val target = File(dir, "${archive.name}.gz")
+        try {
+            FileInputStream(archive).use { input ->
+                GZIPOutputStream(FileOutputStream(target), 65536).use { output ->
+                    input.copyTo(output, 65536)
+                }
+            }
+            archive.delete()
+        } catch (e: Exception) {
+            target.delete()
+            CraftNail.logError("Failed to compress the security log archive ${archive.name}.", e)
+        }
+    }
+    
+    /**
+     * Deletes the oldest archives beyond the configured count.
+     */
+    private fun prune() {
+        if (maxArchives <= 0) {
+            return
+        }
+        val archives = dir.listFiles { _, name -> name.startsWith("security-") && name.endsWith(".log.gz") } ?: return
+        if (archives.size <= maxArchives) {
+            return
+        }
+        archives.sortBy { it.lastModified() }
+        for (index in 0 until archives.size - maxArchives) {
+            archives[index].delete()
+        }
     }
     
     /**
      * Logs messages to the debug console and queues them for the log file.
-     * 
+     *
      * @param list The list of messages to log.
      */
     fun log(list: List<Any?>) {
@@ -141,7 +389,7 @@ object SecurityLogger {
     
     /**
      * Logs messages to the debug console and queues them for the log file.
-     * 
+     *
      * @param objects The messages to log.
      */
     fun log(vararg objects: Any?) {
@@ -158,13 +406,4 @@ object SecurityLogger {
             }
         }
     }
-    
-    /**
-     * A log entry with a timestamp and message.
-     */
-    private class Entry(val date: Date, val line: String) {
-        override fun toString(): String {
-            return "[${dateFormat.format(date)}] ${ANSIUtils.strip(line)}"
-        }
-    }
 }
@@ -3,6 +3,7 @@
 package com.asledgehammer.sledgehammer.plugin
 
 import com.asledgehammer.crafthammer.util.cfg.CFGSection
+import com.asledgehammer.craftnail.hook.TickProfiler
 import com.asledgehammer.sledgehammer.Sledgehammer
 import java.io.File
 import java.util.*
@@ -36,6 +37,17 @@ open class Module {
   var enabled: Boolean = false
     internal set
 
+  /**
+   * The number of server ticks between calls to [onTick]. The delta passed to [onTick] covers the whole time since the
+   * previous call.
+   */
+  open val tickInterval: Int
+    get() = 1
+
+  private var ticksSkipped = 0
+  private var pendingDelta = 0L
+  private var profile: TickProfiler.Stats? = null
+
   /**
    * @return Returns true if the Module loads successfully.
    */
@@ -67,7 +79,19 @@ open class Module {
    * @param delta The latency in milliseconds since the last tick.
    */
   internal fun tick(delta: Long) {
-    if (enabled) onTick(delta)
+    if (!enabled) return
+    pendingDelta += delta
+    if (++ticksSkipped < tickInterval) return
+    val elapsed = pendingDelta
+    ticksSkipped = 0
+    pendingDelta = 0L
+    val profile = profile ?: TickProfiler.stats("${plugin.properties.name}/${properties.name}").also { profile = it }
+    TickProfiler.begin(profile)
+    try {
+      onTick(elapsed)
+    } finally {
+      TickProfiler.end()
+    }
   }
 
   /**
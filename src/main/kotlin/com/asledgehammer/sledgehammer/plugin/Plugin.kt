@@ -11,9 +11,7 @@ import java.io.File
 import java.io.FileOutputStream
 import java.io.IOException
 import java.io.InputStream
-import java.net.URLClassLoader
 import java.util.*
-import java.util.jar.JarEntry
 import java.util.jar.JarFile
 
 /**
@@ -52,27 +50,39 @@ class Plugin(private val file: File) {
   private var loadClasses = true
 
   fun init() {
-    // create properties.
     try {
-      val inputStream: InputStream = getResource("plugin.yml")
-        ?: throw RuntimeException("plugin.yml is not found in the plugin: ${file.name}")
-      val cfg = YamlFile(null)
-      cfg.read(inputStream)
-      properties = Properties(cfg)
-      inputStream.close()
-      directory = File(Plugins.directory, properties.name + File.separator)
+      readProperties()
     } catch (e: IOException) {
       e.printStackTrace()
     }
+    createModules(emptyList())
+  }
 
-    // create modules.
-    try {
-      if (loadClasses) classLoader = loadJarClasses(file)
-      for ((key, value) in properties.modules) {
-        modules[key] = instantiateModule(value)
-      }
-    } catch (e: IOException) {
-      e.printStackTrace()
+  /**
+   * Reads plugin.yml. Touches no classes of the plugin, so plugins can be read in parallel.
+   */
+  @Throws(IOException::class)
+  internal fun readProperties() {
+    val inputStream: InputStream = getResource("plugin.yml")
+      ?: throw RuntimeException("plugin.yml is not found in the plugin: ${file.name}")
+    inputStream.use {
+      val cfg = YamlFile(null)
+      cfg.read(it)
+      properties = Properties(cfg)
+    }
+    directory = File(Plugins.directory, properties.name + File.separator)
+  }
+
+  /**
+   * Creates the class loader of the plugin and instantiates its modules. Classes are loaded as the module classes
+   * reference them, not up front.
+   *
+   * @param dependencies The plugins whose classes this plugin can use.
+   */
+  internal fun createModules(dependencies: List<Plugin>) {
+    if (loadClasses) classLoader = PluginClassLoader(file, dependencies.map { it.classLoader })
+    for ((key, value) in properties.modules) {
+      modules[key] = instantiateModule(value)
     }
   }
 
@@ -385,46 +395,6 @@ class Plugin(private val file: File) {
 
   companion object {
 
-    /** TODO: Document. */
-    @Throws(IOException::class)
-    private fun loadJarClasses(fileJar: File): ClassLoader {
-      val url = fileJar.toURI().toURL()
-      val urls = arrayOf(url)
-      val loader: ClassLoader = URLClassLoader(urls)
-      val listClasses = ArrayList<String>()
-      val jarFile = JarFile(fileJar)
-      val e: Enumeration<*> = jarFile.entries()
-      while (e.hasMoreElements()) {
-        val entry = e.nextElement() as JarEntry
-        if (entry.isDirectory || !entry.name.endsWith(".class")) continue
-        var className = entry.name.substring(0, entry.name.length - 6)
-        className = className.replace('/', '.')
-        listClasses.add(className)
-      }
-      jarFile.close()
-      // Loads all classes in the JAR file.
-      for (clazz in listClasses) {
-        try {
-          loader.loadClass(clazz)
-        } catch (error: ClassNotFoundException) {
-          Sledgehammer.logError("Jar->Class not found: $clazz")
-          try {
-            ClassLoader.getSystemClassLoader().loadClass(clazz)
-          } catch (error2: Exception) {
-            Sledgehammer.logError("System->Class not found: $clazz")
-          }
-        } catch (error: NoClassDefFoundError) {
-          Sledgehammer.logError("Jar->Class not found: $clazz")
-          try {
-            ClassLoader.getSystemClassLoader().loadClass(clazz)
-          } catch (error2: Exception) {
-            Sledgehammer.logError("System->Class not found: $clazz")
-          }
-        }
-      }
-      return loader
-    }
-
     /** TODO: Document. */
     fun getClassLiteral(clazz: Class<*>): String = "${clazz.getPackage().name}.${clazz.simpleName}"
   }
@@ -450,6 +420,9 @@ class Plugin(private val file: File) {
     /** TODO: Document. */
     val description: String?
 
+    /** The names of the plugins that must load before this one. Their classes are visible to this plugin. */
+    val depends: List<String>
+
     init {
       require(cfg.contains("name")) { """The "name" field is not defined in the plugin.yml.""" }
       require(cfg.contains("version")) { """The "version" field is not defined in the plugin.yml.""" }
@@ -469,6 +442,8 @@ class Plugin(private val file: File) {
       } else {
         null
       }
+
+      depends = if (cfg.contains("depends")) cfg.getStringList("depends") else emptyList()
     }
   }
 }
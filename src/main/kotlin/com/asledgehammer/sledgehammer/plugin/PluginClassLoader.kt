@@ -0,0 +1,46 @@
+package com.asledgehammer.sledgehammer.plugin
+
+import com.asledgehammer.crafthammer.api.event.HandleWrapper
+import com.asledgehammer.crafthammer.api.event.InvokerHost
+import java.io.File
+import java.lang.invoke.MethodHandles
+import java.net.URLClassLoader
+
+/**
+ * **PluginClassLoader** loads the classes of a plugin jar on demand. Classes not found in the server or the jar are
+ * looked up in the plugins it depends on.
+ *
+ * The loader also defines its own copy of [InvokerHost], so the event and command handlers of the plugin get generated
+ * invokers like the server's own.
+ *
+ * @author Jab
+ *
+ * @param file The plugin jar.
+ * @property dependencies The class loaders of the plugins depended on.
+ */
+internal class PluginClassLoader(file: File, private val dependencies: List<ClassLoader>) :
+  URLClassLoader(arrayOf(file.toURI().toURL()), Plugin::class.java.classLoader), HandleWrapper.LookupProvider {
+
+  private val invokerLookup: MethodHandles.Lookup by lazy {
+    val name = InvokerHost::class.java.name
+    val bytes = InvokerHost::class.java.getResourceAsStream("/${name.replace('.', '/')}.class")!!.use { it.readBytes() }
+    val host = defineClass(name, bytes, 0, bytes.size)
+    host.getMethod("lookup").invoke(null) as MethodHandles.Lookup
+  }
+
+  override fun getInvokerLookup(): MethodHandles.Lookup = invokerLookup
+
+  override fun findClass(name: String): Class<*> {
+    try {
+      return super.findClass(name)
+    } catch (e: ClassNotFoundException) {
+      for (dependency in dependencies) {
+        try {
+          return dependency.loadClass(name)
+        } catch (ignored: ClassNotFoundException) {
+        }
+      }
+      throw e
+    }
+  }
+}
@@ -4,6 +4,7 @@ package com.asledgehammer.sledgehammer.plugin
 
 import com.asledgehammer.sledgehammer.Sledgehammer
 import java.io.File
+import java.util.stream.Collectors
 
 /**
  * **Plugins** TODO: Document.
@@ -33,21 +34,31 @@ object Plugins {
       require(Plugins.directory.mkdirs()) { "Failed to create directory: \"${Plugins.directory.path}\"" }
     }
 
+    // Read every plugin.yml in parallel. No plugin classes are loaded here.
+    val jars = directory.listFiles()
+      ?.filter { file -> file.isFile && file.extension.equals("jar", true) }
+      ?.sortedBy { it.name }
+      ?: emptyList()
+    val read = jars.parallelStream().map { jar -> readPlugin(jar) }.collect(Collectors.toList()).filterNotNull()
+
+    // Create the modules of each plugin after the plugins it depends on.
     var loadedModules = 0
     var loadedPlugins = 0
-    val plugins = directory.listFiles()
-    if (plugins != null && plugins.isNotEmpty()) {
-      for (jar in plugins.filter { file -> file.isFile && file.extension.equals("jar", true) }) {
-        try {
-          require(jar.exists()) { "Jar file not found: ${jar.absolutePath}" }
-          val plugin = Plugin(jar)
-          plugin.init()
-          pluginsToLoad.add(plugin)
-          loadedModules += plugin.modules.size
-          loadedPlugins++
-        } catch (e: Exception) {
-          e.printStackTrace()
-        }
+    val created = HashMap<String, Plugin>()
+    for (plugin in sortByDependencies(read)) {
+      val missing = plugin.properties.depends.filter { it !in created }
+      if (missing.isNotEmpty()) {
+        Sledgehammer.logError("Plugin ${plugin.properties.name} is missing dependencies: ${missing.joinToString(", ")}")
+        continue
+      }
+      try {
+        plugin.createModules(plugin.properties.depends.map { created[it]!! })
+        created[plugin.properties.name] = plugin
+        pluginsToLoad.add(plugin)
+        loadedModules += plugin.modules.size
+        loadedPlugins++
+      } catch (e: Exception) {
+        e.printStackTrace()
       }
     }
 
@@ -66,6 +77,48 @@ object Plugins {
     pluginsToLoad.clear()
   }
 
+  private fun readPlugin(jar: File): Plugin? {
+    return try {
+      val plugin = Plugin(jar)
+      plugin.readProperties()
+      plugin
+    } catch (e: Exception) {
+      Sledgehammer.logError("Failed to read plugin: ${jar.name}", e)
+      null
+    }
+  }
+
+  /**
+   * Orders plugins so that each comes after the plugins it depends on, keeping the given order otherwise. Plugins with
+   * a duplicate name or in a dependency cycle are left out.
+   */
+  private fun sortByDependencies(plugins: List<Plugin>): List<Plugin> {
+    val byName = LinkedHashMap<String, Plugin>()
+    for (plugin in plugins) {
+      val name = plugin.properties.name
+      if (name in byName) {
+        Sledgehammer.logError("Duplicate plugin name: $name. Skipping ${plugin.jarFile.name}")
+        continue
+      }
+      byName[name] = plugin
+    }
+
+    val sorted = ArrayList<Plugin>(byName.size)
+    val remaining = LinkedHashMap(byName)
+    while (remaining.isNotEmpty()) {
+      val ready = remaining.values.filter { plugin -> plugin.properties.depends.none { it in remaining } }
+      if (ready.isEmpty()) {
+        Sledgehammer.logError("Circular plugin dependencies: ${remaining.keys.joinToString(", ")}")
+        break
+      }
+      for (plugin in ready) {
+        sorted.add(plugin)
+        remaining.remove(plugin.properties.name)
+      }
+    }
+    return sorted
+  }
+
   /** TODO: Document. */
   @JvmStatic
   fun enable() {